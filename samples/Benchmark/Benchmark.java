@@ -0,0 +1,403 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.StringTokenizer;
+import java.util.Vector;
+
+import org.apache.xml.dtm.DTMManager;
+
+/**
+ * Micro-benchmark driver for the interpretive and XSLTC processors.
+ *
+ * <p>Each benchmark is run for every requested engine and input size
+ * and reported on one line, so that the two engines can be compared side
+ * by side.  A benchmark run consists of a number of unmeasured warmup
+ * operations followed by measured operations, optionally spread over
+ * several threads sharing one compiled stylesheet.</p>
+ *
+ * <pre>
+ * java Benchmark [-bench name,...] [-engine xalan|xsltc|both]
+ *                [-size 1k,64k,1m,...] [-warmup n] [-iterations n]
+ *                [-threads n] [-xsl dir] [-dir dir]
+ * </pre>
+ *
+ * See README.benchmark for the list of benchmarks.
+ */
+public class Benchmark
+{
+  /** Stylesheet driven benchmarks, one stylesheet per name in xsl/. */
+  public static final String[] TRANSFORMS = {
+    "identity", "keys", "sort", "number", "recursion", "grouping",
+    "serializer"
+  };
+
+  /** Benchmarks that isolate one stage of the pipeline. */
+  public static final String[] STAGES = {
+    "dtm", "dtm-lookup", "new-transformer", "serialize-only", "compile",
+    "startup", "parse", "streaming", "serializer-pool", "parallel-build",
+    "dispatch"
+  };
+
+  private String[] m_benchmarks = concat(TRANSFORMS, STAGES);
+  private String[] m_engines = { BenchmarkTask.XALAN, BenchmarkTask.XSLTC };
+  private long[] m_sizes = { 1024L, 64 * 1024L, 1024 * 1024L };
+  private int m_warmup = 5;
+  private int m_iterations = 20;
+  private int m_threads = 1;
+  private File m_xslDir = new File("xsl");
+  private File m_workDir = new File(System.getProperty("java.io.tmpdir"));
+  private final PrintStream m_out = System.out;
+
+  public static void main(String[] args) throws Exception
+  {
+    Benchmark benchmark = new Benchmark();
+    if (!benchmark.parseArgs(args))
+    {
+      usage();
+      System.exit(1);
+    }
+    benchmark.runAll();
+  }
+
+  private static void usage()
+  {
+    System.err.println(
+      "Usage: java Benchmark [-bench name,...] [-engine xalan|xsltc|both]\n"
+    + "                      [-size 1k,64k,1m,...] [-warmup n]"
+    + " [-iterations n]\n"
+    + "                      [-threads n] [-xsl dir] [-dir dir]");
+  }
+
+  /**
+   * @return false if the arguments are not understood.
+   */
+  boolean parseArgs(String[] args)
+  {
+    for (int i = 0; i < args.length; i++)
+    {
+      String arg = args[i];
+      if (i + 1 >= args.length)
+        return false;
+      String value = args[++i];
+
+      if ("-bench".equals(arg))
+        m_benchmarks = split(value);
+      else if ("-engine".equals(arg))
+        m_engines = "both".equals(value)
+                    ? new String[] { BenchmarkTask.XALAN, BenchmarkTask.XSLTC }
+                    : split(value);
+      else if ("-size".equals(arg))
+      {
+        String[] sizes = split(value);
+        m_sizes = new long[sizes.length];
+        for (int j = 0; j < sizes.length; j++)
+          m_sizes[j] = parseSize(sizes[j]);
+      }
+      else if ("-warmup".equals(arg))
+        m_warmup = Integer.parseInt(value);
+      else if ("-iterations".equals(arg))
+        m_iterations = Integer.parseInt(value);
+      else if ("-threads".equals(arg))
+        m_threads = Integer.parseInt(value);
+      else if ("-xsl".equals(arg))
+        m_xslDir = new File(value);
+      else if ("-dir".equals(arg))
+        m_workDir = new File(value);
+      else
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Run every benchmark for every size and engine, printing one line
+   * per combination.
+   */
+  public void runAll() throws Exception
+  {
+    m_out.println("DTM node bits: " + DTMManager.IDENT_DTM_NODE_BITS
+                + " (set with -D" + DTMManager.IDENT_DTM_NODE_BITS_PROPERTY
+                + ")");
+    m_out.println("benchmark        engine          size      threads"
+                + "    ops/s     MB/s  alloc MB/s  alloc KB/op"
+                + "   p50 ms   p90 ms   p99 ms   max ms");
+
+    for (int s = 0; s < m_sizes.length; s++)
+    {
+      File input = DocumentGenerator.getDocument(m_workDir, m_sizes[s]);
+      for (int b = 0; b < m_benchmarks.length; b++)
+      {
+        BenchmarkTask[] tasks = createTasks(m_benchmarks[b]);
+        for (int t = 0; t < tasks.length; t++)
+        {
+          tasks[t].setInput(input);
+          Measurement m = measure(tasks[t]);
+          report(tasks[t], m_sizes[s], m);
+        }
+      }
+    }
+  }
+
+  /**
+   * Create the tasks for one benchmark name, one per engine where the
+   * engine matters.
+   */
+  BenchmarkTask[] createTasks(String name)
+  {
+    if ("serialize-only".equals(name))
+    {
+      return new BenchmarkTask[] {
+        new SerializeTask("xml", "UTF-8"),
+        new SerializeTask("xml", "ISO-8859-1"),
+        new SerializeTask("html", "UTF-8")
+      };
+    }
+
+    if ("compile".equals(name))
+    {
+      return new BenchmarkTask[] {
+        new CompileTask(m_xslDir, m_workDir, 1),
+        new CompileTask(m_xslDir, m_workDir, 2),
+        new CompileTask(m_xslDir, m_workDir, 4),
+        new CompileTask(m_xslDir, m_workDir, 8)
+      };
+    }
+
+    if ("startup".equals(name))
+      return new BenchmarkTask[] { new StartupTask(m_xslDir, m_workDir) };
+
+    if ("parse".equals(name))
+    {
+      return new BenchmarkTask[] {
+        new ParseTask(ParseTask.POOLED),
+        new ParseTask(ParseTask.NEW)
+      };
+    }
+
+    if ("streaming".equals(name))
+    {
+      File stylesheet = new File(m_xslDir, "identity.xsl");
+      return new BenchmarkTask[] {
+        new StreamingTask(stylesheet, false),
+        new StreamingTask(stylesheet, true)
+      };
+    }
+
+    if ("parallel-build".equals(name))
+    {
+      return new BenchmarkTask[] {
+        new ParallelBuildTask(1),
+        new ParallelBuildTask(2),
+        new ParallelBuildTask(4),
+        new ParallelBuildTask(8)
+      };
+    }
+
+    if ("dispatch".equals(name))
+    {
+      return new BenchmarkTask[] {
+        new DispatchTask(m_workDir, false),
+        new DispatchTask(m_workDir, true)
+      };
+    }
+
+    if ("serializer-pool".equals(name))
+    {
+      File stylesheet = new File(m_xslDir, "serializer.xsl");
+      BenchmarkTask[] tasks = new BenchmarkTask[2 * m_engines.length];
+      for (int e = 0; e < m_engines.length; e++)
+      {
+        tasks[2 * e] = new SerializerPoolTask(m_engines[e], false, stylesheet);
+        tasks[2 * e + 1] = new SerializerPoolTask(m_engines[e], true, stylesheet);
+      }
+      return tasks;
+    }
+
+    BenchmarkTask[] tasks = new BenchmarkTask[m_engines.length];
+    for (int e = 0; e < m_engines.length; e++)
+    {
+      if ("dtm".equals(name))
+        tasks[e] = new DTMBuildTask(m_engines[e]);
+      else if ("dtm-lookup".equals(name))
+        tasks[e] = new DTMLookupTask(m_engines[e]);
+      else if ("new-transformer".equals(name))
+        tasks[e] = new NewTransformerTask(m_engines[e],
+                                          new File(m_xslDir, "serializer.xsl"));
+      else
+        tasks[e] = new TransformTask(name, m_engines[e],
+                                     new File(m_xslDir, name + ".xsl"));
+    }
+    return tasks;
+  }
+
+  /**
+   * Warm a task up and then measure it on the configured number of
+   * threads.
+   */
+  Measurement measure(final BenchmarkTask task) throws Exception
+  {
+    task.setUp();
+    try
+    {
+      for (int i = 0; i < m_warmup; i++)
+        task.run();
+
+      final Measurement m = new Measurement(m_iterations * m_threads);
+      final Exception[] failure = new Exception[1];
+      Thread[] workers = new Thread[m_threads];
+      for (int t = 0; t < m_threads; t++)
+      {
+        workers[t] = new Thread()
+        {
+          public void run()
+          {
+            try
+            {
+              for (int i = 0; i < m_iterations; i++)
+              {
+                long alloc = Measurement.allocatedBytes();
+                long start = Measurement.nanoTime();
+                task.run();
+                long elapsed = Measurement.nanoTime() - start;
+                m.add(elapsed, (alloc < 0) ? -1
+                               : Measurement.allocatedBytes() - alloc);
+              }
+            }
+            catch (Exception e)
+            {
+              synchronized (failure)
+              {
+                failure[0] = e;
+              }
+            }
+          }
+        };
+      }
+
+      long start = Measurement.nanoTime();
+      for (int t = 0; t < m_threads; t++)
+        workers[t].start();
+      for (int t = 0; t < m_threads; t++)
+        workers[t].join();
+      m.setWallTime(Measurement.nanoTime() - start);
+
+      if (failure[0] != null)
+        throw failure[0];
+      return m;
+    }
+    finally
+    {
+      task.tearDown();
+    }
+  }
+
+  private void report(BenchmarkTask task, long size, Measurement m)
+  {
+    double ops = m.getThroughput();
+    double mbs = ops * task.getBytesPerOperation() / (1024.0 * 1024.0);
+    double allocRate = m.getAllocationRate();
+    double allocOp = m.getAllocationPerOperation();
+
+    StringBuffer line = new StringBuffer(160);
+    pad(line, task.getName(), -17);
+    pad(line, task.getEngine(), -16);
+    pad(line, formatSize(size), -10);
+    pad(line, String.valueOf(m_threads), 7);
+    pad(line, format(ops), 9);
+    pad(line, format(mbs), 9);
+    pad(line, (allocRate < 0) ? "n/a" : format(allocRate), 12);
+    pad(line, (allocOp < 0) ? "n/a" : format(allocOp / 1024.0), 13);
+    pad(line, format(m.getPercentile(50)), 9);
+    pad(line, format(m.getPercentile(90)), 9);
+    pad(line, format(m.getPercentile(99)), 9);
+    pad(line, format(m.getPercentile(100)), 9);
+    m_out.println(line.toString());
+  }
+
+  /**
+   * Append <code>s</code> padded to <code>width</code> characters; a
+   * negative width left-aligns.
+   */
+  private static void pad(StringBuffer buf, String s, int width)
+  {
+    int w = Math.abs(width);
+    if (width > 0)
+      for (int i = s.length(); i < w; i++)
+        buf.append(' ');
+    buf.append(s);
+    if (width < 0)
+      for (int i = s.length(); i < w; i++)
+        buf.append(' ');
+  }
+
+  private static String format(double d)
+  {
+    if (d >= 100)
+      return String.valueOf(Math.round(d));
+    return String.valueOf(Math.round(d * 100) / 100.0);
+  }
+
+  static String formatSize(long size)
+  {
+    if (size >= 1024L * 1024L && size % (1024L * 1024L) == 0)
+      return (size / (1024L * 1024L)) + "m";
+    if (size >= 1024L && size % 1024L == 0)
+      return (size / 1024L) + "k";
+    return String.valueOf(size);
+  }
+
+  static long parseSize(String s)
+  {
+    s = s.toLowerCase();
+    long unit = 1;
+    char last = s.charAt(s.length() - 1);
+    if (last == 'k')
+      unit = 1024L;
+    else if (last == 'm')
+      unit = 1024L * 1024L;
+    else if (last == 'g')
+      unit = 1024L * 1024L * 1024L;
+    if (unit != 1)
+      s = s.substring(0, s.length() - 1);
+    return Long.parseLong(s) * unit;
+  }
+
+  static String[] split(String list)
+  {
+    StringTokenizer st = new StringTokenizer(list, ",");
+    Vector v = new Vector();
+    while (st.hasMoreTokens())
+      v.addElement(st.nextToken().trim());
+    String[] result = new String[v.size()];
+    v.copyInto(result);
+    return result;
+  }
+
+  static String[] concat(String[] a, String[] b)
+  {
+    String[] result = new String[a.length + b.length];
+    System.arraycopy(a, 0, result, 0, a.length);
+    System.arraycopy(b, 0, result, a.length, b.length);
+    return result;
+  }
+}
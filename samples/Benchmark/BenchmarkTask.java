@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+import java.io.File;
+
+/**
+ * One unit of measured work.  The driver calls {@link #setUp} once,
+ * then {@link #run} for every warmup and measurement iteration (possibly
+ * from several threads at once), and finally {@link #tearDown}.
+ * Implementations must therefore keep any per-operation state local to
+ * {@link #run}.
+ */
+public abstract class BenchmarkTask
+{
+  /** Engine label used for the interpretive processor. */
+  public static final String XALAN = "xalan";
+
+  /** Engine label used for the compiling processor. */
+  public static final String XSLTC = "xsltc";
+
+  /** Class name of the interpretive TransformerFactory. */
+  public static final String XALAN_FACTORY =
+    "org.apache.xalan.processor.TransformerFactoryImpl";
+
+  /** Class name of the XSLTC TransformerFactory. */
+  public static final String XSLTC_FACTORY =
+    "org.apache.xalan.xsltc.trax.TransformerFactoryImpl";
+
+  /** The benchmark name, for example "sort" or "dtm". */
+  protected final String m_name;
+
+  /** The engine label, {@link #XALAN}, {@link #XSLTC} or another label. */
+  protected final String m_engine;
+
+  /** The input document, may be null for tasks that need none. */
+  protected File m_input;
+
+  protected BenchmarkTask(String name, String engine)
+  {
+    m_name = name;
+    m_engine = engine;
+  }
+
+  public String getName()
+  {
+    return m_name;
+  }
+
+  public String getEngine()
+  {
+    return m_engine;
+  }
+
+  /**
+   * Set the input document this task works on.
+   */
+  public void setInput(File input)
+  {
+    m_input = input;
+  }
+
+  /**
+   * Number of input bytes consumed by one call to {@link #run}, used to
+   * report MB/s.  Defaults to the length of the input document.
+   */
+  public long getBytesPerOperation()
+  {
+    return (m_input == null) ? 0 : m_input.length();
+  }
+
+  /**
+   * Prepare anything that should not be measured, such as compiling a
+   * stylesheet or parsing the input into a DOM.
+   */
+  public void setUp() throws Exception
+  {
+  }
+
+  /**
+   * Perform one measured operation.
+   */
+  public abstract void run() throws Exception;
+
+  /**
+   * Release resources acquired in {@link #setUp}.
+   */
+  public void tearDown() throws Exception
+  {
+  }
+
+  /**
+   * Return a TransformerFactory class name for an engine label.
+   */
+  public static String factoryFor(String engine)
+  {
+    return XSLTC.equals(engine) ? XSLTC_FACTORY : XALAN_FACTORY;
+  }
+}
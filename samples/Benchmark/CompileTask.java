@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.xalan.xsltc.trax.TransformerFactoryImpl;
+
+/**
+ * Measures compiling a corpus of stylesheets with XSLTC, as a service
+ * does when it starts.  The corpus is made of copies of the benchmark
+ * stylesheets, written to the -dir directory on first use.  With one
+ * thread each stylesheet is compiled by newTemplates(Source); with more
+ * the whole corpus is passed to the batch newTemplates(Source[], int).
+ */
+public class CompileTask extends BenchmarkTask
+{
+  /** Number of stylesheets in the corpus. */
+  public static final int CORPUS_SIZE = 300;
+
+  private final File m_xslDir;
+
+  private final File m_corpusDir;
+
+  private final int m_threads;
+
+  private Source[] m_sources;
+
+  private long m_bytes;
+
+  public CompileTask(File xslDir, File workDir, int threads)
+  {
+    super("compile", XSLTC + "/" + threads);
+    m_xslDir = xslDir;
+    m_corpusDir = new File(workDir, "compile-corpus");
+    m_threads = threads;
+  }
+
+  public long getBytesPerOperation()
+  {
+    return m_bytes;
+  }
+
+  public void setUp() throws Exception
+  {
+    File[] corpus = getCorpus();
+    m_sources = new Source[corpus.length];
+    m_bytes = 0;
+    for (int i = 0; i < corpus.length; i++)
+    {
+      m_bytes += corpus[i].length();
+    }
+  }
+
+  public void run() throws Exception
+  {
+    // Sources are single use when they wrap streams; these only hold
+    // system ids, but build new ones anyway as a real caller would.
+    File[] corpus = getCorpus();
+    for (int i = 0; i < corpus.length; i++)
+    {
+      m_sources[i] = new StreamSource(corpus[i]);
+    }
+
+    TransformerFactoryImpl factory = new TransformerFactoryImpl();
+    if (m_threads == 1)
+    {
+      for (int i = 0; i < m_sources.length; i++)
+        factory.newTemplates(m_sources[i]);
+    }
+    else
+    {
+      factory.newTemplates(m_sources, m_threads);
+    }
+  }
+
+  public void tearDown()
+  {
+    m_sources = null;
+  }
+
+  /**
+   * Return the corpus files, copying the benchmark stylesheets into
+   * the corpus directory if an earlier run has not already done so.
+   */
+  private File[] getCorpus() throws IOException
+  {
+    String[] names = Benchmark.TRANSFORMS;
+    File[] corpus = new File[CORPUS_SIZE];
+    if (!m_corpusDir.isDirectory())
+      m_corpusDir.mkdirs();
+    for (int i = 0; i < CORPUS_SIZE; i++)
+    {
+      String name = names[i % names.length];
+      corpus[i] = new File(m_corpusDir, name + i + ".xsl");
+      if (!corpus[i].exists())
+        copy(new File(m_xslDir, name + ".xsl"), corpus[i]);
+    }
+    return corpus;
+  }
+
+  private static void copy(File from, File to) throws IOException
+  {
+    InputStream in = new FileInputStream(from);
+    try
+    {
+      OutputStream out = new FileOutputStream(to);
+      try
+      {
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0)
+          out.write(buffer, 0, n);
+      }
+      finally
+      {
+        out.close();
+      }
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.xalan.xsltc.dom.XSLTCDTMManager;
+import org.apache.xml.dtm.DTM;
+import org.apache.xml.dtm.DTMManager;
+import org.apache.xpath.objects.XMLStringFactoryImpl;
+
+/**
+ * Measures parsing the input into a DTM and nothing else.  The
+ * interpretive engine builds a SAX2DTM2 through DTMManagerDefault, XSLTC
+ * builds a SAXImpl through XSLTCDTMManager.  The DTM is built
+ * non-incrementally so that the whole document is loaded within the
+ * measured operation.
+ */
+public class DTMBuildTask extends BenchmarkTask
+{
+  public DTMBuildTask(String engine)
+  {
+    super("dtm", engine);
+  }
+
+  public void run() throws Exception
+  {
+    DTMManager manager;
+    DTM dtm;
+    StreamSource source = new StreamSource(m_input);
+
+    if (XSLTC.equals(m_engine))
+    {
+      manager = XSLTCDTMManager.newInstance();
+      dtm = manager.getDTM(source, true, null, false, false);
+    }
+    else
+    {
+      manager = DTMManager.newInstance(XMLStringFactoryImpl.getFactory());
+      dtm = manager.getDTM(source, true, null, false, false);
+    }
+
+    // Touch the last node so lazily built structures are realised.
+    dtm.getLastChild(dtm.getDocument());
+    manager.release(dtm, true);
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.xalan.xsltc.dom.XSLTCDTMManager;
+import org.apache.xml.dtm.DTM;
+import org.apache.xml.dtm.DTMManager;
+import org.apache.xpath.objects.XMLStringFactoryImpl;
+
+/**
+ * Measures handle dereferencing through a DTMManager shared by all
+ * benchmark threads.  The input is loaded once in {@link #setUp}; each
+ * operation walks the whole tree, resolving every node handle through
+ * DTMManager.getDTM(int) as the XPath iterators do.  Run it with
+ * -threads 8 up to -threads 64 to see how lookups scale when several
+ * threads share one manager.
+ */
+public class DTMLookupTask extends BenchmarkTask
+{
+  private DTMManager m_manager;
+
+  private DTM m_dtm;
+
+  private int m_nodes;
+
+  public DTMLookupTask(String engine)
+  {
+    super("dtm-lookup", engine);
+  }
+
+  public void setUp() throws Exception
+  {
+    if (XSLTC.equals(m_engine))
+      m_manager = XSLTCDTMManager.newInstance();
+    else
+      m_manager = DTMManager.newInstance(XMLStringFactoryImpl.getFactory());
+    m_dtm = m_manager.getDTM(new StreamSource(m_input), true, null,
+                             false, false);
+  }
+
+  public void run()
+  {
+    DTMManager manager = m_manager;
+    int nodes = 0;
+    int node = m_dtm.getDocument();
+
+    while (node != DTM.NULL)
+    {
+      nodes++;
+      int next = manager.getDTM(node).getFirstChild(node);
+      while (next == DTM.NULL && node != DTM.NULL)
+      {
+        next = manager.getDTM(node).getNextSibling(node);
+        if (next == DTM.NULL)
+          node = manager.getDTM(node).getParent(node);
+      }
+      node = next;
+    }
+    m_nodes = nodes;
+  }
+
+  /**
+   * @return the number of nodes visited by the last operation.
+   */
+  public int getNodeCount()
+  {
+    return m_nodes;
+  }
+
+  public void tearDown()
+  {
+    m_manager.release(m_dtm, true);
+    m_dtm = null;
+    m_manager = null;
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * Measures template dispatch in the interpretive processor with a
+ * generated stylesheet of {@link #TEMPLATES} match templates of the form
+ * *[@cat='c17'], one per category of the input and more, so that every
+ * element is matched against all of them.  The "indexed" engine uses the
+ * template dispatch index; the "chain" engine turns the optimize feature
+ * off, which leaves the template chains to be walked one pattern at a
+ * time.
+ */
+public class DispatchTask extends BenchmarkTask
+{
+  /** The number of match templates in the stylesheet. */
+  public static final int TEMPLATES = 2000;
+
+  private final File m_workDir;
+
+  private final boolean m_indexed;
+
+  private Templates m_templates;
+
+  public DispatchTask(File workDir, boolean indexed)
+  {
+    super("dispatch", indexed ? "indexed" : "chain");
+    m_workDir = workDir;
+    m_indexed = indexed;
+  }
+
+  public void setUp() throws Exception
+  {
+    File stylesheet = new File(m_workDir, "dispatch-" + TEMPLATES + ".xsl");
+    if (!stylesheet.exists())
+      writeStylesheet(stylesheet);
+
+    TransformerFactory factory = (TransformerFactory)
+      Class.forName(XALAN_FACTORY).newInstance();
+    factory.setAttribute("http://xml.apache.org/xalan/features/optimize",
+                         m_indexed ? Boolean.TRUE : Boolean.FALSE);
+    m_templates = factory.newTemplates(new StreamSource(stylesheet));
+  }
+
+  public void run() throws Exception
+  {
+    Transformer transformer = m_templates.newTransformer();
+    transformer.transform(new StreamSource(m_input),
+                          new StreamResult(new NullOutputStream()));
+  }
+
+  public void tearDown()
+  {
+    m_templates = null;
+  }
+
+  private static void writeStylesheet(File file) throws IOException
+  {
+    Writer out = new BufferedWriter(
+        new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+    try
+    {
+      out.write("<?xml version=\"1.0\"?>\n"
+              + "<xsl:stylesheet version=\"1.0\""
+              + " xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">\n"
+              + "<xsl:template match=\"text()\"/>\n");
+      for (int i = 0; i < TEMPLATES; i++)
+      {
+        out.write("<xsl:template match=\"*[@cat='c" + i + "']\">"
+                + "<t" + (i % 10) + " id=\"{@id}\"/></xsl:template>\n");
+      }
+      out.write("</xsl:stylesheet>\n");
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+}
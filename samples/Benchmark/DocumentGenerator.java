@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Writes synthetic catalog documents of a requested size.  Documents are
+ * generated rather than checked in so that the 100 MB and larger inputs
+ * do not bloat the distribution; a fixed seed keeps them identical from
+ * run to run.
+ *
+ * <pre>
+ * &lt;catalog&gt;
+ *   &lt;section id="s0" title="..."&gt;
+ *     &lt;item id="i0" cat="c17" ref="i3" price="12.50" qty="4"&gt;
+ *       &lt;name&gt;...&lt;/name&gt;
+ *       &lt;desc&gt;text with &amp;amp; &amp;lt;markup&amp;gt; and non-ASCII&lt;/desc&gt;
+ *     &lt;/item&gt;
+ *     ...
+ *   &lt;/section&gt;
+ * &lt;/catalog&gt;
+ * </pre>
+ */
+public class DocumentGenerator
+{
+  /** Items per section; also the depth reached by recursion.xsl. */
+  public static final int ITEMS_PER_SECTION = 100;
+
+  /** Distinct values of the cat attribute, used by the grouping tests. */
+  public static final int CATEGORIES = 1000;
+
+  private static final String[] WORDS = {
+    "alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf",
+    "hotel", "india", "juliet", "kilo", "lima", "mike", "november",
+    "oscar", "papa", "quebec", "romeo", "sierra", "tango", "uniform",
+    "victor", "whiskey", "x-ray", "yankee", "zulu", "caf\u00e9",
+    "na\u00efve", "\u00fcber", "\u00e5ngstr\u00f6m", "\u65e5\u672c",
+    "&amp;", "&lt;b&gt;", "&quot;q&quot;"
+  };
+
+  /**
+   * Return a generated document of roughly <code>size</code> bytes in
+   * <code>dir</code>, creating it if an earlier run has not already done
+   * so.
+   */
+  public static File getDocument(File dir, long size) throws IOException
+  {
+    File file = new File(dir, "catalog-" + size + ".xml");
+    if (!file.exists() || file.length() < size)
+    {
+      write(file, size);
+    }
+    return file;
+  }
+
+  /**
+   * Write a document of at least <code>size</code> bytes to
+   * <code>file</code>.
+   */
+  public static void write(File file, long size) throws IOException
+  {
+    Random random = new Random(20061018L);
+    Writer out = new BufferedWriter(
+        new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 65536);
+    long written = 0;
+    int item = 0;
+    int section = 0;
+
+    try
+    {
+      written += emit(out, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                         + "<catalog>\n");
+      do
+      {
+        if (item % ITEMS_PER_SECTION == 0)
+        {
+          if (item > 0)
+          {
+            written += emit(out, "</section>\n");
+          }
+          written += emit(out, "<section id=\"s" + section + "\" title=\""
+                             + word(random) + " " + section + "\">\n");
+          section++;
+        }
+
+        StringBuffer buf = new StringBuffer(256);
+        buf.append("<item id=\"i").append(item)
+           .append("\" cat=\"c").append(random.nextInt(CATEGORIES))
+           .append("\" ref=\"i").append(random.nextInt(item + 1))
+           .append("\" price=\"").append(random.nextInt(10000) / 100.0)
+           .append("\" qty=\"").append(random.nextInt(50))
+           .append("\"><name>").append(word(random)).append(' ')
+           .append(word(random)).append("</name><desc>");
+        int words = 5 + random.nextInt(20);
+        for (int w = 0; w < words; w++)
+        {
+          buf.append(word(random)).append(' ');
+        }
+        buf.append("</desc></item>\n");
+        written += emit(out, buf.toString());
+        item++;
+      }
+      while (written < size);
+      emit(out, "</section>\n");
+      emit(out, "</catalog>\n");
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+
+  private static String word(Random random)
+  {
+    return WORDS[random.nextInt(WORDS.length)];
+  }
+
+  private static int emit(Writer out, String s) throws IOException
+  {
+    out.write(s);
+    // Close enough: only a few of the words are outside ASCII.
+    return s.length();
+  }
+}
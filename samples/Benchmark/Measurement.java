@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * Collects the samples of one benchmark run and reduces them to
+ * throughput, allocation and latency percentiles.
+ *
+ * <p>The samples are built with the same source level as the rest of
+ * Xalan, so the high resolution clock (System.nanoTime) and the per-thread
+ * allocation counter (com.sun.management.ThreadMXBean) are reached by
+ * reflection.  When they are not available the clock falls back to
+ * milliseconds and the allocation column reports "n/a".</p>
+ */
+public class Measurement
+{
+  private static final Method NANO_TIME;
+  private static final Object THREAD_BEAN;
+  private static final Method ALLOCATED_BYTES;
+  private static final Method THREAD_ID;
+
+  static
+  {
+    Method nanoTime = null;
+    try
+    {
+      nanoTime = System.class.getMethod("nanoTime", new Class[0]);
+    }
+    catch (Exception e)
+    {
+      // Pre-1.5 JVM; use currentTimeMillis
+    }
+    NANO_TIME = nanoTime;
+
+    Object bean = null;
+    Method allocated = null;
+    Method threadId = null;
+    try
+    {
+      Class factory = Class.forName("java.lang.management.ManagementFactory");
+      bean = factory.getMethod("getThreadMXBean", new Class[0])
+                    .invoke(null, new Object[0]);
+      Class beanClass = Class.forName("com.sun.management.ThreadMXBean");
+      allocated = beanClass.getMethod("getThreadAllocatedBytes",
+                                      new Class[] { Long.TYPE });
+      threadId = Thread.class.getMethod("getId", new Class[0]);
+      // Make sure the call actually works on this JVM before relying on it.
+      allocated.invoke(bean, new Object[] {
+                         threadId.invoke(Thread.currentThread(), new Object[0]) });
+    }
+    catch (Throwable t)
+    {
+      bean = null;
+      allocated = null;
+      threadId = null;
+    }
+    THREAD_BEAN = bean;
+    ALLOCATED_BYTES = allocated;
+    THREAD_ID = threadId;
+  }
+
+  /**
+   * Current time in nanoseconds, from an arbitrary origin.
+   */
+  public static long nanoTime()
+  {
+    if (NANO_TIME != null)
+    {
+      try
+      {
+        return ((Long) NANO_TIME.invoke(null, new Object[0])).longValue();
+      }
+      catch (Exception e)
+      {
+        // fall through
+      }
+    }
+    return System.currentTimeMillis() * 1000000L;
+  }
+
+  /**
+   * Bytes allocated so far by the calling thread, or -1 if the JVM does
+   * not expose that counter.
+   */
+  public static long allocatedBytes()
+  {
+    if (ALLOCATED_BYTES == null)
+      return -1;
+    try
+    {
+      Object id = THREAD_ID.invoke(Thread.currentThread(), new Object[0]);
+      return ((Long) ALLOCATED_BYTES.invoke(THREAD_BEAN,
+                                            new Object[] { id })).longValue();
+    }
+    catch (Exception e)
+    {
+      return -1;
+    }
+  }
+
+  private long[] m_latencies;
+  private int m_count;
+  private long m_allocated;
+  private boolean m_allocationKnown = true;
+  private long m_wallNanos;
+
+  public Measurement(int expected)
+  {
+    m_latencies = new long[Math.max(expected, 16)];
+  }
+
+  /**
+   * Record one operation.
+   *
+   * @param nanos elapsed time of the operation.
+   * @param allocated bytes allocated by the operation, or a negative
+   *        value if unknown.
+   */
+  public synchronized void add(long nanos, long allocated)
+  {
+    if (m_count == m_latencies.length)
+    {
+      long[] grown = new long[m_count * 2];
+      System.arraycopy(m_latencies, 0, grown, 0, m_count);
+      m_latencies = grown;
+    }
+    m_latencies[m_count++] = nanos;
+    if (allocated < 0)
+      m_allocationKnown = false;
+    else
+      m_allocated += allocated;
+  }
+
+  /**
+   * Set the wall clock time over which all operations were recorded.
+   * With several threads this is less than the sum of the latencies.
+   */
+  public void setWallTime(long nanos)
+  {
+    m_wallNanos = nanos;
+  }
+
+  public int getCount()
+  {
+    return m_count;
+  }
+
+  /**
+   * @return operations per second over the wall clock time.
+   */
+  public double getThroughput()
+  {
+    return (m_wallNanos <= 0) ? 0 : m_count * 1e9 / m_wallNanos;
+  }
+
+  /**
+   * @return megabytes allocated per second over the wall clock time, or
+   *         a negative value if unknown.
+   */
+  public double getAllocationRate()
+  {
+    if (!m_allocationKnown || m_wallNanos <= 0)
+      return -1;
+    return m_allocated / (1024.0 * 1024.0) * 1e9 / m_wallNanos;
+  }
+
+  /**
+   * @return bytes allocated per operation, or a negative value if unknown.
+   */
+  public double getAllocationPerOperation()
+  {
+    if (!m_allocationKnown || m_count == 0)
+      return -1;
+    return (double) m_allocated / m_count;
+  }
+
+  /**
+   * @param p a percentile between 0 and 100.
+   * @return the latency at that percentile, in milliseconds.
+   */
+  public double getPercentile(double p)
+  {
+    if (m_count == 0)
+      return 0;
+    long[] sorted = new long[m_count];
+    System.arraycopy(m_latencies, 0, sorted, 0, m_count);
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(p / 100.0 * m_count) - 1;
+    index = Math.max(0, Math.min(m_count - 1, index));
+    return sorted[index] / 1e6;
+  }
+}
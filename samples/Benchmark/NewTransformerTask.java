@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+import java.io.File;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * Measures Templates.newTransformer() alone, the fixed cost paid by
+ * every transformation before any input is read.  It dominates when a
+ * server runs many small transformations; run it with several threads
+ * to see whether the Templates object serializes them.
+ */
+public class NewTransformerTask extends BenchmarkTask
+{
+  private final File m_stylesheet;
+
+  private Templates m_templates;
+
+  public NewTransformerTask(String engine, File stylesheet)
+  {
+    super("new-transformer", engine);
+    m_stylesheet = stylesheet;
+  }
+
+  public long getBytesPerOperation()
+  {
+    return 0;
+  }
+
+  public void setUp() throws Exception
+  {
+    TransformerFactory factory = (TransformerFactory)
+      Class.forName(factoryFor(m_engine)).newInstance();
+    m_templates = factory.newTemplates(new StreamSource(m_stylesheet));
+  }
+
+  public void run() throws Exception
+  {
+    m_templates.newTransformer();
+  }
+
+  public void tearDown()
+  {
+    m_templates = null;
+  }
+}
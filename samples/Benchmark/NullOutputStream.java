@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+import java.io.OutputStream;
+
+/**
+ * An OutputStream that counts and discards everything written to it,
+ * so that benchmarks measure the serializer rather than the disk.
+ */
+public class NullOutputStream extends OutputStream
+{
+  private long m_count;
+
+  public void write(int b)
+  {
+    m_count++;
+  }
+
+  public void write(byte[] b, int off, int len)
+  {
+    m_count += len;
+  }
+
+  /**
+   * @return the number of bytes written so far.
+   */
+  public long getCount()
+  {
+    return m_count;
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.xalan.xsltc.dom.XSLTCDTMManager;
+import org.apache.xml.dtm.DTM;
+
+/**
+ * Measures building an XSLTC SAXImpl from the input file with the given
+ * number of threads, as set by the "parallel-build" TransformerFactory
+ * attribute.  One thread is the usual single parse; more split the file
+ * into chunks that are parsed in parallel.  Inputs smaller than 2MB are
+ * always parsed in one piece, so use -size 16m or more.
+ */
+public class ParallelBuildTask extends BenchmarkTask
+{
+  private final int m_buildThreads;
+
+  public ParallelBuildTask(int threads)
+  {
+    super("parallel-build", XSLTC + "/" + threads);
+    m_buildThreads = threads;
+  }
+
+  public void run() throws Exception
+  {
+    XSLTCDTMManager manager = XSLTCDTMManager.newInstance();
+    manager.setParallelBuild(m_buildThreads);
+    DTM dtm = manager.getDTM(new StreamSource(m_input), true, null, false,
+                             false);
+
+    dtm.getLastChild(dtm.getDocument());
+    manager.release(dtm, true);
+  }
+}
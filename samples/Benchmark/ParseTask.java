@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+import org.apache.xml.utils.XMLReaderManager;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+/**
+ * Measures the cost of obtaining a parser.  Each operation parses the
+ * input into an empty handler, either with a reader borrowed from the
+ * shared XMLReaderManager pool ("pooled") or with a reader created for
+ * the operation ("new").  The difference is largest for small inputs
+ * and many threads.
+ */
+public class ParseTask extends BenchmarkTask
+{
+  public static final String POOLED = "pooled";
+
+  public static final String NEW = "new";
+
+  private final DefaultHandler m_handler = new DefaultHandler();
+
+  public ParseTask(String engine)
+  {
+    super("parse", engine);
+  }
+
+  public void run() throws Exception
+  {
+    InputSource input = new InputSource(m_input.toURL().toString());
+    if (NEW.equals(m_engine))
+    {
+      XMLReader reader = XMLReaderFactory.createXMLReader();
+      reader.setContentHandler(m_handler);
+      reader.parse(input);
+      return;
+    }
+
+    XMLReaderManager manager = XMLReaderManager.getInstance();
+    XMLReader reader = manager.getXMLReader();
+    try
+    {
+      reader.setContentHandler(m_handler);
+      reader.parse(input);
+    }
+    finally
+    {
+      manager.releaseXMLReader(reader);
+    }
+  }
+}
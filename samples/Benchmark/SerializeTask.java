@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+import java.util.Properties;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.xml.serializer.OutputPropertiesFactory;
+import org.apache.xml.serializer.Serializer;
+import org.apache.xml.serializer.SerializerFactory;
+import org.w3c.dom.Document;
+
+/**
+ * Measures the serializer alone.  The input is parsed into a DOM once
+ * in {@link #setUp}; each operation walks that DOM into a fresh
+ * serializer for the configured output method and encoding.  Both
+ * engines share the serializer, so the engine label here is the output
+ * method, for example "xml" or "html".
+ */
+public class SerializeTask extends BenchmarkTask
+{
+  private final Properties m_format;
+
+  private Document m_document;
+
+  public SerializeTask(String method, String encoding)
+  {
+    super("serialize-only", method + "/" + encoding);
+    m_format = OutputPropertiesFactory.getDefaultMethodProperties(method);
+    m_format.setProperty("encoding", encoding);
+  }
+
+  public void setUp() throws Exception
+  {
+    DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+    try
+    {
+      // A deferred DOM expands itself while being read, which is not
+      // safe when several threads serialize the same document.
+      dbf.setAttribute(
+        "http://apache.org/xml/features/dom/defer-node-expansion",
+        Boolean.FALSE);
+    }
+    catch (IllegalArgumentException e)
+    {
+      // Not Xerces; assume the DOM is fully built.
+    }
+    m_document = dbf.newDocumentBuilder().parse(m_input);
+  }
+
+  public void run() throws Exception
+  {
+    Serializer serializer = SerializerFactory.getSerializer(m_format);
+    serializer.setOutputStream(new NullOutputStream());
+    serializer.asDOMSerializer().serialize(m_document);
+  }
+
+  public void tearDown()
+  {
+    m_document = null;
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+import java.io.File;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.xml.serializer.SerializerPool;
+
+/**
+ * Measures the garbage a transformation leaves behind with the
+ * transformers' serializers taken from the shared SerializerPool
+ * ("pooled") and with the pool emptied and disabled, so that every
+ * transformation creates its serializer and output buffers ("new").
+ * Compare the alloc KB/op column of the two; the difference is the
+ * per-transformation serializer garbage and matters most for small
+ * inputs.
+ */
+public class SerializerPoolTask extends BenchmarkTask
+{
+  private final String m_processor;
+
+  private final boolean m_pooled;
+
+  private final File m_stylesheet;
+
+  private Templates m_templates;
+
+  public SerializerPoolTask(String processor, boolean pooled, File stylesheet)
+  {
+    super("serializer-pool", processor + (pooled ? "-pooled" : "-new"));
+    m_processor = processor;
+    m_pooled = pooled;
+    m_stylesheet = stylesheet;
+  }
+
+  public void setUp() throws Exception
+  {
+    TransformerFactory factory = (TransformerFactory)
+      Class.forName(factoryFor(m_processor)).newInstance();
+    m_templates = factory.newTemplates(new StreamSource(m_stylesheet));
+    SerializerPool.getDefaultPool().setMaxPooled(
+      m_pooled ? SerializerPool.DEFAULT_MAX_POOLED : 0);
+  }
+
+  public void run() throws Exception
+  {
+    Transformer transformer = m_templates.newTransformer();
+    transformer.transform(new StreamSource(m_input),
+                          new StreamResult(new NullOutputStream()));
+  }
+
+  public void tearDown()
+  {
+    m_templates = null;
+    SerializerPool.getDefaultPool().setMaxPooled(
+      SerializerPool.DEFAULT_MAX_POOLED);
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+import java.io.File;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.xalan.xsltc.trax.TransformerFactoryImpl;
+
+/**
+ * Measures how quickly XSLTC gets from compiled translets to a first
+ * result, as a service does when it starts.  Each operation takes
+ * every benchmark stylesheet from a translet cache (filled in
+ * {@link #setUp}), so the translet classes are defined afresh, and runs
+ * one transformation with each.  Compilation itself is measured by the
+ * compile benchmark.
+ */
+public class StartupTask extends BenchmarkTask
+{
+  private final File m_xslDir;
+
+  private final File m_cacheDir;
+
+  public StartupTask(File xslDir, File workDir)
+  {
+    super("startup", XSLTC);
+    m_xslDir = xslDir;
+    m_cacheDir = new File(workDir, "translet-cache");
+  }
+
+  public long getBytesPerOperation()
+  {
+    return super.getBytesPerOperation() * Benchmark.TRANSFORMS.length;
+  }
+
+  public void setUp() throws Exception
+  {
+    // Fill the cache
+    for (int i = 0; i < Benchmark.TRANSFORMS.length; i++)
+      newFactory().newTemplates(new StreamSource(getStylesheet(i)));
+  }
+
+  public void run() throws Exception
+  {
+    TransformerFactoryImpl factory = newFactory();
+    for (int i = 0; i < Benchmark.TRANSFORMS.length; i++)
+    {
+      Templates templates =
+        factory.newTemplates(new StreamSource(getStylesheet(i)));
+      templates.newTransformer().transform(
+        new StreamSource(m_input), new StreamResult(new NullOutputStream()));
+    }
+  }
+
+  private TransformerFactoryImpl newFactory()
+  {
+    TransformerFactoryImpl factory = new TransformerFactoryImpl();
+    factory.setAttribute(TransformerFactoryImpl.TRANSLET_CACHE,
+                         m_cacheDir.getPath());
+    return factory;
+  }
+
+  private File getStylesheet(int i)
+  {
+    return new File(m_xslDir, Benchmark.TRANSFORMS[i] + ".xsl");
+  }
+}
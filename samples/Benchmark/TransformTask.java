@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+import java.io.File;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * Measures a complete stream-to-stream transformation: parse, DTM
+ * build, template execution and serialization.  The stylesheet is
+ * compiled once in {@link #setUp}; each operation creates a new
+ * Transformer from the shared Templates, as a server would.
+ */
+public class TransformTask extends BenchmarkTask
+{
+  private final File m_stylesheet;
+
+  private Templates m_templates;
+
+  public TransformTask(String name, String engine, File stylesheet)
+  {
+    super(name, engine);
+    m_stylesheet = stylesheet;
+  }
+
+  public void setUp() throws Exception
+  {
+    TransformerFactory factory = (TransformerFactory)
+      Class.forName(factoryFor(m_engine)).newInstance();
+    m_templates = factory.newTemplates(new StreamSource(m_stylesheet));
+  }
+
+  public void run() throws Exception
+  {
+    Transformer transformer = m_templates.newTransformer();
+    transformer.transform(new StreamSource(m_input),
+                          new StreamResult(new NullOutputStream()));
+  }
+
+  public void tearDown()
+  {
+    m_templates = null;
+  }
+}
@@ -0,0 +1,40 @@
+<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='1.0'>
+
+  <!--
+   * Licensed to the Apache Software Foundation (ASF) under one
+   * or more contributor license agreements. See the NOTICE file
+   * distributed with this work for additional information
+   * regarding copyright ownership. The ASF licenses this file
+   * to you under the Apache License, Version 2.0 (the  "License");
+   * you may not use this file except in compliance with the License.
+   * You may obtain a copy of the License at
+   *
+   *     http://www.apache.org/licenses/LICENSE-2.0
+   *
+   * Unless required by applicable law or agreed to in writing, software
+   * distributed under the License is distributed on an "AS IS" BASIS,
+   * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   * See the License for the specific language governing permissions and
+   * limitations under the License.
+  -->
+
+  <!-- Numbers every item hierarchically and document-wide. -->
+
+  <xsl:template match="/">
+    <numbered>
+      <xsl:apply-templates select="catalog/section/item"/>
+    </numbered>
+  </xsl:template>
+
+  <xsl:template match="item">
+    <item>
+      <xsl:attribute name="n">
+        <xsl:number level="multiple" count="section|item" format="1.1"/>
+      </xsl:attribute>
+      <xsl:attribute name="any">
+        <xsl:number level="any" count="item" format="001"/>
+      </xsl:attribute>
+    </item>
+  </xsl:template>
+
+</xsl:stylesheet>
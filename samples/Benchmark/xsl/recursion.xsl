@@ -0,0 +1,53 @@
+<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='1.0'>
+
+  <!--
+   * Licensed to the Apache Software Foundation (ASF) under one
+   * or more contributor license agreements. See the NOTICE file
+   * distributed with this work for additional information
+   * regarding copyright ownership. The ASF licenses this file
+   * to you under the Apache License, Version 2.0 (the  "License");
+   * you may not use this file except in compliance with the License.
+   * You may obtain a copy of the License at
+   *
+   *     http://www.apache.org/licenses/LICENSE-2.0
+   *
+   * Unless required by applicable law or agreed to in writing, software
+   * distributed under the License is distributed on an "AS IS" BASIS,
+   * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   * See the License for the specific language governing permissions and
+   * limitations under the License.
+  -->
+
+  <!-- Sums each section through a named template that recurses once per
+       item, so the call depth equals the number of items per section. -->
+
+  <xsl:template match="/">
+    <totals>
+      <xsl:for-each select="catalog/section">
+        <section id="{@id}">
+          <xsl:call-template name="total">
+            <xsl:with-param name="items" select="item"/>
+          </xsl:call-template>
+        </section>
+      </xsl:for-each>
+    </totals>
+  </xsl:template>
+
+  <xsl:template name="total">
+    <xsl:param name="items"/>
+    <xsl:param name="sum" select="0"/>
+    <xsl:choose>
+      <xsl:when test="$items">
+        <xsl:call-template name="total">
+          <xsl:with-param name="items" select="$items[position() &gt; 1]"/>
+          <xsl:with-param name="sum"
+                          select="$sum + $items[1]/@price * $items[1]/@qty"/>
+        </xsl:call-template>
+      </xsl:when>
+      <xsl:otherwise>
+        <xsl:value-of select="$sum"/>
+      </xsl:otherwise>
+    </xsl:choose>
+  </xsl:template>
+
+</xsl:stylesheet>
@@ -0,0 +1,50 @@
+<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='1.0'>
+
+  <!--
+   * Licensed to the Apache Software Foundation (ASF) under one
+   * or more contributor license agreements. See the NOTICE file
+   * distributed with this work for additional information
+   * regarding copyright ownership. The ASF licenses this file
+   * to you under the Apache License, Version 2.0 (the  "License");
+   * you may not use this file except in compliance with the License.
+   * You may obtain a copy of the License at
+   *
+   *     http://www.apache.org/licenses/LICENSE-2.0
+   *
+   * Unless required by applicable law or agreed to in writing, software
+   * distributed under the License is distributed on an "AS IS" BASIS,
+   * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   * See the License for the specific language governing permissions and
+   * limitations under the License.
+  -->
+
+  <!-- Little template work and a lot of output: HTML with escaped text
+       and attributes, written in an encoding that needs character
+       references for part of the input. -->
+
+  <xsl:output method="html" encoding="ISO-8859-1" indent="no"/>
+
+  <xsl:template match="/">
+    <html>
+      <head><title>Catalog</title></head>
+      <body>
+        <xsl:for-each select="catalog/section">
+          <h2 title="{@title}"><xsl:value-of select="@title"/></h2>
+          <table>
+            <xsl:for-each select="item">
+              <tr class="row" data-name="{name}">
+                <td><xsl:value-of select="@id"/></td>
+                <td><xsl:value-of select="name"/></td>
+                <td><xsl:value-of select="format-number(@price, '#,##0.00')"/></td>
+                <td><xsl:value-of select="desc"/></td>
+                <td><a href="item?id={@id}&amp;cat={@cat}">
+                  <xsl:value-of select="desc"/></a></td>
+              </tr>
+            </xsl:for-each>
+          </table>
+        </xsl:for-each>
+      </body>
+    </html>
+  </xsl:template>
+
+</xsl:stylesheet>
@@ -20,6 +20,8 @@
  */
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -30,6 +32,7 @@ import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.util.Properties;
+import java.util.zip.GZIPInputStream;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -195,6 +198,13 @@ public class Examples
         handleException(ex);
     } 
 
+    System.out.println("\n\n==== exampleCompressedOutput ====");
+    try {
+        exampleCompressedOutput("xml/foo.xml", "xsl/compressed.xsl");
+    } catch( Exception ex ) { 
+        handleException(ex);
+    } 
+
     System.out.println("\n==== done! ====");
   }
   
@@ -679,6 +689,58 @@ public class Examples
                           new StreamResult(new OutputStreamWriter(System.out)));
   }
 
+  /**
+   * Show that xalan:compression on xsl:output compresses the result, 
+   * both when the stylesheet is interpreted and when it is compiled 
+   * into an XSLTC translet.
+   */
+  public static void exampleCompressedOutput(String sourceID, String xslID)
+    throws TransformerException, TransformerConfigurationException, 
+           IOException, ClassNotFoundException, InstantiationException, 
+           IllegalAccessException
+  {
+    String[] factories = { "org.apache.xalan.processor.TransformerFactoryImpl",
+                           "org.apache.xalan.xsltc.trax.TransformerFactoryImpl" };
+
+    for (int i = 0; i < factories.length; i++)
+    {
+      TransformerFactory tfactory = 
+        (TransformerFactory) Class.forName(factories[i]).newInstance();
+      Transformer transformer = tfactory.newTransformer(new StreamSource(xslID));
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      transformer.transform(new StreamSource(sourceID), 
+                            new StreamResult(compressed));
+
+      // Run the same stylesheet again with compression switched off 
+      // and check the gzip stream inflates to exactly that output.
+      transformer = tfactory.newTransformer(new StreamSource(xslID));
+      transformer.setOutputProperty("{http://xml.apache.org/xalan}compression", 
+                                    "none");
+      ByteArrayOutputStream plain = new ByteArrayOutputStream();
+      transformer.transform(new StreamSource(sourceID), 
+                            new StreamResult(plain));
+
+      InputStream in = new GZIPInputStream(
+        new ByteArrayInputStream(compressed.toByteArray()));
+      ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+      byte[] buf = new byte[4096];
+      int n;
+      while ((n = in.read(buf)) > 0)
+        inflated.write(buf, 0, n);
+      in.close();
+
+      String expected = plain.toString("UTF-8");
+      if (!expected.equals(inflated.toString("UTF-8")))
+        throw new TransformerException("Compressed output from " + factories[i]
+                                       + " does not match the plain output");
+
+      System.out.println(factories[i] + ": " + compressed.size() 
+                         + " compressed bytes, " + inflated.size() 
+                         + " bytes inflated");
+      System.out.println(expected);
+    }
+  }
+
   /**
    * Show how to get stylesheets that are associated with a given
    * xml document via the xml-stylesheet PI (see http://www.w3.org/TR/xml-stylesheet/).
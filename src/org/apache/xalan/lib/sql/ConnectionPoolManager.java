@@ -23,6 +23,7 @@
  package org.apache.xalan.lib.sql;
 
 import java.util.Hashtable;
+import java.util.Properties;
 
 import org.apache.xalan.res.XSLMessages;
 import org.apache.xalan.res.XSLTErrorResources;
@@ -122,4 +123,67 @@ public class ConnectionPoolManager
     return (ConnectionPool) m_poolTable.get(name);
   }
 
+  /**
+   * Return the number of connections of the named pool that are in use.
+   * @param name
+   *
+   * @return the number of connections, or -1 if the named pool does not
+   * exist or does not keep this count.
+   */
+  public int getActiveConnections( String name )
+  {
+    DefaultConnectionPool pool = getDefaultPool(name);
+    return (pool == null) ? -1 : pool.getActiveCount();
+  }
+
+  /**
+   * Return the number of connections of the named pool that are idle.
+   * @param name
+   *
+   * @return the number of connections, or -1 if the named pool does not
+   * exist or does not keep this count.
+   */
+  public int getIdleConnections( String name )
+  {
+    DefaultConnectionPool pool = getDefaultPool(name);
+    return (pool == null) ? -1 : pool.getIdleCount();
+  }
+
+  /**
+   * Return the number of threads waiting for a connection of the named
+   * pool.
+   * @param name
+   *
+   * @return the number of threads, or -1 if the named pool does not
+   * exist or does not keep this count.
+   */
+  public int getWaitingThreads( String name )
+  {
+    DefaultConnectionPool pool = getDefaultPool(name);
+    return (pool == null) ? -1 : pool.getWaitingCount();
+  }
+
+  /**
+   * Return all the metrics of the named pool, see
+   * {@link DefaultConnectionPool#getStatistics()}.
+   * @param name
+   *
+   * @return the metrics, or null if the named pool does not exist or
+   * does not keep them.
+   */
+  public Properties getPoolStatistics( String name )
+  {
+    DefaultConnectionPool pool = getDefaultPool(name);
+    return (pool == null) ? null : pool.getStatistics();
+  }
+
+  /**
+   * @return the named pool if it is a DefaultConnectionPool, else null.
+   */
+  private DefaultConnectionPool getDefaultPool( String name )
+  {
+    ConnectionPool pool = (ConnectionPool) m_poolTable.get(name);
+    return (pool instanceof DefaultConnectionPool) ? (DefaultConnectionPool) pool : null;
+  }
+
 }
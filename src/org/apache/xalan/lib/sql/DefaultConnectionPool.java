@@ -25,8 +25,9 @@ import java.sql.DatabaseMetaData;
 import java.sql.Driver;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Enumeration;
-import java.util.Iterator;
+import java.util.Hashtable;
 import java.util.Properties;
 import java.util.Vector;
 
@@ -36,6 +37,16 @@ import org.apache.xalan.res.XSLTErrorResources;
 /**
  * For internal connectiones, i.e. Connection information supplies in the
  * Stylesheet. The Default Connection Pool will be used.
+ * <p>
+ * Connections are borrowed and given back under a short lock that only
+ * covers the bookkeeping, the JDBC calls to connect, validate and close
+ * are made outside of it, so threads sharing the pool do not queue
+ * behind each other's database round trips. The pool may be bounded with
+ * {@link #setMaxConnections(int)}, in which case a borrower waits up to
+ * {@link #setMaxWait(long)} for a connection to be given back. Idle
+ * connections can be checked with a validation query before they are
+ * handed out, and a background thread closes connections that have been
+ * idle or open for too long.
  */
 public class DefaultConnectionPool implements ConnectionPool
 {
@@ -48,6 +59,12 @@ public class DefaultConnectionPool implements ConnectionPool
    */
   private static final boolean DEBUG = false;
 
+  /**
+   * The default time between two runs of the eviction thread, in
+   * milliseconds.
+   */
+  public static final long DEFAULT_EVICTION_INTERVAL = 30000;
+
   /**
    * The basic information to make a JDBC Connection
    */
@@ -60,11 +77,47 @@ public class DefaultConnectionPool implements ConnectionPool
   /**
    * The mimimum size of the connection pool, if the
    * number of available connections falls below this
-   * mark, min connections will be allocated. The Connection
-   * Pool will always be somewhere between MinSize and MinSize*2
+   * mark, min connections will be allocated. Idle connections
+   * are not evicted below this number.
    */
   private int m_PoolMinSize = 1;
 
+  /**
+   * The largest number of connections, in use or not, the pool will
+   * hold. 0 for no limit.
+   */
+  private int m_PoolMaxSize = 0;
+
+  /**
+   * How long getConnection waits for a connection when the pool is at
+   * its maximum size, in milliseconds. 0 does not wait, a negative
+   * value waits for as long as it takes.
+   */
+  private long m_MaxWait = -1;
+
+  /**
+   * The SQL statement used to check an idle connection before it is
+   * handed out, null to only check that it is not closed.
+   */
+  private String m_ValidationQuery = null;
+
+  /**
+   * How long a connection may stay idle before it is evicted, in
+   * milliseconds, 0 for ever.
+   */
+  private long m_MaxIdleTime = 0;
+
+  /**
+   * How long a connection may stay open before it is evicted, in
+   * milliseconds, 0 for ever.
+   */
+  private long m_MaxLifetime = 0;
+
+  /**
+   * The time between two runs of the eviction thread, in milliseconds.
+   */
+  private long m_EvictionInterval = DEFAULT_EVICTION_INTERVAL;
+
 
   /**
    * Always implement the properties mechinism, if the Password
@@ -74,14 +127,52 @@ public class DefaultConnectionPool implements ConnectionPool
   private Properties m_ConnectionProtocol = new Properties();
 
   /**
-   * Storage for the PooledConnections
+   * The lock over the pool's bookkeeping. It is never held while a
+   * JDBC call is made.
    */
-  private Vector m_pool = new Vector();
+  private final Object m_lock = new Object();
+
+  /**
+   * The PooledConnections that are not in use, the most recently
+   * released last, so the connections used the most stay warm and the
+   * others age out.
+   */
+  private final Vector m_idle = new Vector();
+
+  /**
+   * The PooledConnections that are in use, keyed by their JDBC
+   * Connection.
+   */
+  private final Hashtable m_active = new Hashtable();
+
+  /**
+   * The number of connections the pool holds, idle, in use, or being
+   * connected or validated.
+   */
+  private int m_size = 0;
+
+  /**
+   * The number of threads waiting for a connection.
+   */
+  private int m_waiting = 0;
+
+  /**
+   * The number of times getConnection had to wait, the total time it
+   * waited in milliseconds and the number of times it gave up.
+   */
+  private long m_waitCount = 0;
+  private long m_waitTime = 0;
+  private long m_timeoutCount = 0;
+
+  /**
+   * The eviction thread, null when it is not running.
+   */
+  private Thread m_evictor = null;
 
   /**
    * Are we active ??
    */
-  private boolean m_IsActive = false;
+  private volatile boolean m_IsActive = false;
 
   /**
    */
@@ -102,9 +193,10 @@ public class DefaultConnectionPool implements ConnectionPool
    * @param d
    *
    */
-  public void setDriver( String d )
+  public synchronized void setDriver( String d )
   {
     m_driver = d;
+    m_Driver = null;
   }
 
   /**
@@ -124,27 +216,17 @@ public class DefaultConnectionPool implements ConnectionPool
    */
   public void freeUnused( )
   {
-    // Iterate over the entire pool closing the
-    // JDBC Connections.
-    Iterator i = m_pool.iterator();
-    while(i.hasNext())
+    Vector unused;
+    synchronized (m_lock)
     {
-      PooledConnection pcon =
-        (PooledConnection) i.next();
-
-      // If the PooledConnection is not in use, close it
-      if ( pcon.inUse() == false )
-      {
-        if (DEBUG)
-        {
-          System.err.println("Closing JDBC Connection ");
-        }
-        
-        pcon.close();
-        i.remove();        
-      }
+      unused = (Vector) m_idle.clone();
+      m_idle.removeAllElements();
+      m_size -= unused.size();
+      m_lock.notifyAll();
     }
 
+    // Close the JDBC Connections outside of the lock.
+    closeAll(unused);
   }
 
   /**
@@ -153,7 +235,10 @@ public class DefaultConnectionPool implements ConnectionPool
    */
   public boolean hasActiveConnections( )
   {
-    return (m_pool.size() > 0);
+    synchronized (m_lock)
+    {
+      return (m_size > 0);
+    }
   }
 
 
@@ -207,6 +292,174 @@ public class DefaultConnectionPool implements ConnectionPool
     m_PoolMinSize = n;
   }
 
+  /**
+   * Set the largest number of connections the pool will hold, whether
+   * in use or not. When they are all in use getConnection waits for one
+   * to be released, see {@link #setMaxWait(long)}.
+   * @param n The largest number of connections, 0 for no limit (the default).
+   *
+   */
+  public void setMaxConnections( int n )
+  {
+    synchronized (m_lock)
+    {
+      m_PoolMaxSize = Math.max(0, n);
+      m_lock.notifyAll();
+    }
+  }
+
+  /**
+   * Set how long getConnection waits for a connection to be released
+   * when the pool holds its largest number of connections. If none is
+   * released in time it throws an SQLException.
+   * @param ms The time in milliseconds, 0 to not wait, or a negative
+   * number to wait for as long as it takes (the default).
+   *
+   */
+  public void setMaxWait( long ms )
+  {
+    m_MaxWait = ms;
+  }
+
+  /**
+   * Set the SQL statement that is executed on an idle connection before
+   * it is handed out. If it fails the connection is closed and another
+   * one is tried. A cheap query such as "SELECT 1" is best, the exact
+   * text depends on the database.
+   * @param query The SQL statement, or null to only check that the
+   * connection is not closed (the default).
+   *
+   */
+  public void setValidationQuery( String query )
+  {
+    m_ValidationQuery = (query == null || query.trim().length() == 0) ? null : query;
+  }
+
+  /**
+   * Set how long a connection may stay idle in the pool before the
+   * eviction thread closes it. Connections are not closed this way
+   * below the minimum number of connections.
+   * @param ms The time in milliseconds, 0 to keep idle connections (the default).
+   *
+   */
+  public void setMaxIdleTime( long ms )
+  {
+    m_MaxIdleTime = Math.max(0, ms);
+    startEvictor();
+  }
+
+  /**
+   * Set how long a connection may stay open. Older connections are
+   * closed by the eviction thread when idle, or when they are released.
+   * @param ms The time in milliseconds, 0 for no limit (the default).
+   *
+   */
+  public void setMaxLifetime( long ms )
+  {
+    m_MaxLifetime = Math.max(0, ms);
+    startEvictor();
+  }
+
+  /**
+   * Set the time between two runs of the eviction thread.
+   * @param ms The time in milliseconds, the default is
+   * {@link #DEFAULT_EVICTION_INTERVAL}.
+   *
+   */
+  public void setEvictionInterval( long ms )
+  {
+    if (ms > 0) m_EvictionInterval = ms;
+  }
+
+  /**
+   * @return The number of connections that are in use.
+   */
+  public int getActiveCount( )
+  {
+    synchronized (m_lock)
+    {
+      return m_active.size();
+    }
+  }
+
+  /**
+   * @return The number of connections that are idle in the pool.
+   */
+  public int getIdleCount( )
+  {
+    synchronized (m_lock)
+    {
+      return m_idle.size();
+    }
+  }
+
+  /**
+   * @return The number of threads waiting for a connection.
+   */
+  public int getWaitingCount( )
+  {
+    synchronized (m_lock)
+    {
+      return m_waiting;
+    }
+  }
+
+  /**
+   * @return The number of times getConnection had to wait for a
+   * connection to be released.
+   */
+  public long getWaitCount( )
+  {
+    synchronized (m_lock)
+    {
+      return m_waitCount;
+    }
+  }
+
+  /**
+   * @return The total time getConnection has waited for connections to
+   * be released, in milliseconds.
+   */
+  public long getWaitTime( )
+  {
+    synchronized (m_lock)
+    {
+      return m_waitTime;
+    }
+  }
+
+  /**
+   * @return The number of times getConnection gave up waiting.
+   */
+  public long getTimeoutCount( )
+  {
+    synchronized (m_lock)
+    {
+      return m_timeoutCount;
+    }
+  }
+
+  /**
+   * Get the pool's metrics in one consistent snapshot. The keys are
+   * "active", "idle", "waiting", "wait-count", "wait-time" and "timeouts",
+   * the values those of the getters of the same names.
+   *
+   */
+  public Properties getStatistics( )
+  {
+    Properties stats = new Properties();
+    synchronized (m_lock)
+    {
+      stats.put("active", String.valueOf(m_active.size()));
+      stats.put("idle", String.valueOf(m_idle.size()));
+      stats.put("waiting", String.valueOf(m_waiting));
+      stats.put("wait-count", String.valueOf(m_waitCount));
+      stats.put("wait-time", String.valueOf(m_waitTime));
+      stats.put("timeouts", String.valueOf(m_timeoutCount));
+    }
+    return stats;
+  }
+
   /**
    * Try to aquire a new connection, if it succeeds then return
    * true, else return false.
@@ -261,56 +514,115 @@ public class DefaultConnectionPool implements ConnectionPool
 
   // Find an available connection
   /**
+   * Take an idle connection, or make a new one if there is none and the
+   * pool is not at its largest size, or else wait for one to be released.
    * @return Connection
-   * @throws SQLException
+   * @throws SQLException if no connection could be made, or none was
+   * released within the max wait.
    * @throws IllegalArgumentException
    */
-  public synchronized Connection getConnection( )throws IllegalArgumentException, SQLException
+  public Connection getConnection( )throws IllegalArgumentException, SQLException
   {
-
-    PooledConnection pcon = null;
-
     // We will fill up the pool any time it is less than the
     // Minimum. THis could be cause by the enableing and disabling
     // or the pool.
     //
-    if ( m_pool.size() < m_PoolMinSize ) { initializePool(); }
+    if ( m_Driver == null || (m_IsActive && hasFewerThanMin()) ) { initializePool(); }
 
-    // find a connection not in use
-    for ( int x = 0; x < m_pool.size(); x++ )
-    {
+    long deadline = 0;
 
-      pcon = (PooledConnection) m_pool.elementAt(x);
+    while (true)
+    {
+      PooledConnection pcon = null;
 
-      // Check to see if the Connection is in use
-      if ( pcon.inUse() == false )
+      synchronized (m_lock)
       {
-        // Mark it as in use
-        pcon.setInUse(true);
-        // return the JDBC Connection stored in the
-        // PooledConnection object
-        return pcon.getConnection();
-      }
-    }
+        while (true)
+        {
+          final int last = m_idle.size() - 1;
+          if ( last >= 0 )
+          {
+            pcon = (PooledConnection) m_idle.elementAt(last);
+            m_idle.removeElementAt(last);
+            break;
+          }
 
-    // Could not find a free connection,
-    // create and add a new one
+          if ( m_PoolMaxSize == 0 || m_size < m_PoolMaxSize )
+          {
+            // Reserve the place of the connection we make below.
+            m_size++;
+            break;
+          }
 
-    // Create a new JDBC Connection
-    Connection con = createConnection();
+          // The pool is at its largest size, wait for a release.
+          final long now = System.currentTimeMillis();
+          if ( deadline == 0 )
+          {
+            deadline = (m_MaxWait < 0) ? Long.MAX_VALUE : now + m_MaxWait;
+            m_waitCount++;
+          }
+          if ( now >= deadline )
+          {
+            m_timeoutCount++;
+            throw new SQLException(XSLMessages.createMessage(
+              XSLTErrorResources.ER_POOL_WAIT_TIMEOUT,
+              new Object[]{ String.valueOf(m_MaxWait) }));
+          }
 
-    // Create a new PooledConnection, passing it the JDBC
-    // Connection
-    pcon = new PooledConnection(con);
+          m_waiting++;
+          try
+          {
+            m_lock.wait(deadline == Long.MAX_VALUE ? 0 : deadline - now);
+          }
+          catch (InterruptedException ie)
+          {
+            Thread.currentThread().interrupt();
+            throw new SQLException(ie.getMessage());
+          }
+          finally
+          {
+            m_waiting--;
+            m_waitTime += System.currentTimeMillis() - now;
+          }
+        }
+      }
 
-    // Mark the connection as in use
-    pcon.setInUse(true);
+      if ( pcon == null )
+      {
+        // Make a new connection in the place reserved above.
+        try
+        {
+          pcon = new PooledConnection(createConnection());
+        }
+        catch (SQLException e)
+        {
+          discard(null);
+          throw e;
+        }
+        catch (RuntimeException e)
+        {
+          discard(null);
+          throw e;
+        }
+        startEvictor();
+      }
+      else if ( !isValid(pcon) )
+      {
+        // A stale idle connection, close it and try the next one.
+        discard(pcon);
+        continue;
+      }
 
-    // Add the new PooledConnection object to the pool
-    m_pool.addElement(pcon);
+      pcon.setInUse(true);
+      synchronized (m_lock)
+      {
+        m_active.put(pcon.getConnection(), pcon);
+      }
 
-    // return the new Connection
-    return pcon.getConnection();
+      // return the JDBC Connection stored in the
+      // PooledConnection object
+      return pcon.getConnection();
+    }
   }
 
   /**
@@ -318,43 +630,40 @@ public class DefaultConnectionPool implements ConnectionPool
    *
    * @throws SQLException
    */
-  public synchronized void releaseConnection( Connection con )throws SQLException
+  public void releaseConnection( Connection con )throws SQLException
   {
+    PooledConnection pcon;
+    boolean keep;
 
-    // find the PooledConnection Object
-    for ( int x = 0; x < m_pool.size(); x++ )
+    synchronized (m_lock)
     {
+      // find the PooledConnection Object
+      pcon = (PooledConnection) m_active.remove(con);
+      if ( pcon == null ) return;
 
-      PooledConnection pcon =
-        (PooledConnection) m_pool.elementAt(x);
-
-      // Check for correct Connection
-      if ( pcon.getConnection() == con )
+      keep = isEnabled() && !isExpired(pcon, System.currentTimeMillis());
+      if ( keep )
       {
-        if (DEBUG)
-        {
-          System.out.println("Releasing Connection " + x);
-        }
-
-        if (! isEnabled())
-        {
-          con.close();
-          m_pool.removeElementAt(x);
-          if (DEBUG)
-          {
-            System.out.println("-->Inactive Pool, Closing connection");
-          }
+        // Set it's inuse attribute to false, which
+        // releases it for use
+        pcon.setInUse(false);
+        m_idle.addElement(pcon);
+        m_lock.notify();
+      }
+    }
 
-        }
-        else
-        {
-          // Set it's inuse attribute to false, which
-          // releases it for use
-          pcon.setInUse(false);
-        }
+    if (DEBUG)
+    {
+      System.out.println("Releasing Connection");
+    }
 
-        break;
+    if ( !keep )
+    {
+      if (DEBUG)
+      {
+        System.out.println("-->Inactive Pool, Closing connection");
       }
+      discard(pcon);
     }
   }
 
@@ -364,33 +673,24 @@ public class DefaultConnectionPool implements ConnectionPool
    *
    * @throws SQLException
    */
-  public synchronized void releaseConnectionOnError( Connection con )throws SQLException
+  public void releaseConnectionOnError( Connection con )throws SQLException
   {
+    PooledConnection pcon;
 
-    // find the PooledConnection Object
-    for ( int x = 0; x < m_pool.size(); x++ )
+    synchronized (m_lock)
     {
+      // find the PooledConnection Object
+      pcon = (PooledConnection) m_active.remove(con);
+    }
 
-      PooledConnection pcon =
-        (PooledConnection) m_pool.elementAt(x);
-
-      // Check for correct Connection
-      if ( pcon.getConnection() == con )
-      {
-        if (DEBUG)
-        {
-          System.out.println("Releasing Connection On Error" + x);
-        }
+    if ( pcon == null ) return;
 
-        con.close();
-        m_pool.removeElementAt(x);
-        if (DEBUG)
-        {
-          System.out.println("-->Inactive Pool, Closing connection");
-        }
-        break;
-      }
+    if (DEBUG)
+    {
+      System.out.println("Releasing Connection On Error");
     }
+
+    discard(pcon);
   }
 
 
@@ -406,9 +706,103 @@ public class DefaultConnectionPool implements ConnectionPool
     // with the context class loader. This is to support JDK1.4
     con = m_Driver.connect(m_url, m_ConnectionProtocol );
 
+    // A Driver returns null for a URL it does not handle.
+    if ( con == null )
+    {
+      throw new SQLException("No suitable driver for " + m_url);
+    }
+
     return con;
   }
 
+  /**
+   * Close a connection the pool holds and give up its place in the
+   * pool, waking a thread that waits for one.
+   * @param pcon The connection, or null if it could not be made.
+   */
+  private void discard( PooledConnection pcon )
+  {
+    synchronized (m_lock)
+    {
+      m_size--;
+      m_lock.notify();
+    }
+
+    if ( pcon != null ) pcon.close();
+  }
+
+  /**
+   * Close the PooledConnections in a list, outside of the lock.
+   */
+  private static void closeAll( Vector list )
+  {
+    for ( int x = 0; x < list.size(); x++ )
+    {
+      if (DEBUG)
+      {
+        System.err.println("Closing JDBC Connection ");
+      }
+      ((PooledConnection) list.elementAt(x)).close();
+    }
+  }
+
+  /**
+   * Check an idle connection before it is handed out, with the
+   * validation query if there is one.
+   */
+  private boolean isValid( PooledConnection pcon )
+  {
+    Connection con = pcon.getConnection();
+    try
+    {
+      if ( con.isClosed() ) return false;
+      if ( isExpired(pcon, System.currentTimeMillis()) ) return false;
+
+      String query = m_ValidationQuery;
+      if ( query != null )
+      {
+        Statement stmt = con.createStatement();
+        try
+        {
+          stmt.execute(query);
+        }
+        finally
+        {
+          stmt.close();
+        }
+      }
+      return true;
+    }
+    catch (SQLException e)
+    {
+      if (DEBUG)
+      {
+        System.out.println("Validation failed, " + e.getMessage());
+      }
+      return false;
+    }
+  }
+
+  /**
+   * @return true if the connection has been open longer than the max
+   * lifetime.
+   */
+  private boolean isExpired( PooledConnection pcon, long now )
+  {
+    return m_MaxLifetime > 0 && now - pcon.getCreationTime() >= m_MaxLifetime;
+  }
+
+  /**
+   * @return true if the pool holds fewer connections than its minimum.
+   */
+  private boolean hasFewerThanMin( )
+  {
+    synchronized (m_lock)
+    {
+      return m_size < m_PoolMinSize;
+    }
+  }
+
   // Initialize the pool
   /**
    *
@@ -438,28 +832,32 @@ public class DefaultConnectionPool implements ConnectionPool
      }
 
      // Create the Connections
-     // Load the Driver class file
+     // Load the Driver class file, once.
 
-     try
+     if ( m_Driver == null )
      {
-        // We have also had problems with drivers unloading
-        // load an instance that will get freed with the class.
-        m_Driver = (Driver) ObjectFactory.newInstance(
-          m_driver, ObjectFactory.findClassLoader(), true);
-
-        // Register the Driver that was loaded with the Context Classloader
-        // but we will ask for connections directly from the Driver
-        // instance
-        DriverManager.registerDriver(m_Driver);
-     }
-     catch(ObjectFactory.ConfigurationError e)
-     {
-       throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_INVALID_DRIVER_NAME, null));
-       // "Invalid Driver Name Specified!");
-     }
-     catch(Exception e)
-     {
-       throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_INVALID_DRIVER_NAME, null));
+       try
+       {
+          // We have also had problems with drivers unloading
+          // load an instance that will get freed with the class.
+          Driver driver = (Driver) ObjectFactory.newInstance(
+            m_driver, ObjectFactory.findClassLoader(), true);
+
+          // Register the Driver that was loaded with the Context Classloader
+          // but we will ask for connections directly from the Driver
+          // instance
+          DriverManager.registerDriver(driver);
+          m_Driver = driver;
+       }
+       catch(ObjectFactory.ConfigurationError e)
+       {
+         throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_INVALID_DRIVER_NAME, null));
+         // "Invalid Driver Name Specified!");
+       }
+       catch(Exception e)
+       {
+         throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_INVALID_DRIVER_NAME, null));
+       }
      }
 
      // IF we are not active, don't actuall build a pool yet
@@ -467,36 +865,127 @@ public class DefaultConnectionPool implements ConnectionPool
      if ( !m_IsActive) return;
 
     // Create Connections based on the size member
-    do
+    while (true)
+    {
+      synchronized (m_lock)
+      {
+        if ( m_size >= m_PoolMinSize ) break;
+        if ( m_PoolMaxSize > 0 && m_size >= m_PoolMaxSize ) break;
+        m_size++;
+      }
+
+      Connection con;
+      try
+      {
+        con = createConnection();
+      }
+      catch (SQLException e)
+      {
+        discard(null);
+        throw e;
+      }
+
+      // Create a PooledConnection to encapsulate the
+      // real JDBC Connection, and add it to the pool.
+      PooledConnection pcon = new PooledConnection(con);
+      synchronized (m_lock)
+      {
+        m_idle.addElement(pcon);
+        m_lock.notify();
+      }
+
+      if (DEBUG) System.out.println("Adding DB Connection to the Pool");
+    }
+
+    startEvictor();
+  }
+
+  /**
+   * Start the eviction thread if connections may need to be evicted and
+   * it is not running. It stops by itself once the pool is empty.
+   */
+  private void startEvictor( )
+  {
+    if ( m_MaxIdleTime == 0 && m_MaxLifetime == 0 ) return;
+
+    synchronized (m_lock)
     {
+      if ( m_evictor != null || m_size == 0 ) return;
+
+      m_evictor = new Thread(new Evictor(), "Xalan SQL connection pool evictor");
+      m_evictor.setDaemon(true);
+      m_evictor.start();
+    }
+  }
+
+  /**
+   * Close the idle connections that have been idle or open for too long.
+   * @return false if the pool is empty and the eviction thread should stop.
+   */
+  boolean evict( )
+  {
+    Vector evicted = new Vector();
 
-      Connection con = createConnection();
+    synchronized (m_lock)
+    {
+      final long now = System.currentTimeMillis();
 
-      if ( con != null )
+      // The least recently used connections are first.
+      for ( int x = 0; x < m_idle.size(); )
       {
+        PooledConnection pcon = (PooledConnection) m_idle.elementAt(x);
+        boolean idle = m_MaxIdleTime > 0
+          && now - pcon.getLastUsedTime() >= m_MaxIdleTime
+          && m_size > m_PoolMinSize;
 
-        // Create a PooledConnection to encapsulate the
-        // real JDBC Connection
-        PooledConnection pcon = new PooledConnection(con);
+        if ( idle || isExpired(pcon, now) )
+        {
+          m_idle.removeElementAt(x);
+          m_size--;
+          evicted.addElement(pcon);
+        }
+        else x++;
+      }
 
-        // Add the Connection the pool.
-        addConnection(pcon);
+      if ( evicted.size() > 0 ) m_lock.notifyAll();
 
-        if (DEBUG) System.out.println("Adding DB Connection to the Pool");
+      if ( m_size == 0 || (m_MaxIdleTime == 0 && m_MaxLifetime == 0) )
+      {
+        m_evictor = null;
+        closeAll(evicted);
+        return false;
       }
     }
-    while (m_pool.size() < m_PoolMinSize);
+
+    closeAll(evicted);
+    return true;
   }
 
-  // Adds the PooledConnection to the pool
   /**
-   * @param value
-   *
+   * The eviction thread. It only holds on to the pool while it is
+   * running, which it does while the pool holds connections.
    */
-  private void addConnection( PooledConnection value )
+  private final class Evictor implements Runnable
   {
-    // Add the PooledConnection Object to the vector
-    m_pool.addElement(value);
+    public void run( )
+    {
+      do
+      {
+        try
+        {
+          Thread.sleep(m_EvictionInterval);
+        }
+        catch (InterruptedException ie)
+        {
+          synchronized (m_lock)
+          {
+            m_evictor = null;
+          }
+          return;
+        }
+      }
+      while ( evict() );
+    }
   }
 
 
@@ -511,39 +1000,34 @@ public class DefaultConnectionPool implements ConnectionPool
       System.out.println("In Default Connection Pool, Finalize");
     }
 
-    // Iterate over the entire pool closing the
-    // JDBC Connections.
-    for ( int x = 0; x < m_pool.size(); x++ )
+    // Close the JDBC Connections that are not in use.
+    freeUnused();
+
+    Vector inUse;
+    synchronized (m_lock)
     {
+      inUse = new Vector();
+      Enumeration e = m_active.elements();
+      while (e.hasMoreElements()) inUse.addElement(e.nextElement());
+    }
 
+    if ( inUse.size() > 0 )
+    {
       if (DEBUG)
       {
-        System.out.println("Closing JDBC Connection " + x);
+        System.out.println("--> Force close");
       }
 
-      PooledConnection pcon =
-        (PooledConnection) m_pool.elementAt(x);
-
-      // If the PooledConnection is not in use, close it
-      if ( pcon.inUse() == false ) { pcon.close();  }
-      else
+      // If they are still in use, sleep for 30 seconds and
+      // force close.
+      try
       {
-        if (DEBUG)
-        {
-          System.out.println("--> Force close");
-        }
-
-        // If it still in use, sleep for 30 seconds and
-        // force close.
-        try
-        {
-          java.lang.Thread.sleep(30000);
-          pcon.close();
-        }
-        catch (InterruptedException ie)
-        {
-          if (DEBUG) System.err.println(ie.getMessage());
-        }
+        java.lang.Thread.sleep(30000);
+        closeAll(inUse);
+      }
+      catch (InterruptedException ie)
+      {
+        if (DEBUG) System.err.println(ie.getMessage());
       }
     }
 
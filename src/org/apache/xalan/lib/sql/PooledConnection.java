@@ -35,7 +35,16 @@ public class PooledConnection
   // boolean flag used to determine if connection is in use
   /**
    */
-  private boolean inuse = false;
+  private volatile boolean inuse = false;
+
+  // The time the connection was made, and the time it was last
+  // given back to the pool, used to evict old and idle connections.
+  /**
+   */
+  private final long created = System.currentTimeMillis();
+  /**
+   */
+  private long lastUsed = created;
 
   // Constructor that takes the passed in JDBC Connection
   // and stores it in the connection attribute.
@@ -65,6 +74,7 @@ public class PooledConnection
    */
   public void setInUse( boolean value )
   {
+    if ( inuse && !value ) { lastUsed = System.currentTimeMillis(); }
     inuse = value;
   }
 
@@ -74,6 +84,19 @@ public class PooledConnection
    */
   public boolean inUse( ) { return inuse; }
 
+  /**
+   * Returns the time the JDBC Connection was made, in milliseconds.
+   *
+   */
+  public long getCreationTime( ) { return created; }
+
+  /**
+   * Returns the time the PooledConnection was last released, or the
+   * time it was made if it has not been used yet, in milliseconds.
+   *
+   */
+  public long getLastUsedTime( ) { return lastUsed; }
+
   /**
    *  Close the real JDBC Connection
    *
@@ -127,6 +127,9 @@ public class SQLDocument extends DTMDocument
   /**
    */
   private static final String S_ISSEARCHABLE = "searchable";
+  /**
+   */
+  private static final String S_TUPLE = "tuple";
 
   /**
    */
@@ -198,12 +201,43 @@ public class SQLDocument extends DTMDocument
   /**
    */
   private int m_ColAttrib_ISSEARCHABLE_TypeID = 0;
+  /**
+   */
+  private int m_RowSetAttrib_TUPLE_TypeID = 0;
 
   /**
    * The Statement used to extract the data from the database connection.
    */
   private Statement m_Statement = null;
 
+  /**
+   * The Connection the Statement was made on.
+   */
+  private Connection m_Connection = null;
+
+  /**
+   * When the XConnection caches statements, its cache. The Connection
+   * then belongs to the XConnection and is not released by this document.
+   */
+  private StatementCache m_StatementCache = null;
+
+  /**
+   * True if the Statement came from the statement cache and is given back
+   * to it instead of being closed.
+   */
+  private boolean m_CachedStatement = false;
+
+  /**
+   * For a batch query, the parameter lists the PreparedStatement is
+   * executed with, one for each row-set.
+   */
+  private Vector m_Batch = null;
+
+  /**
+   * For a batch query, the number of parameter lists executed so far.
+   */
+  private int m_BatchIndex = 0;
+
   /**
    * Expression COntext used to creat this document
    * may be used to grab variables from the XSL processor
@@ -271,10 +305,34 @@ public class SQLDocument extends DTMDocument
 
   /**
    * Streaming Mode Control, In Streaming mode we reduce the memory
-   * footprint since we only use a single row instance.
+   * footprint since we only use a fixed window of row instances.
    */
   private boolean m_StreamingMode = true;
 
+  /**
+   * In Streaming mode, the number of row instances that are reused for
+   * the rows of the ResultSet. The last m_RowWindow rows read stay in the
+   * tree, so a stylesheet may look back that far from the current row.
+   */
+  private int m_RowWindow = 1;
+
+  /**
+   * In Streaming mode, the row instances of the window, in the order
+   * they were added. The slot after the newest row holds the oldest row.
+   */
+  private int[] m_RowSlots;
+
+  /**
+   * In Streaming mode, the number of row instances added so far,
+   * at most m_RowWindow.
+   */
+  private int m_RowSlotCount = 0;
+
+  /**
+   * In Streaming mode, the index in m_RowSlots of the newest row.
+   */
+  private int m_NewestSlot = 0;
+
   /**
    * Multiple Result sets mode (metadata inside rowset).
    */
@@ -362,6 +420,7 @@ public class SQLDocument extends DTMDocument
     try
     {
       m_StreamingMode = "true".equals(xconn.getFeature("streaming"));
+      m_RowWindow = Math.max(1, xconn.getIntFeature("streaming-window"));
       m_MultipleResults = "true".equals(xconn.getFeature("multiple-results"));
       m_IsStatementCachingEnabled = "true".equals(xconn.getFeature("cache-statements"));
       m_XConnection = xconn;
@@ -376,7 +435,7 @@ public class SQLDocument extends DTMDocument
       m_SQLIdx = addElement(1, m_SQL_TypeID,  m_DocumentIdx, DTM.NULL);
 
 
-      if ( ! m_MultipleResults )
+      if ( ! m_MultipleResults && m_ResultSet != null )
         extractSQLMetaData(m_ResultSet.getMetaData());
 
       // Only grab the first row, subsequent rows will be
@@ -396,15 +455,50 @@ public class SQLDocument extends DTMDocument
     }
   }
 
+  /**
+   * Execute a parameterized query once for each parameter list of a
+   * batch, with one PreparedStatement. Each parameter list gets a row-set
+   * of its own, with a tuple attribute that holds the position of the
+   * parameter list. The columns are the same for all of them, so unless
+   * multiple results are enabled there is one metadata element, before
+   * the row-sets, as for a single query.
+   * @param xconn
+   * @param query
+   * @param batch a Vector of parameter lists, each a Vector of QueryParameters.
+   * @throws SQLException
+   */
+  public void executeBatch(XConnection xconn, SQLQueryParser query, Vector batch)
+    throws SQLException
+  {
+    m_Batch = batch;
+    m_BatchIndex = 0;
+
+    execute(xconn, query);
+
+    // With an empty batch there is nothing to read.
+    if (m_ResultSet == null) closeStatement();
+  }
+
   private void executeSQLStatement() throws SQLException
   {
     m_ConnectionPool = m_XConnection.getConnectionPool();
+    m_StatementCache = m_XConnection.getStatementCache();
+
+    Connection conn = (m_StatementCache != null) ?
+      m_StatementCache.getConnection() : m_ConnectionPool.getConnection();
+    m_Connection = conn;
 
-    Connection conn = m_ConnectionPool.getConnection();
+    if (m_Batch != null)
+    {
+      m_Statement = prepareStatement(conn, false);
+      setStatementLimits(m_Statement);
+      m_ResultSet = nextResultSet();
+    }
 
-    if (! m_QueryParser.hasParameters() )
+    else if (! m_QueryParser.hasParameters() )
     {
       m_Statement = conn.createStatement();
+      setStatementLimits(m_Statement);
       m_ResultSet = m_Statement.executeQuery(m_QueryParser.getSQLQuery());
 
 
@@ -413,25 +507,85 @@ public class SQLDocument extends DTMDocument
     else if (m_QueryParser.isCallable())
     {
       CallableStatement cstmt =
-        conn.prepareCall(m_QueryParser.getSQLQuery());
+        (CallableStatement) prepareStatement(conn, true);
+      m_Statement = cstmt;
       m_QueryParser.registerOutputParameters(cstmt);
       m_QueryParser.populateStatement(cstmt, m_ExpressionContext);
-      m_Statement = cstmt;
+      setStatementLimits(cstmt);
       if (! cstmt.execute()) throw new SQLException("Error in Callable Statement");
 
       m_ResultSet = m_Statement.getResultSet();
     }
     else
     {
-      PreparedStatement stmt =
-        conn.prepareStatement(m_QueryParser.getSQLQuery());
-      m_QueryParser.populateStatement(stmt, m_ExpressionContext);
+      PreparedStatement stmt = prepareStatement(conn, false);
       m_Statement = stmt;
+      m_QueryParser.populateStatement(stmt, m_ExpressionContext);
+      setStatementLimits(stmt);
       m_ResultSet = stmt.executeQuery();
     }
 
   }
 
+  /**
+   * Prepare the query, or take its PreparedStatement from the statement
+   * cache of the XConnection if it keeps one.
+   */
+  private PreparedStatement prepareStatement(Connection conn, boolean callable)
+    throws SQLException
+  {
+    String sql = m_QueryParser.getSQLQuery();
+
+    if (m_StatementCache != null)
+    {
+      m_CachedStatement = true;
+      return m_StatementCache.prepare(sql, callable);
+    }
+
+    return callable ? conn.prepareCall(sql) : conn.prepareStatement(sql);
+  }
+
+  /**
+   * Move on to the next ResultSet, in Multiple Results mode or for a batch
+   * query, where this executes the PreparedStatement with the next
+   * parameter list.
+   * @return The ResultSet, or null if there are no more.
+   */
+  private ResultSet nextResultSet() throws SQLException
+  {
+    if (m_Batch != null)
+    {
+      if (m_BatchIndex >= m_Batch.size()) return null;
+
+      PreparedStatement stmt = (PreparedStatement) m_Statement;
+      stmt.clearParameters();
+      m_QueryParser.setParameters((Vector) m_Batch.elementAt(m_BatchIndex++));
+      m_QueryParser.populateStatement(stmt, m_ExpressionContext);
+      return stmt.executeQuery();
+    }
+
+    while ( !m_Statement.getMoreResults() && m_Statement.getUpdateCount() >= 0 ) ;
+    return m_Statement.getResultSet();
+  }
+
+  /**
+   * Pass the fetch-size and max-rows features of the XConnection on to
+   * the Statement, 0 leaves the driver's default. A cached Statement
+   * always gets both, so it does not keep the limits of an earlier query.
+   * The fetch size lets a driver that would read the whole ResultSet
+   * into memory read it in blocks as the rows are used; max-rows lets
+   * the database stop the query, and so the cursor, after that many rows.
+   */
+  private void setStatementLimits(Statement stmt) throws SQLException
+  {
+    int fetchSize = m_XConnection.getIntFeature("fetch-size");
+    if (fetchSize > 0 || m_CachedStatement) stmt.setFetchSize(fetchSize);
+
+    int maxRows = m_XConnection.getIntFeature("max-rows");
+    if (maxRows > 0 || m_CachedStatement) stmt.setMaxRows(maxRows);
+
+  }
+
   /**
    * Push the record set forward value rows. Used to help in 
    * SQL pagination.
@@ -772,6 +926,8 @@ public class SQLDocument extends DTMDocument
       m_expandedNameTable.getExpandedTypeID(S_NAMESPACE, S_ISWRITEABLE, DTM.ATTRIBUTE_NODE);
     m_ColAttrib_ISSEARCHABLE_TypeID =
       m_expandedNameTable.getExpandedTypeID(S_NAMESPACE, S_ISSEARCHABLE, DTM.ATTRIBUTE_NODE);
+    m_RowSetAttrib_TUPLE_TypeID =
+      m_expandedNameTable.getExpandedTypeID(S_NAMESPACE, S_TUPLE, DTM.ATTRIBUTE_NODE);
   }
 
 
@@ -792,7 +948,10 @@ public class SQLDocument extends DTMDocument
       if (m_FirstRowIdx == DTM.NULL)
       {
         m_RowSetIdx =
-          addElement(1, m_RowSet_TypeID,  m_SQLIdx, m_MultipleResults ? m_RowSetIdx : m_MetaDataIdx);
+          addElement(1, m_RowSet_TypeID,  m_SQLIdx,
+            (m_MultipleResults || m_RowSetIdx != DTM.NULL) ? m_RowSetIdx : m_MetaDataIdx);
+        if ( m_Batch != null )
+          addAttributeToNode(new Integer(m_BatchIndex), m_RowSetAttrib_TUPLE_TypeID, m_RowSetIdx);
         if ( m_MultipleResults ) extractSQLMetaData(m_ResultSet.getMetaData());
       }
 
@@ -813,18 +972,17 @@ public class SQLDocument extends DTMDocument
         }
 
         m_ResultSet.close();
-        if ( m_MultipleResults )
-        {
-          while ( !m_Statement.getMoreResults() && m_Statement.getUpdateCount() >= 0 ) ;
-          m_ResultSet = m_Statement.getResultSet();
-        }
+        if ( m_MultipleResults || m_Batch != null )
+          m_ResultSet = nextResultSet();
         else
           m_ResultSet = null;
 
         if ( m_ResultSet != null )
         {
+          // The next ResultSet starts a new row-set, which is added
+          // when it is first asked for. Adding it here would recurse
+          // once for every empty ResultSet, and a batch may have many.
           m_FirstRowIdx = DTM.NULL;
-          addRowToDTMFromResultSet();
         }
         else
         {
@@ -851,6 +1009,10 @@ public class SQLDocument extends DTMDocument
 
           SQLWarning warn = checkWarnings();
           if ( warn != null )	m_XConnection.setError(null, null, warn);
+
+          // All the data has been read, so give the Statement and the
+          // Connection back now instead of when the document is closed.
+          closeStatement();
         }
 
         return false;
@@ -866,23 +1028,41 @@ public class SQLDocument extends DTMDocument
 
         if (m_StreamingMode)
         {
+          m_RowSlots = new int[m_RowWindow];
+          m_RowSlots[0] = m_FirstRowIdx;
+          m_RowSlotCount = 1;
+          m_NewestSlot = 0;
+
           // Let's tie the rows together until the end.
-          m_nextsib.setElementAt(m_LastRowIdx, m_LastRowIdx);
+          if (m_RowWindow == 1)
+            m_nextsib.setElementAt(m_LastRowIdx, m_LastRowIdx);
         }
 
       }
       else
       {
         //
-        // If we are in Streaming mode, then only use a single row instance
+        // If we are in Streaming mode, then only use the row instances
+        // of the window
         if (! m_StreamingMode)
         {
           m_LastRowIdx = addElement(2, m_Row_TypeID, m_RowSetIdx, m_LastRowIdx);
         }
+        else if (m_RowSlotCount < m_RowWindow)
+        {
+          m_LastRowIdx = addElement(2, m_Row_TypeID, m_RowSetIdx, m_LastRowIdx);
+          m_NewestSlot = m_RowSlotCount++;
+          m_RowSlots[m_NewestSlot] = m_LastRowIdx;
+        }
+        else
+        {
+          reuseOldestRow();
+        }
       }
 
       // If we are not in streaming mode, this will always be DTM.NULL
-      // If we are in streaming mode, it will only be DTM.NULL the first time
+      // If we are in streaming mode, it will only be DTM.NULL the first
+      // time a row instance is used
       int colID = _firstch(m_LastRowIdx);
 
       // Keep Track of who our parent was when adding new col objects.
@@ -945,6 +1125,44 @@ public class SQLDocument extends DTMDocument
   }
 
 
+  /**
+   * In Streaming mode, once the window is full, move the row instance of
+   * the oldest row to the end of the row list so it can take the next
+   * row. The row after it becomes the first row that can be reached.
+   */
+  private void reuseOldestRow( )
+  {
+    int next = (m_NewestSlot + 1) % m_RowWindow;
+    int rowIdx = m_RowSlots[next];
+
+    if (rowIdx != m_LastRowIdx)
+    {
+      int oldestIdx = m_RowSlots[(next + 1) % m_RowWindow];
+
+      // Unlink the row from the front of the list
+      if (m_MultipleResults)
+      {
+        m_prevsib.setElementAt(m_MetaDataIdx, oldestIdx);
+        m_nextsib.setElementAt(oldestIdx, m_MetaDataIdx);
+      }
+      else
+      {
+        m_prevsib.setElementAt(DTM.NULL, oldestIdx);
+        m_firstch.setElementAt(oldestIdx, m_RowSetIdx);
+      }
+
+      // and add it to the end
+      m_prevsib.setElementAt(m_LastRowIdx, rowIdx);
+      m_nextsib.setElementAt(DTM.NULL, rowIdx);
+    }
+
+    // With a window of one row, this ties the row to itself until the end.
+    m_nextsib.setElementAt(rowIdx, m_LastRowIdx);
+
+    m_NewestSlot = next;
+    m_LastRowIdx = rowIdx;
+  }
+
   /**
    * Used by the XConnection to determine if the Document should
    * handle the document differently.
@@ -971,6 +1189,18 @@ public class SQLDocument extends DTMDocument
     }
     catch(Exception e) {}
 
+    closeStatement();
+
+    getManager().release(this, true);
+  }
+
+  /**
+   * Close the ResultSet and the Statement, if they are still open, and
+   * release the SQL Connection to the Connection Pool. This is done as
+   * soon as all the data was read, or else when the document is closed.
+   */
+  private void closeStatement( )
+  {
     try
     {
       if (null != m_ResultSet)
@@ -982,14 +1212,19 @@ public class SQLDocument extends DTMDocument
     catch(Exception e) {}
 
 
-    Connection conn = null;
+    Connection conn = m_Connection;
+    m_Connection = null;
 
     try
     {
       if (null != m_Statement)
       {
-        conn = m_Statement.getConnection();
-        m_Statement.close();
+        // A cached statement goes back to the cache, unless it failed.
+        if (m_CachedStatement && !m_HasErrors)
+          m_StatementCache.release(m_QueryParser.getSQLQuery(),
+            m_QueryParser.isCallable(), (PreparedStatement) m_Statement);
+        else
+          m_Statement.close();
         m_Statement = null;
       }
     }
@@ -997,7 +1232,8 @@ public class SQLDocument extends DTMDocument
 
     try
     {
-      if (conn != null)
+      // The Connection of the statement cache belongs to the XConnection.
+      if (conn != null && m_StatementCache == null)
       {
         if (m_HasErrors)  m_ConnectionPool.releaseConnectionOnError(conn);
         else m_ConnectionPool.releaseConnection(conn);
@@ -1005,8 +1241,6 @@ public class SQLDocument extends DTMDocument
       }
     }
     catch(Exception e) {}
-
-    getManager().release(this, true);
   }
 
   /**
@@ -1026,6 +1260,23 @@ public class SQLDocument extends DTMDocument
     }
   }
 
+  /**
+   * In Multiple Results mode the row-sets are the only children of the
+   * sql element, so the first one is read when they are first asked for.
+   * @param identity
+   * @return
+   */
+  protected int _firstch( int identity )
+  {
+    if ( m_MultipleResults && identity == m_SQLIdx &&
+      m_FirstRowIdx == DTM.NULL && m_ResultSet != null )
+    {
+      addRowToDTMFromResultSet();
+    }
+
+    return super._firstch(identity);
+  }
+
   /**
    * @param identity
    * @return
@@ -1047,14 +1298,16 @@ public class SQLDocument extends DTMDocument
         addRowToDTMFromResultSet();
       }
       
+      // In Streaming mode the row instances are reused, so only the
+      // newest row is followed by the next row from the ResultSet.
       if (
         ( id == m_Row_TypeID) &&
-        (identity >= m_LastRowIdx) )
+        (m_StreamingMode ? identity == m_LastRowIdx : identity >= m_LastRowIdx) )
       {
         if (DEBUG) System.out.println("reading from the ResultSet");
         addRowToDTMFromResultSet();
       }
-      else if ( m_MultipleResults && identity == m_RowSetIdx )
+      else if ( (m_MultipleResults || m_Batch != null) && identity == m_RowSetIdx )
       {
         if (DEBUG) System.out.println("reading for next ResultSet");
       int startIdx = m_RowSetIdx;
@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xalan.lib.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Hashtable;
+
+/**
+ * A least recently used cache of the PreparedStatements of one JDBC
+ * Connection, keyed by their SQL text with the white space normalized.
+ * This is used by the XConnection when the "cache-statements" feature is
+ * set, so a parameterized query run for every node of a large node-set is
+ * only prepared once.
+ * <p>
+ * A statement is taken out of the cache while an SQLDocument reads its
+ * ResultSet and put back when the document is done with it, so two
+ * documents open on the same query each get a statement of their own.
+ */
+final class StatementCache
+{
+  /**
+   * The default largest number of statements kept.
+   */
+  static final int DEFAULT_SIZE = 32;
+
+  /**
+   * The Connection the statements were prepared on.
+   */
+  private final Connection m_Connection;
+
+  /**
+   * The largest number of statements kept.
+   */
+  private int m_MaxSize;
+
+  /**
+   * The Entries of the statements that are not in use, by their keys.
+   */
+  private final Hashtable m_Statements = new Hashtable();
+
+  /**
+   * The Entries of m_Statements, the most recently used first.
+   */
+  private Entry m_Head;
+  private Entry m_Tail;
+
+  /**
+   * @param conn The Connection to prepare the statements on.
+   * @param maxSize The largest number of statements to keep.
+   */
+  StatementCache( Connection conn, int maxSize )
+  {
+    m_Connection = conn;
+    m_MaxSize = Math.max(1, maxSize);
+  }
+
+  /**
+   * @return The Connection the statements are prepared on.
+   */
+  Connection getConnection( )
+  {
+    return m_Connection;
+  }
+
+  /**
+   * Take the statement for an SQL query out of the cache, or prepare one
+   * if there is none.
+   * @param sql The SQL query.
+   * @param callable true for a CallableStatement.
+   * @return The statement, to give back with {@link #release}.
+   * @throws SQLException
+   */
+  synchronized PreparedStatement prepare( String sql, boolean callable ) throws SQLException
+  {
+    Entry entry = (Entry) m_Statements.remove(getKey(sql, callable));
+
+    if ( entry != null )
+    {
+      unlink(entry);
+      return entry.m_Statement;
+    }
+
+    return callable ? m_Connection.prepareCall(sql) : m_Connection.prepareStatement(sql);
+  }
+
+  /**
+   * Give a statement back once its ResultSet is closed. If the cache
+   * already holds one for the query, or is full, a statement is closed.
+   * @param sql The SQL query the statement was prepared for.
+   * @param callable true for a CallableStatement.
+   * @param stmt The statement.
+   */
+  synchronized void release( String sql, boolean callable, PreparedStatement stmt )
+  {
+    try
+    {
+      stmt.clearParameters();
+    }
+    catch (SQLException e)
+    {
+      close(stmt);
+      return;
+    }
+
+    Entry entry = new Entry(getKey(sql, callable), stmt);
+    Entry old = (Entry) m_Statements.put(entry.m_Key, entry);
+    if ( old != null )
+    {
+      unlink(old);
+      close(old.m_Statement);
+    }
+    linkFirst(entry);
+
+    trim();
+  }
+
+  /**
+   * Close all the statements that are not in use.
+   */
+  synchronized void clear( )
+  {
+    for ( Entry entry = m_Head; entry != null; entry = entry.m_Next )
+    {
+      close(entry.m_Statement);
+    }
+    m_Statements.clear();
+    m_Head = m_Tail = null;
+  }
+
+  /**
+   * Change the largest number of statements kept, closing the least
+   * recently used ones if there are more.
+   */
+  synchronized void setMaxSize( int maxSize )
+  {
+    m_MaxSize = Math.max(1, maxSize);
+    trim();
+  }
+
+  /**
+   * Close the least recently used statements until there are no more
+   * than m_MaxSize.
+   */
+  private void trim( )
+  {
+    while ( m_Statements.size() > m_MaxSize )
+    {
+      Entry entry = m_Tail;
+      m_Statements.remove(entry.m_Key);
+      unlink(entry);
+      close(entry.m_Statement);
+    }
+  }
+
+  private void linkFirst( Entry entry )
+  {
+    entry.m_Prev = null;
+    entry.m_Next = m_Head;
+    if ( m_Head != null ) m_Head.m_Prev = entry;
+    m_Head = entry;
+    if ( m_Tail == null ) m_Tail = entry;
+  }
+
+  private void unlink( Entry entry )
+  {
+    if ( entry.m_Prev != null ) entry.m_Prev.m_Next = entry.m_Next;
+    else m_Head = entry.m_Next;
+    if ( entry.m_Next != null ) entry.m_Next.m_Prev = entry.m_Prev;
+    else m_Tail = entry.m_Prev;
+    entry.m_Prev = entry.m_Next = null;
+  }
+
+  /**
+   * The key of a query, its text with each run of white space outside of
+   * quotes replaced by a single space, so the same query laid out on
+   * different lines of a stylesheet shares its statement.
+   */
+  static String getKey( String sql, boolean callable )
+  {
+    StringBuffer key = new StringBuffer(sql.length() + 1);
+    key.append(callable ? 'C' : 'P');
+
+    char quote = 0;
+    boolean space = false;
+    for ( int i = 0; i < sql.length(); i++ )
+    {
+      char ch = sql.charAt(i);
+      if ( quote == 0 && Character.isWhitespace(ch) )
+      {
+        space = true;
+        continue;
+      }
+
+      if ( space && key.length() > 1 ) key.append(' ');
+      space = false;
+
+      if ( quote == 0 && (ch == '\'' || ch == '"') ) quote = ch;
+      else if ( ch == quote ) quote = 0;
+      key.append(ch);
+    }
+
+    return key.toString();
+  }
+
+  private static void close( PreparedStatement stmt )
+  {
+    try
+    {
+      stmt.close();
+    }
+    catch (SQLException e) {}
+  }
+
+  /**
+   * A statement in the cache, on the list from m_Head to m_Tail.
+   */
+  private static final class Entry
+  {
+    final String m_Key;
+    final PreparedStatement m_Statement;
+    Entry m_Prev;
+    Entry m_Next;
+
+    Entry( String key, PreparedStatement stmt )
+    {
+      m_Key = key;
+      m_Statement = stmt;
+    }
+  }
+}
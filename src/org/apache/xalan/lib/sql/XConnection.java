@@ -168,6 +168,30 @@ public class XConnection
    */
   private boolean m_IsStreamingEnabled = true;
 
+  /**
+   * The default number of row instances an SQL Document uses in
+   * Streaming mode.
+   */
+  public static final int DEFAULT_STREAMING_WINDOW = 16;
+
+  /**
+   * In Streaming mode, the number of row instances the SQL Document
+   * reuses for the rows of the query. The stylesheet may look back this
+   * many rows, less one, from the current row.
+   */
+  private int m_StreamingWindow = DEFAULT_STREAMING_WINDOW;
+
+  /**
+   * The JDBC fetch size for the queries, the number of rows the driver
+   * reads from the database at a time. 0 leaves the driver's default.
+   */
+  private int m_FetchSize = 0;
+
+  /**
+   * The largest number of rows a query returns, 0 for no limit.
+   */
+  private int m_MaxRows = 0;
+
   /**
    *
    */
@@ -188,6 +212,19 @@ public class XConnection
    */
   private boolean m_IsStatementCachingEnabled = false;
 
+  /**
+   * The largest number of PreparedStatements kept when statement caching
+   * is enabled.
+   */
+  private int m_StatementCacheSize = StatementCache.DEFAULT_SIZE;
+
+  /**
+   * When statement caching is enabled, the PreparedStatements of
+   * m_Connection, the Connection the XConnection then keeps for all its
+   * queries until it is closed.
+   */
+  private StatementCache m_StatementCache = null;
+
   /**
    */
   public XConnection( )
@@ -660,6 +697,26 @@ public class XConnection
     return m_ConnectionPool;
   }
 
+  /**
+   * When statement caching is enabled, the SQL Documents run their
+   * queries on one Connection that this XConnection keeps until it is
+   * closed, and take their PreparedStatements from its cache.
+   * @return The cache, or null if statement caching is not enabled.
+   * @throws SQLException if the Connection could not be got.
+   */
+  StatementCache getStatementCache() throws SQLException
+  {
+    if ( !m_IsStatementCachingEnabled ) return null;
+
+    if ( m_StatementCache == null )
+    {
+      if ( m_Connection == null ) m_Connection = m_ConnectionPool.getConnection();
+      m_StatementCache = new StatementCache(m_Connection, m_StatementCacheSize);
+    }
+
+    return m_StatementCache;
+  }
+
 
   /**
    * Execute a query statement by instantiating an
@@ -813,6 +870,101 @@ public class XConnection
     return doc;
   }
 
+  /**
+   * Execute a parameterized query once for each of a set of parameter
+   * tuples, with a single PreparedStatement, and return the results as
+   * one document with a row-set element for each tuple, in the order of
+   * the tuples. Each row-set has a tuple attribute with the position of
+   * its tuple, counting from 1. The row-sets share one metadata element,
+   * unless multiple results are enabled.
+   * <p>
+   * The tuples are formatted as for addParameterFromElement, each node
+   * of the node-set is an element whose child elements hold the values of
+   * the parameters:
+   * <pre>
+   *   &lt;key&gt;&lt;id type="int"&gt;1&lt;/id&gt;&lt;/key&gt;
+   *   &lt;key&gt;&lt;id type="int"&gt;2&lt;/id&gt;&lt;/key&gt;
+   * </pre>
+   * This replaces calling pquery for every node of the node-set, which
+   * prepares the query and builds a document each time.
+   * @param exprContext
+   * @param queryString the SQL query, with a ? for each parameter.
+   * @param tuples the parameter tuples.
+   * @return the document, null if there was an error.
+   */
+  public DTM pqueryBatch( ExpressionContext exprContext, String queryString, NodeList tuples )
+  {
+    return(pqueryBatch(exprContext, queryString, tuples, null));
+  }
+
+  /**
+   * Execute a parameterized query once for each of a set of parameter
+   * tuples, see pqueryBatch(ExpressionContext, String, NodeList).
+   * @param exprContext
+   * @param queryString the SQL query, with a ? for each parameter.
+   * @param tuples the parameter tuples.
+   * @param typeInfo a space seperated list of parameter types that
+   * override the types given in the tuples.
+   * @return the document, null if there was an error.
+   */
+  public DTM pqueryBatch( ExpressionContext exprContext, String queryString, NodeList tuples, String typeInfo )
+  {
+    SQLDocument doc = null;
+
+    try
+    {
+      if (DEBUG) System.out.println("pqueryBatch()");
+
+      // Build an Error Document, NOT Connected.
+      if ( null == m_ConnectionPool ) return null;
+
+      SQLQueryParser query =
+          m_QueryParser.parse
+            (this, queryString, SQLQueryParser.NO_INLINE_PARSER);
+
+      Vector batch = new Vector();
+      int count = tuples.getLength();
+      for (int x=0; x<count; x++)
+      {
+        Vector parameters = new Vector();
+        addParameters( (Element) tuples.item(x), parameters );
+        addTypeToData(typeInfo, parameters);
+        batch.addElement(parameters);
+      }
+
+      doc = SQLDocument.getNewDocument(exprContext);
+      doc.executeBatch(this, query, batch);
+
+      // also keep a local reference
+      m_OpenSQLDocuments.addElement(doc);
+    }
+    catch (Exception e)
+    {
+      // OK We had an error building the document, let try and grab the
+      // error information and clean up our connections.
+
+      if (DEBUG) System.out.println("exception in pqueryBatch()");
+
+      if (doc != null)
+      {
+        if (doc.hasErrors())
+        {
+          setError(e, doc, doc.checkWarnings());
+        }
+
+        doc.close(m_IsDefaultPool);
+        doc = null;
+      }
+    }
+    finally
+    {
+      if (DEBUG) System.out.println("leaving pqueryBatch()");
+    }
+
+    // Doc will be null if there was an error
+    return doc;
+  }
+
   /**
    * The purpose of this routine is to force the DB cursor to skip forward
    * N records. You should call this function after [p]query to help with
@@ -835,10 +987,15 @@ public class XConnection
   
 
   private void addTypeToData(String typeInfo)
+  {
+      addTypeToData(typeInfo, m_ParameterList);
+  }
+
+  private void addTypeToData(String typeInfo, Vector parameterList)
   {
       int indx;
 
-      if ( typeInfo != null && m_ParameterList != null )
+      if ( typeInfo != null && parameterList != null )
       {
           // Parse up the parameter types that were defined
           // with the query
@@ -852,7 +1009,8 @@ public class XConnection
           while (plist.hasMoreTokens())
           {
             String value = plist.nextToken();
-            QueryParameter qp = (QueryParameter) m_ParameterList.elementAt(indx);
+            if ( indx >= parameterList.size() ) break;
+            QueryParameter qp = (QueryParameter) parameterList.elementAt(indx);
             if ( null != qp )
             {
               qp.setTypeName(value);
@@ -932,15 +1090,16 @@ public class XConnection
     int count = nl.getLength();
     for (int x=0; x<count; x++)
     {
-      addParameters( (Element) nl.item(x));
+      addParameters( (Element) nl.item(x), m_ParameterList);
     }
   }
 
   /**
    * @param elem
+   * @param parameterList the list to add the parameters to
    *
    */
-  private void addParameters( Element elem )
+  private void addParameters( Element elem, Vector parameterList )
   {
     //
     // Process all of the Child Elements
@@ -975,7 +1134,7 @@ public class XConnection
           if (value == null) value = "";
 
 
-          m_ParameterList.addElement(
+          parameterList.addElement(
             new QueryParameter(value, TypeStr) );
         }
       }
@@ -1119,6 +1278,12 @@ public class XConnection
       m_OpenSQLDocuments.removeElementAt(0);
     }
 
+    if ( null != m_StatementCache )
+    {
+      m_StatementCache.clear();
+      m_StatementCache = null;
+    }
+
     if ( null != m_Connection )
     {
       m_ConnectionPool.releaseConnection(m_Connection);
@@ -1326,8 +1491,9 @@ public class XConnection
 
   /**
    * Set feature options for this XConnection.
-   * @param feature The name of the feature being set, currently supports (streaming, inline-variables, multiple-results, cache-statements, default-pool-enabled).
-   * @param setting The new setting for the specified feature, currently "true" is true and anything else is false.
+   * @param feature The name of the feature being set, currently supports (streaming, streaming-window, fetch-size, max-rows, inline-variables, multiple-results, cache-statements, statement-cache-size, default-pool-enabled).
+   * @param setting The new setting for the specified feature, currently "true" is true and anything else is false,
+   * or a number for streaming-window, fetch-size, max-rows and statement-cache-size.
    *
    */
   public void setFeature(String feature, String setting)
@@ -1340,6 +1506,18 @@ public class XConnection
     {
       m_IsStreamingEnabled = value;
     }
+    else if ( "streaming-window".equalsIgnoreCase(feature) )
+    {
+      m_StreamingWindow = Math.max(1, parseIntSetting(setting, DEFAULT_STREAMING_WINDOW));
+    }
+    else if ( "fetch-size".equalsIgnoreCase(feature) )
+    {
+      m_FetchSize = Math.max(0, parseIntSetting(setting, 0));
+    }
+    else if ( "max-rows".equalsIgnoreCase(feature) )
+    {
+      m_MaxRows = Math.max(0, parseIntSetting(setting, 0));
+    }
     else if ( "inline-variables".equalsIgnoreCase(feature) )
     {
       m_InlineVariables = value;
@@ -1352,6 +1530,11 @@ public class XConnection
     {
       m_IsStatementCachingEnabled = value;
     }
+    else if ( "statement-cache-size".equalsIgnoreCase(feature) )
+    {
+      m_StatementCacheSize = Math.max(1, parseIntSetting(setting, StatementCache.DEFAULT_SIZE));
+      if ( m_StatementCache != null ) m_StatementCache.setMaxSize(m_StatementCacheSize);
+    }
     else if ( "default-pool-enabled".equalsIgnoreCase(feature) )
     {
       m_DefaultPoolingEnabled = value;
@@ -1370,7 +1553,7 @@ public class XConnection
   /**
    * Get feature options for this XConnection.
    * @param feature The name of the feature to get the setting for.
-   * @return The setting of the specified feature. Will be "true" or "false" (null if the feature is not known)
+   * @return The setting of the specified feature. Will be "true" or "false", or a number (null if the feature is not known)
    */
   public String getFeature(String feature)
   {
@@ -1378,12 +1561,20 @@ public class XConnection
 
     if ( "streaming".equalsIgnoreCase(feature) )
       value = m_IsStreamingEnabled ? "true" : "false";
+    else if ( "streaming-window".equalsIgnoreCase(feature) )
+      value = String.valueOf(m_StreamingWindow);
+    else if ( "fetch-size".equalsIgnoreCase(feature) )
+      value = String.valueOf(m_FetchSize);
+    else if ( "max-rows".equalsIgnoreCase(feature) )
+      value = String.valueOf(m_MaxRows);
     else if ( "inline-variables".equalsIgnoreCase(feature) )
       value = m_InlineVariables ? "true" : "false";
     else if ( "multiple-results".equalsIgnoreCase(feature) )
       value = m_IsMultipleResultsEnabled ? "true" : "false";
     else if ( "cache-statements".equalsIgnoreCase(feature) )
       value = m_IsStatementCachingEnabled ? "true" : "false";
+    else if ( "statement-cache-size".equalsIgnoreCase(feature) )
+      value = String.valueOf(m_StatementCacheSize);
     else if ( "default-pool-enabled".equalsIgnoreCase(feature) )
       value = m_DefaultPoolingEnabled ? "true" : "false";
     else if ( "full-errors".equalsIgnoreCase(feature) )
@@ -1392,6 +1583,41 @@ public class XConnection
     return(value);
   }
 
+  /**
+   * Get the setting of one of the numeric features, streaming-window,
+   * fetch-size, max-rows or statement-cache-size.
+   * @param feature The name of the feature.
+   * @return The setting, 0 if the feature is not known.
+   */
+  public int getIntFeature(String feature)
+  {
+    if ( "streaming-window".equalsIgnoreCase(feature) )
+      return m_StreamingWindow;
+    else if ( "fetch-size".equalsIgnoreCase(feature) )
+      return m_FetchSize;
+    else if ( "max-rows".equalsIgnoreCase(feature) )
+      return m_MaxRows;
+    else if ( "statement-cache-size".equalsIgnoreCase(feature) )
+      return m_StatementCacheSize;
+
+    return 0;
+  }
+
+  /**
+   * @return The setting as a number, or the default if it is not one.
+   */
+  private static int parseIntSetting(String setting, int defaultValue)
+  {
+    try
+    {
+      return Integer.parseInt(setting.trim());
+    }
+    catch(Exception e)
+    {
+      return defaultValue;
+    }
+  }
+
 
 
   /**
@@ -366,6 +366,7 @@ public class XSLTErrorResources extends ListResourceBundle
   public static final String ER_POOLSIZE_LESS_THAN_ONE = 
 	 "ER_POOLSIZE_LESS_THAN_ONE";
   public static final String ER_INVALID_DRIVER_NAME = "ER_INVALID_DRIVER_NAME";
+  public static final String ER_POOL_WAIT_TIMEOUT = "ER_POOL_WAIT_TIMEOUT";
   public static final String ER_ERRORLISTENER = "ER_ERRORLISTENER";
   public static final String ER_ASSERT_NO_TEMPLATE_PARENT = 
 	 "ER_ASSERT_NO_TEMPLATE_PARENT";
@@ -1040,6 +1041,9 @@ public class XSLTErrorResources extends ListResourceBundle
     { ER_INVALID_DRIVER_NAME,
      "Invalid Driver Name Specified!"},
 
+    { ER_POOL_WAIT_TIMEOUT,
+     "Timed out after {0} milliseconds waiting for a free connection in the pool."},
+
     { ER_ERRORLISTENER,
      "ErrorListener"},
 
@@ -0,0 +1,473 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xalan.templates;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import javax.xml.transform.TransformerException;
+
+import org.apache.xml.dtm.Axis;
+import org.apache.xml.dtm.DTM;
+import org.apache.xml.dtm.DTMFilter;
+import org.apache.xml.utils.QName;
+import org.apache.xpath.Expression;
+import org.apache.xpath.XPathContext;
+import org.apache.xpath.axes.AttributeIterator;
+import org.apache.xpath.objects.XString;
+import org.apache.xpath.operations.Equals;
+import org.apache.xpath.patterns.NodeTest;
+import org.apache.xpath.patterns.StepPattern;
+
+/**
+ * An index over one chain of TemplateSubPatternAssociations, used by
+ * {@link TemplateList#getTemplateFast} in place of walking the chain and
+ * executing every pattern on it.
+ * <p>
+ * The chains are already keyed by the local name of the node a pattern
+ * matches.  For each element pattern on a chain, the index also collects
+ * the cheap tests that a node must pass for the pattern to match: the
+ * name of its parent, for a pattern such as "section/item", and the value
+ * of an attribute, for each predicate such as [@class='x'] or ['x'=@class].
+ * The parent name or attribute tested by the most patterns of the chain
+ * becomes the key of a table from the value tested to the patterns that
+ * test it, so for a chain of templates matching *[@class='x1'],
+ * *[@class='x2'], ..., a node is only matched against the patterns for its
+ * own class and the patterns that do not test the class at all.  The
+ * other tests are checked before a pattern is executed.  Patterns are
+ * still tried in the order of the chain, so the template chosen is the one
+ * the chain walk would choose.
+ */
+final class TemplateDispatchIndex
+{
+  /**
+   * Chains shorter than this are walked, as the index would not save
+   * much.
+   */
+  static final int MIN_LENGTH = 8;
+
+  /** No positions. */
+  private static final int[] EMPTY = new int[0];
+
+  /** The associations of the chain, in chain order. */
+  private final TemplateSubPatternAssociation[] m_associations;
+
+  /**
+   * The tests each association must pass before its pattern is executed,
+   * by position on the chain, or null for none.
+   */
+  private final Condition[][] m_conditions;
+
+  /** The test whose value is the key of m_keyed, or null. */
+  private final Condition m_key;
+
+  /**
+   * Map from a value of m_key to the ascending positions of the
+   * associations that need that value.
+   */
+  private final Hashtable m_keyed;
+
+  /** The ascending positions of the associations that are not in m_keyed. */
+  private final int[] m_unkeyed;
+
+  private TemplateDispatchIndex(TemplateSubPatternAssociation[] associations,
+                                Condition[][] conditions, Condition key,
+                                Hashtable keyed, int[] unkeyed)
+  {
+    m_associations = associations;
+    m_conditions = conditions;
+    m_key = key;
+    m_keyed = keyed;
+    m_unkeyed = unkeyed;
+  }
+
+  /**
+   * Build the index of a chain.
+   *
+   * @param head The first association of the chain.
+   *
+   * @return The index, or null if the chain is short or none of its
+   * patterns has a test the index can use.
+   */
+  static TemplateDispatchIndex create(TemplateSubPatternAssociation head)
+  {
+    int n = 0;
+    for (TemplateSubPatternAssociation a = head; null != a; a = a.getNext())
+      n++;
+
+    if (n < MIN_LENGTH)
+      return null;
+
+    TemplateSubPatternAssociation[] associations =
+      new TemplateSubPatternAssociation[n];
+    Condition[][] conditions = new Condition[n][];
+    Hashtable counts = new Hashtable();
+    Condition key = null;
+    int keyCount = 1;
+
+    int i = 0;
+    for (TemplateSubPatternAssociation a = head; null != a; a = a.getNext(), i++)
+    {
+      associations[i] = a;
+      conditions[i] = getConditions(a.getStepPattern());
+
+      // Count each test once per association, and pick the most used.
+      Hashtable seen = new Hashtable();
+      for (int c = 0; c < conditions[i].length; c++)
+      {
+        Condition cond = conditions[i][c];
+        if (null != seen.put(cond.m_selector, cond))
+          continue;
+
+        int[] count = (int[]) counts.get(cond.m_selector);
+        if (null == count)
+          counts.put(cond.m_selector, count = new int[1]);
+        if (++count[0] > keyCount)
+        {
+          key = cond;
+          keyCount = count[0];
+        }
+      }
+    }
+
+    if (0 == counts.size())
+      return null;
+
+    Hashtable keyed = null;
+    Vector unkeyed = new Vector();
+
+    if (null != key)
+    {
+      Hashtable positions = new Hashtable();
+      for (i = 0; i < n; i++)
+      {
+        Condition cond = removeCondition(conditions, i, key.m_selector);
+        if (null == cond)
+        {
+          unkeyed.addElement(new Integer(i));
+          continue;
+        }
+
+        Vector v = (Vector) positions.get(cond.m_value);
+        if (null == v)
+          positions.put(cond.m_value, v = new Vector());
+        v.addElement(new Integer(i));
+      }
+
+      keyed = new Hashtable();
+      Enumeration values = positions.keys();
+      while (values.hasMoreElements())
+      {
+        Object value = values.nextElement();
+        keyed.put(value, toArray((Vector) positions.get(value)));
+      }
+    }
+    else
+    {
+      for (i = 0; i < n; i++)
+        unkeyed.addElement(new Integer(i));
+    }
+
+    for (i = 0; i < n; i++)
+    {
+      if (0 == conditions[i].length)
+        conditions[i] = null;
+    }
+
+    return new TemplateDispatchIndex(associations, conditions, key, keyed,
+                                     toArray(unkeyed));
+  }
+
+  /**
+   * Find the first association of the chain whose pattern matches a node,
+   * in the same way as the chain walk of
+   * {@link TemplateList#getTemplateFast}.  The caller must have pushed a
+   * namespace context, which this sets to each template tried.
+   *
+   * @param xctxt The XPath runtime context.
+   * @param targetNode The node to match.
+   * @param expTypeID The expanded type ID of the node.
+   * @param mode The current mode, or null.
+   * @param maxImportLevel The largest import level to consider, or -1.
+   * @param dtm The DTM of the node.
+   *
+   * @return The association, or null if none matches.
+   *
+   * @throws TransformerException
+   */
+  TemplateSubPatternAssociation getMatch(XPathContext xctxt, int targetNode,
+                                         int expTypeID, QName mode,
+                                         int maxImportLevel, DTM dtm)
+            throws TransformerException
+  {
+    int[] keyed = EMPTY;
+
+    if (null != m_key)
+    {
+      String value = m_key.select(dtm, targetNode);
+      if (null != value)
+      {
+        int[] positions = (int[]) m_keyed.get(value);
+        if (null != positions)
+          keyed = positions;
+      }
+    }
+
+    int[] unkeyed = m_unkeyed;
+    int k = 0;
+    int u = 0;
+
+    while (true)
+    {
+      // Merge the two lists, to try the patterns in chain order.
+      int i;
+      if (k < keyed.length && (u == unkeyed.length || keyed[k] < unkeyed[u]))
+        i = keyed[k++];
+      else if (u < unkeyed.length)
+        i = unkeyed[u++];
+      else
+        return null;
+
+      TemplateSubPatternAssociation head = m_associations[i];
+      if ( (maxImportLevel > -1) && (head.getImportLevel() > maxImportLevel) )
+        continue;
+
+      Condition[] conditions = m_conditions[i];
+      if (null != conditions && !accept(conditions, dtm, targetNode))
+        continue;
+
+      xctxt.setNamespaceContext(head.getTemplate());
+
+      if ((head.m_stepPattern.execute(xctxt, targetNode, dtm, expTypeID) != NodeTest.SCORE_NONE)
+              && head.matchMode(mode))
+        return head;
+    }
+  }
+
+  /**
+   * @return true if a node passes all of the tests.
+   */
+  private static boolean accept(Condition[] conditions, DTM dtm, int node)
+  {
+    for (int i = 0; i < conditions.length; i++)
+    {
+      if (!conditions[i].m_value.equals(conditions[i].select(dtm, node)))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Take the first test with the given selector out of the tests of an
+   * association.
+   *
+   * @return The test, or null if the association has none.
+   */
+  private static Condition removeCondition(Condition[][] conditions, int i,
+                                           String selector)
+  {
+    Condition[] list = conditions[i];
+    for (int c = 0; c < list.length; c++)
+    {
+      if (list[c].m_selector.equals(selector))
+      {
+        Condition[] rest = new Condition[list.length - 1];
+        System.arraycopy(list, 0, rest, 0, c);
+        System.arraycopy(list, c + 1, rest, c, rest.length - c);
+        conditions[i] = rest;
+        return list[c];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Collect the tests a node must pass to match an element pattern.
+   *
+   * @param pattern The last step of the pattern.
+   *
+   * @return The tests, possibly none.
+   */
+  private static Condition[] getConditions(StepPattern pattern)
+  {
+    Vector v = new Vector();
+
+    // Subclasses such as FunctionPattern match in other ways.
+    if (pattern.getClass() == StepPattern.class
+        && pattern.getWhatToShow() == DTMFilter.SHOW_ELEMENT)
+    {
+      int n = pattern.getPredicateCount();
+      for (int i = 0; i < n; i++)
+      {
+        Condition cond = getAttributeCondition(pattern.getPredicate(i));
+        if (null != cond)
+          v.addElement(cond);
+      }
+
+      StepPattern parent = pattern.getRelativePathPattern();
+      if (null != parent && parent.getClass() == StepPattern.class
+          && parent.getAxis() == Axis.PARENT
+          && parent.getWhatToShow() == DTMFilter.SHOW_ELEMENT
+          && isName(parent.getNamespace(), parent.getLocalName()))
+      {
+        v.addElement(new Condition(false, parent.getNamespace(),
+                                   parent.getLocalName(),
+                                   parent.getLocalName()));
+      }
+    }
+
+    Condition[] conditions = new Condition[v.size()];
+    v.copyInto(conditions);
+    return conditions;
+  }
+
+  /**
+   * Get the test of a predicate of the form @name='literal' or
+   * 'literal'=@name.
+   *
+   * @return The test, or null if the predicate is of another form.
+   */
+  private static Condition getAttributeCondition(Expression predicate)
+  {
+    if (predicate.getClass() != Equals.class)
+      return null;
+
+    Equals equals = (Equals) predicate;
+    Expression attr = equals.getLeftOperand();
+    Expression literal = equals.getRightOperand();
+    if (attr.getClass() != AttributeIterator.class)
+    {
+      attr = literal;
+      literal = equals.getLeftOperand();
+    }
+
+    if (attr.getClass() != AttributeIterator.class
+        || literal.getClass() != XString.class)
+      return null;
+
+    // The whatToShow of an iterator is not that of its node test, but
+    // only a name test has a local name.
+    AttributeIterator iter = (AttributeIterator) attr;
+    if (iter.getPredicateCount() != 0
+        || !isName(iter.getNamespace(), iter.getLocalName()))
+      return null;
+
+    return new Condition(true, iter.getNamespace(), iter.getLocalName(),
+                         ((XString) literal).str());
+  }
+
+  /**
+   * @return true if a node test is for a single expanded name.
+   */
+  private static boolean isName(String namespace, String localName)
+  {
+    return NodeTest.WILD != namespace && NodeTest.WILD != localName
+           && null != localName && localName.length() > 0;
+  }
+
+  private static int[] toArray(Vector v)
+  {
+    int[] a = new int[v.size()];
+    for (int i = 0; i < a.length; i++)
+      a[i] = ((Integer) v.elementAt(i)).intValue();
+    return a;
+  }
+
+  /**
+   * A test of a node: that the attribute with a given name has a given
+   * value, or that the parent is an element with a given name.
+   */
+  private static final class Condition
+  {
+    /** True for an attribute test, false for a parent test. */
+    final boolean m_attribute;
+
+    /** The namespace of the attribute or parent, or null. */
+    final String m_namespace;
+
+    /** The local name of the attribute or parent. */
+    final String m_localName;
+
+    /** The value {@link #select} must return for the test to pass. */
+    final String m_value;
+
+    /** A string that is the same for tests that select the same value. */
+    final String m_selector;
+
+    Condition(boolean attribute, String namespace, String localName,
+              String value)
+    {
+      m_attribute = attribute;
+      m_namespace = namespace;
+      m_localName = localName;
+      m_value = value;
+      m_selector = (attribute ? "@{" : "../{")
+                   + ((null == namespace) ? "" : namespace) + "}" + localName;
+    }
+
+    /**
+     * Get the value this test compares: the value of the attribute, or
+     * the local name of the parent if its namespace is the one tested.
+     *
+     * @return The value, or null if the node has no such attribute or
+     * parent.
+     */
+    String select(DTM dtm, int node)
+    {
+      if (m_attribute)
+      {
+        if (dtm.getNodeType(node) != DTM.ELEMENT_NODE)
+          return null;
+
+        for (int attr = dtm.getFirstAttribute(node); DTM.NULL != attr;
+             attr = dtm.getNextAttribute(attr))
+        {
+          if (m_localName.equals(dtm.getLocalName(attr))
+              && matchNamespace(dtm.getNamespaceURI(attr)))
+            return dtm.getNodeValue(attr);
+        }
+        return null;
+      }
+      else
+      {
+        int parent = dtm.getParent(node);
+        if (DTM.NULL == parent
+            || dtm.getNodeType(parent) != DTM.ELEMENT_NODE
+            || !matchNamespace(dtm.getNamespaceURI(parent)))
+          return null;
+        return dtm.getLocalName(parent);
+      }
+    }
+
+    /**
+     * Compare a node's namespace with the one tested, in the same way as
+     * NodeTest: the node may give no namespace as null or as "".
+     */
+    private boolean matchNamespace(String ns)
+    {
+      return (ns == m_namespace)
+             || ((null != ns)
+                 && ((ns.length() > 0) ? ns.equals(m_namespace)
+                                       : null == m_namespace));
+    }
+  }
+}
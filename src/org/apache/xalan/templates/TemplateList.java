@@ -168,7 +168,9 @@ public class TemplateList implements java.io.Serializable
 
   /**
    * After all templates have been added, this function
-   * should be called.
+   * should be called.  Unless the optimize feature is off, this also
+   * builds a {@link TemplateDispatchIndex} for each long chain, which
+   * getTemplateFast uses instead of walking the chain.
    */
   public void compose(StylesheetRoot sroot)
   {
@@ -208,6 +210,23 @@ public class TemplateList implements java.io.Serializable
       System.out.println("After wildcard insert...");
       dumpAssociationTables();
     }
+
+    // The optimize feature being off leaves the chains to be walked.
+    if (null == sroot || sroot.getOptimizer())
+    {
+      Enumeration associations = m_patternTable.elements();
+
+      while (associations.hasMoreElements())
+      {
+        TemplateSubPatternAssociation head =
+          (TemplateSubPatternAssociation) associations.nextElement();
+        head.m_dispatchIndex = TemplateDispatchIndex.create(head);
+      }
+
+      if (null != m_wildCardPatterns)
+        m_wildCardPatterns.m_dispatchIndex =
+          TemplateDispatchIndex.create(m_wildCardPatterns);
+    }
   }
 
   /**
@@ -547,6 +566,20 @@ public class TemplateList implements java.io.Serializable
     xctxt.pushNamespaceContextNull();
     try
     {
+      TemplateDispatchIndex index = head.m_dispatchIndex;
+      if (null != index)
+      {
+        head = index.getMatch(xctxt, targetNode, expTypeID, mode,
+                              maxImportLevel, dtm);
+        if (null == head)
+          return null;
+
+        if (quietConflictWarnings)
+          checkConflicts(head, xctxt, targetNode, mode);
+
+        return head.getTemplate();
+      }
+
       do
       {
         if ( (maxImportLevel > -1) && (head.getImportLevel() > maxImportLevel) )
@@ -55,6 +55,12 @@ class TemplateSubPatternAssociation implements Serializable, Cloneable
   /** Target string for this match pattern           */
   private String m_targetString;
 
+  /**
+   * The index of the chain this association is the head of, built by
+   * TemplateList.compose, or null to walk the chain.
+   */
+  transient TemplateDispatchIndex m_dispatchIndex;
+
   /**
    * Construct a match pattern from a pattern and template.
    * @param template The node that contains the template for this pattern.
@@ -85,6 +91,7 @@ class TemplateSubPatternAssociation implements Serializable, Cloneable
       (TemplateSubPatternAssociation) super.clone();
 
     tspa.m_next = null;
+    tspa.m_dispatchIndex = null;
 
     return tspa;
   }
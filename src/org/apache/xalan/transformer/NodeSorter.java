@@ -21,6 +21,7 @@
 package org.apache.xalan.transformer;
 
 import java.text.CollationKey;
+import java.text.Collator;
 import java.util.Vector;
 
 import javax.xml.transform.TransformerException;
@@ -28,16 +29,37 @@ import javax.xml.transform.TransformerException;
 import org.apache.xml.dtm.DTM;
 import org.apache.xml.dtm.DTMIterator;
 import org.apache.xpath.XPathContext;
-import org.apache.xpath.objects.XNodeSet;
 import org.apache.xpath.objects.XObject;
 
 /**
  * This class can sort vectors of DOM nodes according to a select pattern.
+ * <p>
+ * The sort keys of each node are evaluated once, before the sort, into
+ * arrays of numbers and strings, and the sort compares those.  The
+ * CollationKey of a string is made the first time the sort needs it, so
+ * the long strings of a key that only breaks rare ties are not all
+ * converted.  A large node-set in document order may be sorted on
+ * several threads; the most used is set by the {@link #THREADS_PROPERTY}
+ * system property, and defaults to one, so that a sort starts no threads
+ * unless asked to.
  * @xsl.usage internal
  */
 public class NodeSorter
 {
 
+  /** The system property that sets the most threads a sort may use. */
+  public static final String THREADS_PROPERTY =
+    "org.apache.xalan.transformer.NodeSorter.threads";
+
+  /**
+   * The fewest nodes a thread is given to sort; smaller sorts use one
+   * thread.
+   */
+  static final int MIN_NODES_PER_THREAD = 8192;
+
+  /** The most threads a sort may use. */
+  private static final int s_maxThreads = getThreadsProperty();
+
   /** Current XPath context           */
   XPathContext m_execContext;
 
@@ -76,256 +98,142 @@ public class NodeSorter
 
     m_keys = keys;
 
-    // QuickSort2(v, 0, v.size() - 1 );
     int n = v.getLength();
+    NodeKeys nodeKeys = new NodeKeys(v, keys, support);
 
-    // %OPT% Change mergesort to just take a DTMIterator?
-    // We would also have to adapt DTMIterator to have the function 
-    // of NodeCompareElem.
-    
-    // Create a vector of node compare elements
-    // based on the input vector of nodes
-    Vector nodes = new Vector();
-
+    // Sort the positions of the nodes in v, rather than the nodes.
+    int[] a = new int[n];
     for (int i = 0; i < n; i++)
     {
-      NodeCompareElem elem = new NodeCompareElem(v.item(i));
-
-      nodes.addElement(elem);
+      a[i] = i;
     }
 
-    Vector scratchVector = new Vector();
+    int threads = 1;
+    if (nodeKeys.m_inDocOrder)
+    {
+      threads = Math.min(s_maxThreads, n / MIN_NODES_PER_THREAD);
+    }
 
-    mergesort(nodes, scratchVector, 0, n - 1, support);
+    mergesort(a, new int[n], 0, n - 1, nodeKeys, nodeKeys.m_collators,
+              Math.max(1, threads));
 
     // return sorted vector of nodes
     for (int i = 0; i < n; i++)
     {
-      v.setItem(((NodeCompareElem) nodes.elementAt(i)).m_node, i);
+      v.setItem(nodeKeys.m_nodes[a[i]], i);
     }
     v.setCurrentPos(0);
-
-    // old code...
-    //NodeVector scratchVector = new NodeVector(n);
-    //mergesort(v, scratchVector, 0, n - 1, support);
   }
 
   /**
-   * Return the results of a compare of two nodes.
-   * TODO: Optimize compare -- cache the getStringExpr results, key by m_selectPat + hash of node.
-   *
-   * @param n1 First node to use in compare
-   * @param n2 Second node to use in compare
-   * @param kIndex Index of NodeSortKey to use for sort
-   * @param support XPath context to use
-   *
-   * @return The results of the compare of the two nodes.
+   * This implements a standard Mergesort, as described in
+   * Robert Sedgewick's Algorithms book.  This is a better
+   * sort for our purpose than the Quicksort because it
+   * maintains the original document order of the input if
+   * the order isn't changed by the sort.
+   * <p>
+   * With more than one thread, the two halves are sorted at the same
+   * time, the first on a new thread, which compares with copies of the
+   * Collators.  The halves do not share any part of the arrays, so the
+   * result is the same as on one thread.
    *
-   * @throws TransformerException
+   * @param a The positions of the nodes to sort
+   * @param b Scratch array, as long as a
+   * @param l Left boundary of  partition
+   * @param r Right boundary of  partition
+   * @param keys The nodes and the values of their sort keys
+   * @param collators The Collators of the keys, for this thread
+   * @param threads The number of threads to sort on
    */
-  int compare(
-          NodeCompareElem n1, NodeCompareElem n2, int kIndex, XPathContext support)
-            throws TransformerException
+  static void mergesort(final int[] a, final int[] b, final int l, int r,
+                        final NodeKeys keys, Collator[] collators,
+                        int threads)
   {
 
-    int result = 0;
-    NodeSortKey k = (NodeSortKey) m_keys.elementAt(kIndex);
-
-    if (k.m_treatAsNumbers)
+    if ((r - l) > 0)
     {
-      double n1Num, n2Num;
+      final int m = (r + l) / 2;
 
-      if (kIndex == 0)
-      {
-        n1Num = ((Double) n1.m_key1Value).doubleValue();
-        n2Num = ((Double) n2.m_key1Value).doubleValue();
-      }
-      else if (kIndex == 1)
+      if (threads > 1)
       {
-        n1Num = ((Double) n1.m_key2Value).doubleValue();
-        n2Num = ((Double) n2.m_key2Value).doubleValue();
-      }
+        final int leftThreads = threads / 2;
+        final Throwable[] failure = new Throwable[1];
+        final Collator[] copy = NodeKeys.copyCollators(collators);
+        Thread left = null;
 
-      /* Leave this in case we decide to use an array later
-      if (kIndex < maxkey)
-      {
-      double n1Num = (double)n1.m_keyValue[kIndex];
-      double n2Num = (double)n2.m_keyValue[kIndex];
-      }*/
-      else
-      {
-
-        // Get values dynamically
-        XObject r1 = k.m_selectPat.execute(m_execContext, n1.m_node,
-                                           k.m_namespaceContext);
-        XObject r2 = k.m_selectPat.execute(m_execContext, n2.m_node,
-                                           k.m_namespaceContext);
-        n1Num = r1.num();
-
-        // Can't use NaN for compare. They are never equal. Use zero instead.
-        // That way we can keep elements in document order. 
-        //n1Num = Double.isNaN(d) ? 0.0 : d;
-        n2Num = r2.num();
-        //n2Num = Double.isNaN(d) ? 0.0 : d;
-      }
-
-      if ((n1Num == n2Num) && ((kIndex + 1) < m_keys.size()))
-      {
-        result = compare(n1, n2, kIndex + 1, support);
-      }
-      else
-      {
-        double diff;
-        if (Double.isNaN(n1Num))
+        try
         {
-          if (Double.isNaN(n2Num))
-            diff = 0.0;
-          else
-            diff = -1;
+          left = new Thread("NodeSorter")
+          {
+            public void run()
+            {
+              try
+              {
+                mergesort(a, b, l, m, keys, copy, leftThreads);
+              }
+              catch (RuntimeException e)
+              {
+                failure[0] = e;
+              }
+              catch (Error e)
+              {
+                failure[0] = e;
+              }
+            }
+          };
+          left.setDaemon(true);
+          left.start();
+        }
+        catch (SecurityException e)
+        {
+          // Not allowed to create threads here: sort on this one.
+          left = null;
         }
-        else if (Double.isNaN(n2Num))
-           diff = 1;
-        else
-          diff = n1Num - n2Num;
-
-        // process order parameter 
-        result = (int) ((diff < 0.0)
-                        ? (k.m_descending ? 1 : -1)
-                        : (diff > 0.0) ? (k.m_descending ? -1 : 1) : 0);
-      }
-    }  // end treat as numbers 
-    else
-    {
-      CollationKey n1String, n2String;
-
-      if (kIndex == 0)
-      {
-        n1String = (CollationKey) n1.m_key1Value;
-        n2String = (CollationKey) n2.m_key1Value;
-      }
-      else if (kIndex == 1)
-      {
-        n1String = (CollationKey) n1.m_key2Value;
-        n2String = (CollationKey) n2.m_key2Value;
-      }
-
-      /* Leave this in case we decide to use an array later
-      if (kIndex < maxkey)
-      {
-        String n1String = (String)n1.m_keyValue[kIndex];
-        String n2String = (String)n2.m_keyValue[kIndex];
-      }*/
-      else
-      {
-
-        // Get values dynamically
-        XObject r1 = k.m_selectPat.execute(m_execContext, n1.m_node,
-                                           k.m_namespaceContext);
-        XObject r2 = k.m_selectPat.execute(m_execContext, n2.m_node,
-                                           k.m_namespaceContext);
-
-        n1String = k.m_col.getCollationKey(r1.str());
-        n2String = k.m_col.getCollationKey(r2.str());
-      }
-
-      // Use collation keys for faster compare, but note that whitespaces 
-      // etc... are treated differently from if we were comparing Strings.
-      result = n1String.compareTo(n2String);
 
-      //Process caseOrder parameter
-      if (k.m_caseOrderUpper)
-      {
-        String tempN1 = n1String.getSourceString().toLowerCase();
-        String tempN2 = n2String.getSourceString().toLowerCase();
+        if (null == left)
+          mergesort(a, b, l, m, keys, collators, 1);
+        mergesort(a, b, m + 1, r, keys, collators, threads - leftThreads);
 
-        if (tempN1.equals(tempN2))
+        if (null != left)
         {
-
-          //java defaults to upper case is greater.
-          result = result == 0 ? 0 : -result;
+          boolean interrupted = false;
+          while (left.isAlive())
+          {
+            try
+            {
+              left.join();
+            }
+            catch (InterruptedException e)
+            {
+              interrupted = true;
+            }
+          }
+          if (interrupted)
+            Thread.currentThread().interrupt();
+          if (failure[0] instanceof RuntimeException)
+            throw (RuntimeException) failure[0];
+          if (failure[0] instanceof Error)
+            throw (Error) failure[0];
         }
       }
-
-      //Process order parameter
-      if (k.m_descending)
-      {
-        result = -result;
-      }
-    }  //end else
-
-    if (0 == result)
-    {
-      if ((kIndex + 1) < m_keys.size())
+      else
       {
-        result = compare(n1, n2, kIndex + 1, support);
+        mergesort(a, b, l, m, keys, collators, 1);
+        mergesort(a, b, m + 1, r, keys, collators, 1);
       }
-    }
-
-    if (0 == result)
-    {
-
-      // I shouldn't have to do this except that there seems to 
-      // be a glitch in the mergesort
-      // if(r1.getType() == r1.CLASS_NODESET)
-      // {
-      DTM dtm = support.getDTM(n1.m_node); // %OPT%
-      result = dtm.isNodeAfter(n1.m_node, n2.m_node) ? -1 : 1;
-
-      // }
-    }
-
-    return result;
-  }
-
-  /**
-   * This implements a standard Mergesort, as described in
-   * Robert Sedgewick's Algorithms book.  This is a better
-   * sort for our purpose than the Quicksort because it
-   * maintains the original document order of the input if
-   * the order isn't changed by the sort.
-   *
-   * @param a First vector of nodes to compare
-   * @param b Second vector of  nodes to compare 
-   * @param l Left boundary of  partition
-   * @param r Right boundary of  partition
-   * @param support XPath context to use
-   *
-   * @throws TransformerException
-   */
-  void mergesort(Vector a, Vector b, int l, int r, XPathContext support)
-          throws TransformerException
-  {
-
-    if ((r - l) > 0)
-    {
-      int m = (r + l) / 2;
-
-      mergesort(a, b, l, m, support);
-      mergesort(a, b, m + 1, r, support);
 
       int i, j, k;
 
       for (i = m; i >= l; i--)
       {
-
-        // b[i] = a[i];
-        // Use insert if we need to increment vector size.
-        if (i >= b.size())
-          b.insertElementAt(a.elementAt(i), i);
-        else
-          b.setElementAt(a.elementAt(i), i);
+        b[i] = a[i];
       }
 
       i = l;
 
       for (j = (m + 1); j <= r; j++)
       {
-
-        // b[r+m+1-j] = a[j];
-        if (r + m + 1 - j >= b.size())
-          b.insertElementAt(a.elementAt(j), r + m + 1 - j);
-        else
-          b.setElementAt(a.elementAt(j), r + m + 1 - j);
+        b[r + m + 1 - j] = a[j];
       }
 
       j = r;
@@ -339,22 +247,17 @@ public class NodeSorter
         if (i == j)
           compVal = -1;
         else
-          compVal = compare((NodeCompareElem) b.elementAt(i),
-                            (NodeCompareElem) b.elementAt(j), 0, support);
+          compVal = keys.compare(b[i], b[j], collators);
 
         if (compVal < 0)
         {
-
-          // a[k]=b[i];
-          a.setElementAt(b.elementAt(i), k);
+          a[k] = b[i];
 
           i++;
         }
         else if (compVal > 0)
         {
-
-          // a[k]=b[j]; 
-          a.setElementAt(b.elementAt(j), k);
+          a[k] = b[j];
 
           j--;
         }
@@ -454,104 +357,258 @@ public class NodeSorter
 //  }
 
   /**
-   * This class holds the value(s) from executing the given
-   * node against the sort key(s). 
+   * The nodes being sorted and the values of their sort keys, evaluated
+   * once per node and key.  The CollationKeys are filled in as the sort
+   * needs them; the threads of a sort can still share this, as a thread
+   * only compares the nodes of its own part of the array until it ends.
    * @xsl.usage internal
    */
-  class NodeCompareElem
+  static final class NodeKeys
   {
 
-    /** Current node          */
-    int m_node;
+    /** The nodes, in the order of the iterator.          */
+    final int[] m_nodes;
 
-    /** This maxkey value was chosen arbitrarily. We are assuming that the    
-    // maxkey + 1 keys will only hit fairly rarely and therefore, we
-    // will get the node values for those keys dynamically.
-    */
-    int maxkey = 2;
+    /** The sort keys.          */
+    final NodeSortKey[] m_sortKeys;
 
-    // Keep this in case we decide to use an array. Right now
-    // using two variables is cheaper.
-    //Object[] m_KeyValue = new Object[2];
+    /** The number values of the nodes, by key, or null for a text key. */
+    final double[][] m_numbers;
 
-    /** Value from first sort key           */
-    Object m_key1Value;
+    /** The string values of the nodes, by key, or null for a number key. */
+    final String[][] m_values;
 
-    /** Value from second sort key            */
-    Object m_key2Value;
+    /**
+     * The CollationKeys of the string values, by key, or null for a
+     * number key; null until first compared.
+     */
+    final CollationKey[][] m_strings;
 
     /**
-     * Constructor NodeCompareElem
-     *
+     * The lower case string values of the nodes, by key, for the text
+     * keys with upper-first case order; null until first compared.
+     */
+    final String[][] m_lowerCase;
+
+    /** The Collators of the keys, or null for a number key. */
+    final Collator[] m_collators;
+
+    /**
+     * True if the nodes are in document order in one DTM, so nodes with
+     * equal keys can be ordered by their position.
+     */
+    final boolean m_inDocOrder;
+
+    /** XPath context, to order nodes not in document order.          */
+    private final XPathContext m_support;
+
+    /**
+     * Evaluate the sort keys of every node of an iterator.
      *
-     * @param node Current node
+     * @param v The nodes to sort.
+     * @param keys a vector of NodeSortKeys.
+     * @param support XPath context to use
      *
-     * @throws javax.xml.transform.TransformerException
+     * @throws TransformerException
      */
-    NodeCompareElem(int node) throws javax.xml.transform.TransformerException
+    NodeKeys(DTMIterator v, Vector keys, XPathContext support)
+            throws TransformerException
     {
-      m_node = node;
+      int n = v.getLength();
+      int nKeys = keys.size();
+
+      m_support = support;
+      m_nodes = new int[n];
+      m_sortKeys = new NodeSortKey[nKeys];
+      m_numbers = new double[nKeys][];
+      m_values = new String[nKeys][];
+      m_strings = new CollationKey[nKeys][];
+      m_lowerCase = new String[nKeys][];
+      m_collators = new Collator[nKeys];
+
+      for (int k = 0; k < nKeys; k++)
+      {
+        NodeSortKey key = (NodeSortKey) keys.elementAt(k);
 
-      if (!m_keys.isEmpty())
+        m_sortKeys[k] = key;
+        if (key.m_treatAsNumbers)
+          m_numbers[k] = new double[n];
+        else
+        {
+          m_values[k] = new String[n];
+          m_strings[k] = new CollationKey[n];
+          m_collators[k] = key.m_col;
+          if (key.m_caseOrderUpper)
+            m_lowerCase[k] = new String[n];
+        }
+      }
+
+      // The keys are evaluated with the iterator positioned on the node.
+      for (int i = 0; i < n; i++)
       {
-        NodeSortKey k1 = (NodeSortKey) m_keys.elementAt(0);
-        XObject r = k1.m_selectPat.execute(m_execContext, node,
-                                           k1.m_namespaceContext);
+        int node = v.item(i);
 
-        double d;
+        m_nodes[i] = node;
 
-        if (k1.m_treatAsNumbers)
+        for (int k = 0; k < nKeys; k++)
         {
-          d = r.num();
+          NodeSortKey key = m_sortKeys[k];
+          XObject r = key.m_selectPat.execute(support, node,
+                                              key.m_namespaceContext);
 
-          // Can't use NaN for compare. They are never equal. Use zero instead.  
-          m_key1Value = new Double(d);
+          if (key.m_treatAsNumbers)
+            m_numbers[k][i] = r.num();
+          else
+            m_values[k][i] = r.str();
         }
-        else
+      }
+
+      boolean inDocOrder = true;
+      if (n > 1)
+      {
+        DTM dtm = support.getDTM(m_nodes[0]);
+        for (int i = 1; inDocOrder && i < n; i++)
         {
-          m_key1Value = k1.m_col.getCollationKey(r.str());
+          inDocOrder = (support.getDTM(m_nodes[i]) == dtm)
+                       && dtm.isNodeAfter(m_nodes[i - 1], m_nodes[i]);
         }
+      }
+      m_inDocOrder = inDocOrder;
+    }
+
+    /**
+     * Return the results of a compare of two nodes.
+     *
+     * @param n1 Position of the first node to use in compare
+     * @param n2 Position of the second node to use in compare
+     * @param collators The Collators of the keys, for this thread
+     *
+     * @return The results of the compare of the two nodes.
+     */
+    int compare(int n1, int n2, Collator[] collators)
+    {
+      for (int kIndex = 0; kIndex < m_sortKeys.length; kIndex++)
+      {
+        NodeSortKey k = m_sortKeys[kIndex];
+        int result;
 
-        if (r.getType() == XObject.CLASS_NODESET)
+        if (k.m_treatAsNumbers)
         {
-          // %REVIEW%
-          DTMIterator ni = ((XNodeSet)r).iterRaw();
-          int current = ni.getCurrentNode();
-          if(DTM.NULL == current)
-            current = ni.nextNode();
+          double n1Num = m_numbers[kIndex][n1];
+          double n2Num = m_numbers[kIndex][n2];
 
-          // if (ni instanceof ContextNodeList) // %REVIEW%
-          // tryNextKey = (DTM.NULL != current);
+          if (n1Num == n2Num)
+            continue;
 
-          // else abdicate... should never happen, but... -sb
-        }
+          double diff;
+          if (Double.isNaN(n1Num))
+          {
+            if (Double.isNaN(n2Num))
+              diff = 0.0;
+            else
+              diff = -1;
+          }
+          else if (Double.isNaN(n2Num))
+             diff = 1;
+          else
+            diff = n1Num - n2Num;
 
-        if (m_keys.size() > 1)
+          // process order parameter 
+          result = (int) ((diff < 0.0)
+                          ? (k.m_descending ? 1 : -1)
+                          : (diff > 0.0) ? (k.m_descending ? -1 : 1) : 0);
+        }  // end treat as numbers 
+        else
         {
-          NodeSortKey k2 = (NodeSortKey) m_keys.elementAt(1);
+          // Use collation keys for faster compare, but note that whitespaces 
+          // etc... are treated differently from if we were comparing Strings.
+          result = getCollationKey(kIndex, n1, collators).compareTo(
+                     getCollationKey(kIndex, n2, collators));
 
-          XObject r2 = k2.m_selectPat.execute(m_execContext, node,
-                                              k2.m_namespaceContext);
+          //Process caseOrder parameter
+          if (k.m_caseOrderUpper)
+          {
+            if (m_lowerCase[kIndex][n1].equals(m_lowerCase[kIndex][n2]))
+            {
 
-          if (k2.m_treatAsNumbers) {
-            d = r2.num();
-            m_key2Value = new Double(d);
-          } else {
-            m_key2Value = k2.m_col.getCollationKey(r2.str());
+              //java defaults to upper case is greater.
+              result = result == 0 ? 0 : -result;
+            }
           }
-        }
 
-        /* Leave this in case we decide to use an array later
-        while (kIndex <= m_keys.size() && kIndex < maxkey)
-        {
-          NodeSortKey k = (NodeSortKey)m_keys.elementAt(kIndex);
-          XObject r = k.m_selectPat.execute(m_execContext, node, k.m_namespaceContext);
-          if(k.m_treatAsNumbers)
-            m_KeyValue[kIndex] = r.num();
-          else
-            m_KeyValue[kIndex] = r.str();
-        } */
-      }  // end if not empty    
+          //Process order parameter
+          if (k.m_descending)
+          {
+            result = -result;
+          }
+        }  //end else
+
+        if (0 != result)
+          return result;
+      }
+
+      if (m_inDocOrder)
+        return (n1 < n2) ? -1 : 1;
+
+      DTM dtm = m_support.getDTM(m_nodes[n1]); // %OPT%
+      return dtm.isNodeAfter(m_nodes[n1], m_nodes[n2]) ? -1 : 1;
     }
-  }  // end NodeCompareElem class
+
+    /**
+     * Get the CollationKey of a node's value of a text key, making it if
+     * it has not been compared before.
+     */
+    private CollationKey getCollationKey(int k, int i, Collator[] collators)
+    {
+      CollationKey ck = m_strings[k][i];
+
+      if (null == ck)
+      {
+        ck = collators[k].getCollationKey(m_values[k][i]);
+        m_strings[k][i] = ck;
+        if (null != m_lowerCase[k])
+          m_lowerCase[k][i] = m_values[k][i].toLowerCase();
+      }
+      return ck;
+    }
+
+    /**
+     * Copy Collators for another thread, as they need not be thread safe.
+     */
+    static Collator[] copyCollators(Collator[] collators)
+    {
+      Collator[] copy = new Collator[collators.length];
+
+      for (int k = 0; k < collators.length; k++)
+      {
+        if (null != collators[k])
+          copy[k] = (Collator) collators[k].clone();
+      }
+      return copy;
+    }
+  }  // end NodeKeys class
+
+  /**
+   * Read the {@link #THREADS_PROPERTY} system property.
+   *
+   * @return the configured number of threads, or 1 if it is unset or
+   * not a positive number.
+   */
+  private static int getThreadsProperty()
+  {
+    try
+    {
+      String value = System.getProperty(THREADS_PROPERTY);
+      if (value != null)
+      {
+        int threads = Integer.parseInt(value.trim());
+        if (threads > 0)
+          return threads;
+      }
+    }
+    catch (SecurityException ex){}
+    catch (NumberFormatException ex){}
+
+    return 1;
+  }
 }
@@ -47,7 +47,7 @@ import org.apache.xalan.res.XSLMessages;
 import org.apache.xalan.res.XSLTErrorResources;
 import org.apache.xalan.templates.OutputProperties;
 import org.apache.xml.serializer.Serializer;
-import org.apache.xml.serializer.SerializerFactory;
+import org.apache.xml.serializer.SerializerPool;
 import org.apache.xml.serializer.Method;
 import org.apache.xml.utils.DOMBuilder;
 import org.apache.xml.utils.XMLReaderManager;
@@ -257,8 +257,8 @@ public class TransformerIdentityImpl extends Transformer
 
       try
       {
-        Serializer serializer =
-          SerializerFactory.getSerializer(m_outputFormat.getProperties());
+        Serializer serializer = SerializerPool.getDefaultPool()
+          .getSerializer(m_outputFormat.getProperties());
 
         m_serializer = serializer;
 
@@ -328,6 +328,10 @@ public class TransformerIdentityImpl extends Transformer
   {
 
     createResultContentHandler(outputTarget);
+
+    // The serializer to give back to the pool when done, if it is ours
+    final Serializer pooledSerializer =
+      (outputTarget instanceof StreamResult) ? m_serializer : null;
     
     /*
      * According to JAXP1.2, new SAXSource()/StreamSource()
@@ -521,6 +525,22 @@ public class TransformerIdentityImpl extends Transformer
         catch(IOException ioe){}
         m_outputStream = null;
       }
+
+      if (null != pooledSerializer)
+      {
+        // The result handlers are the serializer, which may have been
+        // switched to an HTML one; give both back for re-use.
+        SerializerPool pool = SerializerPool.getDefaultPool();
+        if (m_serializer != pooledSerializer)
+          pool.release(m_serializer);
+        pool.release(pooledSerializer);
+
+        m_serializer = null;
+        m_resultContentHandler = null;
+        m_resultDTDHandler = null;
+        m_resultDeclHandler = null;
+        m_resultLexicalHandler = null;
+      }
     }
   }
 
@@ -51,7 +51,7 @@ import org.apache.xalan.res.XSLMessages;
 import org.apache.xalan.res.XSLTErrorResources;
 import org.apache.xml.serializer.Method;
 import org.apache.xml.serializer.Serializer;
-import org.apache.xml.serializer.SerializerFactory;
+import org.apache.xml.serializer.SerializerPool;
 import org.apache.xalan.templates.AVT;
 import org.apache.xalan.templates.Constants;
 import org.apache.xalan.templates.ElemAttributeSet;
@@ -489,6 +489,19 @@ public class TransformerImpl extends Transformer
     {
       m_hasBeenReset = true;
 
+      // If the transformation failed, the serializer may still hold
+      // output that it has not written to the stream.
+      java.io.Writer writer = (m_serializationHandler != null)
+        ? m_serializationHandler.getWriter() : null;
+      if (writer != null)
+      {
+        try
+        {
+          writer.flush();
+        }
+        catch (java.io.IOException ioe){}
+      }
+
       if (this.m_outputStream != null)
       {
         try
@@ -1171,7 +1184,8 @@ public class TransformerImpl extends Transformer
         try
         {
           SerializationHandler serializer =
-            (SerializationHandler) SerializerFactory.getSerializer(format.getProperties());
+            (SerializationHandler) SerializerPool.getDefaultPool()
+              .getSerializer(format.getProperties());
 
           if (null != sresult.getWriter())
             serializer.setWriter(sresult.getWriter());
@@ -1272,7 +1286,18 @@ public class TransformerImpl extends Transformer
 
       m_outputTarget = outputTarget;
 
-      transform(xmlSource, shouldRelease);
+      try
+      {
+        transform(xmlSource, shouldRelease);
+      }
+      finally
+      {
+        // Give the serializer back for the next transformation, unless
+        // this transformer was not reset and still holds on to it.
+        if (outputTarget instanceof StreamResult
+            && m_serializationHandler != xoh)
+          SerializerPool.getDefaultPool().release(xoh);
+      }
     }
   }
 
@@ -125,4 +125,9 @@ final class AbsoluteLocationPath extends Expression {
 	    il.append(new INVOKEINTERFACE(gitr, 1));
 	}
     }
+
+    int checkStreamable(Streamability s, int context) {
+	return (_path != null) ?
+	    _path.checkStreamable(s, Streamability.ROOT) : Streamability.ROOT;
+    }
 }
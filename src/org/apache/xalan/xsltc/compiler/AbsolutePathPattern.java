@@ -137,4 +137,25 @@ final class AbsolutePathPattern extends LocationPathPattern {
     public String toString() {
 	return "absolutePathPattern(" + (_left != null ? _left.toString() : ")");
     }
+
+    int getStreamingLevels() {
+	if (_left == null) {
+	    return Streamability.ROOT_MASK;
+	}
+	// A single step matches a child of the root; a text node, comment or
+	// processing instruction there is checked as if it were in a record
+	final int left = _left.getStreamingLevels();
+	if (_left instanceof StepPattern
+	    && (left & Streamability.ELEMENT_MASK) != 0) {
+	    return Streamability.ELEMENT_MASK;
+	}
+	return left;
+    }
+
+    int checkStreamable(Streamability s, int context) {
+	if (_left != null) {
+	    _left.checkStreamable(s, context);
+	}
+	return Streamability.NONE;
+    }
 }
@@ -97,4 +97,19 @@ final class AlternativePattern extends Pattern {
 	_trueList.append(_right._trueList.add(gotot));
 	_falseList.append(_right._falseList);
     }
+
+    int getStreamingLevels() {
+	return _left.getStreamingLevels() | _right.getStreamingLevels();
+    }
+
+    int checkStreamable(Streamability s, int context) {
+	final int mask = 1 << context;
+	if ((_left.getStreamingLevels() & mask) != 0) {
+	    _left.checkStreamable(s, context);
+	}
+	if ((_right.getStreamingLevels() & mask) != 0) {
+	    _right.checkStreamable(s, context);
+	}
+	return Streamability.NONE;
+    }
 }
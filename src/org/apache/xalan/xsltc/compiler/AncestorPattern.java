@@ -179,4 +179,29 @@ final class AncestorPattern extends RelativePathPattern {
     public String toString() {
 	return "AncestorPattern(" + _left + ", " + _right + ')';
     }
+
+    int getStreamingLevels() {
+	final int right = _right.getStreamingLevels();
+	if (_left == null) {
+	    return right;
+	}
+	final int left = _left.getStreamingLevels();
+	int levels = 0;
+	if ((left & Streamability.ROOT_MASK) != 0) {
+	    levels |= right & Streamability.ELEMENT_MASK;
+	}
+	if (left != 0) {
+	    levels |= right & Streamability.RECORD_MASK;
+	}
+	return levels;
+    }
+
+    int checkStreamable(Streamability s, int context) {
+	_right.checkStreamable(s, context);
+	if (_left != null) {
+	    _left.checkStreamable(s, (context == Streamability.ELEMENT) ?
+				  Streamability.ROOT : Streamability.UP);
+	}
+	return Streamability.NONE;
+    }
 }
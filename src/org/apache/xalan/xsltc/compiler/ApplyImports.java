@@ -149,4 +149,13 @@ final class ApplyImports extends Instruction {
         }
     }
 
+    /**
+     * The imported templates applied to a node of the spine may read the
+     * records.
+     */
+    void checkStreamable(Streamability s) {
+	if (Streamability.isSpine(s.getLevel())) {
+	    s.consume(this);
+	}
+    }
 }
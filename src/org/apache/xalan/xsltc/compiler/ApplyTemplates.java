@@ -38,6 +38,7 @@ import org.apache.xalan.xsltc.compiler.util.ResultTreeType;
 import org.apache.xalan.xsltc.compiler.util.Type;
 import org.apache.xalan.xsltc.compiler.util.TypeCheckError;
 import org.apache.xalan.xsltc.compiler.util.Util;
+import org.apache.xml.dtm.Axis;
 import org.apache.xml.utils.XML11Char;
 
 /**
@@ -199,4 +200,37 @@ final class ApplyTemplates extends Instruction {
 	    il.append(new INVOKEVIRTUAL(popFrame));
 	}
     }
+
+    /**
+     * Templates applied to a node of the spine may read the records, so
+     * this counts as reading them unless the select expression already
+     * does. Sorting the records would need them all in memory.
+     */
+    void checkStreamable(Streamability s) {
+	final int consumed = s.getConsumed();
+	final boolean selecting = s.setSelecting(true);
+	final int level = (_select != null) ?
+	    _select.checkStreamable(s, s.getLevel()) :
+	    s.navigate(Axis.CHILD, s.getLevel(), this);
+	if (s.getConsumed() == consumed && Streamability.isSpine(level)) {
+	    s.consume(this);
+	}
+	s.setSelecting(selecting);
+
+	final Enumeration children = elements();
+	while (children.hasMoreElements()) {
+	    final SyntaxTreeNode child = (SyntaxTreeNode)children.nextElement();
+	    if (child instanceof Sort) {
+		if (Streamability.isStream(level)) {
+		    s.fail(ErrorMsg.STREAMING_ORDER_ERR, null, child);
+		}
+		final int old = s.setLevel(level);
+		child.checkStreamable(s);
+		s.setLevel(old);
+	    }
+	    else {
+		child.checkStreamable(s);
+	    }
+	}
+    }
 }
@@ -127,4 +127,10 @@ final class BinOpExpr extends Expression {
     public String toString() {
 	return Ops[_op] + '(' + _left + ", " + _right + ')';
     }
-} 
+
+    int checkStreamable(Streamability s, int context) {
+	_left.checkStreamable(s, context);
+	_right.checkStreamable(s, context);
+	return Streamability.NONE;
+    }
+}
@@ -234,5 +234,17 @@ final class CallTemplate extends Instruction {
     	    }
     	}
      }
+
+    /**
+     * The called template is checked as if it were expanded in place,
+     * with the current node of the caller.
+     */
+    void checkStreamable(Streamability s) {
+	checkStreamableContents(s);		// with-params
+	final Template template =
+	    getXSLTC().getParser().getSymbolTable().lookupTemplate(_name);
+	if (template != null) {
+	    s.checkCall(this, template);
+	}
+    }
 }
-    
@@ -31,7 +31,9 @@ import org.apache.xalan.xsltc.compiler.util.ClassGenerator;
 import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
 import org.apache.xalan.xsltc.compiler.util.MethodGenerator;
 import org.apache.xalan.xsltc.compiler.util.MultiHashtable;
+import org.apache.xalan.xsltc.compiler.util.NodeSetType;
 import org.apache.xalan.xsltc.compiler.util.NodeType;
+import org.apache.xalan.xsltc.compiler.util.ReferenceType;
 import org.apache.xalan.xsltc.compiler.util.ResultTreeType;
 import org.apache.xalan.xsltc.compiler.util.Type;
 import org.apache.xalan.xsltc.compiler.util.TypeCheckError;
@@ -234,4 +236,21 @@ final class CastExpr extends Expression {
 	    ltype.translateTo(classGen, methodGen, _type);
 	}
     }
+
+    /**
+     * A conversion from a node-set to a string, number or object needs the
+     * string value of the nodes, which is not available for the root node
+     * and the document element while the input document is streamed.
+     */
+    int checkStreamable(Streamability s, int context) {
+	final int level = _left.checkStreamable(s, context);
+	if (_type instanceof NodeSetType || _type instanceof NodeType
+	    || _type instanceof ReferenceType) {
+	    return level;
+	}
+	if (!(_type instanceof BooleanType)) {
+	    s.checkValue(level, this);
+	}
+	return Streamability.NONE;
+    }
 }
@@ -113,4 +113,13 @@ final class Comment extends Instruction {
             il.append(methodGen.storeHandler());
         }
     }
+
+    /**
+     * The value is collected into a string before it is output.
+     */
+    void checkStreamable(Streamability s) {
+	s.enterRestricted();
+	checkStreamableContents(s);
+	s.exitRestricted();
+    }
 }
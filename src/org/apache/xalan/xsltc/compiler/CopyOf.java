@@ -138,4 +138,17 @@ final class CopyOf extends Instruction {
 	}
 
     }
+
+    /**
+     * Copying a node of the spine copies the records as well.
+     */
+    void checkStreamable(Streamability s) {
+	final int consumed = s.getConsumed();
+	final boolean selecting = s.setSelecting(true);
+	final int level = _select.checkStreamable(s, s.getLevel());
+	if (s.getConsumed() == consumed && Streamability.isSpine(level)) {
+	    s.consume(this);
+	}
+	s.setSelecting(selecting);
+    }
 }
@@ -36,4 +36,8 @@ final class CurrentCall extends FunctionCall {
     public void translate(ClassGenerator classGen, MethodGenerator methodGen) {
 	methodGen.getInstructionList().append(methodGen.loadCurrentNode());
     }
+
+    int checkStreamable(Streamability s, int context) {
+	return s.getLevel();
+    }
 }
@@ -152,4 +152,8 @@ final class DocumentCall extends FunctionCall {
         il.append(new INVOKESTATIC(docIdx));
     }
 
+    int checkStreamable(Streamability s, int context) {
+	s.fail(ErrorMsg.STREAMING_FUNCTION_ERR, "document", this);
+	return Streamability.NONE;
+    }
 }
@@ -356,4 +356,10 @@ final class EqualityExpr extends Expression {
 					     + ")Z");
 	il.append(new INVOKESTATIC(compare));
     }
+
+    int checkStreamable(Streamability s, int context) {
+	s.checkValue(_left.checkStreamable(s, context), this);
+	s.checkValue(_right.checkStreamable(s, context), this);
+	return Streamability.NONE;
+    }
 }
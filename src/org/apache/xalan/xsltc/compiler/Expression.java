@@ -91,6 +91,28 @@ abstract class Expression extends SyntaxTreeNode {
 	return typeCheckContents(stable);
     }
 
+    /**
+     * Check whether this expression can be evaluated when the input
+     * document is streamed, and return the level of the input nodes it
+     * returns (see <code>Streamability</code>). The default is to check
+     * all the sub-expressions and return no input nodes.
+     * @param context The level of the context node.
+     */
+    int checkStreamable(Streamability s, int context) {
+	final int n = elementCount();
+	for (int i = 0; i < n; i++) {
+	    final Object item = elementAt(i);
+	    if (item instanceof Expression) {
+		((Expression)item).checkStreamable(s, context);
+	    }
+	}
+	return Streamability.NONE;
+    }
+
+    void checkStreamable(Streamability s) {
+	checkStreamable(s, s.getLevel());
+    }
+
     /**
      * Translate this node into JVM bytecodes.
      */
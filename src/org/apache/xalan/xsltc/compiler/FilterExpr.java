@@ -33,6 +33,7 @@ import org.apache.bcel.generic.InstructionList;
 import org.apache.bcel.generic.LocalVariableGen;
 import org.apache.bcel.generic.NEW;
 import org.apache.xalan.xsltc.compiler.util.ClassGenerator;
+import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
 import org.apache.xalan.xsltc.compiler.util.MethodGenerator;
 import org.apache.xalan.xsltc.compiler.util.NodeSetType;
 import org.apache.xalan.xsltc.compiler.util.ReferenceType;
@@ -243,4 +244,24 @@ class FilterExpr extends Expression {
 	    }
 	}
     }
+
+    int checkStreamable(Streamability s, int context) {
+	final int level = _primary.checkStreamable(s, context);
+	if (_predicates != null && _predicates.size() > 0) {
+	    if (Streamability.isStream(level)) {
+		s.fail(ErrorMsg.STREAMING_ORDER_ERR, null, this);
+	    }
+	    final boolean selecting = s.setSelecting(false);
+	    final boolean local = s.setLocalIterator(true);
+	    final int n = _predicates.size();
+	    for (int i = 0; i < n; i++) {
+		final Predicate pred = (Predicate)_predicates.elementAt(i);
+		pred.checkStreamable(s, Streamability.isStream(level) ?
+				     Streamability.RECORD : level);
+	    }
+	    s.setLocalIterator(local);
+	    s.setSelecting(selecting);
+	}
+	return level;
+    }
 }
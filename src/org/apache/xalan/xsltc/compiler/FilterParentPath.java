@@ -171,4 +171,8 @@ final class FilterParentPath extends Expression {
 	    il.append(new INVOKEINTERFACE(order, 3));
 	}
     }
+
+    int checkStreamable(Streamability s, int context) {
+	return _path.checkStreamable(s, _filterExpr.checkStreamable(s, context));
+    }
 }
@@ -30,6 +30,7 @@ import org.apache.bcel.generic.InstructionList;
 import org.apache.bcel.generic.LocalVariableGen;
 import org.apache.bcel.generic.NEW;
 import org.apache.xalan.xsltc.compiler.util.ClassGenerator;
+import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
 import org.apache.xalan.xsltc.compiler.util.MethodGenerator;
 import org.apache.xalan.xsltc.compiler.util.NodeType;
 import org.apache.xalan.xsltc.compiler.util.Type;
@@ -122,4 +123,17 @@ final class FilteredAbsoluteLocationPath extends Expression {
 	    il.append(new INVOKEINTERFACE(git, 1));
 	}
     }
+
+    /**
+     * The nodes are collected by a DupFilterIterator, so they can not be
+     * read from the records as they stream past.
+     */
+    int checkStreamable(Streamability s, int context) {
+	final int level = (_path != null) ?
+	    _path.checkStreamable(s, Streamability.ROOT) : Streamability.ROOT;
+	if (Streamability.isStream(level)) {
+	    s.fail(ErrorMsg.STREAMING_ORDER_ERR, null, this);
+	}
+	return level;
+    }
 }
@@ -193,4 +193,34 @@ final class ForEach extends Instruction {
 	}
     }
 
+    /**
+     * The body is run once for each node selected, so unless the select
+     * expression reads the records the body must not read them.
+     */
+    void checkStreamable(Streamability s) {
+	final int consumed = s.getConsumed();
+	final boolean selecting = s.setSelecting(true);
+	final int level = _select.checkStreamable(s, s.getLevel());
+	s.setSelecting(selecting);
+
+	final boolean streamed = s.getConsumed() != consumed;
+	final int old = s.setLevel(level);
+	final boolean local = s.setLocalIterator(!streamed);
+	if (!streamed) {
+	    s.enterRestricted();
+	}
+	final Enumeration children = elements();
+	while (children.hasMoreElements()) {
+	    final SyntaxTreeNode child = (SyntaxTreeNode)children.nextElement();
+	    if (child instanceof Sort && streamed) {
+		s.fail(ErrorMsg.STREAMING_ORDER_ERR, null, child);
+	    }
+	    child.checkStreamable(s);
+	}
+	if (!streamed) {
+	    s.exitRestricted();
+	}
+	s.setLocalIterator(local);
+	s.setLevel(old);
+    }
 }
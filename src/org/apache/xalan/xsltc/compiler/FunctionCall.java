@@ -1090,4 +1090,45 @@ class FunctionCall extends Expression {
 	il.append(new PUSH(cpg, _fname.toString()));
 	il.append(new INVOKESTATIC(index));   
     } 	 
+
+    /**
+     * Most standard functions use the string value of the nodes passed to
+     * them. An extension function may navigate from those nodes in any
+     * direction, so no input nodes can be passed to one when the input
+     * document is streamed.
+     */
+    int checkStreamable(Streamability s, int context) {
+	final int n = argumentCount();
+	for (int i = 0; i < n; i++) {
+	    Expression arg = argument(i);
+	    if (isStandard()) {
+		final int level = arg.checkStreamable(s, context);
+		final String name = getName();
+		if (!name.equals("count") && !name.equals("boolean")
+		    && !name.equals("name") && !name.equals("local-name")
+		    && !name.equals("namespace-uri")) {
+		    s.checkValue(level, this);
+		}
+		continue;
+	    }
+	    while (arg instanceof CastExpr) {
+		arg = ((CastExpr)arg).getExpr();
+	    }
+	    if (arg.checkStreamable(s, context) != Streamability.NONE) {
+		s.fail(ErrorMsg.STREAMING_FUNCTION_ERR, getName(), this);
+	    }
+	}
+
+	// These functions use the string value of the context node when
+	// called without an argument
+	if (n == 0 && isStandard()) {
+	    final String name = getName();
+	    if (name.equals("string") || name.equals("number")
+		|| name.equals("string-length")
+		|| name.equals("normalize-space")) {
+		s.checkValue(context, this);
+	    }
+	}
+	return Streamability.NONE;
+    }
 }
@@ -27,6 +27,7 @@ import org.apache.bcel.generic.ConstantPoolGen;
 import org.apache.bcel.generic.INVOKESTATIC;
 import org.apache.bcel.generic.InstructionList;
 import org.apache.xalan.xsltc.compiler.util.ClassGenerator;
+import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
 import org.apache.xalan.xsltc.compiler.util.MethodGenerator;
 
 /**
@@ -52,4 +53,19 @@ final class GenerateIdCall extends FunctionCall {
 						    // reuse signature
 						    GET_NODE_NAME_SIG)));
     }
+
+    /**
+     * The records are built one after another in the same space, so the
+     * identifier of a node in one record may be reused for a node in a
+     * later one.
+     */
+    int checkStreamable(Streamability s, int context) {
+	final int level = (argumentCount() > 0) ?
+	    argument().checkStreamable(s, context) : context;
+	if (level != Streamability.NONE && level != Streamability.ROOT
+	    && level != Streamability.ELEMENT) {
+	    s.fail(ErrorMsg.STREAMING_FUNCTION_ERR, "generate-id", this);
+	}
+	return Streamability.NONE;
+    }
 }
@@ -28,6 +28,7 @@ import org.apache.bcel.generic.INVOKEVIRTUAL;
 import org.apache.bcel.generic.InstructionList;
 import org.apache.bcel.generic.PUSH;
 import org.apache.xalan.xsltc.compiler.util.ClassGenerator;
+import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
 import org.apache.xalan.xsltc.compiler.util.MethodGenerator;
 import org.apache.xalan.xsltc.compiler.util.Type;
 import org.apache.xalan.xsltc.compiler.util.TypeCheckError;
@@ -123,5 +124,8 @@ abstract class IdKeyPattern extends LocationPathPattern {
 	_falseList.add(il.append(new GOTO(null)));
     }
 
+    int checkStreamable(Streamability s, int context) {
+	s.fail(ErrorMsg.STREAMING_PATTERN_ERR, null, this);
+	return Streamability.NONE;
+    }
 }
-
@@ -107,4 +107,9 @@ final class If extends Instruction {
 	_test.backPatchFalseList(il.append(NOP));
 	_test.backPatchTrueList(truec.getNext());
     }
+
+    void checkStreamable(Streamability s) {
+	_test.checkStreamable(s, s.getLevel());
+	checkStreamableContents(s);
+    }
 }
@@ -28,6 +28,7 @@ import org.apache.bcel.generic.INVOKEVIRTUAL;
 import org.apache.bcel.generic.InstructionList;
 import org.apache.bcel.generic.PUSH;
 import org.apache.xalan.xsltc.compiler.util.ClassGenerator;
+import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
 import org.apache.xalan.xsltc.compiler.util.MethodGenerator;
 import org.apache.xalan.xsltc.compiler.util.StringType;
 import org.apache.xalan.xsltc.compiler.util.Type;
@@ -221,4 +222,12 @@ final class KeyCall extends FunctionCall {
         il.append((_name != null) ? ICONST_1: ICONST_0);
         il.append(new INVOKEVIRTUAL(getKeyIterator));
     }
+
+    /**
+     * The index is built from the whole document before it is used.
+     */
+    int checkStreamable(Streamability s, int context) {
+	s.fail(ErrorMsg.STREAMING_FUNCTION_ERR, getName(), this);
+	return Streamability.NONE;
+    }
 }
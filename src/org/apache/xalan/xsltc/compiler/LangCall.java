@@ -28,6 +28,7 @@ import org.apache.bcel.generic.ILOAD;
 import org.apache.bcel.generic.INVOKESTATIC;
 import org.apache.bcel.generic.InstructionList;
 import org.apache.xalan.xsltc.compiler.util.ClassGenerator;
+import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
 import org.apache.xalan.xsltc.compiler.util.FilterGenerator;
 import org.apache.xalan.xsltc.compiler.util.MethodGenerator;
 import org.apache.xalan.xsltc.compiler.util.StringType;
@@ -88,4 +89,13 @@ final class LangCall extends FunctionCall {
 	    il.append(methodGen.loadContextNode());
 	il.append(new INVOKESTATIC(tst));
     }
+
+    /**
+     * The language is inherited from ancestors that are not part of a
+     * record.
+     */
+    int checkStreamable(Streamability s, int context) {
+	s.fail(ErrorMsg.STREAMING_FUNCTION_ERR, "lang", this);
+	return Streamability.NONE;
+    }
 }
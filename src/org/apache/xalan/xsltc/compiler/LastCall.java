@@ -27,6 +27,7 @@ import org.apache.bcel.generic.INVOKEINTERFACE;
 import org.apache.bcel.generic.InstructionList;
 import org.apache.xalan.xsltc.compiler.util.ClassGenerator;
 import org.apache.xalan.xsltc.compiler.util.CompareGenerator;
+import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
 import org.apache.xalan.xsltc.compiler.util.MethodGenerator;
 import org.apache.xalan.xsltc.compiler.util.TestGenerator;
 
@@ -66,4 +67,14 @@ final class LastCall extends FunctionCall {
 	    il.append(new INVOKEINTERFACE(getLast, 1));
 	}
     }
+
+    /**
+     * The number of records is not known until they have all been read.
+     */
+    int checkStreamable(Streamability s, int context) {
+	if (!s.isLocalIterator()) {
+	    s.fail(ErrorMsg.STREAMING_FUNCTION_ERR, "last", this);
+	}
+	return Streamability.NONE;
+    }
 }
@@ -154,4 +154,8 @@ final class LiteralAttribute extends Instruction {
         return _value;
     }
     
+
+    void checkStreamable(Streamability s) {
+	_value.checkStreamable(s, s.getLevel());
+    }
 }
@@ -544,4 +544,16 @@ final class LiteralElement extends Instruction {
     	return false;
     }
     
-}  
+
+    void checkStreamable(Streamability s) {
+	if (_attributeElements != null) {
+	    final int count = _attributeElements.size();
+	    for (int i = 0; i < count; i++) {
+		SyntaxTreeNode node =
+		    (SyntaxTreeNode)_attributeElements.elementAt(i);
+		node.checkStreamable(s);
+	    }
+	}
+	checkStreamableContents(s);
+    }
+}
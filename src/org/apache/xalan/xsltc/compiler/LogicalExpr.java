@@ -230,4 +230,10 @@ final class LogicalExpr extends Expression {
 	    _trueList.add(ih).append(_right._trueList);
 	}
     }
+
+    int checkStreamable(Streamability s, int context) {
+	_left.checkStreamable(s, context);
+	_right.checkStreamable(s, context);
+	return Streamability.NONE;
+    }
 }
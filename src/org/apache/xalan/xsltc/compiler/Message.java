@@ -164,4 +164,12 @@ final class Message extends Instruction {
 	}
     }
 
+    /**
+     * The value is collected into a string before it is output.
+     */
+    void checkStreamable(Streamability s) {
+	s.enterRestricted();
+	checkStreamableContents(s);
+	s.exitRestricted();
+    }
 }
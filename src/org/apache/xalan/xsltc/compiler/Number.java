@@ -41,6 +41,7 @@ import org.apache.bcel.generic.NEW;
 import org.apache.bcel.generic.PUSH;
 import org.apache.bcel.generic.PUTFIELD;
 import org.apache.xalan.xsltc.compiler.util.ClassGenerator;
+import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
 import org.apache.xalan.xsltc.compiler.util.MatchGenerator;
 import org.apache.xalan.xsltc.compiler.util.MethodGenerator;
 import org.apache.xalan.xsltc.compiler.util.NodeCounterGenerator;
@@ -589,4 +590,25 @@ final class Number extends Instruction implements Closure {
 				 CHARACTERSW_SIG);
 	il.append(new INVOKEVIRTUAL(index));
     }
+
+    /**
+     * Counting a node looks at its preceding siblings and ancestors, which
+     * are not available while the input document is streamed.
+     */
+    void checkStreamable(Streamability s) {
+	final int context = s.getLevel();
+	if (_value == null) {
+	    s.fail(ErrorMsg.STREAMING_INSTRUCTION_ERR, "xsl:number", this);
+	}
+	else {
+	    _value.checkStreamable(s, context);
+	}
+	if (_format != null) _format.checkStreamable(s, context);
+	if (_lang != null) _lang.checkStreamable(s, context);
+	if (_letterValue != null) _letterValue.checkStreamable(s, context);
+	if (_groupingSeparator != null) {
+	    _groupingSeparator.checkStreamable(s, context);
+	}
+	if (_groupingSize != null) _groupingSize.checkStreamable(s, context);
+    }
 }
@@ -37,6 +37,7 @@ import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
 import org.apache.xalan.xsltc.compiler.util.MethodGenerator;
 import org.apache.xalan.xsltc.compiler.util.Util;
 import org.apache.xml.serializer.Encodings;
+import org.apache.xml.serializer.OutputPropertiesFactory;
 import org.apache.xml.utils.XML11Char;
 
 /**
@@ -61,6 +62,9 @@ final class Output extends TopLevelElement {
     private boolean _indent = false;
     private String  _mediaType;
     private String _indentamount;
+    private String _compression;
+    private String _compressionLevel;
+    private String _asyncOutput;
     
     // Disables this output element (when other element has higher precedence)
     private boolean _disabled = false;
@@ -105,6 +109,19 @@ final class Output extends TopLevelElement {
         }        
     }
     
+    /**
+     * Get an attribute of this element in the http://xml.apache.org/xalan
+     * namespace, or null if it is not used.
+     */
+    private String getXalanAttribute(String localName) {
+        final String prefix = lookupPrefix("http://xml.apache.org/xalan");
+        if (prefix == null) {
+            return null;
+        }
+        final String value = getAttribute(prefix, localName);
+        return value.equals(EMPTYSTRING) ? null : value;
+    }
+    
     public void mergeOutput(Output previous) {
         // Transfer attributes from previous xsl:output
         transferAttribute(previous, "version");
@@ -129,6 +146,9 @@ final class Output extends TopLevelElement {
         String prefix = lookupPrefix("http://xml.apache.org/xalan");
         if (prefix != null) {
             transferAttribute(previous, prefix + ':' + "indent-amount");
+            transferAttribute(previous, prefix + ':' + "compression");
+            transferAttribute(previous, prefix + ':' + "compression-level");
+            transferAttribute(previous, prefix + ':' + "async-output");
         }
         prefix = lookupPrefix("http://xml.apache.org/xslt");
         if (prefix != null) {
@@ -280,6 +300,25 @@ final class Output extends TopLevelElement {
         if (!_indentamount.equals(EMPTYSTRING)) {
             outputProperties.setProperty("indent_amount", _indentamount);
         }
+
+        // compression, compression-level and async-output: extension
+        // attributes of xsl:output for the stream serializers
+        _compression = getXalanAttribute("compression");
+        if (_compression != null) {
+            outputProperties.setProperty(
+                OutputPropertiesFactory.S_KEY_COMPRESSION, _compression);
+        }
+        _compressionLevel = getXalanAttribute("compression-level");
+        if (_compressionLevel != null) {
+            outputProperties.setProperty(
+                OutputPropertiesFactory.S_KEY_COMPRESSION_LEVEL,
+                _compressionLevel);
+        }
+        _asyncOutput = getXalanAttribute("async-output");
+        if (_asyncOutput != null) {
+            outputProperties.setProperty(
+                OutputPropertiesFactory.S_KEY_ASYNC_OUTPUT, _asyncOutput);
+        }
         
 	// Get the MIME type for the output file
 	_mediaType = getAttribute("media-type");
@@ -400,6 +439,27 @@ final class Output extends TopLevelElement {
 	    il.append(new PUTFIELD(field));
         }
         
+        // Compile code to set the stream serializer extensions
+        if (_compression != null) {
+            field = cpg.addFieldref(TRANSLET_CLASS, "_compression", STRING_SIG);
+	    il.append(DUP);
+	    il.append(new PUSH(cpg, _compression));
+	    il.append(new PUTFIELD(field));
+        }
+        if (_compressionLevel != null) {
+            field = cpg.addFieldref(TRANSLET_CLASS, "_compressionLevel",
+                                    STRING_SIG);
+	    il.append(DUP);
+	    il.append(new PUSH(cpg, _compressionLevel));
+	    il.append(new PUTFIELD(field));
+        }
+        if (_asyncOutput != null) {
+            field = cpg.addFieldref(TRANSLET_CLASS, "_asyncOutput", STRING_SIG);
+	    il.append(DUP);
+	    il.append(new PUSH(cpg, _asyncOutput));
+	    il.append(new PUTFIELD(field));
+        }
+        
 	// Forward to the translet any elements that should be output as CDATA
 	if (_cdata != null) {
 	    int index = cpg.addMethodref(TRANSLET_CLASS,
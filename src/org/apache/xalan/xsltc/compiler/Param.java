@@ -251,4 +251,15 @@ final class Param extends VariableBase {
 	    }
 	}
     }
+
+    /**
+     * A parameter may also be given a value by xsl:with-param, which only
+     * passes nodes from within a record.
+     */
+    void checkStreamable(Streamability s) {
+	super.checkStreamable(s);
+	s.setVariableLevel(this,
+	    Streamability.isSpine(s.getVariableLevel(this)) ?
+	    Streamability.UP : Streamability.RECORD);
+    }
 }
@@ -241,4 +241,8 @@ final class ParentLocationPath extends RelativeLocationPath {
 	    il.append(new INVOKEINTERFACE(order, 3));
 	}
     }
+
+    int checkStreamable(Streamability s, int context) {
+	return _step.checkStreamable(s, _path.checkStreamable(s, context));
+    }
 }
@@ -147,4 +147,24 @@ final class ParentPattern extends RelativePathPattern {
     public String toString() {
 	return "Parent(" + _left + ", " + _right + ')';
     }
+
+    int getStreamingLevels() {
+	final int left = _left.getStreamingLevels();
+	final int right = _right.getStreamingLevels();
+	int levels = 0;
+	if ((left & Streamability.ROOT_MASK) != 0) {
+	    levels |= right & Streamability.ELEMENT_MASK;
+	}
+	if (left != 0) {
+	    levels |= right & Streamability.RECORD_MASK;
+	}
+	return levels;
+    }
+
+    int checkStreamable(Streamability s, int context) {
+	_right.checkStreamable(s, context);
+	_left.checkStreamable(s, (context == Streamability.ELEMENT) ?
+			      Streamability.ROOT : Streamability.UP);
+	return Streamability.NONE;
+    }
 }
@@ -57,4 +57,14 @@ public abstract class Pattern extends Expression {
      * Returns the priority of this pattern (section 5.5 in the XSLT spec).
      */
     public abstract double getPriority();
+
+    /**
+     * Returns the levels of the input document at which this pattern can
+     * match a node when the document is streamed, as a combination of the
+     * masks defined in <code>Streamability</code>.
+     */
+    int getStreamingLevels() {
+	return Streamability.ROOT_MASK | Streamability.ELEMENT_MASK
+	    | Streamability.RECORD_MASK;
+    }
 }
@@ -614,4 +614,9 @@ final class Predicate extends Expression implements Closure {
 	    translateFilter(classGen, methodGen);
 	}
     }
+
+    int checkStreamable(Streamability s, int context) {
+	_exp.checkStreamable(s, context);
+	return Streamability.NONE;
+    }
 }
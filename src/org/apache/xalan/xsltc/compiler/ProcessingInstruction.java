@@ -137,4 +137,14 @@ final class ProcessingInstruction extends Instruction {
 	// Restore old handler base from stack
 	il.append(methodGen.storeHandler());
     }
+
+    /**
+     * The value is collected into a string before it is output.
+     */
+    void checkStreamable(Streamability s) {
+	_name.checkStreamable(s, s.getLevel());
+	s.enterRestricted();
+	checkStreamableContents(s);
+	s.exitRestricted();
+    }
 }
@@ -278,4 +278,10 @@ final class RelationalExpr extends Expression {
     public String toString() {
         return Operators.getOpNames(_op) + '(' + _left + ", " + _right + ')';
     }
+
+    int checkStreamable(Streamability s, int context) {
+	s.checkValue(_left.checkStreamable(s, context), this);
+	s.checkValue(_right.checkStreamable(s, context), this);
+	return Streamability.NONE;
+    }
 }
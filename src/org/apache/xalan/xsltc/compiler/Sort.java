@@ -735,4 +735,16 @@ final class Sort extends Instruction implements Closure {
 
 	return extractMethod;
     }
+
+    /**
+     * The level of the node being sorted is set by the parent instruction.
+     */
+    void checkStreamable(Streamability s) {
+	final int context = s.getLevel();
+	s.checkValue(_select.checkStreamable(s, context), this);
+	_order.checkStreamable(s, context);
+	_caseOrder.checkStreamable(s, context);
+	_dataType.checkStreamable(s, context);
+	_lang.checkStreamable(s, context);
+    }
 }
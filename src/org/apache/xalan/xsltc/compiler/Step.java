@@ -38,6 +38,7 @@ import org.apache.bcel.generic.NEW;
 import org.apache.bcel.generic.PUSH;
 import org.apache.xalan.xsltc.DOM;
 import org.apache.xalan.xsltc.compiler.util.ClassGenerator;
+import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
 import org.apache.xalan.xsltc.compiler.util.MethodGenerator;
 import org.apache.xalan.xsltc.compiler.util.Type;
 import org.apache.xalan.xsltc.compiler.util.TypeCheckError;
@@ -518,4 +519,36 @@ final class Step extends RelativeLocationPath {
 	}
 	return buffer.append(')').toString();
     }
+
+    /**
+     * If this step reads the records, only a test on the value of a node,
+     * which is compiled into a filtering iterator, can be applied to them
+     * as they stream past. Any other predicate needs the nodes it filters
+     * in memory.
+     */
+    int checkStreamable(Streamability s, int context) {
+	// '@*' is parsed as a child step with an attribute node test
+	final int axis = (_axis == Axis.CHILD && _nodeType == DTM.ATTRIBUTE_NODE)
+	    ? Axis.ATTRIBUTE : _axis;
+	final int consumed = s.getConsumed();
+	final int level = s.navigate(axis, context, this);
+	if (_predicates != null) {
+	    final boolean streamed = s.getConsumed() != consumed;
+	    final boolean selecting = s.setSelecting(false);
+	    final boolean local = s.setLocalIterator(true);
+	    final int n = _predicates.size();
+	    for (int i = 0; i < n; i++) {
+		final Predicate pred = (Predicate)_predicates.elementAt(i);
+		if (streamed && (!pred.isNodeValueTest() || pred.hasPositionCall()
+			|| pred.hasLastCall())) {
+		    s.fail(ErrorMsg.STREAMING_ORDER_ERR, null, this);
+		}
+		pred.checkStreamable(s, Streamability.isStream(level) ?
+				     Streamability.RECORD : level);
+	    }
+	    s.setLocalIterator(local);
+	    s.setSelecting(selecting);
+	}
+	return level;
+    }
 }
@@ -48,6 +48,7 @@ import org.apache.bcel.generic.NEW;
 import org.apache.bcel.generic.PUSH;
 import org.apache.bcel.generic.PUTFIELD;
 import org.apache.xalan.xsltc.compiler.util.ClassGenerator;
+import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
 import org.apache.xalan.xsltc.compiler.util.MethodGenerator;
 import org.apache.xalan.xsltc.compiler.util.Type;
 import org.apache.xalan.xsltc.compiler.util.TypeCheckError;
@@ -529,4 +530,41 @@ class StepPattern extends RelativePathPattern {
 	    translateKernel(classGen, methodGen);
 	}
     }
+
+    int getStreamingLevels() {
+	if (_axis == Axis.ATTRIBUTE) {
+	    return Streamability.RECORD_MASK;
+	}
+	switch (_nodeType) {
+	case NodeTest.ANODE:
+	    return Streamability.ROOT_MASK | Streamability.ELEMENT_MASK
+		| Streamability.RECORD_MASK;
+	case NodeTest.TEXT:
+	case NodeTest.COMMENT:
+	case NodeTest.PI:
+	case NodeTest.ATTRIBUTE:
+	case DTM.NAMESPACE_NODE:
+	    return Streamability.RECORD_MASK;
+	default:
+	    return Streamability.ELEMENT_MASK | Streamability.RECORD_MASK;
+	}
+    }
+
+    /**
+     * A positional predicate counts the siblings of a node, which are in
+     * other records.
+     */
+    int checkStreamable(Streamability s, int context) {
+	if (_predicates != null) {
+	    final int n = _predicates.size();
+	    for (int i = 0; i < n; i++) {
+		final Predicate pred = (Predicate)_predicates.elementAt(i);
+		if (pred.hasPositionCall() || pred.hasLastCall()) {
+		    s.fail(ErrorMsg.STREAMING_PATTERN_ERR, null, this);
+		}
+		pred.checkStreamable(s, context);
+	    }
+	}
+	return Streamability.NONE;
+    }
 }
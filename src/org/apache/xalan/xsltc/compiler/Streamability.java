@@ -0,0 +1,499 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+package org.apache.xalan.xsltc.compiler;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
+import org.apache.xml.dtm.Axis;
+
+/**
+ * Decides whether a stylesheet can be run in streaming mode, where the
+ * input document is never built in memory as a whole.
+ *
+ * <p>In streaming mode the translet sees the root node and the document
+ * element, with its attributes and namespaces, as a small <i>spine</i>
+ * that is always available.  The children of the document element, the
+ * <i>records</i>, are built a few at a time as the parser delivers them
+ * and are discarded once they have been processed.  A stylesheet can be
+ * streamed if it reads the records only once, in document order, and only
+ * through the select expression of an <code>xsl:apply-templates</code>,
+ * <code>xsl:for-each</code> or <code>xsl:copy-of</code> instruction in a
+ * template that matches the root node or the document element.</p>
+ *
+ * <p>The check walks every template, once for each level of the tree its
+ * pattern can match, and every global variable and attribute set.  Each
+ * expression reports the level its nodes come from, which is how the
+ * check knows when a step reads the records.  The analysis is
+ * conservative: anything it cannot prove is reported as a warning and
+ * the stylesheet is compiled for the normal, in-memory model.</p>
+ *
+ * @see Stylesheet#checkStreamable()
+ */
+final class Streamability {
+
+    /**
+     * The expression does not return nodes of the input document.
+     */
+    public static final int NONE    = -1;
+
+    /**
+     * The root node.
+     */
+    public static final int ROOT    = 0;
+
+    /**
+     * The document element and the other children of the root node.
+     */
+    public static final int ELEMENT = 1;
+
+    /**
+     * Nodes inside a single record: the records themselves, their
+     * descendants and the attributes and namespaces of any element.
+     */
+    public static final int RECORD  = 2;
+
+    /**
+     * Ancestors of a record, which may or may not be part of the spine.
+     */
+    public static final int UP      = 3;
+
+    /**
+     * The records, or nodes in them, in document order as they are read
+     * from the parser.  Each record contributes nodes from its own
+     * subtree only.
+     */
+    public static final int STREAM  = 4;
+
+    /**
+     * Like <code>STREAM</code>, but the nodes may be nested within each
+     * other, as those selected by a descendant axis are.
+     */
+    public static final int NESTED  = 5;
+
+    public static final int ROOT_MASK    = 1 << ROOT;
+    public static final int ELEMENT_MASK = 1 << ELEMENT;
+    public static final int RECORD_MASK  = 1 << RECORD;
+
+    private final Parser _parser;
+
+    /**
+     * Set to false as soon as any part of the stylesheet fails the check.
+     */
+    private boolean _streamable = true;
+
+    /**
+     * Errors already reported, so that a construct that is checked at
+     * several levels is only reported once.
+     */
+    private final Hashtable _reported = new Hashtable();
+
+    /**
+     * The level of the current node.
+     */
+    private int _level;
+
+    /**
+     * True while checking a template that matches a spine node; only
+     * those templates may read the records.
+     */
+    private boolean _spine;
+
+    /**
+     * True while checking the select expression of an instruction that
+     * iterates over the nodes it selects.
+     */
+    private boolean _selecting;
+
+    /**
+     * True if <code>last()</code> refers to an iterator that is local to
+     * a record, rather than one that may be reading the records.
+     */
+    private boolean _localIterator;
+
+    /**
+     * The number of times the current template reads the records.
+     */
+    private int _consumed;
+
+    /**
+     * Greater than zero while checking a construct that may be evaluated
+     * more than once for the same context node, or whose result is kept;
+     * the records can not be read from within it.
+     */
+    private int _restricted;
+
+    /**
+     * The level of the value of each variable and parameter checked so
+     * far.
+     */
+    private final Hashtable _variables = new Hashtable();
+
+    /**
+     * The level of the current node on entry to each template that is
+     * being expanded by xsl:call-template, used to detect recursion.
+     */
+    private final Hashtable _calls = new Hashtable();
+
+    /**
+     * The templates in <code>_calls</code> that turned out to be
+     * recursive.
+     */
+    private final Hashtable _recursive = new Hashtable();
+
+    public Streamability(Parser parser) {
+	_parser = parser;
+    }
+
+    /**
+     * Returns true if no part of the stylesheet failed the check.
+     */
+    public boolean isStreamable() {
+	return _streamable;
+    }
+
+    /**
+     * Marks the whole stylesheet as not streamable.
+     */
+    public void fail(String code, Object param, SyntaxTreeNode node) {
+	node = locate(node);
+	final ErrorMsg msg = (param != null) ?
+	    new ErrorMsg(code, param, node) : new ErrorMsg(code, node);
+	final String key = msg.toString();
+	if (_reported.get(key) == null) {
+	    _reported.put(key, key);
+	    _parser.reportError(Constants.WARNING, msg);
+	}
+	_streamable = false;
+    }
+
+    /**
+     * Reports the outcome of the check once the whole stylesheet has been
+     * walked.
+     */
+    public void finish(Stylesheet stylesheet) {
+	if (!_streamable) {
+	    _parser.reportError(Constants.WARNING,
+		new ErrorMsg(ErrorMsg.STREAMING_DISABLED_WARN, stylesheet));
+	}
+    }
+
+    /**
+     * Expressions inherit no line number from the parser, so errors are
+     * reported against the closest enclosing node that has one.
+     */
+    private static SyntaxTreeNode locate(SyntaxTreeNode node) {
+	SyntaxTreeNode result = node;
+	while (result != null && result.getLineNumber() <= 0) {
+	    result = result.getParent();
+	}
+	return (result != null) ? result : node;
+    }
+
+    /**
+     * Checks a template that has a match pattern, once for each level of
+     * the tree the pattern can match.  Named templates are checked where
+     * they are called.
+     */
+    public void checkTemplate(Template template) {
+	final Pattern pattern = template.getPattern();
+	if (pattern == null) return;
+
+	final int levels = pattern.getStreamingLevels();
+	for (int level = ROOT; level <= RECORD; level++) {
+	    if ((levels & (1 << level)) != 0) {
+		begin(level, level != RECORD);
+		pattern.checkStreamable(this, level);
+		template.checkStreamable(this);
+	    }
+	}
+    }
+
+    /**
+     * Checks the contents of an attribute set, which may be used on both
+     * the document element and the elements in a record.
+     */
+    public void checkAttributeSet(AttributeSet attributeSet) {
+	for (int level = ELEMENT; level <= RECORD; level++) {
+	    begin(level, false);
+	    _restricted++;
+	    attributeSet.checkStreamable(this);
+	}
+    }
+
+    /**
+     * Checks a global variable or parameter, which is evaluated with the
+     * root node as its context.
+     */
+    public void checkGlobal(VariableBase variable) {
+	begin(ROOT, false);
+	variable.checkStreamable(this);
+    }
+
+    private void begin(int level, boolean spine) {
+	_level = level;
+	_spine = spine;
+	_selecting = false;
+	_localIterator = false;
+	_consumed = 0;
+	_restricted = 0;
+    }
+
+    /**
+     * Returns the level of the current node.
+     */
+    public int getLevel() {
+	return _level;
+    }
+
+    /**
+     * Sets the level of the current node and returns the previous one.
+     * The nodes of a stream are processed one at a time, so within
+     * an iteration over them the current node is inside a record.
+     */
+    public int setLevel(int level) {
+	final int old = _level;
+	_level = isStream(level) ? RECORD : level;
+	return old;
+    }
+
+    /**
+     * Sets whether the expression being checked is the select expression
+     * of an iterating instruction and returns the previous setting.
+     */
+    public boolean setSelecting(boolean selecting) {
+	final boolean old = _selecting;
+	_selecting = selecting;
+	return old;
+    }
+
+    public boolean setLocalIterator(boolean local) {
+	final boolean old = _localIterator;
+	_localIterator = local;
+	return old;
+    }
+
+    public boolean isLocalIterator() {
+	return _localIterator;
+    }
+
+    public void enterRestricted() {
+	_restricted++;
+    }
+
+    public void exitRestricted() {
+	_restricted--;
+    }
+
+    /**
+     * Returns the number of times the current template reads the records.
+     */
+    public int getConsumed() {
+	return _consumed;
+    }
+
+    /**
+     * Records that <code>node</code> reads the records.
+     */
+    public void consume(SyntaxTreeNode node) {
+	if (!_spine || _restricted > 0 || _consumed > 0) {
+	    fail(ErrorMsg.STREAMING_CONSUME_ERR, null, node);
+	}
+	_consumed++;
+    }
+
+    /**
+     * Returns the level of the nodes reached from nodes at level
+     * <code>context</code> along <code>axis</code>, recording any read of
+     * the records that the step implies.
+     */
+    public int navigate(int axis, int context, SyntaxTreeNode node) {
+	if (context == NONE) return NONE;
+
+	switch (axis) {
+	case Axis.SELF:
+	    return context;
+
+	case Axis.ATTRIBUTE:
+	case Axis.NAMESPACE:
+	    return isStream(context) ? context : RECORD;
+
+	case Axis.CHILD:
+	    switch (context) {
+	    case ROOT:
+		return ELEMENT;
+	    case ELEMENT:
+		return consumeStep(node, STREAM);
+	    case RECORD:
+	    case STREAM:
+		return context;
+	    case NESTED:
+		fail(ErrorMsg.STREAMING_ORDER_ERR, null, node);
+		return context;
+	    default:
+		fail(ErrorMsg.STREAMING_PATH_ERR, null, node);
+		return RECORD;
+	    }
+
+	case Axis.DESCENDANT:
+	case Axis.DESCENDANTORSELF:
+	    switch (context) {
+	    case ROOT:
+	    case ELEMENT:
+		return consumeStep(node, NESTED);
+	    case RECORD:
+		return RECORD;
+	    case STREAM:
+		return NESTED;
+	    case NESTED:
+		fail(ErrorMsg.STREAMING_ORDER_ERR, null, node);
+		return NESTED;
+	    default:
+		fail(ErrorMsg.STREAMING_PATH_ERR, null, node);
+		return RECORD;
+	    }
+
+	case Axis.PARENT:
+	case Axis.ANCESTOR:
+	case Axis.ANCESTORORSELF:
+	    switch (context) {
+	    case ROOT:
+		return ROOT;
+	    case ELEMENT:
+		return (axis == Axis.ANCESTORORSELF) ? UP : ROOT;
+	    case STREAM:
+	    case NESTED:
+		// The same ancestor would be returned once for every record
+		fail(ErrorMsg.STREAMING_ORDER_ERR, null, node);
+		return UP;
+	    default:
+		return UP;
+	    }
+
+	default:
+	    fail(ErrorMsg.STREAMING_AXIS_ERR, Axis.getNames(axis), node);
+	    return UP;
+	}
+    }
+
+    private int consumeStep(SyntaxTreeNode node, int level) {
+	if (!_selecting) {
+	    fail(ErrorMsg.STREAMING_CONSUME_ERR, null, node);
+	}
+	consume(node);
+	return level;
+    }
+
+    /**
+     * Reports an error if the string value of nodes at <code>level</code>
+     * is needed, which is the case for a node of the spine.
+     */
+    public void checkValue(int level, SyntaxTreeNode node) {
+	if (isSpine(level)) {
+	    fail(ErrorMsg.STREAMING_VALUE_ERR, null, node);
+	}
+    }
+
+    /**
+     * Returns the level of the union of nodes at two levels.
+     */
+    public static int combine(int level1, int level2) {
+	if (level1 == level2 || level2 == NONE) return level1;
+	if (level1 == NONE) return level2;
+	if (isStream(level1) && level2 == RECORD) return level1;
+	if (isStream(level2) && level1 == RECORD) return level2;
+	if (isStream(level1) || isStream(level2)) return NESTED;
+	return UP;
+    }
+
+    /**
+     * Returns true if nodes at <code>level</code> may be part of the
+     * spine.
+     */
+    public static boolean isSpine(int level) {
+	return level == ROOT || level == ELEMENT || level == UP;
+    }
+
+    /**
+     * Returns true if nodes at <code>level</code> are read from the
+     * records as they stream past.
+     */
+    public static boolean isStream(int level) {
+	return level == STREAM || level == NESTED;
+    }
+
+    public void setVariableLevel(VariableBase variable, int level) {
+	_variables.put(variable, new Integer(level));
+    }
+
+    /**
+     * Returns the level of the value of a variable; a variable that has
+     * not been checked yet could hold anything.
+     */
+    public int getVariableLevel(VariableBase variable) {
+	final Integer level = (Integer)_variables.get(variable);
+	return (level != null) ? level.intValue() : UP;
+    }
+
+    /**
+     * Returns true if all the variables in <code>dependencies</code> have
+     * been checked.
+     */
+    public boolean isChecked(Vector dependencies) {
+	final int n = dependencies.size();
+	for (int i = 0; i < n; i++) {
+	    final Object element = dependencies.elementAt(i);
+	    if (element instanceof VariableBase
+		&& _variables.get(element) == null) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Checks the body of a template called by <code>call</code> as if it
+     * were expanded in place.  A recursive call is not expanded again; it
+     * is accepted as long as the template neither reads the records nor
+     * is called with a current node at a different level.
+     */
+    public void checkCall(CallTemplate call, Template template) {
+	final Integer entry = (Integer)_calls.get(template);
+	if (entry != null) {
+	    if (entry.intValue() != _level) {
+		fail(ErrorMsg.STREAMING_INSTRUCTION_ERR, "xsl:call-template",
+		     call);
+	    }
+	    _recursive.put(template, template);
+	    return;
+	}
+
+	final int consumed = _consumed;
+	_calls.put(template, new Integer(_level));
+	template.checkStreamable(this);
+	_calls.remove(template);
+	if (_recursive.remove(template) != null && _consumed != consumed) {
+	    fail(ErrorMsg.STREAMING_CONSUME_ERR, null, call);
+	}
+    }
+}
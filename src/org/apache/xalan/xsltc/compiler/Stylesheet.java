@@ -192,6 +192,12 @@ public final class Stylesheet extends SyntaxTreeNode {
      * Flag indicating if id() is called.
      */
     private boolean _hasIdCall = false;
+
+    /**
+     * Flag indicating if the translet can be run in streaming mode.
+     * @see XSLTC#_streaming
+     */
+    private boolean _streamable = false;
     
     /**
      * Set to true to enable template inlining optimization.
@@ -301,6 +307,69 @@ public final class Stylesheet extends SyntaxTreeNode {
 	return _callsNodeset;
     }
 
+    public boolean isStreamable() {
+	return _streamable;
+    }
+
+    /**
+     * Check whether the translet can be run without building the whole
+     * input document in memory. Each construct that prevents it is
+     * reported as a warning and the translet is compiled for the normal
+     * model. Must be called after type checking.
+     */
+    public void checkStreamable() {
+	final Streamability s = new Streamability(getParser());
+	if (_callsNodeset) {
+	    s.fail(ErrorMsg.STREAMING_FUNCTION_ERR, "node-set", this);
+	}
+	else if (_multiDocument) {
+	    s.fail(ErrorMsg.STREAMING_FUNCTION_ERR, "document", this);
+	}
+	if (_hasIdCall) {
+	    s.fail(ErrorMsg.STREAMING_FUNCTION_ERR, "id", this);
+	}
+
+	// Check global variables and parameters after those they refer to
+	final Vector globals = new Vector(_globals);
+	boolean changed = true;
+	while (changed) {
+	    changed = false;
+	    for (int i = 0; i < globals.size(); ) {
+		final VariableBase var = (VariableBase)globals.elementAt(i);
+		final Vector dep = var.getDependencies();
+		if (dep == null || s.isChecked(dep)) {
+		    s.checkGlobal(var);
+		    globals.removeElementAt(i);
+		    changed = true;
+		}
+		else {
+		    i++;
+		}
+	    }
+	}
+
+	final Enumeration elements = elements();
+	while (elements.hasMoreElements()) {
+	    final Object element = elements.nextElement();
+	    if (element instanceof Template) {
+		final Template template = (Template)element;
+		if (!template.disabled()) {
+		    s.checkTemplate(template);
+		}
+	    }
+	    else if (element instanceof AttributeSet) {
+		s.checkAttributeSet((AttributeSet)element);
+	    }
+	    else if (element instanceof Key) {
+		s.fail(ErrorMsg.STREAMING_INSTRUCTION_ERR, "xsl:key",
+		       (Key)element);
+	    }
+	}
+
+	s.finish(this);
+	_streamable = s.isStreamable();
+    }
+
     public void numberFormattingUsed() {
 	_numberFormattingUsed = true;
         /*
@@ -1098,6 +1167,16 @@ public final class Stylesheet extends SyntaxTreeNode {
 					           HASIDCALL_INDEX_SIG)));
             constructor.markChunkEnd();
 	}
+
+	if (_streamable) {
+            constructor.markChunkStart();
+	    il.append(classGen.loadTranslet());
+	    il.append(new PUSH(cpg, Boolean.TRUE));
+	    il.append(new PUTFIELD(cpg.addFieldref(TRANSLET_CLASS,
+					           STREAMABLE_INDEX,
+					           STREAMABLE_INDEX_SIG)));
+            constructor.markChunkEnd();
+	}
 	
         // Compile in code to set the output configuration from <xsl:output>
 	if (output != null) {
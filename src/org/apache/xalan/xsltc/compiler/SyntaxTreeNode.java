@@ -489,6 +489,27 @@ public abstract class SyntaxTreeNode implements Constants {
 	return Type.Void;
     }
 
+    /**
+     * Check whether this node can be run when the input document is
+     * streamed. The default is to check all the children of this node.
+     * @param s The state of the check for the template being checked.
+     */
+    void checkStreamable(Streamability s) {
+	checkStreamableContents(s);
+    }
+
+    /**
+     * Call checkStreamable() on all child syntax tree nodes.
+     * @param s The state of the check for the template being checked.
+     */
+    protected void checkStreamableContents(Streamability s) {
+	final int n = elementCount();
+	for (int i = 0; i < n; i++) {
+	    SyntaxTreeNode item = (SyntaxTreeNode)_contents.elementAt(i);
+	    item.checkStreamable(s);
+	}
+    }
+
     /**
      * Translate this abstract syntax tree node into JVM bytecodes.
      * @param classGen BCEL Java class generator
@@ -143,5 +143,9 @@ final class TransletOutput extends Instruction {
 	// Restore old output handler from stack
 	il.append(methodGen.storeHandler());
     }
-}
 
+    void checkStreamable(Streamability s) {
+	_filename.checkStreamable(s, s.getLevel());
+	checkStreamableContents(s);
+    }
+}
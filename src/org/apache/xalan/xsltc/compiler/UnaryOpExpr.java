@@ -85,5 +85,9 @@ final class UnaryOpExpr extends Expression {
 	_left.translate(classGen, methodGen);
 	il.append(_type.NEG());
     }
-}
 
+    int checkStreamable(Streamability s, int context) {
+	_left.checkStreamable(s, context);
+	return Streamability.NONE;
+    }
+}
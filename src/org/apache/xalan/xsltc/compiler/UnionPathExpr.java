@@ -143,4 +143,13 @@ final class UnionPathExpr extends Expression {
 
 	}
     }
+
+    int checkStreamable(Streamability s, int context) {
+	int level = Streamability.NONE;
+	for (int i = 0; i < _components.length; i++) {
+	    level = Streamability.combine(level,
+				_components[i].checkStreamable(s, context));
+	}
+	return level;
+    }
 }
@@ -99,4 +99,8 @@ final class UnresolvedRef extends VariableRefBase {
 	return "unresolved-ref()";
     }
 
+    int checkStreamable(Streamability s, int context) {
+	return (_ref != null) ?
+	    _ref.checkStreamable(s, context) : Streamability.NONE;
+    }
 }
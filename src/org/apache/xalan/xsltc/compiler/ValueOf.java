@@ -135,4 +135,8 @@ final class ValueOf extends Instruction {
             il.append(POP);
         }
     }
+
+    void checkStreamable(Streamability s) {
+	s.checkValue(_select.checkStreamable(s, s.getLevel()), this);
+    }
 }
@@ -269,4 +269,21 @@ class VariableBase extends TopLevelElement {
 	}
     }
 
+    /**
+     * Records the level of the nodes in the value of this variable. A
+     * result tree fragment is built once and kept, so it can not read the
+     * records.
+     */
+    void checkStreamable(Streamability s) {
+	int level = Streamability.NONE;
+	if (_select != null) {
+	    level = _select.checkStreamable(s, s.getLevel());
+	}
+	else {
+	    s.enterRestricted();
+	    checkStreamableContents(s);
+	    s.exitRestricted();
+	}
+	s.setVariableLevel(this, level);
+    }
 }
@@ -155,4 +155,8 @@ class VariableRefBase extends Expression {
         return _type;
     }
 
+    int checkStreamable(Streamability s, int context) {
+	return (_variable != null) ?
+	    s.getVariableLevel(_variable) : Streamability.NONE;
+    }
 }
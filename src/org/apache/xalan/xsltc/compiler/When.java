@@ -102,4 +102,9 @@ final class When extends Instruction {
 	final ErrorMsg msg = new ErrorMsg(ErrorMsg.STRAY_WHEN_ERR, this);
 	getParser().reportError(Constants.ERROR, msg);
     }
+
+    void checkStreamable(Streamability s) {
+	_test.checkStreamable(s, s.getLevel());
+	checkStreamableContents(s);
+    }
 }
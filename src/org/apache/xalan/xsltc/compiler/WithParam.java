@@ -206,4 +206,23 @@ final class WithParam extends Instruction {
 						     ADD_PARAMETER_SIG)));
 	il.append(POP); // cleanup stack
     }
+
+    /**
+     * The parameter may be used by a template that only expects nodes from
+     * within a record.
+     */
+    void checkStreamable(Streamability s) {
+	int level = Streamability.NONE;
+	if (_select != null) {
+	    level = _select.checkStreamable(s, s.getLevel());
+	}
+	else {
+	    s.enterRestricted();
+	    checkStreamableContents(s);
+	    s.exitRestricted();
+	}
+	if (Streamability.isSpine(level)) {
+	    s.fail(ErrorMsg.STREAMING_PARAM_ERR, null, this);
+	}
+    }
 }
@@ -129,6 +129,14 @@ public final class XSLTC {
      */
     private boolean _templateInlining = false;
 
+    /**
+     * Set to true to compile the translet for streaming mode, in which the
+     * children of the document element are built a few at a time and
+     * discarded once processed. Stylesheets that need the whole input
+     * document are compiled as usual, with a warning.
+     */
+    private boolean _streaming = false;
+
     /**
      * State of the secure processing feature.
      */
@@ -244,6 +252,21 @@ public final class XSLTC {
         return _templateInlining;
     }
 
+    /**
+     * Set a flag indicating if the translet is to be compiled for
+     * streaming mode.
+     */
+    public void setStreaming(boolean streaming) {
+	_streaming = streaming;
+    }
+
+    /**
+     * Return the state of the streaming mode feature.
+     */
+    public boolean getStreaming() {
+	return _streaming;
+    }
+
     /**
      * Set the parameters to use to locate the correct <?xml-stylesheet ...?>
      * processing instruction in the case where the input document to the
@@ -366,6 +389,10 @@ public final class XSLTC {
 		_stylesheet.setMultiDocument(_multiDocument);
 		_stylesheet.setHasIdCall(_hasIdCall);
 
+		if (_streaming) {
+		    _stylesheet.checkStreamable();
+		}
+
 		// Class synchronization is needed for BCEL
 		synchronized (getClass()) {
 		    _stylesheet.translate();
@@ -290,4 +290,17 @@ final class XslAttribute extends Instruction {
         
     }
 
+    /**
+     * The value is collected into a string before it is output.
+     */
+    void checkStreamable(Streamability s) {
+	if (_ignore) return;
+	_name.checkStreamable(s, s.getLevel());
+	if (_namespace != null) {
+	    _namespace.checkStreamable(s, s.getLevel());
+	}
+	s.enterRestricted();
+	checkStreamableContents(s);
+	s.exitRestricted();
+    }
 }
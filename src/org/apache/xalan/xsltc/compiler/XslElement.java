@@ -320,4 +320,13 @@ final class XslElement extends Instruction {
 	}
     }
 
+    void checkStreamable(Streamability s) {
+	if (!_ignore) {
+	    _name.checkStreamable(s, s.getLevel());
+	    if (_namespace != null) {
+		_namespace.checkStreamable(s, s.getLevel());
+	    }
+	}
+	checkStreamableContents(s);
+    }
 }
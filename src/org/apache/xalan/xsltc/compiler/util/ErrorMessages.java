@@ -998,7 +998,113 @@ public class ErrorMessages extends ListResourceBundle {
          "kilobytes.  This is usually caused by templates in a stylesheet " +
          "that are very large.  Try restructuring your stylesheet to use " +
          "smaller templates."
-        }
+        },
+
+        /*
+         * Note to translators:  This message is a warning that is issued when
+         * the stylesheet is compiled for streaming mode, in which the input
+         * document is read piece by piece rather than built in memory.  The
+         * "records" are the children of the top-level element of the input
+         * document.  The terms "select", "xsl:apply-templates",
+         * "xsl:for-each" and "xsl:copy-of" are XSLT keywords that should not
+         * be translated.
+         */
+        {ErrorMsg.STREAMING_CONSUME_ERR,
+         "The children of the document element can only be read once, by " +
+         "the select expression of an xsl:apply-templates, xsl:for-each or " +
+         "xsl:copy-of instruction in a template that matches the root node " +
+         "or the document element."},
+
+        /*
+         * Note to translators:  This message is a warning that is issued when
+         * the stylesheet is compiled for streaming mode, in which the input
+         * document is read piece by piece rather than built in memory.
+         */
+        {ErrorMsg.STREAMING_ORDER_ERR,
+         "The nodes selected here would have to be kept in memory to be " +
+         "sorted, filtered or put in document order."},
+
+        /*
+         * Note to translators:  This message is a warning that is issued when
+         * the stylesheet is compiled for streaming mode, in which the input
+         * document is read piece by piece rather than built in memory.
+         */
+        {ErrorMsg.STREAMING_PATH_ERR,
+         "A path that goes up to an ancestor and back down cannot be " +
+         "evaluated when the input document is streamed."},
+
+        /*
+         * Note to translators:  This message is a warning that is issued when
+         * the stylesheet is compiled for streaming mode, in which the input
+         * document is read piece by piece rather than built in memory.  The
+         * substitution text is the name of an XPath axis, such as
+         * "following-sibling", which should not be translated.
+         */
+        {ErrorMsg.STREAMING_AXIS_ERR,
+         "The ''{0}'' axis cannot be used when the input document is " +
+         "streamed."},
+
+        /*
+         * Note to translators:  This message is a warning that is issued when
+         * the stylesheet is compiled for streaming mode, in which the input
+         * document is read piece by piece rather than built in memory.  The
+         * "string value" of a node is an XPath term for the text it
+         * contains.
+         */
+        {ErrorMsg.STREAMING_VALUE_ERR,
+         "The string value of the root node or of the document element " +
+         "cannot be used when the input document is streamed."},
+
+        /*
+         * Note to translators:  This message is a warning that is issued when
+         * the stylesheet is compiled for streaming mode, in which the input
+         * document is read piece by piece rather than built in memory.
+         */
+        {ErrorMsg.STREAMING_PARAM_ERR,
+         "The root node or the document element cannot be passed as a " +
+         "parameter when the input document is streamed."},
+
+        /*
+         * Note to translators:  This message is a warning that is issued when
+         * the stylesheet is compiled for streaming mode, in which the input
+         * document is read piece by piece rather than built in memory.  The
+         * substitution text is the name of an XPath or XSLT function, which
+         * should not be translated.
+         */
+        {ErrorMsg.STREAMING_FUNCTION_ERR,
+         "The function ''{0}'' cannot be used when the input document is " +
+         "streamed."},
+
+        /*
+         * Note to translators:  This message is a warning that is issued when
+         * the stylesheet is compiled for streaming mode, in which the input
+         * document is read piece by piece rather than built in memory.  The
+         * substitution text is the name of an XSLT instruction, such as
+         * "xsl:key", which should not be translated.
+         */
+        {ErrorMsg.STREAMING_INSTRUCTION_ERR,
+         "The ''{0}'' instruction cannot be used here when the input " +
+         "document is streamed."},
+
+        /*
+         * Note to translators:  This message is a warning that is issued when
+         * the stylesheet is compiled for streaming mode, in which the input
+         * document is read piece by piece rather than built in memory.  The
+         * term "match pattern" is an XSLT term.
+         */
+        {ErrorMsg.STREAMING_PATTERN_ERR,
+         "A match pattern that counts positions or uses the key() or id() " +
+         "function cannot be matched when the input document is streamed."},
+
+        /*
+         * Note to translators:  This message is a warning that is issued when
+         * the stylesheet is compiled for streaming mode, in which the input
+         * document is read piece by piece rather than built in memory.  It
+         * follows the warnings that explain why.
+         */
+        {ErrorMsg.STREAMING_DISABLED_WARN,
+         "The stylesheet cannot be streamed; the input document will be " +
+         "built in memory."}
     };
     }
 }
@@ -161,6 +161,20 @@ public final class ErrorMsg {
                                             "OUTLINE_ERR_DELETED_TARGET";
     public static final String OUTLINE_ERR_METHOD_TOO_BIG =
                                             "OUTLINE_ERR_METHOD_TOO_BIG";
+
+    public static final String STREAMING_CONSUME_ERR = "STREAMING_CONSUME_ERR";
+    public static final String STREAMING_ORDER_ERR = "STREAMING_ORDER_ERR";
+    public static final String STREAMING_PATH_ERR = "STREAMING_PATH_ERR";
+    public static final String STREAMING_AXIS_ERR = "STREAMING_AXIS_ERR";
+    public static final String STREAMING_VALUE_ERR = "STREAMING_VALUE_ERR";
+    public static final String STREAMING_PARAM_ERR = "STREAMING_PARAM_ERR";
+    public static final String STREAMING_FUNCTION_ERR =
+                                            "STREAMING_FUNCTION_ERR";
+    public static final String STREAMING_INSTRUCTION_ERR =
+                                            "STREAMING_INSTRUCTION_ERR";
+    public static final String STREAMING_PATTERN_ERR = "STREAMING_PATTERN_ERR";
+    public static final String STREAMING_DISABLED_WARN =
+                                            "STREAMING_DISABLED_WARN";
                                                      
     // All error messages are localized and are stored in resource bundles.
     // This array and the following 4 strings are read from that bundle.
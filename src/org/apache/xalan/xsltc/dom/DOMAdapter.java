@@ -181,7 +181,9 @@ public final class DOMAdapter implements DOM {
 
     public DTMAxisIterator getNamespaceAxisIterator(final int axis,
                                                     final int ns) {
-        return _dom.getNamespaceAxisIterator(axis, getNSReverse()[ns]);
+        final short[] nsReverse = getNSReverse();
+        return _dom.getNamespaceAxisIterator(axis,
+                                 (nsReverse != null) ? nsReverse[ns] : ns);
     }
 
     public DTMAxisIterator getAxisIterator(final int axis) {
@@ -213,7 +215,9 @@ public final class DOMAdapter implements DOM {
 
     public DTMAxisIterator getNthDescendant(int type, int n,
                                             boolean includeself) {
-        return _dom.getNthDescendant(getReverse()[type], n, includeself);
+        final int[] reverse = getReverse();
+        return _dom.getNthDescendant((reverse != null) ? reverse[type] : type,
+                                     n, includeself);
     }
 
     public DTMAxisIterator getNodeValueIterator(DTMAxisIterator iterator,
@@ -246,7 +250,11 @@ public final class DOMAdapter implements DOM {
     }
 
     public int getNamespaceType(final int node) {
-    	return getNSMapping()[_dom.getNSType(node)];
+        final short[] nsMapping = getNSMapping();
+        if (nsMapping == null) {
+            return _dom.getNamespaceType(node);
+        }
+    	return nsMapping[_dom.getNSType(node)];
     }
 
     public int getNSType(int node) {
@@ -258,7 +266,9 @@ public final class DOMAdapter implements DOM {
     }
 
     public int getAttributeNode(final int type, final int element) {
-	return _dom.getAttributeNode(getReverse()[type], element);
+        final int[] reverse = getReverse();
+	return _dom.getAttributeNode((reverse != null) ? reverse[type] : type,
+                                     element);
     }
     
     public String getNodeName(final int node) {
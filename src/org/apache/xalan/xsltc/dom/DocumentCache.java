@@ -27,41 +27,70 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLDecoder;
 import java.util.Date;
+import java.util.Enumeration;
 import java.util.Hashtable;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
 
 import org.apache.xalan.xsltc.DOM;
 import org.apache.xalan.xsltc.DOMCache;
 import org.apache.xalan.xsltc.DOMEnhancedForDTM;
 import org.apache.xalan.xsltc.Translet;
 import org.apache.xalan.xsltc.runtime.AbstractTranslet;
-import org.apache.xalan.xsltc.runtime.BasisLibrary;
-import org.apache.xalan.xsltc.runtime.Constants;
+import org.apache.xml.dtm.DTM;
 import org.apache.xml.utils.SystemIDResolver;
 
-import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
-import org.xml.sax.XMLReader;
 
 /**
+ * A thread-safe DOMCache, keyed by absolute URI, that may be shared by
+ * all the translets of an application.
+ *
+ * The cache is bounded both by a number of documents and, optionally,
+ * by an estimate of the memory its documents take up (see
+ * {@link CachedDocument#getEstimatedSize()} and {@link #setMaxBytes}).
+ * When either bound is exceeded the least recently used documents are
+ * evicted. Documents may also be given a time to live
+ * ({@link #setTimeToLive}), after which they are loaded again on their
+ * next use, and are reloaded whenever the underlying file has changed.
+ *
+ * Documents are parsed outside the cache lock, so that different
+ * documents can be loaded at the same time, but several threads asking
+ * for the same URI before it is loaded wait for a single parse.
+ *
+ * A document that is evicted, has expired or is reloaded is released
+ * from the DTM manager once no translet uses it any more. A translet
+ * uses the documents it has retrieved until its transformation ends
+ * (see {@link #releaseDocuments}).
+ *
  * @author Morten Jorgensen
  */
 public final class DocumentCache implements DOMCache {
 
     private int       _size;
+    private long      _maxBytes;
+    private long      _timeToLive;
     private Hashtable _references;
-    private String[]  _URIs;
-    private int       _count;
-    private int       _current;
-    private SAXParser _parser;
-    private XMLReader _reader;
     private XSLTCDTMManager _dtmManager;
 
+    // The documents retrieved by each translet during its current
+    // transformation, as a Hashtable of CachedDocuments per translet
+    private final Hashtable _holders = new Hashtable();
+
+    // Documents that have been loaded, most recently used first.
+    // _references also holds documents that are still loading; those
+    // are not on this list and do not count towards _count or _bytes.
+    private CachedDocument _head;
+    private CachedDocument _tail;
+    private int       _count;
+    private long      _bytes;
+
+    // Statistics
+    private long      _hits;
+    private long      _misses;
+    private long      _evictions;
+
     private static final int REFRESH_INTERVAL = 1000;
 
     /*
@@ -79,19 +108,42 @@ public final class DocumentCache implements DOMCache {
 
 	// DOM and DTD handler references
 	private DOMEnhancedForDTM _dom = null;
+
+	// Cache bookkeeping, guarded by the DocumentCache
+	private final String _uri;
+	private boolean _loading;
+	private long _size;
+	// The transformations using the DOM, and whether the DOM is no
+	// longer in the cache and can be released when they are done
+	private int _users;
+	private boolean _removed;
+	private CachedDocument _prev;
+	private CachedDocument _next;
 	
 	/**
 	 * Constructor - load document and initialise statistics
 	 */
 	public CachedDocument(String uri) {
+	    this(uri, true);
+	}
+
+	/**
+	 * Constructor - initialise statistics, and load the document now
+	 * or leave it to the caller.
+	 */
+	private CachedDocument(String uri, boolean load) {
+	    _uri = uri;
 	    // Initialise statistics variables
 	    final long stamp = System.currentTimeMillis();
 	    _firstReferenced = stamp;
 	    _lastReferenced  = stamp;
+	    _lastChecked     = stamp;
 	    _accessCount     = 0;
-	    loadDocument(uri);
-
-	    _buildTime = System.currentTimeMillis() - stamp;
+	    _loading         = !load;
+	    if (load) {
+		loadDocument(uri);
+		_buildTime = System.currentTimeMillis() - stamp;
+	    }
 	}
 
 	/**
@@ -102,12 +154,12 @@ public final class DocumentCache implements DOMCache {
 	    try {
 		final long stamp = System.currentTimeMillis();
                 _dom = (DOMEnhancedForDTM)_dtmManager.getDTM(
-                                 new SAXSource(_reader, new InputSource(uri)),
+                                 new StreamSource(uri),
                                  false, null, true, false);
 		_dom.setDocumentURI(uri);
 
 		// The build time can be used for statistics for a better
-		// priority algorithm (currently round robin).
+		// priority algorithm (currently least recently used).
 		final long thisTime = System.currentTimeMillis() - stamp;
 		if (_buildTime > 0)
 		    _buildTime = (_buildTime + thisTime) >>> 1;
@@ -146,6 +198,31 @@ public final class DocumentCache implements DOMCache {
 		return(0);
 	}
 
+	/**
+	 * Blocks until another thread has finished loading this document.
+	 */
+	private synchronized void waitUntilLoaded() {
+	    boolean interrupted = false;
+	    while (_loading) {
+		try {
+		    wait();
+		}
+		catch (InterruptedException e) {
+		    interrupted = true;
+		}
+	    }
+	    if (interrupted) {
+		Thread.currentThread().interrupt();
+	    }
+	}
+
+	/**
+	 * Marks this document as loaded and wakes up any waiting threads.
+	 */
+	private synchronized void loaded() {
+	    _loading = false;
+	    notifyAll();
+	}
     }
 
     /**
@@ -163,30 +240,46 @@ public final class DocumentCache implements DOMCache {
 
     /**
      * DocumentCache constructor
+     *
+     * @param size The maximum number of documents to keep, or 0 for no
+     * limit
+     * @param dtmManager The manager used to build the cached documents.
+     * It must not be used to build documents that will be released while
+     * the cache refers to it.
      */
     public DocumentCache(int size, XSLTCDTMManager dtmManager) throws SAXException {
 	_dtmManager = dtmManager;
-	_count = 0;
-	_current = 0;
 	_size  = size;
-	_references = new Hashtable(_size+2);
-	_URIs = new String[_size];
+	_references = new Hashtable(_size > 0 ? _size + 2 : 11);
+    }
 
-	try {
-	    // Create a SAX parser and get the XMLReader object it uses
-	    final SAXParserFactory factory = SAXParserFactory.newInstance();
-	    try {
-		factory.setFeature(Constants.NAMESPACE_FEATURE,true);
-	    }
-	    catch (Exception e) {
-		factory.setNamespaceAware(true);
-	    }
-	    _parser = factory.newSAXParser();
-	    _reader = _parser.getXMLReader();
-	}
-	catch (ParserConfigurationException e) {
-	    BasisLibrary.runTimeError(BasisLibrary.NAMESPACES_SUPPORT_ERR);
-	}
+    /**
+     * Sets the approximate number of bytes the cached documents may take
+     * up, as estimated by {@link CachedDocument#getEstimatedSize()}. A
+     * single document larger than this is returned to its caller but is
+     * not kept. The default, 0, sets no limit.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+	_maxBytes = maxBytes;
+	evict();
+    }
+
+    public synchronized long getMaxBytes() {
+	return _maxBytes;
+    }
+
+    /**
+     * Sets the time in milliseconds after which a cached document is
+     * discarded and loaded again on its next use, whether or not it has
+     * changed. The default, 0, keeps documents until they are evicted or
+     * modified.
+     */
+    public synchronized void setTimeToLive(long timeToLive) {
+	_timeToLive = timeToLive;
+    }
+
+    public synchronized long getTimeToLive() {
+	return _timeToLive;
     }
 
     /**
@@ -213,40 +306,212 @@ public final class DocumentCache implements DOMCache {
     }
 
     /**
-     *
+     * Returns a loaded document and marks it as most recently used, or
+     * returns null if the document is not in the cache or has outlived
+     * its time to live. The caller becomes a user of the document.
      */
-    private CachedDocument lookupDocument(String uri) {
-	return((CachedDocument)_references.get(uri));
+    private synchronized CachedDocument lookupDocument(String uri, long now) {
+	CachedDocument doc = (CachedDocument)_references.get(uri);
+	if (doc == null || doc._loading) {
+	    return null;
+	}
+	if (_timeToLive > 0 && now - doc.getFirstReferenced() > _timeToLive) {
+	    removeDocument(doc);
+	    return null;
+	}
+	_hits++;
+	doc._users++;
+	doc._lastReferenced = now;
+	unlink(doc);
+	linkFirst(doc);
+	return doc;
     }
 
     /**
-     *
+     * Returns the document for a URI, loading it if no other thread is
+     * already doing so, and waiting for that thread otherwise. The caller
+     * becomes a user of the document.
      */
-    private synchronized void insertDocument(String uri, CachedDocument doc) {
-	if (_count < _size) {
-	    // Insert out URI in circular buffer
-	    _URIs[_count++] = uri;
-	    _current = 0;
+    private CachedDocument loadDocument(String uri) {
+	CachedDocument doc;
+	boolean load = false;
+
+	synchronized (this) {
+	    doc = (CachedDocument)_references.get(uri);
+	    if (doc == null) {
+		doc = new CachedDocument(uri, false);
+		_references.put(uri, doc);
+		_misses++;
+		load = true;
+	    }
+	    else {
+		// Coalesced with a load already under way
+		_hits++;
+	    }
+	    doc._users++;
 	}
-	else {
-	    // Remove oldest URI from reference Hashtable
-	    _references.remove(_URIs[_current]);
-	    // Insert our URI in circular buffer
-	    _URIs[_current] = uri;
-	    if (++_current >= _size) _current = 0;
+
+	if (!load) {
+	    // Either another thread is loading it, or it was loaded since
+	    // we last looked.
+	    doc.waitUntilLoaded();
+	    return doc;
+	}
+
+	try {
+	    doc.loadDocument(uri);
+	    doc._buildTime = System.currentTimeMillis() - doc._firstReferenced;
+	    doc.setLastModified(getLastModified(uri));
+	    insertDocument(doc);
+	}
+	finally {
+	    if (doc._loading) {
+		// loadDocument() does not throw, but getLastModified() might
+		// in odd environments; do not leave other threads waiting.
+		synchronized (this) {
+		    if (_references.get(uri) == doc) {
+			_references.remove(uri);
+		    }
+		}
+	    }
+	    doc.loaded();
+	}
+	return doc;
+    }
+
+    /**
+     * Adds a freshly loaded document to the LRU list, then evicts least
+     * recently used documents until the cache is within its bounds.
+     * Documents that could not be loaded are not kept.
+     */
+    private synchronized void insertDocument(CachedDocument doc) {
+	if (_references.get(doc._uri) != doc) {
+	    // Removed while it was loading.
+	    doc._loading = false;
+	    doc._removed = true;
+	    return;
+	}
+	if (doc.getDocument() == null) {
+	    _references.remove(doc._uri);
+	    doc._loading = false;
+	    doc._removed = true;
+	    return;
+	}
+	doc._size = doc.getEstimatedSize();
+	doc._loading = false;
+	linkFirst(doc);
+	_count++;
+	_bytes += doc._size;
+	evict();
+    }
+
+    /**
+     * Evicts least recently used documents while the cache is too big.
+     * The DOMs of documents that translets are still using are released
+     * from the DTM manager when the last of them is done.
+     */
+    private void evict() {
+	while (_tail != null
+	       && ((_size > 0 && _count > _size)
+		   || (_maxBytes > 0 && _bytes > _maxBytes))) {
+	    removeDocument(_tail);
+	    _evictions++;
+	}
+    }
+
+    /**
+     * Removes a loaded document from the cache, releasing its DOM if no
+     * translet is using it.
+     */
+    private void removeDocument(CachedDocument doc) {
+	if (_references.get(doc._uri) == doc) {
+	    _references.remove(doc._uri);
+	}
+	unlink(doc);
+	_count--;
+	_bytes -= doc._size;
+	doc._removed = true;
+	if (doc._users == 0) {
+	    releaseDOM(doc);
 	}
-	_references.put(uri, doc);
     }
 
     /**
+     * Ends one use of a document, releasing its DOM if it was the last
+     * use and the document is no longer in the cache.
+     */
+    private synchronized void endUse(CachedDocument doc) {
+	if (--doc._users == 0 && doc._removed) {
+	    releaseDOM(doc);
+	}
+    }
+
+    private void releaseDOM(CachedDocument doc) {
+	if (doc._dom != null) {
+	    _dtmManager.release((DTM)doc._dom, true);
+	    doc._dom = null;
+	}
+    }
+
+    /**
+     * Records a document as used by a translet until it calls
+     * releaseDocuments(), counting it once however often it is retrieved.
+     */
+    private synchronized void addUser(Translet translet, CachedDocument doc) {
+	Hashtable docs = (Hashtable)_holders.get(translet);
+	if (docs == null) {
+	    docs = new Hashtable();
+	    _holders.put(translet, docs);
+	}
+	if (docs.put(doc, doc) != null) {
+	    // Already counted for this translet
+	    doc._users--;
+	}
+    }
+
+    /**
+     * Tells the cache that a translet's transformation has ended, so that
+     * the documents it retrieved can be released from the DTM manager
+     * once they have left the cache. AbstractTranslet calls this when it
+     * finishes a transformation; code that retrieves documents outside a
+     * transformation should call it when it no longer uses them.
      *
+     * @param translet The translet the documents were retrieved for
      */
-    private synchronized void replaceDocument(String uri, CachedDocument doc) {
-	CachedDocument old = (CachedDocument)_references.get(uri);
-	if (doc == null)
-	    insertDocument(uri, doc);
-	else
-	    _references.put(uri, doc);
+    public synchronized void releaseDocuments(Translet translet) {
+	final Hashtable docs = (Hashtable)_holders.remove(translet);
+	if (docs != null) {
+	    final Enumeration e = docs.keys();
+	    while (e.hasMoreElements()) {
+		endUse((CachedDocument)e.nextElement());
+	    }
+	}
+    }
+
+    private void linkFirst(CachedDocument doc) {
+	doc._prev = null;
+	doc._next = _head;
+	if (_head != null) _head._prev = doc;
+	_head = doc;
+	if (_tail == null) _tail = doc;
+    }
+
+    private void unlink(CachedDocument doc) {
+	if (doc._prev != null) doc._prev._next = doc._next;
+	else _head = doc._next;
+	if (doc._next != null) doc._next._prev = doc._prev;
+	else _tail = doc._prev;
+	doc._prev = doc._next = null;
+    }
+
+    /**
+     * Discards a document found to be out of date, unless another thread
+     * has already replaced it.
+     */
+    private synchronized void invalidateDocument(CachedDocument doc) {
+	if (_references.get(doc._uri) == doc) {
+	    removeDocument(doc);
+	}
     }
 
     /**
@@ -266,27 +531,22 @@ public final class DocumentCache implements DOMCache {
     }
     
 	// Try to get the document from the cache first
-	if ((doc = lookupDocument(uri)) == null) {
-	    doc = new CachedDocument(uri);
-	    if (doc == null) return null; // better error handling needed!!!
-	    doc.setLastModified(getLastModified(uri));
-	    insertDocument(uri, doc);
+	long now = System.currentTimeMillis();
+	if ((doc = lookupDocument(uri, now)) == null) {
+	    doc = loadDocument(uri);
 	}
 	// If the document is in the cache we must check if it is still valid
 	else {
-	    long now = System.currentTimeMillis();
 	    long chk = doc.getLastChecked();
-	    doc.setLastChecked(now);
 	    // Has the modification time for this file been checked lately?
 	    if (now > (chk + REFRESH_INTERVAL)) {
 		doc.setLastChecked(now);
 		long last = getLastModified(uri);
 		// Reload document if it has been modified since last download
 		if (last > doc.getLastModified()) {
-		    doc = new CachedDocument(uri);
-		    if (doc == null) return null;
-		    doc.setLastModified(getLastModified(uri));
-		    replaceDocument(uri, doc);
+		    invalidateDocument(doc);
+		    endUse(doc);
+		    doc = loadDocument(uri);
 		}
 	    }
 	    
@@ -297,36 +557,77 @@ public final class DocumentCache implements DOMCache {
 
 	// The dom reference may be null if the URL pointed to a
 	// non-existing document
-	if (dom == null) return null;
+	if (dom == null) {
+	    endUse(doc);
+	    return null;
+	}
 
 	doc.incAccessCount(); // For statistics
 
 	final AbstractTranslet translet = (AbstractTranslet)trs;
+	addUser(translet, doc);
 
 	// Give the translet an early opportunity to extract any
         // information from the DOM object that it would like.
 	translet.prepassDocument(dom);
 
-	return(doc.getDocument());
+	return(dom);
+    }
+
+    /**
+     * Returns the number of requests answered from the cache.
+     */
+    public synchronized long getHitCount() {
+	return _hits;
+    }
+
+    /**
+     * Returns the number of requests that had to load a document.
+     */
+    public synchronized long getMissCount() {
+	return _misses;
+    }
+
+    /**
+     * Returns the number of documents evicted to stay within the cache's
+     * bounds.
+     */
+    public synchronized long getEvictionCount() {
+	return _evictions;
+    }
+
+    /**
+     * Returns the estimated size, in bytes, of the cached documents.
+     */
+    public synchronized long getEstimatedSize() {
+	return _bytes;
+    }
+
+    /**
+     * Returns the number of documents in the cache.
+     */
+    public synchronized int getDocumentCount() {
+	return _count;
     }
 
     /**
      * Outputs the cache statistics
      */
-    public void getStatistics(PrintWriter out) {
+    public synchronized void getStatistics(PrintWriter out) {
 	out.println("<h2>DOM cache statistics</h2><center><table border=\"2\">"+
 		    "<tr><td><b>Document URI</b></td>"+
 		    "<td><center><b>Build time</b></center></td>"+
 		    "<td><center><b>Access count</b></center></td>"+
+		    "<td><center><b>Estimated size</b></center></td>"+
 		    "<td><center><b>Last accessed</b></center></td>"+
 		    "<td><center><b>Last modified</b></center></td></tr>");
 
-	for (int i=0; i<_count; i++) {
-	    CachedDocument doc = (CachedDocument)_references.get(_URIs[i]);
-	    out.print("<tr><td><a href=\""+_URIs[i]+"\">"+
-		      "<font size=-1>"+_URIs[i]+"</font></a></td>");
+	for (CachedDocument doc = _head; doc != null; doc = doc._next) {
+	    out.print("<tr><td><a href=\""+doc._uri+"\">"+
+		      "<font size=-1>"+doc._uri+"</font></a></td>");
 	    out.print("<td><center>"+doc.getLatency()+"ms</center></td>");
 	    out.print("<td><center>"+doc.getAccessCount()+"</center></td>");
+	    out.print("<td><center>"+doc._size+"</center></td>");
 	    out.print("<td><center>"+(new Date(doc.getLastReferenced()))+
 		      "</center></td>");
 	    out.print("<td><center>"+(new Date(doc.getLastModified()))+
@@ -335,5 +636,8 @@ public final class DocumentCache implements DOMCache {
 	}
 
 	out.println("</table></center>");
+	out.println("<p>Documents: "+_count+", estimated bytes: "+_bytes+
+		    ", hits: "+_hits+", misses: "+_misses+
+		    ", evictions: "+_evictions+"</p>");
     }
 }
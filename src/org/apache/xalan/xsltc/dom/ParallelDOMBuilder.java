@@ -0,0 +1,1268 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xalan.xsltc.dom;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Vector;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.xml.utils.SystemIDResolver;
+import org.apache.xml.utils.WrappedRuntimeException;
+import org.apache.xml.utils.XMLReaderManager;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.LocatorImpl;
+
+/**
+ * Builds the SAXImpl of a large XML file with several threads.
+ * <p>
+ * The file is split at the start tags of children of the document
+ * element, into chunks of about the same size.  Each chunk is parsed on
+ * its own as a small document: the prolog and the start tag of the
+ * document element, the chunk, and an end tag for the document element.
+ * The worker threads parse the chunks in parallel into compact tables of
+ * SAX events, and the calling thread feeds those tables into the one
+ * SAXImpl in document order.  As every chunk is parsed with the prolog of
+ * the file, the namespace declarations of the document element, the
+ * entities of the DTD and the attribute types that make ID attributes are
+ * all the same as in a single parse, and the SAXImpl sees the same events
+ * it would see from one parser.
+ * <p>
+ * Only a local file in an encoding where '&lt;' and '&gt;' are always
+ * single bytes (UTF-8, US-ASCII or an ISO-8859 or windows code page) can
+ * be split; {@link #newInstance} returns null for any other Source, and
+ * for files too small to gain from it, so the caller parses those as
+ * usual.  The line numbers in the messages of parse errors found after the
+ * first chunk are those in the chunk rather than in the file.
+ */
+final class ParallelDOMBuilder
+{
+    /** The smallest chunk the file is split into. */
+    static final int MIN_CHUNK_SIZE = 1024 * 1024;
+
+    /** The largest chunk the file is split into. */
+    static final int MAX_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    /** The number of chunks for each thread the file is split into. */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /** The size of the buffer of the boundary scanner. */
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    /** The file being built. */
+    private final File _file;
+
+    /** The absolute URI of the file. */
+    private final String _systemId;
+
+    /** The length of the file. */
+    private final long _length;
+
+    /** The prolog of the file and the start tag of the document element. */
+    private final byte[] _head;
+
+    /** The end tag of the document element. */
+    private final byte[] _endTag;
+
+    /** The number of worker threads. */
+    private final int _threads;
+
+    /** The size the chunks are split at. */
+    private final long _chunkSize;
+
+    /** The channel the chunks are read through. */
+    private FileChannel _channel;
+
+    /** The chunks found so far, in document order. */
+    private final Vector _chunks = new Vector();
+
+    /** The number of chunks handed to the workers. */
+    private int _nextChunk;
+
+    /** The number of chunks added to the SAXImpl. */
+    private int _replayed;
+
+    /** Set when all the chunks have been found. */
+    private boolean _scanDone;
+
+    /**
+     * The error that stopped the build, if it is not the parse error of a
+     * chunk.
+     */
+    private Exception _error;
+
+    /** Set to make the scanner and the workers stop. */
+    private boolean _abort;
+
+    private ParallelDOMBuilder(File file, String systemId, byte[] head,
+                               byte[] endTag, int threads)
+    {
+        _file = file;
+        _systemId = systemId;
+        _length = file.length();
+        _head = head;
+        _endTag = endTag;
+        _threads = threads;
+        _chunkSize = Math.max(MIN_CHUNK_SIZE,
+                              Math.min(MAX_CHUNK_SIZE,
+                                       _length / (threads * CHUNKS_PER_THREAD)));
+    }
+
+    /**
+     * Get a builder for a Source, if it can be split.
+     *
+     * @param source The Source of the document.
+     * @param threads The number of threads to parse it with.
+     * @return The builder, or null if the document should be parsed in
+     * one piece.
+     */
+    static ParallelDOMBuilder newInstance(StreamSource source, int threads)
+    {
+        if (threads < 2 || source.getInputStream() != null
+            || source.getReader() != null || source.getSystemId() == null) {
+            return null;
+        }
+
+        try {
+            final String systemId =
+                SystemIDResolver.getAbsoluteURI(source.getSystemId());
+            if (!systemId.startsWith("file:")) {
+                return null;
+            }
+            final File file = new File(new URI(systemId));
+            if (!file.isFile() || file.length() < 2 * MIN_CHUNK_SIZE) {
+                return null;
+            }
+
+            final InputStream in = new FileInputStream(file);
+            try {
+                final ByteArrayOutputStream head = new ByteArrayOutputStream();
+                final byte[] rootName = readHead(in, head);
+                if (rootName == null) {
+                    return null;
+                }
+
+                final byte[] endTag = new byte[rootName.length + 3];
+                endTag[0] = '<';
+                endTag[1] = '/';
+                System.arraycopy(rootName, 0, endTag, 2, rootName.length);
+                endTag[endTag.length - 1] = '>';
+
+                return new ParallelDOMBuilder(file, systemId,
+                                              head.toByteArray(), endTag,
+                                              threads);
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (Exception e) {
+            // Anything unexpected is left to the usual parse to report
+            return null;
+        }
+    }
+
+    /**
+     * Read the prolog of a file and the start tag of its document element.
+     *
+     * @param in The file.
+     * @param head The stream the bytes read are copied to.
+     * @return The name of the document element, or null if the file
+     * cannot be split.
+     */
+    private static byte[] readHead(InputStream in, ByteArrayOutputStream head)
+        throws IOException
+    {
+        final Scanner s = new Scanner(in, head);
+
+        int c = s.read();
+        if (c == 0xEF) {
+            // The byte order mark of UTF-8
+            if (s.read() != 0xBB || s.read() != 0xBF) {
+                return null;
+            }
+            c = s.read();
+        }
+        if (c != '<') {
+            // UTF-16 or some other encoding that is not split
+            return null;
+        }
+
+        // The XML declaration, comments, processing instructions and the
+        // document type declaration up to the start tag of the document
+        // element
+        boolean first = true;
+        do {
+            if (c != '<') {
+                continue;
+            }
+            c = s.read();
+            if (c == '?') {
+                if (!s.skipTo("?>")
+                    || (first
+                        && !isSupportedDeclaration(head.toString("ISO-8859-1")))) {
+                    return null;
+                }
+            }
+            else if (c == '!') {
+                if (!s.skipDeclaration()) {
+                    return null;
+                }
+            }
+            else if (c < 0 || c == '/' || !s.startTag(c)) {
+                return null;
+            }
+            else {
+                return s.name;
+            }
+            first = false;
+        } while ((c = s.read()) >= 0);
+
+        return null;
+    }
+
+    /**
+     * Check that the encoding of an XML declaration is one where every
+     * markup character is a single byte.
+     *
+     * @param decl The bytes of the file up to the end of the first
+     * processing instruction, which may be the XML declaration.
+     */
+    private static boolean isSupportedDeclaration(String decl)
+    {
+        final int start = decl.indexOf("<?");
+        if (!decl.startsWith("xml", start + 2) || decl.length() < start + 6
+            || decl.charAt(start + 5) > ' ') {
+            // Not an XML declaration, so the encoding is UTF-8
+            return true;
+        }
+
+        int i = decl.indexOf("encoding");
+        if (i < 0) {
+            return true;
+        }
+        i = decl.indexOf('=', i);
+        if (i < 0) {
+            return false;
+        }
+        String encoding = decl.substring(i + 1).trim();
+        if (encoding.length() < 2) {
+            return false;
+        }
+        final int end = encoding.indexOf(encoding.charAt(0), 1);
+        if (end < 0) {
+            return false;
+        }
+        encoding = encoding.substring(1, end).toUpperCase();
+
+        return encoding.equals("UTF-8") || encoding.equals("UTF8")
+            || encoding.equals("US-ASCII") || encoding.equals("ASCII")
+            || encoding.startsWith("ISO-8859-")
+            || encoding.startsWith("ISO8859")
+            || encoding.startsWith("LATIN")
+            || encoding.startsWith("WINDOWS-125")
+            || encoding.startsWith("CP125");
+    }
+
+    /**
+     * Parse the file into a SAXImpl.
+     *
+     * @param dtm The new, empty SAXImpl.
+     * @throws WrappedRuntimeException if the file cannot be read or is not
+     * well-formed.
+     */
+    void build(SAXImpl dtm)
+    {
+        final Thread[] workers = new Thread[_threads];
+        Thread scanner = null;
+        RandomAccessFile file = null;
+
+        try {
+            file = new RandomAccessFile(_file, "r");
+            _channel = file.getChannel();
+
+            scanner = new Thread(new Runnable() {
+                public void run() {
+                    scan();
+                }
+            }, "Xalan DOM chunk scanner");
+            scanner.setDaemon(true);
+            scanner.start();
+
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new Thread(new Runnable() {
+                    public void run() {
+                        work();
+                    }
+                }, "Xalan DOM chunk parser " + i);
+                workers[i].setDaemon(true);
+                workers[i].start();
+            }
+
+            replay(dtm);
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new WrappedRuntimeException(e);
+        }
+        finally {
+            synchronized (this) {
+                _abort = true;
+                notifyAll();
+            }
+            join(scanner);
+            for (int i = 0; i < workers.length; i++) {
+                join(workers[i]);
+            }
+            if (file != null) {
+                try {
+                    file.close();
+                }
+                catch (IOException e) {}
+            }
+        }
+    }
+
+    private static void join(Thread thread)
+    {
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join();
+        }
+        catch (InterruptedException e) {}
+    }
+
+    /**
+     * Add the events of the chunks to the SAXImpl as they are parsed, in
+     * document order.
+     */
+    private void replay(SAXImpl dtm) throws Exception
+    {
+        final ContentHandler handler = dtm.getBuilder();
+        final LocatorImpl locator = new LocatorImpl();
+        locator.setSystemId(_systemId);
+        handler.setDocumentLocator(locator);
+
+        final AttributesImpl attrs = new AttributesImpl();
+
+        for (int i = 0; ; i++) {
+            final Chunk chunk;
+            synchronized (this) {
+                while (true) {
+                    if (i < _chunks.size()
+                        && ((Chunk) _chunks.elementAt(i)).done) {
+                        break;
+                    }
+                    if (_error != null) {
+                        throw _error;
+                    }
+                    if (_scanDone && i >= _chunks.size()) {
+                        return;
+                    }
+                    wait();
+                }
+                chunk = (Chunk) _chunks.elementAt(i);
+            }
+
+            if (chunk.error instanceof Exception) {
+                throw (Exception) chunk.error;
+            }
+            else if (chunk.error != null) {
+                throw (Error) chunk.error;
+            }
+            chunk.events.replay(handler, dtm, dtm, attrs);
+
+            synchronized (this) {
+                chunk.events = null;
+                _replayed = i + 1;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * The work of a parser thread: parse chunks until there are none left,
+     * staying a few chunks ahead of the replay so only those are held.
+     */
+    private void work()
+    {
+        XMLReaderManager manager = XMLReaderManager.getInstance();
+        XMLReader reader = null;
+
+        try {
+            reader = manager.getXMLReader();
+            if (reader == null) {
+                throw new SAXException("No XMLReader");
+            }
+            final Recorder recorder = new Recorder();
+            reader.setContentHandler(recorder);
+            reader.setDTDHandler(recorder);
+            reader.setErrorHandler(new DefaultHandler() {
+                public void error(SAXParseException e) throws SAXException {
+                    throw e;
+                }
+                public void fatalError(SAXParseException e)
+                    throws SAXException {
+                    throw e;
+                }
+            });
+            try {
+                reader.setProperty("http://xml.org/sax/properties/lexical-handler",
+                                   recorder);
+            }
+            catch (SAXNotRecognizedException e) {}
+            catch (SAXNotSupportedException e) {}
+
+            while (true) {
+                final Chunk chunk;
+                synchronized (this) {
+                    while (true) {
+                        if (_abort) {
+                            return;
+                        }
+                        if (_nextChunk < _chunks.size()
+                            && _nextChunk < _replayed + 2 * _threads) {
+                            break;
+                        }
+                        if (_scanDone && _nextChunk >= _chunks.size()) {
+                            return;
+                        }
+                        wait();
+                    }
+                    chunk = (Chunk) _chunks.elementAt(_nextChunk++);
+                }
+
+                EventBuffer events = null;
+                Throwable error = null;
+                try {
+                    recorder.reset(chunk);
+                    final InputSource input = new InputSource(
+                        new ChunkInputStream(chunk.first ? null : _head,
+                                             _channel, chunk.start, chunk.end,
+                                             chunk.last ? null : _endTag));
+                    input.setSystemId(_systemId);
+                    reader.parse(input);
+                    events = recorder.events;
+                }
+                catch (Throwable e) {
+                    error = e;
+                }
+                finally {
+                    recorder.events = null;
+                }
+
+                synchronized (this) {
+                    chunk.events = events;
+                    chunk.error = error;
+                    chunk.done = true;
+                    notifyAll();
+                }
+            }
+        }
+        catch (InterruptedException e) {
+        }
+        catch (SAXException e) {
+            // No parser could be made
+            synchronized (this) {
+                if (_error == null) {
+                    _error = e;
+                }
+                notifyAll();
+            }
+        }
+        finally {
+            manager.releaseXMLReader(reader);
+        }
+    }
+
+    /**
+     * The work of the scanner thread: find the chunk boundaries.
+     */
+    private void scan()
+    {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(_file);
+            for (long n = _head.length; n > 0; ) {
+                n -= in.skip(n);
+            }
+
+            final Scanner s = new Scanner(in, null);
+            s.position = _head.length;
+
+            long chunkStart = 0;
+            int depth = 1;
+            int c;
+            while ((c = s.read()) >= 0) {
+                if (c != '<') {
+                    continue;
+                }
+                final long tag = s.position - 1;
+
+                c = s.read();
+                if (c == '!') {
+                    if (!s.skipDeclaration()) {
+                        break;
+                    }
+                }
+                else if (c == '?') {
+                    if (!s.skipTo("?>")) {
+                        break;
+                    }
+                }
+                else if (c == '/') {
+                    if (!s.skipTo(">") || --depth == 0) {
+                        break;
+                    }
+                }
+                else if (c >= 0) {
+                    if (depth == 1 && tag - chunkStart >= _chunkSize) {
+                        if (!addChunk(chunkStart, tag, false)) {
+                            return;
+                        }
+                        chunkStart = tag;
+                    }
+                    if (s.skipTag(c)) {
+                        depth++;
+                    }
+                }
+            }
+
+            // The last chunk holds the rest of the file, and what the parser
+            // makes of it if the end of the document element was not found
+            addChunk(chunkStart, _length, true);
+        }
+        catch (IOException e) {
+            synchronized (this) {
+                _error = e;
+                notifyAll();
+            }
+        }
+        finally {
+            synchronized (this) {
+                _scanDone = true;
+                notifyAll();
+            }
+            if (in != null) {
+                try {
+                    in.close();
+                }
+                catch (IOException e) {}
+            }
+        }
+    }
+
+    /**
+     * Add a chunk for the workers.
+     *
+     * @return false if the build is abandoned.
+     */
+    private synchronized boolean addChunk(long start, long end, boolean last)
+    {
+        if (_abort) {
+            return false;
+        }
+        _chunks.addElement(new Chunk(_chunks.size() == 0, last, start, end));
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * A part of the file between two children of the document element.
+     */
+    private static final class Chunk
+    {
+        /** Set for the chunk that starts with the prolog. */
+        final boolean first;
+
+        /** Set for the chunk that ends with the document element. */
+        final boolean last;
+
+        /** The offset of the chunk in the file. */
+        final long start;
+
+        /** The offset of the end of the chunk in the file. */
+        final long end;
+
+        /** Set once the chunk is parsed. */
+        boolean done;
+
+        /** The events of the parsed chunk. */
+        EventBuffer events;
+
+        /** The error the chunk failed to parse with. */
+        Throwable error;
+
+        Chunk(boolean first, boolean last, long start, long end)
+        {
+            this.first = first;
+            this.last = last;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * A chunk of the file made into a document: the head of the file, the
+     * chunk and the end tag of the document element.
+     */
+    private static final class ChunkInputStream extends InputStream
+    {
+        private final byte[] _prefix;
+        private final FileChannel _channel;
+        private final long _end;
+        private final byte[] _suffix;
+        private int _prefixIndex;
+        private long _position;
+        private int _suffixIndex;
+        private ByteBuffer _buffer;
+
+        ChunkInputStream(byte[] prefix, FileChannel channel, long start,
+                         long end, byte[] suffix)
+        {
+            _prefix = (prefix != null) ? prefix : new byte[0];
+            _channel = channel;
+            _position = start;
+            _end = end;
+            _suffix = (suffix != null) ? suffix : new byte[0];
+        }
+
+        public int read() throws IOException
+        {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0) {
+                return 0;
+            }
+            if (_prefixIndex < _prefix.length) {
+                final int n = Math.min(len, _prefix.length - _prefixIndex);
+                System.arraycopy(_prefix, _prefixIndex, b, off, n);
+                _prefixIndex += n;
+                return n;
+            }
+            if (_position < _end) {
+                // Positional reads, so the workers can share the channel
+                if (_buffer == null || _buffer.array() != b) {
+                    _buffer = ByteBuffer.wrap(b);
+                }
+                _buffer.limit(off + (int) Math.min(len, _end - _position));
+                _buffer.position(off);
+                final int n = _channel.read(_buffer, _position);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                _position += n;
+                return n;
+            }
+            if (_suffixIndex < _suffix.length) {
+                final int n = Math.min(len, _suffix.length - _suffixIndex);
+                System.arraycopy(_suffix, _suffixIndex, b, off, n);
+                _suffixIndex += n;
+                return n;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the markup of a file byte by byte, enough of it to tell the
+     * depth of the elements.
+     */
+    private static final class Scanner
+    {
+        private final InputStream _in;
+        private final ByteArrayOutputStream _copy;
+        private final byte[] _buffer = new byte[SCAN_BUFFER_SIZE];
+        private int _count;
+        private int _index;
+
+        /** The offset of the next byte in the file. */
+        long position;
+
+        /** The name of the last start tag read by {@link #startTag}. */
+        byte[] name;
+
+        Scanner(InputStream in, ByteArrayOutputStream copy)
+        {
+            _in = in;
+            _copy = copy;
+        }
+
+        int read() throws IOException
+        {
+            if (_index == _count) {
+                _count = _in.read(_buffer, 0, _buffer.length);
+                _index = 0;
+                if (_count <= 0) {
+                    _count = 0;
+                    return -1;
+                }
+            }
+            position++;
+            final int c = _buffer[_index++] & 0xFF;
+            if (_copy != null) {
+                _copy.write(c);
+            }
+            return c;
+        }
+
+        /**
+         * Skip to the end of a terminator of up to three bytes.
+         *
+         * @return false at the end of the file.
+         */
+        boolean skipTo(String terminator) throws IOException
+        {
+            final int last = terminator.length() - 1;
+            final int t0 = terminator.charAt(last);
+            final int t1 = last > 0 ? terminator.charAt(last - 1) : -1;
+            final int t2 = last > 1 ? terminator.charAt(last - 2) : -1;
+            int b1 = -1;
+            int b2 = -1;
+            int c;
+            while ((c = read()) >= 0) {
+                if (c == t0 && (t1 < 0 || b1 == t1) && (t2 < 0 || b2 == t2)) {
+                    return true;
+                }
+                b2 = b1;
+                b1 = c;
+            }
+            return false;
+        }
+
+        /**
+         * Skip a comment, a CDATA section or a declaration that follows
+         * "&lt;!".
+         *
+         * @return false at the end of the file.
+         */
+        boolean skipDeclaration() throws IOException
+        {
+            int c = read();
+            if (c == '-') {
+                return read() == '-' && skipTo("-->");
+            }
+            if (c == '[') {
+                return skipTo("]]>");
+            }
+
+            // <!DOCTYPE, with an internal subset that holds declarations,
+            // comments, processing instructions and quoted strings
+            int quote = 0;
+            boolean subset = false;
+            while ((c = read()) >= 0) {
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                }
+                else if (c == '"' || c == '\'') {
+                    quote = c;
+                }
+                else if (subset && c == '<') {
+                    c = read();
+                    if (c == '!') {
+                        c = read();
+                        if (c == '-') {
+                            if (read() != '-' || !skipTo("-->")) {
+                                return false;
+                            }
+                        }
+                        else if (!skipMarkupDeclaration()) {
+                            return false;
+                        }
+                    }
+                    else if (c == '?') {
+                        if (!skipTo("?>")) {
+                            return false;
+                        }
+                    }
+                }
+                else if (c == '[') {
+                    subset = true;
+                }
+                else if (c == ']') {
+                    subset = false;
+                }
+                else if (c == '>' && !subset) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Skip a markup declaration of an internal subset.
+         */
+        private boolean skipMarkupDeclaration() throws IOException
+        {
+            int quote = 0;
+            int c;
+            while ((c = read()) >= 0) {
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                }
+                else if (c == '"' || c == '\'') {
+                    quote = c;
+                }
+                else if (c == '>') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Read a start tag, given its first byte, and keep its name.
+         *
+         * @return false for an empty element, or at the end of the file.
+         */
+        boolean startTag(int c) throws IOException
+        {
+            final ByteArrayOutputStream qname = new ByteArrayOutputStream();
+            while (c >= 0 && c != '>' && c != '/' && c > ' ') {
+                qname.write(c);
+                c = read();
+            }
+            name = qname.toByteArray();
+            if (c == '>') {
+                return true;
+            }
+            return c >= 0 && skipTag(c);
+        }
+
+        /**
+         * Skip the rest of a start tag.
+         *
+         * @return true if the tag starts an element with content, false
+         * for an empty element or at the end of the file.
+         */
+        boolean skipTag(int c) throws IOException
+        {
+            int quote = 0;
+            int previous = 0;
+            while (c >= 0) {
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                }
+                else if (c == '"' || c == '\'') {
+                    quote = c;
+                }
+                else if (c == '>') {
+                    return previous != '/';
+                }
+                previous = c;
+                c = read();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Records the events of a chunk that belong to it: those of the
+     * prolog only for the first chunk, those of the end of the document
+     * element and the epilogue only for the last one, and those inside
+     * the document element for every chunk.
+     */
+    private static final class Recorder
+        implements ContentHandler, LexicalHandler, DTDHandler
+    {
+        EventBuffer events;
+        private boolean _last;
+        private boolean _recording;
+        private int _depth;
+
+        void reset(Chunk chunk)
+        {
+            events = new EventBuffer();
+            _last = chunk.last;
+            _recording = chunk.first;
+            _depth = 0;
+        }
+
+        public void setDocumentLocator(Locator locator)
+        {
+        }
+
+        public void startDocument()
+        {
+            if (_recording) {
+                events.op(EventBuffer.START_DOCUMENT);
+            }
+        }
+
+        public void endDocument()
+        {
+            if (_recording) {
+                events.op(EventBuffer.END_DOCUMENT);
+            }
+        }
+
+        public void startPrefixMapping(String prefix, String uri)
+        {
+            if (_recording) {
+                events.op(EventBuffer.START_PREFIX_MAPPING);
+                events.string(prefix);
+                events.string(uri);
+            }
+        }
+
+        public void endPrefixMapping(String prefix)
+        {
+            if (_recording) {
+                events.op(EventBuffer.END_PREFIX_MAPPING);
+                events.string(prefix);
+            }
+        }
+
+        public void startElement(String uri, String localName, String qName,
+                                 Attributes atts)
+        {
+            if (_recording) {
+                events.op(EventBuffer.START_ELEMENT);
+                events.string(uri);
+                events.string(localName);
+                events.string(qName);
+                final int length = atts.getLength();
+                events.op(length);
+                for (int i = 0; i < length; i++) {
+                    events.string(atts.getURI(i));
+                    events.string(atts.getLocalName(i));
+                    events.string(atts.getQName(i));
+                    events.string(atts.getType(i));
+                    events.string(atts.getValue(i));
+                }
+            }
+            if (_depth++ == 0) {
+                _recording = true;
+            }
+        }
+
+        public void endElement(String uri, String localName, String qName)
+        {
+            if (--_depth == 0 && !_last) {
+                _recording = false;
+            }
+            if (_recording) {
+                events.op(EventBuffer.END_ELEMENT);
+                events.string(uri);
+                events.string(localName);
+                events.string(qName);
+            }
+        }
+
+        public void characters(char[] ch, int start, int length)
+        {
+            if (_recording) {
+                events.chars(EventBuffer.CHARACTERS, ch, start, length);
+            }
+        }
+
+        public void ignorableWhitespace(char[] ch, int start, int length)
+        {
+            if (_recording) {
+                events.chars(EventBuffer.IGNORABLE_WHITESPACE, ch, start, length);
+            }
+        }
+
+        public void processingInstruction(String target, String data)
+        {
+            if (_recording) {
+                events.op(EventBuffer.PROCESSING_INSTRUCTION);
+                events.string(target);
+                events.string(data);
+            }
+        }
+
+        public void skippedEntity(String name)
+        {
+            if (_recording) {
+                events.op(EventBuffer.SKIPPED_ENTITY);
+                events.string(name);
+            }
+        }
+
+        public void comment(char[] ch, int start, int length)
+        {
+            if (_recording) {
+                events.chars(EventBuffer.COMMENT, ch, start, length);
+            }
+        }
+
+        public void startCDATA()
+        {
+            if (_recording) {
+                events.op(EventBuffer.START_CDATA);
+            }
+        }
+
+        public void endCDATA()
+        {
+            if (_recording) {
+                events.op(EventBuffer.END_CDATA);
+            }
+        }
+
+        public void startDTD(String name, String publicId, String systemId)
+        {
+            if (_recording) {
+                events.op(EventBuffer.START_DTD);
+                events.string(name);
+                events.string(publicId);
+                events.string(systemId);
+            }
+        }
+
+        public void endDTD()
+        {
+            if (_recording) {
+                events.op(EventBuffer.END_DTD);
+            }
+        }
+
+        public void startEntity(String name)
+        {
+        }
+
+        public void endEntity(String name)
+        {
+        }
+
+        public void notationDecl(String name, String publicId, String systemId)
+        {
+            if (_recording) {
+                events.op(EventBuffer.NOTATION_DECL);
+                events.string(name);
+                events.string(publicId);
+                events.string(systemId);
+            }
+        }
+
+        public void unparsedEntityDecl(String name, String publicId,
+                                       String systemId, String notationName)
+        {
+            if (_recording) {
+                events.op(EventBuffer.UNPARSED_ENTITY_DECL);
+                events.string(name);
+                events.string(publicId);
+                events.string(systemId);
+                events.string(notationName);
+            }
+        }
+    }
+
+    /**
+     * The SAX events of a chunk, as operation codes and operands, the
+     * strings they refer to and their character data.
+     */
+    private static final class EventBuffer
+    {
+        static final int START_DOCUMENT = 1;
+        static final int END_DOCUMENT = 2;
+        static final int START_PREFIX_MAPPING = 3;
+        static final int END_PREFIX_MAPPING = 4;
+        static final int START_ELEMENT = 5;
+        static final int END_ELEMENT = 6;
+        static final int CHARACTERS = 7;
+        static final int IGNORABLE_WHITESPACE = 8;
+        static final int PROCESSING_INSTRUCTION = 9;
+        static final int SKIPPED_ENTITY = 10;
+        static final int COMMENT = 11;
+        static final int START_CDATA = 12;
+        static final int END_CDATA = 13;
+        static final int START_DTD = 14;
+        static final int END_DTD = 15;
+        static final int NOTATION_DECL = 16;
+        static final int UNPARSED_ENTITY_DECL = 17;
+
+        private int[] _ops = new int[4096];
+        private int _opCount;
+        private String[] _strings = new String[4096];
+        private int _stringCount;
+        private char[] _chars = new char[16384];
+        private int _charCount;
+
+        void op(int op)
+        {
+            if (_opCount == _ops.length) {
+                final int[] ops = new int[_ops.length * 2];
+                System.arraycopy(_ops, 0, ops, 0, _opCount);
+                _ops = ops;
+            }
+            _ops[_opCount++] = op;
+        }
+
+        void string(String s)
+        {
+            if (_stringCount == _strings.length) {
+                final String[] strings = new String[_strings.length * 2];
+                System.arraycopy(_strings, 0, strings, 0, _stringCount);
+                _strings = strings;
+            }
+            _strings[_stringCount++] = s;
+        }
+
+        void chars(int op, char[] ch, int start, int length)
+        {
+            op(op);
+            op(length);
+            if (_charCount + length > _chars.length) {
+                final char[] chars =
+                    new char[Math.max(_chars.length * 2, _charCount + length)];
+                System.arraycopy(_chars, 0, chars, 0, _charCount);
+                _chars = chars;
+            }
+            System.arraycopy(ch, start, _chars, _charCount, length);
+            _charCount += length;
+        }
+
+        /**
+         * Send the events to the handlers of a SAXImpl.
+         */
+        void replay(ContentHandler handler, LexicalHandler lexical,
+                    DTDHandler dtd, AttributesImpl attrs)
+            throws SAXException
+        {
+            final int[] ops = _ops;
+            final String[] s = _strings;
+            final char[] ch = _chars;
+            int si = 0;
+            int ci = 0;
+
+            for (int i = 0; i < _opCount; ) {
+                switch (ops[i++]) {
+                case START_DOCUMENT:
+                    handler.startDocument();
+                    break;
+                case END_DOCUMENT:
+                    handler.endDocument();
+                    break;
+                case START_PREFIX_MAPPING:
+                    handler.startPrefixMapping(s[si], s[si + 1]);
+                    si += 2;
+                    break;
+                case END_PREFIX_MAPPING:
+                    handler.endPrefixMapping(s[si++]);
+                    break;
+                case START_ELEMENT: {
+                    final String uri = s[si];
+                    final String localName = s[si + 1];
+                    final String qName = s[si + 2];
+                    si += 3;
+                    attrs.clear();
+                    for (int n = ops[i++]; n > 0; n--) {
+                        attrs.addAttribute(s[si], s[si + 1], s[si + 2],
+                                           s[si + 3], s[si + 4]);
+                        si += 5;
+                    }
+                    handler.startElement(uri, localName, qName, attrs);
+                    break;
+                }
+                case END_ELEMENT:
+                    handler.endElement(s[si], s[si + 1], s[si + 2]);
+                    si += 3;
+                    break;
+                case CHARACTERS: {
+                    final int length = ops[i++];
+                    handler.characters(ch, ci, length);
+                    ci += length;
+                    break;
+                }
+                case IGNORABLE_WHITESPACE: {
+                    final int length = ops[i++];
+                    handler.ignorableWhitespace(ch, ci, length);
+                    ci += length;
+                    break;
+                }
+                case PROCESSING_INSTRUCTION:
+                    handler.processingInstruction(s[si], s[si + 1]);
+                    si += 2;
+                    break;
+                case SKIPPED_ENTITY:
+                    handler.skippedEntity(s[si++]);
+                    break;
+                case COMMENT: {
+                    final int length = ops[i++];
+                    lexical.comment(ch, ci, length);
+                    ci += length;
+                    break;
+                }
+                case START_CDATA:
+                    lexical.startCDATA();
+                    break;
+                case END_CDATA:
+                    lexical.endCDATA();
+                    break;
+                case START_DTD:
+                    lexical.startDTD(s[si], s[si + 1], s[si + 2]);
+                    si += 3;
+                    break;
+                case END_DTD:
+                    lexical.endDTD();
+                    break;
+                case NOTATION_DECL:
+                    dtd.notationDecl(s[si], s[si + 1], s[si + 2]);
+                    si += 3;
+                    break;
+                case UNPARSED_ENTITY_DECL:
+                    dtd.unparsedEntityDecl(s[si], s[si + 1], s[si + 2],
+                                           s[si + 3]);
+                    si += 4;
+                    break;
+                }
+            }
+        }
+    }
+}
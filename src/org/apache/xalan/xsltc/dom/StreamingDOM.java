@@ -0,0 +1,1347 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+package org.apache.xalan.xsltc.dom;
+
+import java.util.Vector;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.xalan.xsltc.DOM;
+import org.apache.xalan.xsltc.StripFilter;
+import org.apache.xalan.xsltc.TransletException;
+import org.apache.xalan.xsltc.runtime.AbstractTranslet;
+import org.apache.xalan.xsltc.runtime.BasisLibrary;
+import org.apache.xalan.xsltc.runtime.Hashtable;
+import org.apache.xalan.xsltc.util.IntegerArray;
+import org.apache.xml.dtm.Axis;
+import org.apache.xml.dtm.DTM;
+import org.apache.xml.dtm.DTMAxisIterator;
+import org.apache.xml.dtm.DTMWSFilter;
+import org.apache.xml.dtm.ref.DTMAxisIteratorBase;
+import org.apache.xml.dtm.ref.DTMDefaultBase;
+import org.apache.xml.dtm.ref.IncrementalSAXSource;
+import org.apache.xml.dtm.ref.IncrementalSAXSource_Xerces;
+import org.apache.xml.serializer.SerializationHandler;
+import org.apache.xml.utils.SystemIDResolver;
+import org.apache.xml.utils.WrappedRuntimeException;
+import org.apache.xml.utils.XMLCharacterRecognizer;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+
+/**
+ * A DOM that reads its input while the translet runs, for stylesheets
+ * that the compiler found to be streamable.
+ *
+ * The document is split into a small <i>spine</i>, holding the prolog
+ * and the start tag of the document element, and a sequence of
+ * <i>segments</i>, each holding a run of whole children of the document
+ * element.  Segments are parsed on demand as the children of the document
+ * element are iterated.  Each one is released when the iterator moves on
+ * to the segment after the next, since iterators such as UnionIterator
+ * read one node ahead, so that only a few segments are in memory at any
+ * time.
+ *
+ * Nodes are owned by the SAXImpl of their spine or segment and are
+ * handled by a DOMAdapter for it, in the same way MultiDOM delegates to
+ * the DOM that owns a node.  The only navigation that crosses from a
+ * segment into the spine is upwards, through the parent of a top-level
+ * node of the segment, which is the document element.  Whatever comes
+ * after the document element in the input is not read.
+ */
+public final class StreamingDOM implements DOM {
+
+    private static final int NO_TYPE = DOM.FIRST_TYPE - 2;
+
+    private static final String XML_NAMESPACE =
+        "http://www.w3.org/XML/1998/namespace";
+
+    /**
+     * The number of nodes after which the current segment is closed, at
+     * the start of the next child of the document element.
+     */
+    private static final int SEGMENT_SIZE = 4096;
+
+    /**
+     * True if Xerces, which the input is parsed incrementally with, can
+     * be loaded.
+     */
+    private static final boolean XERCES_AVAILABLE = isXercesAvailable();
+
+    private final XSLTCDTMManager _manager;
+    private final DTMWSFilter _wsfilter;
+    private final String[] _namesArray;
+    private final String[] _urisArray;
+    private final int[] _typesArray;
+    private final String[] _namespaceArray;
+
+    // The prolog and the document element start tag
+    private final SAXImpl _spine;
+    private final DOMAdapter _spineAdapter;
+    private final int _root;
+    private int _element = DTM.NULL;
+
+    // The segment being read by the translet, and the one before it
+    private SAXImpl _segment;
+    private DOMAdapter _segmentAdapter;
+    private int _segmentRoot = DTM.NULL;
+    private SAXImpl _previous;
+    private DOMAdapter _previousAdapter;
+    private int _previousRoot = DTM.NULL;
+
+    // The parser and the segments it has finished but not handed out
+    private final IncrementalSAXSource _source;
+    private final Splitter _splitter = new Splitter();
+    private final Vector _ready = new Vector();
+    private boolean _done = false;
+
+    // The iterator that reads the segments; there can only be one
+    private StreamIterator _stream;
+
+    /**
+     * Returns true if the document in <code>source</code> can be streamed.
+     * Only sources that are parsed by XSLTC itself qualify, and only if
+     * Xerces is available.
+     */
+    public static boolean canStream(Source source) {
+        if (!XERCES_AVAILABLE) {
+            return false;
+        }
+        if (source instanceof StreamSource) {
+            return true;
+        }
+        if (source instanceof SAXSource) {
+            final SAXSource sax = (SAXSource) source;
+            return sax.getXMLReader() == null && sax.getInputSource() != null;
+        }
+        return false;
+    }
+
+    private static boolean isXercesAvailable() {
+        try {
+            Class.forName("org.apache.xerces.parsers.SAXParser");
+            return true;
+        }
+        catch (Exception e) {
+            return false;
+        }
+        catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Starts parsing <code>source</code> and reads it up to the start tag
+     * of the document element.  The manager must be a new one, so that the
+     * spine is the first DTM in it and the segments come after it in
+     * document order.
+     */
+    public StreamingDOM(XSLTCDTMManager manager, Source source,
+                        DTMWSFilter wsfilter, AbstractTranslet translet)
+        throws SAXException
+    {
+        if (!XERCES_AVAILABLE) {
+            throw new SAXException("Streaming requires the Xerces parser");
+        }
+        _manager = manager;
+        _wsfilter = wsfilter;
+        _namesArray = translet.getNamesArray();
+        _urisArray = translet.getUrisArray();
+        _typesArray = translet.getTypesArray();
+        _namespaceArray = translet.getNamespaceArray();
+
+        final InputSource input = SAXSource.sourceToInputSource(source);
+        String systemId = input.getSystemId();
+        if (systemId != null) {
+            try {
+                systemId = SystemIDResolver.getAbsoluteURI(systemId);
+                input.setSystemId(systemId);
+            }
+            catch (Exception e) {
+                // Keep the system id as it was given
+            }
+        }
+
+        _spine = newSAXImpl();
+        _spine.setDocumentURI(systemId);
+        _spineAdapter = newAdapter(_spine);
+        _root = _spine.getDocument();
+
+        _source = IncrementalSAXSource_Xerces.createIncrementalSAXSource();
+        _source.setContentHandler(_splitter);
+        _source.setLexicalHandler(_splitter);
+        _source.setDTDHandler(_splitter);
+        _source.startParse(input);
+
+        while (_element == DTM.NULL && !_done) {
+            parseMore();
+        }
+    }
+
+    private SAXImpl newSAXImpl() {
+        return (SAXImpl) _manager.getDTM(null, true, _wsfilter, false, false,
+                                         false, 0, false);
+    }
+
+    private DOMAdapter newAdapter(SAXImpl dom) {
+        return new DOMAdapter(dom, _namesArray, _urisArray, _typesArray,
+                              _namespaceArray);
+    }
+
+    /**
+     * Lets the parser deliver its next chunk of events.
+     */
+    private void parseMore() {
+        final Object more = _source.deliverMoreNodes(true);
+        if (more instanceof Exception) {
+            _done = true;
+            throw new WrappedRuntimeException((Exception) more);
+        }
+        if (more != Boolean.TRUE) {
+            _done = true;
+        }
+    }
+
+    /**
+     * Makes the next segment current, releasing the one before the
+     * current one.  Returns false when there are no more segments.
+     */
+    private boolean nextSegment() {
+        if (_previous != null) {
+            _manager.release(_previous, true);
+        }
+        _previous = _segment;
+        _previousAdapter = _segmentAdapter;
+        _previousRoot = _segmentRoot;
+        _segment = null;
+        _segmentAdapter = null;
+        _segmentRoot = DTM.NULL;
+
+        while (_ready.isEmpty() && !_done) {
+            parseMore();
+        }
+        if (_ready.isEmpty()) {
+            return false;
+        }
+
+        _segment = (SAXImpl) _ready.elementAt(0);
+        _ready.removeElementAt(0);
+        _segmentAdapter = newAdapter(_segment);
+        _segmentRoot = _segment.getDocument();
+        return true;
+    }
+
+    /**
+     * Returns the adapter for the spine or segment that owns
+     * <code>node</code>.
+     */
+    private DOM adapterFor(int node) {
+        final DTM dtm = _manager.getDTM(node);
+        if (dtm == _spine) {
+            return _spineAdapter;
+        }
+        if (dtm != null) {
+            if (dtm == _segment) {
+                return _segmentAdapter;
+            }
+            if (dtm == _previous) {
+                return _previousAdapter;
+            }
+        }
+        BasisLibrary.runTimeError(BasisLibrary.STREAMING_NODE_ERR);
+        return null;
+    }
+
+    private boolean isSpineNode(int node) {
+        return _manager.getDTM(node) == _spine;
+    }
+
+    private void checkValue(int node) {
+        if (node == _root || node == _element) {
+            BasisLibrary.runTimeError(BasisLibrary.STREAMING_VALUE_ERR);
+        }
+    }
+
+    /**
+     * Returns true if iterating <code>axis</code> from <code>node</code>
+     * reads the segments.
+     */
+    private boolean isStreamed(int node, int axis) {
+        if (node == _element) {
+            return axis == Axis.CHILD || axis == Axis.DESCENDANT
+                || axis == Axis.DESCENDANTORSELF;
+        }
+        if (node == _root) {
+            return axis == Axis.DESCENDANT || axis == Axis.DESCENDANTORSELF;
+        }
+        return false;
+    }
+
+    /**
+     * Returns an iterator for <code>axis</code> over <code>adapter</code>,
+     * selecting nodes by type or by namespace.
+     */
+    private static DTMAxisIterator getIterator(DOM adapter, int axis,
+                                               int type, int ns) {
+        if (ns != NO_TYPE) {
+            return adapter.getNamespaceAxisIterator(axis, ns);
+        }
+        if (type == NO_TYPE) {
+            return adapter.getAxisIterator(axis);
+        }
+        if (axis == Axis.CHILD) {
+            return adapter.getTypedChildren(type);
+        }
+        return adapter.getTypedAxisIterator(axis, type);
+    }
+
+    private DTMAxisIterator getIterator(int node, int axis, int type,
+                                        int ns) {
+        if (isStreamed(node, axis)) {
+            return new StreamIterator(axis, type, ns);
+        }
+        final DOM adapter = adapterFor(node);
+        if (adapter != _spineAdapter
+            && (axis == Axis.PARENT || axis == Axis.ANCESTOR
+                || axis == Axis.ANCESTORORSELF)) {
+            return new UpwardIterator(axis, type, ns);
+        }
+        return getIterator(adapter, axis, type, ns);
+    }
+
+    /**
+     * Returns true if <code>node</code> is selected by a type or namespace
+     * test.
+     */
+    private boolean isSelected(int node, int type, int ns) {
+        if (ns != NO_TYPE) {
+            return isElement(node) && getNamespaceType(node) == ns;
+        }
+        if (type == NO_TYPE) {
+            return true;
+        }
+        if (type < DTM.NTYPES) {
+            return _manager.getDTM(node).getNodeType(node) == type;
+        }
+        return getExpandedTypeID(node) == type;
+    }
+
+    /**
+     * Delegates to an iterator of the DOM that owns the start node, as
+     * MultiDOM does.
+     */
+    private final class AxisIterator extends DTMAxisIteratorBase {
+        // constitutive data
+        private final int _axis;
+        private final int _type;
+        private final int _ns;
+        // for getNthDescendant(), when _n is not 0
+        private int _n = 0;
+        private boolean _includeSelf;
+        // implementation mechanism
+        private DTMAxisIterator _source;
+
+        public AxisIterator(final int axis, final int type, final int ns) {
+            _axis = axis;
+            _type = type;
+            _ns = ns;
+        }
+
+        public AxisIterator(final int type, final int n,
+                            final boolean includeSelf) {
+            this(Axis.DESCENDANT, type, NO_TYPE);
+            _n = n;
+            _includeSelf = includeSelf;
+        }
+
+        public int next() {
+            if (_source == null) {
+                return(END);
+            }
+            return _source.next();
+        }
+
+        public void setRestartable(boolean flag) {
+            _isRestartable = flag;
+            if (_source != null) {
+                _source.setRestartable(flag);
+            }
+        }
+
+        public DTMAxisIterator setStartNode(int node) {
+            if (node == DTM.NULL) {
+                return this;
+            }
+            if (node == DTMDefaultBase.ROOTNODE || _axis == Axis.ROOT) {
+                node = _root;
+            }
+
+            _source = (_n != 0)
+                ? adapterFor(node).getNthDescendant(_type, _n, _includeSelf)
+                : getIterator(node, _axis, _type, _ns);
+            _source.setRestartable(_isRestartable);
+            _source.setStartNode(node);
+            return this;
+        }
+
+        public DTMAxisIterator reset() {
+            if (_source != null) {
+                _source.reset();
+            }
+            return this;
+        }
+
+        public int getLast() {
+            if (_source != null) {
+                return _source.getLast();
+            }
+            else {
+                return END;
+            }
+        }
+
+        public int getPosition() {
+            if (_source != null) {
+                return _source.getPosition();
+            }
+            else {
+                return END;
+            }
+        }
+
+        public boolean isReverse() {
+            return Axis.isReverse(_axis);
+        }
+
+        public void setMark() {
+            if (_source != null) {
+                _source.setMark();
+            }
+        }
+
+        public void gotoMark() {
+            if (_source != null) {
+                _source.gotoMark();
+            }
+        }
+
+        public DTMAxisIterator cloneIterator() {
+            final AxisIterator clone = new AxisIterator(_axis, _type, _ns);
+            clone._n = _n;
+            clone._includeSelf = _includeSelf;
+            if (_source != null) {
+                clone._source = _source.cloneIterator();
+            }
+            return clone;
+        }
+    } // end of AxisIterator
+
+    /**
+     * Iterates the children or descendants of the document element, or the
+     * descendants of the root, reading one segment after the other.  Once
+     * it has started reading segments it cannot be restarted or cloned.
+     */
+    private final class StreamIterator extends DTMAxisIteratorBase {
+        private final int _axis;
+        private final int _type;
+        private final int _ns;
+        // Spine nodes returned before the segments, for descendant axes
+        private DTMAxisIterator _spineNodes;
+        private DTMAxisIterator _segmentNodes;
+        private boolean _streaming = false;
+
+        public StreamIterator(int axis, int type, int ns) {
+            _axis = axis;
+            _type = type;
+            _ns = ns;
+        }
+
+        public DTMAxisIterator setStartNode(int node) {
+            if (_isRestartable) {
+                start(node);
+            }
+            return this;
+        }
+
+        private void start(int node) {
+            if (_streaming) {
+                BasisLibrary.runTimeError(BasisLibrary.STREAMING_ITERATOR_ERR);
+            }
+            _startNode = node;
+            _spineNodes = (_axis == Axis.CHILD) ? null
+                : getIterator(_spineAdapter, _axis, _type, _ns)
+                      .setStartNode(node);
+            _segmentNodes = null;
+            resetPosition();
+        }
+
+        public DTMAxisIterator reset() {
+            if (_startNode != END) {
+                start(_startNode);
+            }
+            return this;
+        }
+
+        public int next() {
+            if (_spineNodes != null) {
+                final int node = _spineNodes.next();
+                if (node != END) {
+                    return returnNode(node);
+                }
+                _spineNodes = null;
+            }
+
+            for (;;) {
+                if (_segmentNodes != null) {
+                    final int node = _segmentNodes.next();
+                    if (node != END) {
+                        return returnNode(node);
+                    }
+                    _segmentNodes = null;
+                }
+
+                if (!_streaming) {
+                    if (_stream != null) {
+                        BasisLibrary.runTimeError(
+                            BasisLibrary.STREAMING_ITERATOR_ERR);
+                    }
+                    _stream = this;
+                    _streaming = true;
+                }
+                if (_startNode == END || !nextSegment()) {
+                    return END;
+                }
+                _segmentNodes = getIterator(_segmentAdapter,
+                    (_axis == Axis.CHILD) ? Axis.CHILD : Axis.DESCENDANT,
+                    _type, _ns).setStartNode(_segmentRoot);
+            }
+        }
+
+        public int getLast() {
+            BasisLibrary.runTimeError(BasisLibrary.STREAMING_ITERATOR_ERR);
+            return END;
+        }
+
+        public void setMark() {
+            BasisLibrary.runTimeError(BasisLibrary.STREAMING_ITERATOR_ERR);
+        }
+
+        public void gotoMark() {
+            BasisLibrary.runTimeError(BasisLibrary.STREAMING_ITERATOR_ERR);
+        }
+
+        public DTMAxisIterator cloneIterator() {
+            if (_streaming) {
+                BasisLibrary.runTimeError(BasisLibrary.STREAMING_ITERATOR_ERR);
+            }
+            final StreamIterator clone = new StreamIterator(_axis, _type, _ns);
+            if (_startNode != END) {
+                clone.start(_startNode);
+            }
+            clone._isRestartable = false;
+            return clone;
+        }
+    } // end of StreamIterator
+
+    /**
+     * Iterates the parent or ancestors of a node in a segment, continuing
+     * from the top of the segment into the spine.  Nodes are returned in
+     * document order, as AncestorIterator does.
+     */
+    private final class UpwardIterator extends DTMAxisIteratorBase {
+        private final int _axis;
+        private final int _type;
+        private final int _ns;
+        private IntegerArray _nodes = new IntegerArray(8);
+        private int _index;
+        private int _markedIndex;
+
+        public UpwardIterator(int axis, int type, int ns) {
+            _axis = axis;
+            _type = type;
+            _ns = ns;
+        }
+
+        public boolean isReverse() {
+            return true;
+        }
+
+        public DTMAxisIterator setStartNode(int node) {
+            if (_isRestartable) {
+                _startNode = node;
+                _nodes.clear();
+                if (_axis != Axis.ANCESTORORSELF) {
+                    node = getParent(node);
+                }
+                while (node != DTM.NULL) {
+                    if (isSelected(node, _type, _ns)) {
+                        _nodes.add(node);
+                    }
+                    if (_axis == Axis.PARENT) {
+                        break;
+                    }
+                    node = getParent(node);
+                }
+                _index = _nodes.cardinality();
+                return resetPosition();
+            }
+            return this;
+        }
+
+        public DTMAxisIterator reset() {
+            _index = _nodes.cardinality();
+            return resetPosition();
+        }
+
+        public int next() {
+            return (_index > 0) ? returnNode(_nodes.at(--_index)) : END;
+        }
+
+        public void setMark() {
+            _markedIndex = _index;
+        }
+
+        public void gotoMark() {
+            _index = _markedIndex;
+        }
+
+        public DTMAxisIterator cloneIterator() {
+            final UpwardIterator clone = (UpwardIterator) super.cloneIterator();
+            clone._nodes = (IntegerArray) _nodes.clone();
+            return clone;
+        }
+    } // end of UpwardIterator
+
+    /**
+     * Removes repeated spine nodes from an iterator started in the spine.
+     * Unlike DupFilterIterator it does not read its source up front, so
+     * the nodes of the segments are passed on as they are read.
+     */
+    private final class SpineFilterIterator extends DTMAxisIteratorBase {
+        private DTMAxisIterator _source;
+        private IntegerArray _seen = new IntegerArray(4);
+
+        public SpineFilterIterator(DTMAxisIterator source) {
+            _source = source;
+        }
+
+        public void setRestartable(boolean isRestartable) {
+            _isRestartable = isRestartable;
+            _source.setRestartable(isRestartable);
+        }
+
+        public DTMAxisIterator setStartNode(int node) {
+            if (_isRestartable) {
+                _source.setStartNode(_startNode = node);
+                _seen.clear();
+                return resetPosition();
+            }
+            return this;
+        }
+
+        public DTMAxisIterator reset() {
+            _source.reset();
+            _seen.clear();
+            return resetPosition();
+        }
+
+        public int next() {
+            int node;
+            while ((node = _source.next()) != END) {
+                if (isSpineNode(node)) {
+                    if (_seen.indexOf(node) >= 0) {
+                        continue;
+                    }
+                    _seen.add(node);
+                }
+                return returnNode(node);
+            }
+            return END;
+        }
+
+        public void setMark() {
+            _source.setMark();
+        }
+
+        public void gotoMark() {
+            _source.gotoMark();
+        }
+
+        public DTMAxisIterator cloneIterator() {
+            final SpineFilterIterator clone =
+                (SpineFilterIterator) super.cloneIterator();
+            clone._source = _source.cloneIterator();
+            clone._seen = (IntegerArray) _seen.clone();
+            return clone;
+        }
+    } // end of SpineFilterIterator
+
+    /**************************************************************
+     * This is a specialised iterator for predicates comparing node or
+     * attribute values to variable or parameter values.
+     */
+    private final class NodeValueIterator extends DTMAxisIteratorBase {
+
+        private DTMAxisIterator _source;
+        private String _value;
+        private boolean _op;
+        private final boolean _isReverse;
+        private int _returnType = RETURN_PARENT;
+
+        public NodeValueIterator(DTMAxisIterator source, int returnType,
+                                 String value, boolean op) {
+            _source = source;
+            _returnType = returnType;
+            _value = value;
+            _op = op;
+            _isReverse = source.isReverse();
+        }
+
+        public boolean isReverse() {
+            return _isReverse;
+        }
+
+        public DTMAxisIterator cloneIterator() {
+            try {
+                NodeValueIterator clone = (NodeValueIterator)super.clone();
+                clone._source = _source.cloneIterator();
+                clone.setRestartable(false);
+                return clone.reset();
+            }
+            catch (CloneNotSupportedException e) {
+                BasisLibrary.runTimeError(BasisLibrary.ITERATOR_CLONE_ERR,
+                                          e.toString());
+                return null;
+            }
+        }
+
+        public void setRestartable(boolean isRestartable) {
+            _isRestartable = isRestartable;
+            _source.setRestartable(isRestartable);
+        }
+
+        public DTMAxisIterator reset() {
+            _source.reset();
+            return resetPosition();
+        }
+
+        public int next() {
+            int node;
+            while ((node = _source.next()) != END) {
+                String val = getStringValueX(node);
+                if (_value.equals(val) == _op) {
+                    if (_returnType == RETURN_CURRENT)
+                        return returnNode(node);
+                    else
+                        return returnNode(getParent(node));
+                }
+            }
+            return END;
+        }
+
+        public DTMAxisIterator setStartNode(int node) {
+            if (_isRestartable) {
+                _source.setStartNode(_startNode = node);
+                return resetPosition();
+            }
+            return this;
+        }
+
+        public void setMark() {
+            _source.setMark();
+        }
+
+        public void gotoMark() {
+            _source.gotoMark();
+        }
+    }
+
+    /**
+     * Receives the parser's events and passes them on to the spine or to
+     * the segment being built.
+     */
+    private final class Splitter
+        implements ContentHandler, LexicalHandler, DTDHandler {
+
+        // 0 before the document element, 1 within it
+        private int _depth = 0;
+        private SAXImpl _building;
+        // Set once the segment being built has an element
+        private boolean _hasElement;
+        private boolean _stripSpace = false;
+        // Prefixes declared on the document element, as prefix/uri pairs
+        private final Vector _inherited = new Vector();
+        // Prefixes declared on the next child of the document element
+        private final Vector _declared = new Vector();
+        // Text directly within the document element
+        private final StringBuffer _text = new StringBuffer();
+
+        private void startSegment() throws SAXException {
+            _building = newSAXImpl();
+            _building.startDocument();
+            _hasElement = false;
+        }
+
+        private void endSegment() throws SAXException {
+            if (_building != null) {
+                _building.endDocument();
+                _ready.addElement(_building);
+                _building = null;
+            }
+        }
+
+        private void flushText() throws SAXException {
+            final int length = _text.length();
+            if (length > 0) {
+                if (!_stripSpace || !XMLCharacterRecognizer.isWhiteSpace(_text)) {
+                    if (_building == null) {
+                        startSegment();
+                    }
+                    final char[] ch = new char[length];
+                    _text.getChars(0, length, ch, 0);
+                    _building.characters(ch, 0, length);
+                }
+                _text.setLength(0);
+            }
+        }
+
+        /**
+         * Returns the URI <code>prefix</code> is bound to in a list of
+         * prefix/uri pairs, or null if it is not in the list.
+         */
+        private String getDeclared(Vector declarations, String prefix) {
+            for (int i = 0; i < declarations.size(); i += 2) {
+                if (prefix.equals(declarations.elementAt(i))) {
+                    return (String) declarations.elementAt(i + 1);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Closes the spine after the start tag of the document element.
+         */
+        private void endSpine(String uri, String localName, String qname,
+                              String space)
+            throws SAXException
+        {
+            _spine.endElement(uri, localName, qname);
+            _spine.endDocument();
+
+            for (int node = _spine.getFirstChild(_root); node != DTM.NULL;
+                 node = _spine.getNextSibling(node)) {
+                if (_spine.getNodeType(node) == DTM.ELEMENT_NODE) {
+                    _element = node;
+                }
+            }
+
+            if ("preserve".equals(space)) {
+                _stripSpace = false;
+            }
+            else if (_wsfilter != null) {
+                _stripSpace = _wsfilter.getShouldStripSpace(_element, _spine)
+                                  == DTMWSFilter.STRIP;
+            }
+        }
+
+        public void setDocumentLocator(Locator locator) {
+            _spine.setDocumentLocator(locator);
+        }
+
+        public void startDocument() throws SAXException {
+            _spine.startDocument();
+        }
+
+        public void endDocument() throws SAXException {
+            endSegment();
+        }
+
+        public void startPrefixMapping(String prefix, String uri)
+            throws SAXException
+        {
+            if (_depth == 0) {
+                _spine.startPrefixMapping(prefix, uri);
+                _inherited.addElement(prefix);
+                _inherited.addElement(uri);
+            }
+            else if (_depth == 1) {
+                _declared.addElement(prefix);
+                _declared.addElement(uri);
+            }
+            else {
+                _building.startPrefixMapping(prefix, uri);
+            }
+        }
+
+        public void endPrefixMapping(String prefix) {
+            // SAX2DTM ends the scope of its prefixes with each element
+        }
+
+        public void startElement(String uri, String localName, String qname,
+                                 Attributes attributes)
+            throws SAXException
+        {
+            if (_depth == 0) {
+                _spine.startElement(uri, localName, qname, attributes);
+                endSpine(uri, localName, qname,
+                         attributes.getValue("xml:space"));
+            }
+            else if (_depth == 1) {
+                flushText();
+                if (_building != null && _building.getSize() >= SEGMENT_SIZE) {
+                    endSegment();
+                }
+                if (_building == null) {
+                    startSegment();
+                }
+
+                // Each child carries the prefixes of the document element.
+                // The xml prefix, which the document element has as well,
+                // is given by SAX2DTM to the first element of a segment
+                // only.
+                if (_hasElement) {
+                    _building.startPrefixMapping("xml", XML_NAMESPACE);
+                }
+                _hasElement = true;
+                // The prefixes are declared in the order the namespace
+                // axis of a document built in memory has them: those of
+                // the document element, as the child may redeclare them,
+                // and then the child's own.
+                for (int i = 0; i < _inherited.size(); i += 2) {
+                    final String prefix = (String) _inherited.elementAt(i);
+                    final String redeclared = getDeclared(_declared, prefix);
+                    _building.startPrefixMapping(prefix,
+                        (redeclared != null) ? redeclared
+                            : (String) _inherited.elementAt(i + 1));
+                }
+                for (int i = 0; i < _declared.size(); i += 2) {
+                    final String prefix = (String) _declared.elementAt(i);
+                    if (getDeclared(_inherited, prefix) == null) {
+                        _building.startPrefixMapping(prefix,
+                            (String) _declared.elementAt(i + 1));
+                    }
+                }
+                _declared.removeAllElements();
+                _building.startElement(uri, localName, qname, attributes);
+            }
+            else {
+                _building.startElement(uri, localName, qname, attributes);
+            }
+            _depth++;
+        }
+
+        public void endElement(String uri, String localName, String qname)
+            throws SAXException
+        {
+            _depth--;
+            if (_depth == 0) {
+                flushText();
+                endSegment();
+            }
+            else {
+                _building.endElement(uri, localName, qname);
+            }
+        }
+
+        public void characters(char[] ch, int start, int length)
+            throws SAXException
+        {
+            if (_depth == 1) {
+                _text.append(ch, start, length);
+            }
+            else if (_depth > 1) {
+                _building.characters(ch, start, length);
+            }
+        }
+
+        public void ignorableWhitespace(char[] ch, int start, int length)
+            throws SAXException
+        {
+            characters(ch, start, length);
+        }
+
+        public void processingInstruction(String target, String data)
+            throws SAXException
+        {
+            if (_depth == 0) {
+                if (_element == DTM.NULL) {
+                    _spine.processingInstruction(target, data);
+                }
+            }
+            else {
+                if (_depth == 1) {
+                    flushText();
+                    if (_building == null) {
+                        startSegment();
+                    }
+                }
+                _building.processingInstruction(target, data);
+            }
+        }
+
+        public void skippedEntity(String name) {
+        }
+
+        public void comment(char[] ch, int start, int length)
+            throws SAXException
+        {
+            if (_depth == 0) {
+                if (_element == DTM.NULL) {
+                    _spine.comment(ch, start, length);
+                }
+            }
+            else {
+                if (_depth == 1) {
+                    flushText();
+                    if (_building == null) {
+                        startSegment();
+                    }
+                }
+                _building.comment(ch, start, length);
+            }
+        }
+
+        public void startDTD(String name, String publicId, String systemId)
+            throws SAXException
+        {
+            _spine.startDTD(name, publicId, systemId);
+        }
+
+        public void endDTD() throws SAXException {
+            _spine.endDTD();
+        }
+
+        public void startEntity(String name) {
+        }
+
+        public void endEntity(String name) {
+        }
+
+        public void startCDATA() throws SAXException {
+            if (_depth > 1) {
+                _building.startCDATA();
+            }
+        }
+
+        public void endCDATA() throws SAXException {
+            if (_depth > 1) {
+                _building.endCDATA();
+            }
+        }
+
+        public void notationDecl(String name, String publicId,
+                                 String systemId)
+            throws SAXException
+        {
+            _spine.notationDecl(name, publicId, systemId);
+        }
+
+        public void unparsedEntityDecl(String name, String publicId,
+                                       String systemId, String notationName)
+            throws SAXException
+        {
+            _spine.unparsedEntityDecl(name, publicId, systemId, notationName);
+        }
+    } // end of Splitter
+
+    public void setupMapping(String[] names, String[] uris, int[] types,
+                             String[] namespaces) {
+        // This method only has a function in DOM adapters
+    }
+
+    public DTMAxisIterator getIterator() {
+        return _spineAdapter.getIterator();
+    }
+
+    public String getStringValue() {
+        BasisLibrary.runTimeError(BasisLibrary.STREAMING_VALUE_ERR);
+        return null;
+    }
+
+    public DTMAxisIterator getChildren(final int node) {
+        return getIterator(node, Axis.CHILD, NO_TYPE, NO_TYPE)
+                   .setStartNode(node);
+    }
+
+    public DTMAxisIterator getTypedChildren(final int type) {
+        return new AxisIterator(Axis.CHILD, type, NO_TYPE);
+    }
+
+    public DTMAxisIterator getAxisIterator(final int axis) {
+        return new AxisIterator(axis, NO_TYPE, NO_TYPE);
+    }
+
+    public DTMAxisIterator getTypedAxisIterator(final int axis,
+                                                final int type) {
+        return new AxisIterator(axis, type, NO_TYPE);
+    }
+
+    public DTMAxisIterator getNamespaceAxisIterator(final int axis,
+                                                    final int ns) {
+        return new AxisIterator(axis, NO_TYPE, ns);
+    }
+
+    public DTMAxisIterator getNthDescendant(int type, int n,
+                                            boolean includeself) {
+        return new AxisIterator(type, n, includeself);
+    }
+
+    public DTMAxisIterator getNodeValueIterator(DTMAxisIterator iterator,
+                                                int type, String value,
+                                                boolean op) {
+        return new NodeValueIterator(iterator, type, value, op);
+    }
+
+    public DTMAxisIterator orderNodes(DTMAxisIterator source, int node) {
+        if (isSpineNode(node)) {
+            return new SpineFilterIterator(source);
+        }
+        return adapterFor(node).orderNodes(source, node);
+    }
+
+    public int getExpandedTypeID(final int node) {
+        if (node == DTM.NULL) {
+            return DTM.NULL;
+        }
+        return adapterFor(node).getExpandedTypeID(node);
+    }
+
+    public int getNamespaceType(final int node) {
+        return adapterFor(node).getNamespaceType(node);
+    }
+
+    public int getNSType(int node) {
+        return adapterFor(node).getNSType(node);
+    }
+
+    public int getParent(final int node) {
+        if (node == DTM.NULL) {
+            return DTM.NULL;
+        }
+        final int parent = adapterFor(node).getParent(node);
+        if (parent != DTM.NULL
+            && (parent == _segmentRoot || parent == _previousRoot)) {
+            return _element;
+        }
+        return parent;
+    }
+
+    public int getAttributeNode(final int type, final int element) {
+        if (element == DTM.NULL) {
+            return DTM.NULL;
+        }
+        return adapterFor(element).getAttributeNode(type, element);
+    }
+
+    public String getNodeName(final int node) {
+        if (node == DTM.NULL) {
+            return "";
+        }
+        return adapterFor(node).getNodeName(node);
+    }
+
+    public String getNodeNameX(final int node) {
+        if (node == DTM.NULL) {
+            return "";
+        }
+        return adapterFor(node).getNodeNameX(node);
+    }
+
+    public String getNamespaceName(final int node) {
+        if (node == DTM.NULL) {
+            return "";
+        }
+        return adapterFor(node).getNamespaceName(node);
+    }
+
+    public String getStringValueX(final int node) {
+        if (node == DTM.NULL) {
+            return "";
+        }
+        checkValue(node);
+        return adapterFor(node).getStringValueX(node);
+    }
+
+    public void copy(final int node, SerializationHandler handler)
+        throws TransletException
+    {
+        if (node == _root) {
+            final DTMAxisIterator children =
+                _spineAdapter.getChildren(_root);
+            for (int child; (child = children.next()) != DTM.NULL; ) {
+                copy(child, handler);
+            }
+        }
+        else if (node == _element) {
+            // Copy the document element while its children are read
+            final String name = _spineAdapter.shallowCopy(node, handler);
+            final DTMAxisIterator attributes =
+                _spineAdapter.getAxisIterator(Axis.ATTRIBUTE)
+                             .setStartNode(node);
+            _spineAdapter.copy(attributes, handler);
+            copy(getChildren(node), handler);
+            try {
+                handler.endElement(name);
+            }
+            catch (SAXException e) {
+                throw new TransletException(e);
+            }
+        }
+        else if (node != DTM.NULL) {
+            adapterFor(node).copy(node, handler);
+        }
+    }
+
+    public void copy(DTMAxisIterator nodes, SerializationHandler handler)
+        throws TransletException
+    {
+        int node;
+        while ((node = nodes.next()) != DTM.NULL) {
+            copy(node, handler);
+        }
+    }
+
+    public String shallowCopy(final int node, SerializationHandler handler)
+        throws TransletException
+    {
+        if (node == DTM.NULL) {
+            return "";
+        }
+        return adapterFor(node).shallowCopy(node, handler);
+    }
+
+    public boolean lessThan(final int node1, final int node2) {
+        if (node1 == DTM.NULL) {
+            return false;
+        }
+        if (node2 == DTM.NULL) {
+            return true;
+        }
+        final boolean spine1 = isSpineNode(node1);
+        if (spine1 != isSpineNode(node2)) {
+            return spine1;
+        }
+        if (spine1 || _manager.getDTM(node1) == _manager.getDTM(node2)) {
+            return adapterFor(node1).lessThan(node1, node2);
+        }
+        return node1 < node2;
+    }
+
+    public void characters(final int textNode, SerializationHandler handler)
+        throws TransletException
+    {
+        if (textNode != DTM.NULL) {
+            checkValue(textNode);
+            adapterFor(textNode).characters(textNode, handler);
+        }
+    }
+
+    public Node makeNode(int index) {
+        return adapterFor(index).makeNode(index);
+    }
+
+    public Node makeNode(DTMAxisIterator iter) {
+        return _spineAdapter.makeNode(iter);
+    }
+
+    public NodeList makeNodeList(int index) {
+        return adapterFor(index).makeNodeList(index);
+    }
+
+    public NodeList makeNodeList(DTMAxisIterator iter) {
+        return _spineAdapter.makeNodeList(iter);
+    }
+
+    public String getLanguage(int node) {
+        return adapterFor(node).getLanguage(node);
+    }
+
+    public int getSize() {
+        return _spineAdapter.getSize();
+    }
+
+    public String getDocumentURI(int node) {
+        return _spineAdapter.getDocumentURI(_root);
+    }
+
+    public void setFilter(StripFilter filter) {
+        // The segments are stripped by the filter given to the constructor
+    }
+
+    public boolean isElement(final int node) {
+        return adapterFor(node).isElement(node);
+    }
+
+    public boolean isAttribute(final int node) {
+        return adapterFor(node).isAttribute(node);
+    }
+
+    public String lookupNamespace(int node, String prefix)
+        throws TransletException
+    {
+        return adapterFor(node).lookupNamespace(node, prefix);
+    }
+
+    public int getNodeIdent(final int nodeHandle) {
+        return adapterFor(nodeHandle).getNodeIdent(nodeHandle);
+    }
+
+    public int getNodeHandle(final int nodeId) {
+        return _spineAdapter.getNodeHandle(nodeId);
+    }
+
+    public DOM getResultTreeFrag(int initSize, int rtfType) {
+        return _spineAdapter.getResultTreeFrag(initSize, rtfType);
+    }
+
+    public DOM getResultTreeFrag(int initSize, int rtfType,
+                                 boolean addToManager) {
+        return _spineAdapter.getResultTreeFrag(initSize, rtfType,
+                                               addToManager);
+    }
+
+    public SerializationHandler getOutputDomBuilder() {
+        return _spineAdapter.getOutputDomBuilder();
+    }
+
+    public int getDocument() {
+        return _root;
+    }
+
+    public String getUnparsedEntityURI(String name) {
+        return _spineAdapter.getUnparsedEntityURI(name);
+    }
+
+    public Hashtable getElementsWithIDs() {
+        return _spineAdapter.getElementsWithIDs();
+    }
+}
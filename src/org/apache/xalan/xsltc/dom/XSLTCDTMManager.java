@@ -59,6 +59,12 @@ public class XSLTCDTMManager extends DTMManagerDefault
     /** Set this to true if you want basic diagnostics */
     private static final boolean DEBUG = false;
 
+    /**
+     * The number of threads that build a document from a large file, or 0
+     * to build documents on the calling thread alone.
+     */
+    private int _parallelBuild = 0;
+
     /**
      * Constructor DTMManagerDefault
      *
@@ -272,31 +278,16 @@ public class XSLTCDTMManager extends DTMManagerDefault
 			 " source: "+source.getSystemId());
         }
 
-        int dtmPos = getFirstFreeDTMID();
-        int documentID = dtmPos << IDENT_DTM_NODE_BITS;
-
         if ((null != source) && source instanceof DOMSource)
         {
             final DOMSource domsrc = (DOMSource) source;
             final org.w3c.dom.Node node = domsrc.getNode();
             final DOM2SAX dom2sax = new DOM2SAX(node);
       
-            SAXImpl dtm;
-
-            if (size <= 0) {
-                dtm = new SAXImpl(this, source, documentID,
-                                  whiteSpaceFilter, null, doIndexing, 
-                                  DTMDefaultBase.DEFAULT_BLOCKSIZE,
-                                  buildIdIndex, newNameTable);
-            } else {
-                dtm = new SAXImpl(this, source, documentID,
-                                  whiteSpaceFilter, null, doIndexing, 
-                                  size, buildIdIndex, newNameTable);
-            }
+            SAXImpl dtm = newSAXImpl(source, whiteSpaceFilter, doIndexing,
+                                     size, buildIdIndex, newNameTable);
       
             dtm.setDocumentURI(source.getSystemId());
-
-            addDTM(dtm, dtmPos, 0);
       
             dom2sax.setContentHandler(dtm);
       
@@ -319,6 +310,18 @@ public class XSLTCDTMManager extends DTMManagerDefault
             boolean isStreamSource = (null != source)
                                   ? (source instanceof StreamSource) : false;
 
+            if (isStreamSource && !hasUserReader && _parallelBuild > 1) {
+                final ParallelDOMBuilder builder = ParallelDOMBuilder
+                    .newInstance((StreamSource) source, _parallelBuild);
+                if (builder != null) {
+                    SAXImpl dtm = newSAXImpl(source, whiteSpaceFilter,
+                                             doIndexing, size, buildIdIndex,
+                                             newNameTable);
+                    builder.build(dtm);
+                    return dtm;
+                }
+            }
+
             if (isSAXSource || isStreamSource) {
                 XMLReader reader;
                 InputSource xmlSource;
@@ -347,22 +350,9 @@ public class XSLTCDTMManager extends DTMManagerDefault
                     }
                 }
 
-                // Create the basic SAX2DTM.
-                SAXImpl dtm;
-                if (size <= 0) {
-                    dtm = new SAXImpl(this, source, documentID, whiteSpaceFilter,
-			              null, doIndexing, 
-			              DTMDefaultBase.DEFAULT_BLOCKSIZE,
-			              buildIdIndex, newNameTable);
-                } else {
-                    dtm = new SAXImpl(this, source, documentID, whiteSpaceFilter,
-			    null, doIndexing, size, buildIdIndex, newNameTable);
-                }
-
-                // Go ahead and add the DTM to the lookup table.  This needs to be
-                // done before any parsing occurs. Note offset 0, since we've just
-                // created a new DTM.
-                addDTM(dtm, dtmPos, 0);
+                // Create the basic SAX2DTM, and add it to the lookup table.
+                SAXImpl dtm = newSAXImpl(source, whiteSpaceFilter, doIndexing,
+                                         size, buildIdIndex, newNameTable);
 
                 if (null == reader) {
                     // Then the user will construct it themselves.
@@ -413,4 +403,58 @@ public class XSLTCDTMManager extends DTMManagerDefault
             }
         }
     }
+
+    /**
+     * Set the number of threads that build a document from a local file
+     * large enough to be split into parts that are parsed in parallel.
+     * Other sources are still parsed by the calling thread.
+     *
+     * @param threads The number of threads, or 0 to parse every document
+     * on the calling thread.
+     */
+    public void setParallelBuild(int threads) {
+        _parallelBuild = threads;
+    }
+
+    /**
+     * Return the number of threads that build a document from a large
+     * local file, or 0 if it is parsed on the calling thread.
+     */
+    public int getParallelBuild() {
+        return _parallelBuild;
+    }
+
+    /**
+     * Create a SAXImpl under the first free DTM ID and add it to the
+     * lookup table.  This needs to be done before any parsing occurs.
+     * Note offset 0, since we've just created a new DTM.
+     *
+     * The ID is claimed and registered while holding this manager's
+     * lock, so that threads building documents through one shared
+     * manager (a DocumentCache, for example) are not given the same ID.
+     */
+    private SAXImpl newSAXImpl(Source source, DTMWSFilter whiteSpaceFilter,
+                               boolean doIndexing, int size,
+                               boolean buildIdIndex, boolean newNameTable)
+    {
+        synchronized (this) {
+            int dtmPos = getFirstFreeDTMID();
+            int documentID = dtmPos << IDENT_DTM_NODE_BITS;
+            SAXImpl dtm;
+
+            if (size <= 0) {
+                dtm = new SAXImpl(this, source, documentID,
+                                  whiteSpaceFilter, null, doIndexing, 
+                                  DTMDefaultBase.DEFAULT_BLOCKSIZE,
+                                  buildIdIndex, newNameTable);
+            } else {
+                dtm = new SAXImpl(this, source, documentID,
+                                  whiteSpaceFilter, null, doIndexing, 
+                                  size, buildIdIndex, newNameTable);
+            }
+
+            addDTM(dtm, dtmPos, 0);
+            return dtm;
+        }
+    }
 }
@@ -42,9 +42,11 @@ import org.apache.xalan.xsltc.DOMEnhancedForDTM;
 import org.apache.xalan.xsltc.Translet;
 import org.apache.xalan.xsltc.TransletException;
 import org.apache.xalan.xsltc.dom.DOMAdapter;
+import org.apache.xalan.xsltc.dom.DocumentCache;
 import org.apache.xalan.xsltc.dom.KeyIndex;
 import org.apache.xalan.xsltc.runtime.output.TransletOutputHandlerFactory;
 import org.apache.xml.dtm.DTMAxisIterator;
+import org.apache.xml.serializer.OutputPropertiesFactory;
 import org.apache.xml.serializer.SerializationHandler;
 
 /**
@@ -54,7 +56,7 @@ import org.apache.xml.serializer.SerializationHandler;
  * @author G. Todd Miller
  * @author John Howard, JohnH@schemasoft.com 
  */
-public abstract class AbstractTranslet implements Translet {
+public abstract class AbstractTranslet implements Translet, Cloneable {
 
     // These attributes are extracted from the xsl:output element. They also
     // appear as fields (with the same type, only public) in Output.java
@@ -69,6 +71,9 @@ public abstract class AbstractTranslet implements Translet {
     public String  _mediaType = null;
     public Vector _cdata = null;
     public int _indentamount = -1;
+    public String  _compression = null;
+    public String  _compressionLevel = null;
+    public String  _asyncOutput = null;
 
     public static final int FIRST_TRANSLET_VERSION = 100;
     public static final int VER_SPLIT_NAMES_ARRAY = 101;
@@ -93,6 +98,11 @@ public abstract class AbstractTranslet implements Translet {
     // Boolean flag to indicate whether this translet has id functions.
     protected boolean _hasIdCall = false;
 
+    // Boolean flag to indicate whether this translet was compiled in
+    // streaming mode and can be run without building the whole input
+    // document in memory.
+    protected boolean _streamable = false;
+
     // TODO - these should only be instanciated when needed
     protected StringValueHandler stringValueHandler = new StringValueHandler();
 
@@ -605,6 +615,9 @@ public abstract class AbstractTranslet implements Translet {
             transform(document, document.getIterator(), handler);
         } finally {
             _keyIndexes = null;
+            if (_domCache instanceof DocumentCache) {
+                ((DocumentCache)_domCache).releaseDocuments(this);
+            }
         }
     }
 	
@@ -690,6 +703,21 @@ public abstract class AbstractTranslet implements Translet {
 	    handler.setIndent(_indent);
 	    handler.setDoctype(_doctypeSystem, _doctypePublic);
 	}
+
+	// Extensions that only the stream serializers act on
+	if (_compression != null) {
+	    handler.setOutputProperty(
+		OutputPropertiesFactory.S_KEY_COMPRESSION, _compression);
+	}
+	if (_compressionLevel != null) {
+	    handler.setOutputProperty(
+		OutputPropertiesFactory.S_KEY_COMPRESSION_LEVEL,
+		_compressionLevel);
+	}
+	if (_asyncOutput != null) {
+	    handler.setOutputProperty(
+		OutputPropertiesFactory.S_KEY_ASYNC_OUTPUT, _asyncOutput);
+	}
     }
 
     private Hashtable _auxClasses = null;
@@ -704,8 +732,23 @@ public abstract class AbstractTranslet implements Translet {
     }
     
     public Class getAuxiliaryClass(String className) {
-	if (_auxClasses == null) return null;
-	return((Class)_auxClasses.get(className));
+	if (_auxClasses != null) {
+	    final Class auxClass = (Class)_auxClasses.get(className);
+	    if (auxClass != null) return auxClass;
+	}
+
+	// A translet created through TrAX has its auxiliary classes
+	// defined on first use by its own class loader
+	final ClassLoader loader = getClass().getClassLoader();
+	if (loader != null) {
+	    try {
+		return loader.loadClass(className);
+	    }
+	    catch (ClassNotFoundException e) {
+		// Falls through
+	    }
+	}
+	return null;
     }
 
     // GTM added (see pg 110)
@@ -728,6 +771,10 @@ public abstract class AbstractTranslet implements Translet {
     public boolean hasIdCall() {
     	return _hasIdCall;
     }
+
+    public boolean isStreamable() {
+	return _streamable;
+    }
     
     public Templates getTemplates() {
     	return _templates;
@@ -736,6 +783,47 @@ public abstract class AbstractTranslet implements Translet {
     public void setTemplates(Templates templates) {
     	_templates = templates;
     }    
+
+    /**
+     * Returns a new translet for a transformation, copied from this one.
+     * This translet must be a prototype that is never itself used for a
+     * transformation. The copy shares its read-only tables (names, URIs,
+     * types, namespaces and auxiliary classes) and starts with fresh
+     * parameter, key and message state; the output settings, CDATA
+     * element list and decimal formats, which a Transformer or a
+     * transformation may change, are copied.
+     */
+    public AbstractTranslet cloneTranslet()
+	throws CloneNotSupportedException {
+	final AbstractTranslet translet = (AbstractTranslet)super.clone();
+
+	translet.pbase = translet.pframe = 0;
+	translet.paramsStack = new ArrayList();
+	translet.stringValueHandler = new StringValueHandler();
+	translet._msgHandler = null;
+	translet._keyIndexes = null;
+	translet._emptyKeyIndex = null;
+	translet._indexSize = 0;
+	translet._currentRootForKeys = 0;
+	translet._domCache = null;
+
+	if (_cdata != null) {
+	    translet._cdata = (Vector)_cdata.clone();
+	}
+
+	// DecimalFormat is not thread safe, and format-number() changes
+	// its pattern, so each translet needs its own.
+	if (_formatSymbols != null) {
+	    translet._formatSymbols = new Hashtable();
+	    final Enumeration names = _formatSymbols.keys();
+	    while (names.hasMoreElements()) {
+		final Object name = names.nextElement();
+		final DecimalFormat df = (DecimalFormat)_formatSymbols.get(name);
+		translet._formatSymbols.put(name, df.clone());
+	    }
+	}
+	return translet;
+    }
     
     /************************************************************************
      * DOMImplementation caching for basis library
@@ -1647,6 +1647,10 @@ public final class BasisLibrary {
     public static final String INVALID_NCNAME_ERR = "INVALID_NCNAME_ERR";
     public static final String UNALLOWED_EXTENSION_FUNCTION_ERR = "UNALLOWED_EXTENSION_FUNCTION_ERR";
     public static final String UNALLOWED_EXTENSION_ELEMENT_ERR = "UNALLOWED_EXTENSION_ELEMENT_ERR";
+    public static final String STREAMING_ITERATOR_ERR =
+                                           "STREAMING_ITERATOR_ERR";
+    public static final String STREAMING_NODE_ERR = "STREAMING_NODE_ERR";
+    public static final String STREAMING_VALUE_ERR = "STREAMING_VALUE_ERR";
 
     // All error messages are localized and are stored in resource bundles.
     private static ResourceBundle m_bundle;
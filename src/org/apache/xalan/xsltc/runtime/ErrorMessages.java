@@ -279,6 +279,30 @@ public class ErrorMessages extends ListResourceBundle {
 
         {BasisLibrary.UNALLOWED_EXTENSION_ELEMENT_ERR,
         "Use of the extension element ''{0}'' is not allowed when the secure processing feature is set to true."},
+
+        /*
+         * Note to translators:  The input document is being read while it
+         * is transformed, and the stylesheet attempted to visit the children
+         * of the document element a second time.
+         */
+        {BasisLibrary.STREAMING_ITERATOR_ERR,
+        "The children of the document element can only be visited once when the input document is streamed."},
+
+        /*
+         * Note to translators:  The input document is being read while it
+         * is transformed, and the stylesheet used a node from a part of the
+         * document that had already been discarded.
+         */
+        {BasisLibrary.STREAMING_NODE_ERR,
+        "A node of the streamed input document was used after it had been discarded."},
+
+        /*
+         * Note to translators:  The input document is being read while it
+         * is transformed, so the text of the whole document or of its
+         * document element is not available.
+         */
+        {BasisLibrary.STREAMING_VALUE_ERR,
+        "The string value of the root node or of the document element is not available when the input document is streamed."}
     };
     }
 
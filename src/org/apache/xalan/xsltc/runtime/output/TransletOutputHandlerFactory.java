@@ -24,15 +24,15 @@ package org.apache.xalan.xsltc.runtime.output;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.util.Enumeration;
+import java.util.Properties;
 
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.xalan.xsltc.trax.SAX2DOM;
-import org.apache.xml.serializer.ToHTMLStream;
-import org.apache.xml.serializer.ToTextStream;
+import org.apache.xml.serializer.SerializerPool;
 import org.apache.xml.serializer.ToUnknownStream;
 import org.apache.xml.serializer.ToXMLSAXHandler;
-import org.apache.xml.serializer.ToXMLStream;
 import org.apache.xml.serializer.SerializationHandler;
 import org.w3c.dom.Node;
 
@@ -58,6 +58,7 @@ public class TransletOutputHandlerFactory {
     private int _indentNumber      = -1;
     private ContentHandler _handler    = null;
     private LexicalHandler _lexHandler = null;
+    private Properties _properties     = null;
 
     static public TransletOutputHandlerFactory newInstance() {
 	return new TransletOutputHandlerFactory();
@@ -110,6 +111,18 @@ public class TransletOutputHandlerFactory {
 	_indentNumber = value;
     }
 
+    /**
+     * Set a non-standard output property, such as the serializer's
+     * {http://xml.apache.org/xalan} ones, on the stream serializers that
+     * are created. They are set before the writer or output stream.
+     */
+    public void setOutputProperty(String name, String value) {
+	if (_properties == null) {
+	    _properties = new Properties();
+	}
+	_properties.setProperty(name, value);
+    }
+
     public SerializationHandler getSerializationHandler()
         throws IOException, ParserConfigurationException
     {
@@ -122,23 +135,12 @@ public class TransletOutputHandlerFactory {
                 {
                     result = new ToUnknownStream();
                 }
-                else if (_method.equalsIgnoreCase("xml"))
-                {
-
-                    result = new ToXMLStream();
-
-                }
-                else if (_method.equalsIgnoreCase("html"))
-                {
-
-                    result = new ToHTMLStream();
-
-                }
-                else if (_method.equalsIgnoreCase("text"))
+                else
                 {
-
-                    result = new ToTextStream();
-
+                    // A serializer for xml, html or text, re-used if
+                    // a transformation has released one
+                    result = SerializerPool.getDefaultPool()
+                                 .getSerializationHandler(_method);
                 }
 
                 if (result != null && _indentNumber >= 0)
@@ -148,6 +150,17 @@ public class TransletOutputHandlerFactory {
 
                 result.setEncoding(_encoding);
 
+                if (_properties != null)
+                {
+                    Enumeration names = _properties.propertyNames();
+                    while (names.hasMoreElements())
+                    {
+                        String name = (String) names.nextElement();
+                        result.setOutputProperty(name,
+                                                 _properties.getProperty(name));
+                    }
+                }
+
                 if (_writer != null)
                 {
                     result.setWriter(_writer);
@@ -102,6 +102,9 @@ public class TemplatesHandlerImpl
         else
             xsltc.setTemplateInlining(false);
 
+        if (Boolean.TRUE.equals(tfactory.getAttribute(TransformerFactoryImpl.STREAMING)))
+            xsltc.setStreaming(true);
+
         _parser = xsltc.getParser();
     }
 
@@ -237,6 +240,10 @@ public class TemplatesHandlerImpl
                 stylesheet.setMultiDocument(xsltc.isMultiDocument());
                 stylesheet.setHasIdCall(xsltc.hasIdCall());
 
+                if (xsltc.getStreaming()) {
+                    stylesheet.checkStreamable();
+                }
+
                 // Class synchronization is needed for BCEL
                 synchronized (xsltc.getClass()) {
                     stylesheet.translate();
@@ -21,6 +21,8 @@
 
 package org.apache.xalan.xsltc.trax;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -99,7 +101,7 @@ public final class TemplatesImpl implements Templates, Serializable {
      * This URIResolver is passed to all Transformers.
      * Declaring it transient to fix bug 22438 
      */
-    private transient URIResolver _uriResolver = null;
+    private transient volatile URIResolver _uriResolver = null;
 
     /**
      * Cache the DTM for the stylesheet in a thread local variable,
@@ -116,7 +118,20 @@ public final class TemplatesImpl implements Templates, Serializable {
      */
     private transient TransformerFactoryImpl _tfactory = null;
 
+    /**
+     * A translet instance that is never used for a transformation. The
+     * translets given to Transformers are copied from it, so that the
+     * translet class is instantiated and initialized only once.
+     * Created on first use and discarded if the translet changes.
+     */
+    private transient volatile AbstractTranslet _prototype = null;
+
     static final class TransletClassLoader extends ClassLoader {
+	/**
+	 * Bytecodes of the auxiliary classes not yet defined, by class name.
+	 */
+	private final Hashtable _pending = new Hashtable();
+
 	TransletClassLoader(ClassLoader parent) {
 	    super(parent);
 	}
@@ -127,6 +142,34 @@ public final class TemplatesImpl implements Templates, Serializable {
 	Class defineClass(final byte[] b) {
             return defineClass(null, b, 0, b.length);
 	}
+
+	/**
+	 * Registers a class to be defined the first time it is loaded.
+	 */
+	synchronized void addClass(String name, byte[] b) {
+	    _pending.put(name, b);
+	}
+
+	/**
+	 * Defines a registered class before the parent loader is asked for
+	 * it, so that a class of the same name on the class path cannot
+	 * take the place of one compiled from the stylesheet.
+	 */
+	protected synchronized Class loadClass(String name, boolean resolve)
+	    throws ClassNotFoundException {
+	    Class c = findLoadedClass(name);
+	    if (c == null) {
+		final byte[] b = (byte[])_pending.remove(name);
+		if (b == null) {
+		    return super.loadClass(name, resolve);
+		}
+		c = defineClass(name, b, 0, b.length);
+	    }
+	    if (resolve) {
+		resolveClass(c);
+	    }
+	    return c;
+	}
     }
 
 
@@ -219,6 +262,7 @@ public final class TemplatesImpl implements Templates, Serializable {
      */
     protected synchronized void setTransletBytecodes(byte[][] bytecodes) {
 	_bytecodes = bytecodes;
+	_prototype = null;
     }
 
     /**
@@ -234,10 +278,25 @@ public final class TemplatesImpl implements Templates, Serializable {
     public synchronized Class[] getTransletClasses() {
 	try {
 	    if (_class == null) defineTransletClasses();
+
+	    // Define any auxiliary classes the translet has not used yet
+	    if (_class != null && _bytecodes != null) {
+		final ClassLoader loader =
+		    _class[_transletIndex].getClassLoader();
+		for (int i = 0; i < _class.length; i++) {
+		    if (_class[i] == null) {
+			_class[i] = loader.loadClass(
+			    getClassNames(_bytecodes[i])[0]);
+		    }
+		}
+	    }
 	}
 	catch (TransformerConfigurationException e) {
 	    // Falls through
 	}
+	catch (ClassNotFoundException e) {
+	    // Falls through
+	}
 	return _class;
     }
 
@@ -259,6 +318,7 @@ public final class TemplatesImpl implements Templates, Serializable {
      */
     protected synchronized void setTransletName(String name) {
 	_name = name;
+	_prototype = null;
     }
 
     /**
@@ -291,11 +351,23 @@ public final class TemplatesImpl implements Templates, Serializable {
 	    final int classCount = _bytecodes.length;
 	    _class = new Class[classCount];
 
-	    if (classCount > 1) {
-	        _auxClasses = new Hashtable();
+	    // Only the main class is defined here. The auxiliary classes,
+	    // which implement predicates, sorts, xsl:number and the like,
+	    // are registered with the class loader and defined the first
+	    // time the translet uses them, so that a large stylesheet does
+	    // not pay for classes a document never needs.
+	    final String[][] names = new String[classCount][];
+	    for (int i = 0; i < classCount; i++) {
+		names[i] = getClassNames(_bytecodes[i]);
+		if (names[i] != null && !ABSTRACT_TRANSLET.equals(names[i][1])) {
+		    loader.addClass(names[i][0], _bytecodes[i]);
+		}
 	    }
 
 	    for (int i = 0; i < classCount; i++) {
+		if (names[i] != null && !ABSTRACT_TRANSLET.equals(names[i][1])) {
+		    continue;
+		}
 		_class[i] = loader.defineClass(_bytecodes[i]);
 		final Class superClass = _class[i].getSuperclass();
 
@@ -304,6 +376,7 @@ public final class TemplatesImpl implements Templates, Serializable {
 		    _transletIndex = i;
 		}
 		else {
+		    if (_auxClasses == null) _auxClasses = new Hashtable();
 		    _auxClasses.put(_class[i].getName(), _class[i]);
 		}
 	    }
@@ -323,14 +396,107 @@ public final class TemplatesImpl implements Templates, Serializable {
 	}
     }
 
+    /**
+     * Reads the names of a class and its superclass from its bytecodes,
+     * without defining it. Returns null if the bytecodes cannot be read.
+     */
+    private static String[] getClassNames(byte[] bytecodes) {
+	try {
+	    final DataInputStream in =
+		new DataInputStream(new ByteArrayInputStream(bytecodes));
+	    if (in.readInt() != 0xCAFEBABE) return null;
+	    in.readUnsignedShort();		// minor version
+	    in.readUnsignedShort();		// major version
+
+	    final int count = in.readUnsignedShort();
+	    final String[] utf8 = new String[count];
+	    final int[] classes = new int[count];
+	    for (int i = 1; i < count; i++) {
+		final int tag = in.readUnsignedByte();
+		switch (tag) {
+		case 1:			// Utf8
+		    utf8[i] = in.readUTF();
+		    break;
+		case 7:			// Class
+		    classes[i] = in.readUnsignedShort();
+		    break;
+		case 8:			// String
+		case 16:		// MethodType
+		case 19:		// Module
+		case 20:		// Package
+		    in.skipBytes(2);
+		    break;
+		case 15:		// MethodHandle
+		    in.skipBytes(3);
+		    break;
+		case 3:			// Integer
+		case 4:			// Float
+		case 9:			// Fieldref
+		case 10:		// Methodref
+		case 11:		// InterfaceMethodref
+		case 12:		// NameAndType
+		case 17:		// Dynamic
+		case 18:		// InvokeDynamic
+		    in.skipBytes(4);
+		    break;
+		case 5:			// Long
+		case 6:			// Double
+		    in.skipBytes(8);
+		    i++;		// takes two entries
+		    break;
+		default:
+		    return null;
+		}
+	    }
+
+	    in.readUnsignedShort();		// access flags
+	    final String thisClass = utf8[classes[in.readUnsignedShort()]];
+	    final String superClass = utf8[classes[in.readUnsignedShort()]];
+	    if (thisClass == null || superClass == null) return null;
+	    return new String[] { thisClass.replace('/', '.'),
+				  superClass.replace('/', '.') };
+	}
+	catch (IOException e) {
+	    return null;
+	}
+	catch (RuntimeException e) {
+	    return null;
+	}
+    }
+
     /**
      * This method generates an instance of the translet class that is
      * wrapped inside this Template. The translet instance will later
-     * be wrapped inside a Transformer object.
+     * be wrapped inside a Transformer object. Instances are copied from
+     * a prototype, so the only lock taken is the one needed to create
+     * the prototype the first time.
      */
     private Translet getTransletInstance()
+	throws TransformerConfigurationException {
+	AbstractTranslet prototype = _prototype;
+	if (prototype == null) {
+	    prototype = getTransletPrototype();
+	    if (prototype == null) return null;
+	}
+
+	try {
+	    return prototype.cloneTranslet();
+	}
+	catch (CloneNotSupportedException e) {
+	    ErrorMsg err = new ErrorMsg(ErrorMsg.TRANSLET_OBJECT_ERR, _name);
+	    throw new TransformerConfigurationException(err.toString());
+	}
+    }
+
+    /**
+     * Instantiates the translet class to create the prototype from which
+     * getTransletInstance() copies translets.
+     */
+    private synchronized AbstractTranslet getTransletPrototype()
 	throws TransformerConfigurationException {
 	try {
+	    if (_prototype != null) return _prototype;
+
 	    if (_name == null) return null;
 
 	    if (_class == null) defineTransletClasses();
@@ -344,6 +510,7 @@ public final class TemplatesImpl implements Templates, Serializable {
 	        translet.setAuxiliaryClasses(_auxClasses);
 	    }
 	    
+	    _prototype = translet;
 	    return translet;
 	}
 	catch (InstantiationException e) {
@@ -361,7 +528,7 @@ public final class TemplatesImpl implements Templates, Serializable {
      *
      * @throws TransformerConfigurationException
      */
-    public synchronized Transformer newTransformer()
+    public Transformer newTransformer()
 	throws TransformerConfigurationException 
     {
 	TransformerImpl transformer;
@@ -385,7 +552,7 @@ public final class TemplatesImpl implements Templates, Serializable {
      * we might as well just instanciate a Transformer and use its
      * implementation of this method.
      */
-    public synchronized Properties getOutputProperties() { 
+    public Properties getOutputProperties() { 
 	try {
 	    return newTransformer().getOutputProperties();
 	}
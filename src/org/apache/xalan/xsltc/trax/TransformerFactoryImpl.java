@@ -89,6 +89,10 @@ public class TransformerFactoryImpl
     public final static String DEBUG = "debug";
     public final static String ENABLE_INLINING = "enable-inlining";
     public final static String INDENT_NUMBER = "indent-number";
+    public final static String TRANSLET_CACHE = "translet-cache";
+    public final static String TRANSLET_CACHE_SIZE = "translet-cache-size";
+    public final static String STREAMING = "streaming";
+    public final static String PARALLEL_BUILD = "parallel-build";
         
     /**
      * This error listener is used only for this factory and is not passed to
@@ -163,6 +167,12 @@ public class TransformerFactoryImpl
      * Set to <code>true</code> when templates are inlined.
      */
     private boolean _enableInlining = false;
+
+    /**
+     * Set to <code>true</code> when translets are compiled for streaming
+     * mode.
+     */
+    private boolean _streaming = false;
     
     /**
      * Set to <code>true</code> when we want to generate 
@@ -184,11 +194,29 @@ public class TransformerFactoryImpl
      */
     private boolean _useClasspath = false;
 
+    /**
+     * The directory in which compiled translets are cached, keyed by the
+     * contents of their stylesheets, or null if they are not cached.
+     * @see TransletCache
+     */
+    private String _transletCacheDirectory = null;
+
+    /**
+     * The maximum size in bytes of the translet cache directory.
+     */
+    private long _transletCacheSize = TransletCache.DEFAULT_MAX_BYTES;
+
     /**
      * Number of indent spaces when indentation is turned on.
      */
     private int _indentNumber = -1;
 
+    /**
+     * The number of threads that build the internal DOM of a large input
+     * file, or 0 if it is built by the transforming thread alone.
+     */
+    private int _parallelBuild = 0;
+
     /**
      * The provider of the XSLTC DTM Manager service.  This is fixed for any
      * instance of this class.  In order to change service providers, a new
@@ -266,6 +294,18 @@ public class TransformerFactoryImpl
 	    else
 	      return Boolean.FALSE;
 	}
+	else if (name.equals(STREAMING)) {
+	    return _streaming ? Boolean.TRUE : Boolean.FALSE;
+	}
+	else if (name.equals(TRANSLET_CACHE)) {
+	    return _transletCacheDirectory;
+	}
+	else if (name.equals(TRANSLET_CACHE_SIZE)) {
+	    return new Long(_transletCacheSize);
+	}
+	else if (name.equals(PARALLEL_BUILD)) {
+	    return new Integer(_parallelBuild);
+	}
 
 	// Throw an exception for all other attributes
 	ErrorMsg err = new ErrorMsg(ErrorMsg.JAXP_INVALID_ATTR_ERR, name);
@@ -351,6 +391,45 @@ public class TransformerFactoryImpl
 		return;
 	    }
 	}
+	else if (name.equals(STREAMING)) {
+	    if (value instanceof Boolean) {
+		_streaming = ((Boolean) value).booleanValue();
+		return;
+	    }
+	    else if (value instanceof String) {
+		_streaming = ((String) value).equalsIgnoreCase("true");
+		return;
+	    }
+	}
+	else if (name.equals(TRANSLET_CACHE)) {
+	    if (value == null) {
+		_transletCacheDirectory = null;
+		return;
+	    }
+	    else if (value instanceof String) {
+		_transletCacheDirectory = (String) value;
+		return;
+	    }
+	    else if (value instanceof File) {
+		_transletCacheDirectory = ((File) value).getPath();
+		return;
+	    }
+	}
+	else if (name.equals(TRANSLET_CACHE_SIZE)) {
+	    if (value instanceof String) {
+		try {
+		    _transletCacheSize = Long.parseLong((String) value);
+		    return;
+		}
+		catch (NumberFormatException e) {
+		    // Falls through
+		}
+	    }
+	    else if (value instanceof Number) {
+		_transletCacheSize = ((Number) value).longValue();
+		return;
+	    }
+	}
 	else if (name.equals(INDENT_NUMBER)) {
 	    if (value instanceof String) {
 		try {
@@ -366,6 +445,30 @@ public class TransformerFactoryImpl
 		return;
 	    }
 	}
+	else if (name.equals(PARALLEL_BUILD)) {
+	    // "true" uses a thread for each processor
+	    if (Boolean.TRUE.equals(value) || "true".equalsIgnoreCase(String.valueOf(value))) {
+		_parallelBuild = Runtime.getRuntime().availableProcessors();
+		return;
+	    }
+	    else if (Boolean.FALSE.equals(value) || "false".equalsIgnoreCase(String.valueOf(value))) {
+		_parallelBuild = 0;
+		return;
+	    }
+	    else if (value instanceof String) {
+		try {
+		    _parallelBuild = Math.max(0, Integer.parseInt((String) value));
+		    return;
+		}
+		catch (NumberFormatException e) {
+		    // Falls through
+		}
+	    }
+	    else if (value instanceof Integer) {
+		_parallelBuild = Math.max(0, ((Integer) value).intValue());
+		return;
+	    }
+	}
 
 	// Throw an exception for all other attributes
 	final ErrorMsg err 
@@ -738,6 +841,34 @@ public class TransformerFactoryImpl
 	    }
 	}
 	
+	// If a translet cache is set, look for a translet compiled from
+	// the same stylesheet, with the same includes and imports.
+	TransletCache cache = null;
+	TransletCache.Resource stylesheet = null;
+	String cacheKey = null;
+	if (_transletCacheDirectory != null
+	    && !_generateTranslet && !_autoTranslet) {
+	    try {
+		stylesheet = TransletCache.read(source);
+	    }
+	    catch (IOException e) {
+		// Let the compiler report it
+	    }
+	    if (stylesheet != null) {
+		cache = new TransletCache(new File(_transletCacheDirectory),
+					  _transletCacheSize);
+		cacheKey = TransletCache.getKey(stylesheet,
+						getCompilerOptions(source));
+		final TransletCache.Entry entry =
+		    cache.load(cacheKey, _uriResolver);
+		if (entry != null) {
+		    resetTransientAttributes();
+		    return new TemplatesImpl(entry.bytecodes, entry.className,
+			entry.outputProperties, _indentNumber, this);
+		}
+	    }
+	}
+
 	// Create and initialize a stylesheet compiler
 	final XSLTC xsltc = new XSLTC();
 	if (_debug) xsltc.setDebug(true);
@@ -745,11 +876,18 @@ public class TransformerFactoryImpl
 		xsltc.setTemplateInlining(true);
 	else
 		xsltc.setTemplateInlining(false);
+	if (_streaming) xsltc.setStreaming(true);
 	if (_isSecureProcessing) xsltc.setSecureProcessing(true);
 	xsltc.init();
 
-	// Set a document loader (for xsl:include/import) if defined
-	if (_uriResolver != null) {
+	// Set a document loader (for xsl:include/import) if defined. When
+	// caching, the loader also records the stylesheets loaded.
+	TransletCache.Dependencies dependencies = null;
+	if (cache != null) {
+	    dependencies = new TransletCache.Dependencies(_uriResolver);
+	    xsltc.setSourceLoader(dependencies);
+	}
+	else if (_uriResolver != null) {
 	    xsltc.setSourceLoader(this);
 	}
 
@@ -795,10 +933,16 @@ public class TransformerFactoryImpl
 	}
 
 	// Compile the stylesheet
-	final InputSource input = Util.getInputSource(xsltc, source);
+	final InputSource input = (stylesheet != null)
+	    ? stylesheet.getInputSource() : Util.getInputSource(xsltc, source);
 	byte[][] bytecodes = xsltc.compile(null, input, outputType);
 	final String transletName = xsltc.getClassName();
 
+	if (cache != null && bytecodes != null) {
+	    cache.store(cacheKey, transletName, bytecodes,
+			xsltc.getOutputProperties(), dependencies);
+	}
+
 	// Output to the jar file if the jar file name is set.
 	if ((_generateTranslet || _autoTranslet)
 	   	&& bytecodes != null && _jarFileName != null) {
@@ -854,6 +998,148 @@ public class TransformerFactoryImpl
 	    xsltc.getOutputProperties(), _indentNumber, this);
     }
 
+    /**
+     * Compiles several stylesheets, using a number of threads, into
+     * Templates objects returned in the same order as the sources.
+     * Each thread compiles with its own XSLTC compiler and a copy of
+     * this factory's settings; an ErrorListener set on this factory is
+     * called by one thread at a time. The transient attributes
+     * translet-name and jar-name are not used, since every stylesheet
+     * would get the same class or jar file.
+     *
+     * @param sources The stylesheets to compile
+     * @param threads The number of threads to compile on; values below
+     * 1 are taken as 1
+     * @return A Templates object for each of the sources
+     * @throws TransformerConfigurationException The first error, in the
+     * order of the sources, if any stylesheet cannot be compiled
+     */
+    public Templates[] newTemplates(final Source[] sources, int threads)
+	throws TransformerConfigurationException 
+    {
+	final Templates[] templates = new Templates[sources.length];
+	final Exception[] errors = new Exception[sources.length];
+	final int[] next = new int[1];
+
+	// The listener, if any, is shared and need not be thread safe
+	final ErrorListener listener = (_errorListener == this) ? null
+	    : new SynchronizedErrorListener(_errorListener);
+
+	threads = Math.max(1, Math.min(threads, sources.length));
+	final Thread[] workers = new Thread[threads];
+	for (int t = 0; t < threads; t++) {
+	    final TransformerFactoryImpl factory = copyForBatch(listener);
+	    workers[t] = new Thread() {
+		public void run() {
+		    while (true) {
+			final int i;
+			synchronized (next) {
+			    if (next[0] == sources.length) return;
+			    i = next[0]++;
+			}
+			try {
+			    templates[i] = factory.newTemplates(sources[i]);
+			}
+			catch (Exception e) {
+			    errors[i] = e;
+			}
+			catch (LinkageError e) {
+			    errors[i] = new TransformerConfigurationException(
+				e.toString());
+			}
+		    }
+		}
+	    };
+	    workers[t].start();
+	}
+
+	boolean interrupted = false;
+	for (int t = 0; t < threads; t++) {
+	    while (workers[t].isAlive()) {
+		try {
+		    workers[t].join();
+		}
+		catch (InterruptedException e) {
+		    interrupted = true;
+		}
+	    }
+	}
+	if (interrupted) {
+	    Thread.currentThread().interrupt();
+	}
+
+	// Reset the per-session attributes to their default values
+	// after each newTemplates() call.
+	resetTransientAttributes();
+
+	for (int i = 0; i < sources.length; i++) {
+	    if (errors[i] instanceof TransformerConfigurationException) {
+		throw (TransformerConfigurationException)errors[i];
+	    }
+	    else if (errors[i] != null) {
+		throw new TransformerConfigurationException(errors[i]);
+	    }
+	}
+	return templates;
+    }
+
+    /**
+     * Returns a factory with the same settings as this one, used by one
+     * of the threads of a batch compilation.
+     */
+    private TransformerFactoryImpl copyForBatch(ErrorListener listener) {
+	final TransformerFactoryImpl factory = new TransformerFactoryImpl();
+	if (listener != null) {
+	    factory._errorListener = listener;
+	}
+	factory._uriResolver = _uriResolver;
+	factory._destinationDirectory = _destinationDirectory;
+	factory._packageName = _packageName;
+	factory._piParams = _piParams;
+	factory._debug = _debug;
+	factory._enableInlining = _enableInlining;
+	factory._streaming = _streaming;
+	factory._generateTranslet = _generateTranslet;
+	factory._autoTranslet = _autoTranslet;
+	factory._useClasspath = _useClasspath;
+	factory._transletCacheDirectory = _transletCacheDirectory;
+	factory._transletCacheSize = _transletCacheSize;
+	factory._indentNumber = _indentNumber;
+	factory._parallelBuild = _parallelBuild;
+	factory.m_DTMManagerClass = m_DTMManagerClass;
+	factory._isSecureProcessing = _isSecureProcessing;
+	return factory;
+    }
+
+    /**
+     * Serializes the calls that the threads of a batch compilation make
+     * to a user's ErrorListener.
+     */
+    private static final class SynchronizedErrorListener
+	implements ErrorListener
+    {
+	private final ErrorListener _listener;
+
+	SynchronizedErrorListener(ErrorListener listener) {
+	    _listener = listener;
+	}
+
+	public synchronized void warning(TransformerException e)
+	    throws TransformerException {
+	    _listener.warning(e);
+	}
+
+	public synchronized void error(TransformerException e)
+	    throws TransformerException {
+	    _listener.error(e);
+	}
+
+	public synchronized void fatalError(TransformerException e)
+	    throws TransformerException {
+	    _listener.fatalError(e);
+	}
+    }
+
     /**
      * javax.xml.transform.sax.SAXTransformerFactory implementation.
      * Get a TemplatesHandler object that can process SAX ContentHandler
@@ -1080,6 +1366,31 @@ public class TransformerFactoryImpl
 	return null;
     }
 
+    /**
+     * Returns the settings, other than the stylesheet itself, that
+     * affect the translet compiled from a Source.
+     */
+    private String[] getCompilerOptions(Source source) {
+	String media = null, title = null, charset = null;
+	if (_piParams != null) {
+	    final PIParamWrapper p = (PIParamWrapper)_piParams.get(source);
+	    if (p != null) {
+		media = p._media;
+		title = p._title;
+		charset = p._charset;
+	    }
+	}
+	return new String[] {
+	    "debug=" + _debug,
+	    "inlining=" + _enableInlining,
+	    "streaming=" + _streaming,
+	    "secure=" + _isSecureProcessing,
+	    "media=" + media,
+	    "title=" + title,
+	    "charset=" + charset
+	};
+    }
+
     /**
      * Reset the per-session attributes to their default values
      */
@@ -1410,4 +1721,12 @@ public class TransformerFactoryImpl
     protected Class getDTMManagerClass() {
         return m_DTMManagerClass;
     }
+
+    /**
+     * Returns the number of threads that build the internal DOM of a large
+     * input file, or 0 if the transforming thread builds it alone.
+     */
+    int getParallelBuild() {
+        return _parallelBuild;
+    }
 }
@@ -61,6 +61,7 @@ import org.apache.xalan.xsltc.TransletException;
 import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
 import org.apache.xalan.xsltc.dom.DOMWSFilter;
 import org.apache.xalan.xsltc.dom.SAXImpl;
+import org.apache.xalan.xsltc.dom.StreamingDOM;
 import org.apache.xalan.xsltc.dom.XSLTCDTMManager;
 import org.apache.xalan.xsltc.runtime.AbstractTranslet;
 import org.apache.xalan.xsltc.runtime.Hashtable;
@@ -68,6 +69,7 @@ import org.apache.xalan.xsltc.runtime.output.TransletOutputHandlerFactory;
 import org.apache.xml.dtm.DTMWSFilter;
 import org.apache.xml.serializer.OutputPropertiesFactory;
 import org.apache.xml.serializer.SerializationHandler;
+import org.apache.xml.serializer.SerializerPool;
 import org.apache.xml.utils.SystemIDResolver;
 import org.apache.xml.utils.XMLReaderManager;
 import org.xml.sax.ContentHandler;
@@ -93,7 +95,17 @@ public final class TransformerImpl extends Transformer
 	"http://xml.org/sax/properties/lexical-handler";
     private static final String NAMESPACE_FEATURE =
 	"http://xml.org/sax/features/namespaces";
-    
+
+    /**
+     * The serializer's own output properties that are passed on to the
+     * serializer of a StreamResult.
+     */
+    private static final String[] STREAM_OUTPUT_PROPERTIES = {
+	OutputPropertiesFactory.S_KEY_ASYNC_OUTPUT,
+	OutputPropertiesFactory.S_KEY_COMPRESSION,
+	OutputPropertiesFactory.S_KEY_COMPRESSION_LEVEL
+    };
+
     /**
      * A reference to the translet or null if the identity transform.
      */
@@ -296,7 +308,15 @@ public final class TransformerImpl extends Transformer
 	    transferOutputProperties(toHandler);
 	}
 
-	transform(source, toHandler, _encoding);
+	try {
+	    transform(source, toHandler, _encoding);
+	}
+	finally {
+	    // Give a stream serializer back for the next transformation
+	    if (result instanceof StreamResult) {
+		SerializerPool.getDefaultPool().release(toHandler);
+	    }
+	}
 
 	if (result instanceof DOMResult) {
 	    ((DOMResult)result).setNode(_tohFactory.getNode());
@@ -328,6 +348,17 @@ public final class TransformerImpl extends Transformer
 	    _tohFactory.setIndentNumber(_indentNumber);
 	}
 
+	// Pass on the serializer's own properties for a stream result:
+	// writing on a separate thread and compression
+	for (int i = 0; i < STREAM_OUTPUT_PROPERTIES.length; i++) {
+	    final String value = (String)
+		_properties.get(STREAM_OUTPUT_PROPERTIES[i]);
+	    if (value != null) {
+		_tohFactory.setOutputProperty(STREAM_OUTPUT_PROPERTIES[i],
+					      value);
+	    }
+	}
+
 	// Return the content handler for this Result object
 	try {
 	    // Result object could be SAXResult, DOMResult, or StreamResult 
@@ -456,9 +487,18 @@ public final class TransformerImpl extends Transformer
                      _dtmManager =
                          (XSLTCDTMManager)_tfactory.getDTMManagerClass()
                                                    .newInstance();
+                     _dtmManager.setParallelBuild(_tfactory.getParallelBuild());
+                 }
+                 if (!_isIdentity && _translet.isStreamable()
+                     && StreamingDOM.canStream(source)) {
+                     // Read the input while the translet runs
+                     dom = new StreamingDOM(_dtmManager, source, wsfilter,
+                                            _translet);
+                 } else {
+                     dom = (DOM)_dtmManager.getDTM(source, false, wsfilter,
+                                                  true, false, false, 0,
+                                                  hasIdCall);
                  }
-                 dom = (DOM)_dtmManager.getDTM(source, false, wsfilter, true,
-                                              false, false, 0, hasIdCall);
             } else if (_dom != null) {
                  dom = _dom;
                  _dom = null;  // use only once, so reset to 'null'
@@ -638,6 +678,16 @@ public final class TransformerImpl extends Transformer
 	    throw new TransformerException(e);
 	} finally {
             _dtmManager = null;
+
+            // If the transformation failed, the serializer may still hold
+            // output that it has not written to the stream.
+            final Writer writer = handler.getWriter();
+            if (writer != null) {
+                try {
+                    writer.flush();
+                }
+                catch (IOException e) {}
+            }
         }
 
 	// If we create an output stream for the Result, we need to close it after the transformation.
@@ -870,6 +920,16 @@ public final class TransformerImpl extends Transformer
 		translet._indent = 
 		    (value != null && value.toLowerCase().equals("yes"));
 	    }
+	    else if (name.equals(OutputPropertiesFactory.S_KEY_COMPRESSION)) {
+		translet._compression = value;
+	    }
+	    else if (name.equals(
+			OutputPropertiesFactory.S_KEY_COMPRESSION_LEVEL)) {
+		translet._compressionLevel = value;
+	    }
+	    else if (name.equals(OutputPropertiesFactory.S_KEY_ASYNC_OUTPUT)) {
+		translet._asyncOutput = value;
+	    }
 	    else if (name.equals(OutputKeys.CDATA_SECTION_ELEMENTS)) {
 		if (value != null) {
 		    translet._cdata = null; // clear previous setting
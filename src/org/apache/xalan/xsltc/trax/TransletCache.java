@@ -0,0 +1,520 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+package org.apache.xalan.xsltc.trax;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.Vector;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.xalan.xsltc.compiler.SourceLoader;
+import org.apache.xalan.xsltc.compiler.XSLTC;
+import org.apache.xml.utils.SystemIDResolver;
+
+import org.xml.sax.InputSource;
+
+/**
+ * A directory of compiled translets, shared by all the JVMs that use it.
+ *
+ * Each entry is a single file named after a SHA-1 key computed from the
+ * contents of the stylesheet, its system id, the compiler options and
+ * the Xalan version. The entry records every stylesheet included or
+ * imported while compiling, with the digest of its contents, and is
+ * only used if all of them still have the same contents. Entries are
+ * written to a temporary file and renamed into place, so readers never
+ * see a partly written entry, and the least recently used entries are
+ * deleted when the directory grows beyond its size limit.
+ *
+ * I/O errors never fail a transformation; the stylesheet is simply
+ * compiled as if there were no cache.
+ */
+final class TransletCache {
+
+    /**
+     * Default limit on the size of the cache directory: 64 MB.
+     */
+    static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Changed whenever the format of the entry files changes.
+     */
+    private static final String MAGIC = "XSLTC translet cache 1";
+
+    private static final String SUFFIX = ".translet";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File _directory;
+
+    private final long _maxBytes;
+
+    /**
+     * A stylesheet read into memory, with the digest of its contents.
+     */
+    static final class Resource {
+	final String systemId;
+	final byte[] bytes;
+	final char[] chars;
+	final String digest;
+
+	Resource(String systemId, byte[] bytes, char[] chars) {
+	    this.systemId = systemId;
+	    this.bytes = bytes;
+	    this.chars = chars;
+	    this.digest = (bytes != null) ? digest(bytes) : digest(chars);
+	}
+
+	/**
+	 * Returns an InputSource that parses the contents read.
+	 */
+	InputSource getInputSource() {
+	    final InputSource input = (bytes != null)
+		? new InputSource(new ByteArrayInputStream(bytes))
+		: new InputSource(new StringReader(new String(chars)));
+	    input.setSystemId(systemId);
+	    return input;
+	}
+    }
+
+    /**
+     * A translet read from the cache.
+     */
+    static final class Entry {
+	final String className;
+	final byte[][] bytecodes;
+	final Properties outputProperties;
+
+	Entry(String className, byte[][] bytecodes, Properties outputProperties) {
+	    this.className = className;
+	    this.bytecodes = bytecodes;
+	    this.outputProperties = outputProperties;
+	}
+    }
+
+    /**
+     * A SourceLoader that records the stylesheets included or imported
+     * while compiling, and their digests, so that they can be checked
+     * when the translet is next taken from the cache.
+     */
+    static final class Dependencies implements SourceLoader {
+	private final URIResolver _resolver;
+	private final Vector _hrefs = new Vector();
+	private final Vector _contexts = new Vector();
+	private final Vector _digests = new Vector();
+	private boolean _cacheable = true;
+
+	Dependencies(URIResolver resolver) {
+	    _resolver = resolver;
+	}
+
+	public InputSource loadSource(String href, String context, XSLTC xsltc) {
+	    try {
+		final Source source = resolve(href, context);
+		final Resource resource = read(source);
+		if (resource == null) {
+		    // A DOM or some other Source we cannot check later
+		    _cacheable = false;
+		    return Util.getInputSource(xsltc, source);
+		}
+		_hrefs.addElement(href);
+		_contexts.addElement(context == null ? "" : context);
+		_digests.addElement(resource.digest);
+		return resource.getInputSource();
+	    }
+	    catch (TransformerException e) {
+		// Falls through
+	    }
+	    catch (IOException e) {
+		// Falls through
+	    }
+	    // Let the compiler load it, and report the error if it fails
+	    _cacheable = false;
+	    return null;
+	}
+
+	/**
+	 * Returns true if a stylesheet recorded by an earlier compilation
+	 * still has the same contents.
+	 */
+	boolean isUnchanged(String href, String context, String digest) {
+	    try {
+		final Resource resource = read(resolve(href, context));
+		return resource != null && digest.equals(resource.digest);
+	    }
+	    catch (TransformerException e) {
+		return false;
+	    }
+	    catch (IOException e) {
+		return false;
+	    }
+	}
+
+	/**
+	 * Resolves an href the way the compiler would: through the
+	 * URIResolver if there is one, and relative to the including
+	 * stylesheet otherwise.
+	 */
+	private Source resolve(String href, String context)
+	    throws TransformerException {
+	    Source source = null;
+	    if (_resolver != null) {
+		source = _resolver.resolve(href, context);
+	    }
+	    if (source == null) {
+		source = new StreamSource(
+		    SystemIDResolver.getAbsoluteURI(href, context));
+	    }
+	    return source;
+	}
+
+	boolean isCacheable() {
+	    return _cacheable;
+	}
+    }
+
+    TransletCache(File directory, long maxBytes) {
+	_directory = directory;
+	_maxBytes = maxBytes;
+    }
+
+    File getDirectory() {
+	return _directory;
+    }
+
+    long getMaxBytes() {
+	return _maxBytes;
+    }
+
+    /**
+     * Returns the key of a stylesheet: the digest of its contents and of
+     * everything else that affects the translet compiled from it.
+     */
+    static String getKey(Resource stylesheet, String[] options) {
+	final StringBuffer buffer = new StringBuffer();
+	buffer.append(MAGIC).append('\n');
+	buffer.append(org.apache.xalan.Version.getVersion()).append('\n');
+	buffer.append(stylesheet.systemId).append('\n');
+	buffer.append(stylesheet.digest).append('\n');
+	for (int i = 0; i < options.length; i++) {
+	    buffer.append(options[i]).append('\n');
+	}
+	return digest(buffer.toString().toCharArray());
+    }
+
+    /**
+     * Reads a stylesheet into memory. Returns null for a Source that is
+     * not a stream, such as a DOMSource, since such stylesheets cannot be
+     * checked for changes.
+     */
+    static Resource read(Source source) throws IOException {
+	InputStream stream = null;
+	Reader reader = null;
+	String systemId = source.getSystemId();
+
+	if (source instanceof StreamSource) {
+	    stream = ((StreamSource)source).getInputStream();
+	    reader = ((StreamSource)source).getReader();
+	}
+	else if (source instanceof SAXSource
+		 && ((SAXSource)source).getXMLReader() == null) {
+	    final InputSource input = ((SAXSource)source).getInputSource();
+	    if (input == null) return null;
+	    stream = input.getByteStream();
+	    reader = input.getCharacterStream();
+	    if (input.getSystemId() != null) systemId = input.getSystemId();
+	}
+	else {
+	    return null;
+	}
+
+	if (stream != null) {
+	    return new Resource(systemId, readBytes(stream), null);
+	}
+	else if (reader != null) {
+	    final CharArrayWriter chars = new CharArrayWriter();
+	    final char[] buffer = new char[4096];
+	    int n;
+	    while ((n = reader.read(buffer)) > 0) {
+		chars.write(buffer, 0, n);
+	    }
+	    return new Resource(systemId, null, chars.toCharArray());
+	}
+	else if (systemId != null) {
+	    final InputStream input =
+		new URL(SystemIDResolver.getAbsoluteURI(systemId)).openStream();
+	    try {
+		return new Resource(systemId, readBytes(input), null);
+	    }
+	    finally {
+		input.close();
+	    }
+	}
+	return null;
+    }
+
+    /**
+     * Returns the translet stored under a key, or null if there is none
+     * or any of the stylesheets it was compiled from has changed.
+     */
+    Entry load(String key, URIResolver resolver) {
+	final File file = new File(_directory, key + SUFFIX);
+	if (!file.isFile()) return null;
+
+	try {
+	    final DataInputStream in = new DataInputStream(
+		new BufferedInputStream(new FileInputStream(file)));
+	    final Entry entry;
+	    try {
+		if (!MAGIC.equals(in.readUTF())) return null;
+		final String className = in.readUTF();
+
+		// Check that the included and imported stylesheets have not
+		// changed since the translet was compiled.
+		final Dependencies loader = new Dependencies(resolver);
+		final int dependencies = in.readInt();
+		for (int i = 0; i < dependencies; i++) {
+		    final String href = in.readUTF();
+		    final String context = in.readUTF();
+		    final String digest = in.readUTF();
+		    if (!loader.isUnchanged(href,
+			    context.length() == 0 ? null : context, digest)) {
+			return null;
+		    }
+		}
+
+		Properties outputProperties = null;
+		final int length = in.readInt();
+		if (length >= 0) {
+		    final byte[] properties = new byte[length];
+		    in.readFully(properties);
+		    outputProperties = new Properties();
+		    outputProperties.load(new ByteArrayInputStream(properties));
+		}
+
+		final byte[][] bytecodes = new byte[in.readInt()][];
+		for (int i = 0; i < bytecodes.length; i++) {
+		    bytecodes[i] = new byte[in.readInt()];
+		    in.readFully(bytecodes[i]);
+		}
+		entry = new Entry(className, bytecodes, outputProperties);
+	    }
+	    finally {
+		in.close();
+	    }
+
+	    // Entries are evicted least recently used first
+	    file.setLastModified(System.currentTimeMillis());
+	    return entry;
+	}
+	catch (IOException e) {
+	    // Treat an unreadable entry as missing; it will be replaced
+	    return null;
+	}
+	catch (RuntimeException e) {
+	    return null;
+	}
+    }
+
+    /**
+     * Stores a translet under a key, then evicts old entries if the
+     * cache has grown beyond its limit.
+     */
+    void store(String key, String className, byte[][] bytecodes,
+	       Properties outputProperties, Dependencies dependencies) {
+	if (!dependencies.isCacheable()) return;
+
+	File temp = null;
+	try {
+	    if (!_directory.isDirectory() && !_directory.mkdirs()
+		&& !_directory.isDirectory()) {
+		return;
+	    }
+
+	    // Write to a private file first and rename it into place, so
+	    // that other processes only ever see complete entries.
+	    temp = File.createTempFile(key, ".tmp", _directory);
+	    final DataOutputStream out = new DataOutputStream(
+		new BufferedOutputStream(new FileOutputStream(temp)));
+	    try {
+		out.writeUTF(MAGIC);
+		out.writeUTF(className);
+
+		final int count = dependencies._hrefs.size();
+		out.writeInt(count);
+		for (int i = 0; i < count; i++) {
+		    out.writeUTF((String)dependencies._hrefs.elementAt(i));
+		    out.writeUTF((String)dependencies._contexts.elementAt(i));
+		    out.writeUTF((String)dependencies._digests.elementAt(i));
+		}
+
+		if (outputProperties != null) {
+		    final ByteArrayOutputStream properties =
+			new ByteArrayOutputStream();
+		    outputProperties.store(properties, null);
+		    out.writeInt(properties.size());
+		    properties.writeTo(out);
+		}
+		else {
+		    out.writeInt(-1);
+		}
+
+		out.writeInt(bytecodes.length);
+		for (int i = 0; i < bytecodes.length; i++) {
+		    out.writeInt(bytecodes[i].length);
+		    out.write(bytecodes[i]);
+		}
+	    }
+	    finally {
+		out.close();
+	    }
+
+	    final File file = new File(_directory, key + SUFFIX);
+	    if (!temp.renameTo(file)) {
+		// Some platforms will not rename over an existing file.
+		// Another process has stored the same translet; keep it.
+		temp.delete();
+	    }
+	    temp = null;
+	    evict();
+	}
+	catch (IOException e) {
+	    // The translet is still used; it is just not cached
+	}
+	catch (SecurityException e) {
+	    // Ditto
+	}
+	finally {
+	    if (temp != null) temp.delete();
+	}
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache is within
+     * its size limit. Several processes may evict at once; an entry that
+     * one of them has already deleted is simply skipped.
+     */
+    private void evict() {
+	if (_maxBytes <= 0) return;
+
+	final File[] files = _directory.listFiles(new FilenameFilter() {
+	    public boolean accept(File dir, String name) {
+		return name.endsWith(SUFFIX);
+	    }
+	});
+	if (files == null) return;
+
+	final long[] lastModified = new long[files.length];
+	long total = 0;
+	for (int i = 0; i < files.length; i++) {
+	    lastModified[i] = files[i].lastModified();
+	    total += files[i].length();
+	}
+	if (total <= _maxBytes) return;
+
+	// Sort oldest first; a simple insertion sort as the directory
+	// holds at most a few hundred entries.
+	for (int i = 1; i < files.length; i++) {
+	    final File file = files[i];
+	    final long time = lastModified[i];
+	    int j = i - 1;
+	    while (j >= 0 && lastModified[j] > time) {
+		files[j + 1] = files[j];
+		lastModified[j + 1] = lastModified[j];
+		j--;
+	    }
+	    files[j + 1] = file;
+	    lastModified[j + 1] = time;
+	}
+
+	for (int i = 0; i < files.length && total > _maxBytes; i++) {
+	    final long length = files[i].length();
+	    if (files[i].delete()) {
+		total -= length;
+	    }
+	}
+    }
+
+    private static byte[] readBytes(InputStream input) throws IOException {
+	final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	final byte[] buffer = new byte[4096];
+	int n;
+	while ((n = input.read(buffer)) > 0) {
+	    bytes.write(buffer, 0, n);
+	}
+	return bytes.toByteArray();
+    }
+
+    private static String digest(byte[] bytes) {
+	return toHex(newDigest().digest(bytes));
+    }
+
+    private static String digest(char[] chars) {
+	final MessageDigest md = newDigest();
+	final byte[] bytes = new byte[chars.length * 2];
+	for (int i = 0; i < chars.length; i++) {
+	    bytes[2 * i] = (byte)(chars[i] >> 8);
+	    bytes[2 * i + 1] = (byte)chars[i];
+	}
+	return toHex(md.digest(bytes));
+    }
+
+    private static MessageDigest newDigest() {
+	try {
+	    return MessageDigest.getInstance("SHA-1");
+	}
+	catch (NoSuchAlgorithmException e) {
+	    // Every Java platform is required to provide SHA-1
+	    throw new IllegalStateException(e.toString());
+	}
+    }
+
+    private static String toHex(byte[] bytes) {
+	final char[] hex = new char[bytes.length * 2];
+	for (int i = 0; i < bytes.length; i++) {
+	    hex[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+	    hex[2 * i + 1] = HEX[bytes[i] & 0xf];
+	}
+	return new String(hex);
+    }
+}
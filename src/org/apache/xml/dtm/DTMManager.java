@@ -361,14 +361,41 @@ public abstract class DTMManager
     catch (SecurityException ex){}
   }
 
-  /** This value, set at compile time, controls how many bits of the
-   * DTM node identifier numbers are used to identify a node within a
-   * document, and thus sets the maximum number of nodes per
-   * document. The remaining bits are used to identify the DTM
+  /** The system property that selects IDENT_DTM_NODE_BITS. */
+  public static final String IDENT_DTM_NODE_BITS_PROPERTY =
+    "org.apache.xml.dtm.DTMManager.nodeBits";
+
+  /** The default value of IDENT_DTM_NODE_BITS. */
+  public static final int IDENT_DTM_NODE_BITS_DEFAULT = 16;
+
+  /** The smallest value accepted for IDENT_DTM_NODE_BITS. */
+  public static final int IDENT_DTM_NODE_BITS_MIN = 12;
+
+  /** The largest value accepted for IDENT_DTM_NODE_BITS. */
+  public static final int IDENT_DTM_NODE_BITS_MAX = 24;
+
+  /** This value, set when this class is loaded, controls how many bits
+   * of the DTM node identifier numbers are used to identify a node within
+   * a document, and thus sets the maximum number of nodes per DTM
+   * identifier. The remaining bits are used to identify the DTM
    * document which contains this node.
    *
-   * If you change IDENT_DTM_NODE_BITS, be sure to rebuild _ALL_ the
-   * files which use it... including the IDKey testcases.
+   * Node handles are ints, so this is a trade-off between the two
+   * fields. The default of 16 allows 65536 DTM identifiers of 65536
+   * nodes each; a larger document takes an additional "overflow"
+   * identifier for every 65536 nodes, see DTMManagerDefault.addDTM().
+   * Setting the org.apache.xml.dtm.DTMManager.nodeBits system property
+   * to a value between IDENT_DTM_NODE_BITS_MIN and
+   * IDENT_DTM_NODE_BITS_MAX selects a different split for the whole JVM:
+   * 20, for example, lets a 100 million node document use 96 identifiers
+   * instead of 1526, at the cost of allowing only 4096 identifiers in
+   * all; 12 allows a million small documents of up to 4096 nodes before
+   * overflow. Any other value makes this class fail to load with a
+   * DTMException, rather than silently running with the default.
+   *
+   * This is no longer a compile-time constant, so classes that use it
+   * need not be rebuilt when it changes... but the IDKey testcases still
+   * depend on it.
    *
    * (FuncGenerateKey currently uses the node identifier directly and
    * thus is affected when this changes. The IDKEY results will still be
@@ -376,7 +403,54 @@ public abstract class DTMManager
    * comparison against the previous "golden" files will probably
    * complain.)
    * */
-  public static final int IDENT_DTM_NODE_BITS = 16;
+  public static final int IDENT_DTM_NODE_BITS = getIdentNodeBits();
+
+  /**
+   * Read the org.apache.xml.dtm.DTMManager.nodeBits system property.
+   *
+   * @return the configured number of node bits, or
+   * IDENT_DTM_NODE_BITS_DEFAULT if it is unset.
+   *
+   * @throws DTMException if it is not a number from IDENT_DTM_NODE_BITS_MIN
+   * to IDENT_DTM_NODE_BITS_MAX.
+   */
+  private static int getIdentNodeBits()
+  {
+    String value;
+    try
+    {
+      value = System.getProperty(IDENT_DTM_NODE_BITS_PROPERTY);
+    }
+    catch (SecurityException ex)
+    {
+      value = null;
+    }
+
+    if (value != null)
+    {
+      int bits;
+      try
+      {
+        bits = Integer.parseInt(value.trim());
+      }
+      catch (NumberFormatException ex)
+      {
+        bits = -1;
+      }
+
+      if (bits < IDENT_DTM_NODE_BITS_MIN || bits > IDENT_DTM_NODE_BITS_MAX)
+      {
+        throw new DTMException(XMLMessages.createXMLMessage(
+          XMLErrorResources.ER_INVALID_DTM_NODE_BITS,
+          new Object[]{ IDENT_DTM_NODE_BITS_PROPERTY,
+                        Integer.toString(IDENT_DTM_NODE_BITS_MIN),
+                        Integer.toString(IDENT_DTM_NODE_BITS_MAX), value }));
+      }
+      return bits;
+    }
+
+    return IDENT_DTM_NODE_BITS_DEFAULT;
+  }
     
 
   /** When this bitmask is ANDed with a DTM node handle number, the result
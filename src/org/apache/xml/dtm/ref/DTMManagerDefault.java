@@ -20,6 +20,9 @@
  */
 package org.apache.xml.dtm.ref;
 
+import java.util.Hashtable;
+import java.util.Vector;
+
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.Source;
@@ -34,11 +37,14 @@ import org.apache.xml.dtm.DTMIterator;
 import org.apache.xml.dtm.DTMManager;
 import org.apache.xml.dtm.DTMWSFilter;
 import org.apache.xml.dtm.ref.dom2dtm.DOM2DTM;
+import org.apache.xml.dtm.ref.dom2dtm.DOM2DTMCache;
 import org.apache.xml.dtm.ref.sax2dtm.SAX2DTM;
 import org.apache.xml.dtm.ref.sax2dtm.SAX2RTFDTM;
 import org.apache.xml.res.XMLErrorResources;
 import org.apache.xml.res.XMLMessages;
+import org.apache.xml.utils.IdentityKey;
 import org.apache.xml.utils.PrefixResolver;
+import org.apache.xml.utils.SuballocatedIntVector;
 import org.apache.xml.utils.SystemIDResolver;
 import org.apache.xml.utils.XMLReaderManager;
 import org.apache.xml.utils.XMLStringFactory;
@@ -60,15 +66,17 @@ import org.xml.sax.helpers.DefaultHandler;
  * for XRTreeFrag (which runs in the GC thread) wants to call
  * DTMManager.release(), and may do so at the same time that the main
  * transformation thread is accessing the manager. Our current solution is
- * to make most of the manager's methods <code>synchronized</code>.
- * Early tests suggest that doing so is not causing a significant
- * performance hit in Xalan. However, it should be noted that there
- * is a possible alternative solution: rewrite release() so it merely
- * posts a request for release onto a threadsafe queue, and explicitly
- * process that queue on an infrequent basis during main-thread
- * activity (eg, when getDTM() is invoked). The downside of that solution
- * would be a greater delay before the DTM's storage is actually released
- * for reuse.
+ * to make the methods that change the DTM table <code>synchronized</code>.
+ * 
+ * The lookups done on every node dereference -- getDTM(int),
+ * getDTMIdentity() and getDTMHandleFromNode() for DTM nodes -- are not
+ * synchronized, since a manager shared by several threads (document()
+ * loads, XPathAPI users) would otherwise serialize on one monitor. They
+ * read the m_dtms and m_dtm_offsets tables without locking instead.
+ * addDTM() and release() only change the slots of the DTMs they are
+ * given, and republish the tables through their volatile fields,
+ * m_dtm_offsets first, so a reader that sees a DTM in m_dtms also sees
+ * its offset. The tables are only copied when addDTM() grows them.
  * */
 public class DTMManagerDefault extends DTMManager
 {
@@ -90,8 +98,12 @@ public class DTMManagerDefault extends DTMManager
    * 
    * This array grows as necessary; see addDTM(). Growth is uncommon... but
    * access needs to be blindingly fast since it's used in node addressing.
+   * 
+   * It is read without locking. addDTM() and release() change slots in
+   * place and then store the array back into this volatile field; the
+   * array is only replaced by a larger copy when it grows.
    */
-  protected DTM m_dtms[] = new DTM[256];
+  protected volatile DTM m_dtms[] = new DTM[256];
 	
   /** Map from DTM identifier numbers to offsets. For small DTMs with a 
    * single identifier, this will always be 0. In overflow addressing, where
@@ -105,8 +117,21 @@ public class DTMManagerDefault extends DTMManager
    * access needs to be blindingly fast since it's used in node addressing.
    * (And at the moment, that includes accessing it from DTMDefaultBase,
    * which is why this is not Protected or Private.)
+   * 
+   * Like m_dtms, this array is written in place and republished, and is
+   * always published before the m_dtms array that refers to its entries;
+   * it is never shorter than m_dtms. Readers should therefore fetch
+   * m_dtms first.
+   */
+  volatile int m_dtm_offsets[] = new int[256];
+
+  /**
+   * Map from W3C DOM Documents to Vectors of the DOM2DTMs registered with
+   * this manager that wrap their trees, so that getDTMHandleFromNode only
+   * asks the DTMs of the node's own Document for it. Only used with the
+   * manager locked.
    */
-  int m_dtm_offsets[] = new int[256];
+  private final Hashtable m_dom2dtms = new Hashtable();
 
   /**
    * The cache for XMLReader objects to be used if the user did not
@@ -153,26 +178,29 @@ public class DTMManagerDefault extends DTMManager
 		// to allocate that much space unless needed. We could use one of our
 		// handy-dandy Fast*Vectors, but this will do for now.
 		// %REVIEW%
-		int oldlen=m_dtms.length;
+		DTM dtms[] = m_dtms;
+		int offsets[] = m_dtm_offsets;
+		int oldlen=dtms.length;
 		if(oldlen<=id)
 		{
-			// Various growth strategies are possible. I think we don't want 
-			// to over-allocate excessively, and I'm willing to reallocate
-			// more often to get that. See also Fast*Vector classes.
+			// Doubling, so that registering n DTMs copies O(n) slots in
+			// all; otherwise only the slot for this ID is written.
 			//
 			// %REVIEW% Should throw a more diagnostic error if we go over the max...
-			int newlen=Math.min((id+256),IDENT_MAX_DTMS);
-
+			int newlen=Math.min(Math.max(id+1,oldlen*2),IDENT_MAX_DTMS);
 			DTM new_m_dtms[] = new DTM[newlen];
-			System.arraycopy(m_dtms,0,new_m_dtms,0,oldlen);
-			m_dtms=new_m_dtms;
+			System.arraycopy(dtms,0,new_m_dtms,0,oldlen);
 			int new_m_dtm_offsets[] = new int[newlen];
-			System.arraycopy(m_dtm_offsets,0,new_m_dtm_offsets,0,oldlen);
-			m_dtm_offsets=new_m_dtm_offsets;
+			System.arraycopy(offsets,0,new_m_dtm_offsets,0,oldlen);
+			dtms=new_m_dtms;
+			offsets=new_m_dtm_offsets;
 		}
-		
-    m_dtms[id] = dtm;
-		m_dtm_offsets[id]=offset;
+
+		// Offsets are published first; see m_dtm_offsets.
+		offsets[id]=offset;
+		m_dtm_offsets=offsets;
+    dtms[id] = dtm;
+		m_dtms=dtms;
     dtm.documentRegistration();
 		// The DTM should have been told who its manager was when we created it.
 		// Do we need to allow for adopting DTMs _not_ created by this manager?
@@ -183,10 +211,11 @@ public class DTMManagerDefault extends DTMManager
    */
   synchronized public int getFirstFreeDTMID()
   {
-    int n = m_dtms.length;
+    DTM dtms[] = m_dtms;
+    int n = dtms.length;
     for (int i = 1; i < n; i++)
     {
-      if(null == m_dtms[i])
+      if(null == dtms[i])
       {
         return i;
       }
@@ -250,10 +279,22 @@ public class DTMManagerDefault extends DTMManager
 
     if ((null != source) && source instanceof DOMSource)
     {
-      DOM2DTM dtm = new DOM2DTM(this, (DOMSource) source, documentID,
-                                whiteSpaceFilter, xstringFactory, doIndexing);
+      DOMSource domSource = (DOMSource) source;
+
+      // Only DTMs that are the same whoever asks for them can be shared
+      boolean shared = !unique && null == whiteSpaceFilter && doIndexing
+                       && DOM2DTMCache.isEnabled();
+      DOM2DTM dtm = shared ? getCachedDOM2DTM(domSource) : null;
+      if (null != dtm)
+        return dtm;
+
+      dtm = new DOM2DTM(this, domSource, documentID,
+                        whiteSpaceFilter, xstringFactory, doIndexing);
 
       addDTM(dtm, dtmPos, 0);
+      addDOM2DTM(dtm);
+      if (shared)
+        DOM2DTMCache.put(dtm);
 
       //      if (DUMPTREE)
       //      {
@@ -488,7 +529,7 @@ public class DTMManagerDefault extends DTMManager
    *
    * @return a valid DTM handle.
    */
-  synchronized public int getDTMHandleFromNode(org.w3c.dom.Node node)
+  public int getDTMHandleFromNode(org.w3c.dom.Node node)
   {
     if(null == node)
       throw new IllegalArgumentException(XMLMessages.createXMLMessage(XMLErrorResources.ER_NODE_NON_NULL, null)); //"node must be non-null for getDTMHandleFromNode!");
@@ -496,8 +537,80 @@ public class DTMManagerDefault extends DTMManager
     if (node instanceof org.apache.xml.dtm.ref.DTMNodeProxy)
       return ((org.apache.xml.dtm.ref.DTMNodeProxy) node).getDTMNodeNumber();
 		
-    else
+    return getDTMHandleFromDOMNode(node);
+  }
+
+  /**
+   * Add a copy of the DOM2DTMCache's DTM for a DOMSource to this manager.
+   * The copy has the DTM IDs of the cached DTM, so it can only be added
+   * if this manager does not use those IDs for other DTMs.
+   *
+   * @param source The DOMSource.
+   *
+   * @return the copy, or null if none is cached or it could not be added.
+   */
+  private DOM2DTM getCachedDOM2DTM(DOMSource source)
+  {
+    DOM2DTM cached = DOM2DTMCache.get(source.getNode());
+    if (null == cached)
+      return null;
+
+    DOM2DTM dtm = cached.copyTo(this, m_xsf, source.getSystemId());
+    SuballocatedIntVector ids = dtm.getDTMIDs();
+    DTM dtms[] = m_dtms;
+    for (int i = 0; i < ids.size(); i++)
     {
+      int id = ids.elementAt(i) >>> IDENT_DTM_NODE_BITS;
+      if (id < dtms.length && null != dtms[id])
+        return null;
+    }
+
+    for (int i = 0; i < ids.size(); i++)
+    {
+      addDTM(dtm, ids.elementAt(i) >>> IDENT_DTM_NODE_BITS,
+             i << IDENT_DTM_NODE_BITS);
+    }
+    addDOM2DTM(dtm);
+    return dtm;
+  }
+
+  /**
+   * Get the key of a DOM node's tree in m_dom2dtms: its Document, compared
+   * by identity.
+   */
+  private static IdentityKey getDocumentKey(Node node)
+  {
+    return new IdentityKey((node.getNodeType() == Node.DOCUMENT_NODE)
+                           ? node : node.getOwnerDocument());
+  }
+
+  /**
+   * Record a DOM2DTM in m_dom2dtms.
+   */
+  private void addDOM2DTM(DOM2DTM dtm)
+  {
+    IdentityKey key = getDocumentKey(dtm.getNode(dtm.getDocument()));
+    Vector dtms = (Vector) m_dom2dtms.get(key);
+    if (null == dtms)
+    {
+      dtms = new Vector(1);
+      m_dom2dtms.put(key, dtms);
+    }
+    dtms.addElement(dtm);
+  }
+
+  /**
+   * Look for a W3C DOM node in the DOM2DTMs already registered with this
+   * manager. Must be called with the manager locked: a DOM2DTM builds
+   * itself lazily while it is being searched.
+   *
+   * @param node Non-null reference to a DOM node.
+   *
+   * @return a valid DTM handle, or DTM.NULL if no registered DTM
+   * contains the node.
+   */
+  private int findDTMHandleFromNode(org.w3c.dom.Node node)
+  {
       // Find the DOM2DTMs wrapped around this Document (if any)
       // and check whether they contain the Node in question.
       //
@@ -510,25 +623,36 @@ public class DTMManagerDefault extends DTMManager
       // %REVIEW% We could search for the one which contains this
       // node at the deepest level, and thus covers the widest
       // subtree, but that's going to entail additional work
-      // checking more DTMs... and getHandleOfNode is not a
-      // cheap operation in most implementations.
-			//
-			// TODO: %REVIEW% If overflow addressing, we may recheck a DTM
-			// already examined. Ouch. But with the increased number of DTMs,
-			// scanning back to check this is painful. 
-			// POSSIBLE SOLUTIONS: 
-			//   Generate a list of _unique_ DTM objects?
-			//   Have each DTM cache last DOM node search?
-			int max = m_dtms.length;
-      for(int i = 0; i < max; i++)
+      // checking more DTMs.
+      Vector dtms = (Vector) m_dom2dtms.get(getDocumentKey(node));
+      if (null != dtms)
+      {
+        for (int i = 0; i < dtms.size(); i++)
         {
-          DTM thisDTM=m_dtms[i];
-          if((null != thisDTM) && thisDTM instanceof DOM2DTM)
-          {
-            int handle=((DOM2DTM)thisDTM).getHandleOfNode(node);
-            if(handle!=DTM.NULL) return handle;
-          }
-         }
+          int handle = ((DOM2DTM) dtms.elementAt(i)).getHandleOfNode(node);
+          if (handle != DTM.NULL) return handle;
+        }
+      }
+
+      return DTM.NULL;
+  }
+
+  /**
+   * Return the handle of a W3C DOM node which is not a DTMNodeProxy,
+   * wrapping the tree containing it in a new DOM2DTM if no registered
+   * DTM contains it. Synchronized both because the search mutates the
+   * DOM2DTMs and so that two threads asking for nodes of the same tree
+   * do not both build a DTM for it.
+   *
+   * @param node Non-null reference to a DOM node.
+   *
+   * @return a valid DTM handle.
+   */
+  synchronized private int getDTMHandleFromDOMNode(org.w3c.dom.Node node)
+  {
+      int handle = findDTMHandleFromNode(node);
+      if (handle != DTM.NULL)
+        return handle;
 
 			// Not found; generate a new DTM.
 			//
@@ -559,8 +683,6 @@ public class DTMManagerDefault extends DTMManager
       DOM2DTM dtm = (DOM2DTM) getDTM(new javax.xml.transform.dom.DOMSource(root),
 																		 false, null, true, true);
 
-      int handle;
-      
       if(node instanceof org.apache.xml.dtm.ref.dom2dtm.DOM2DTMdefaultNamespaceDeclarationNode)
       {
 				// Can't return the same node since it's unique to a specific DTM, 
@@ -576,7 +698,6 @@ public class DTMManagerDefault extends DTMManager
         throw new RuntimeException(XMLMessages.createXMLMessage(XMLErrorResources.ER_COULD_NOT_RESOLVE_NODE, null)); //"Could not resolve the node to a handle!");
 
       return handle;
-    }
   }
 
   /**
@@ -640,11 +761,12 @@ public class DTMManagerDefault extends DTMManager
    *
    * @return a reference to the DTM object containing this node.
    */
-  synchronized public DTM getDTM(int nodeHandle)
+  public DTM getDTM(int nodeHandle)
   {
     try
     {
-      // Performance critical function.
+      // Performance critical function. Not synchronized; m_dtms is
+      // copy-on-write.
       return m_dtms[nodeHandle >>> IDENT_DTM_NODE_BITS];
     }
     catch(java.lang.ArrayIndexOutOfBoundsException e)
@@ -666,7 +788,7 @@ public class DTMManagerDefault extends DTMManager
    * @return The DTM ID (as the high bits of a NodeHandle, not as our
    * internal index), or -1 if the DTM doesn't belong to this manager.
    */
-  synchronized public int getDTMIdentity(DTM dtm)
+  public int getDTMIdentity(DTM dtm)
   {
 	// Shortcut using DTMDefaultBase's extension hooks
 	// %REVIEW% Should the lookup be part of the basic DTM API?
@@ -679,13 +801,16 @@ public class DTMManagerDefault extends DTMManager
 			return -1;
 	}
 				
-    int n = m_dtms.length;
+    // Fetch m_dtms first; see m_dtm_offsets.
+    DTM dtms[] = m_dtms;
+    int offsets[] = m_dtm_offsets;
+    int n = dtms.length;
 
     for (int i = 0; i < n; i++)
     {
-      DTM tdtm = m_dtms[i];
+      DTM tdtm = dtms[i];
 
-      if (tdtm == dtm && m_dtm_offsets[i]==0)
+      if (tdtm == dtm && offsets[i]==0)
         return i << IDENT_DTM_NODE_BITS;
     }
 
@@ -733,25 +858,69 @@ public class DTMManagerDefault extends DTMManager
 		// painful.
 		//
 		// %REVIEW% Should the lookup move up into the basic DTM API?
+		//
+    // Looked up while the DTM can still resolve its own handles
+    if (dtm instanceof DOM2DTM && getDTMIdentity(dtm) != -1)
+    {
+      DOM2DTM dom2dtm = (DOM2DTM) dtm;
+      IdentityKey key = getDocumentKey(dom2dtm.getNode(dom2dtm.getDocument()));
+      Vector dtms = (Vector) m_dom2dtms.get(key);
+      if (null != dtms && dtms.removeElement(dtm) && dtms.isEmpty())
+        m_dom2dtms.remove(key);
+    }
+
+		// Cleared in place and republished; see m_dtms.
+		DTM table[] = m_dtms;
 		if(dtm instanceof DTMDefaultBase)
 		{
 			org.apache.xml.utils.SuballocatedIntVector ids=((DTMDefaultBase)dtm).getDTMIDs();
 			for(int i=ids.size()-1;i>=0;--i)
-				m_dtms[ids.elementAt(i)>>>DTMManager.IDENT_DTM_NODE_BITS]=null;
+				table[ids.elementAt(i)>>>DTMManager.IDENT_DTM_NODE_BITS]=null;
 		}
 		else
 		{
 			int i = getDTMIdentity(dtm);
 		    if (i >= 0)
 			{
-				m_dtms[i >>> DTMManager.IDENT_DTM_NODE_BITS] = null;
+				table[i >>> DTMManager.IDENT_DTM_NODE_BITS] = null;
 			}
 		}
+		m_dtms=table;
 
     dtm.documentRelease();
     return true;
   }
 
+  /**
+   * Release every DTM this manager holds, so that the manager can be used
+   * again as if it were new rather than replaced.
+   */
+  synchronized public void releaseAll()
+  {
+    DTM dtms[] = m_dtms;
+    m_dtms = new DTM[dtms.length];
+    m_dom2dtms.clear();
+    // The old table is left as it was; see m_dtms.
+    next:
+    for (int i = 0; i < dtms.length; i++)
+    {
+      DTM dtm = dtms[i];
+      if (dtm == null)
+        continue;
+
+      // A DTM with overflow IDs is released once, through its first ID
+      for (int j = 0; j < i; j++)
+      {
+        if (dtms[j] == dtm)
+          continue next;
+      }
+
+      if (dtm instanceof SAX2DTM)
+        ((SAX2DTM) dtm).clearCoRoutine();
+      dtm.documentRelease();
+    }
+  }
+
   /**
    * Method createDocumentFragment
    *
@@ -125,6 +125,33 @@ public class ExpandedNameTable
     initExtendedTypes();
   }
 
+  /**
+   * Create an expanded name table that holds the same expanded names, with
+   * the same IDs, as another one. Neither table is shared with the other
+   * afterwards, so the two may be used by different threads.
+   *
+   * @param table The table to copy, which must not be changed while it
+   * is copied.
+   */
+  public ExpandedNameTable(ExpandedNameTable table)
+  {
+    m_capacity = table.m_capacity;
+    m_threshold = table.m_threshold;
+    m_nextType = table.m_nextType;
+
+    // ExtendedTypes are not changed once they are in a table
+    m_extendedTypes = new ExtendedType[table.m_extendedTypes.length];
+    System.arraycopy(table.m_extendedTypes, 0, m_extendedTypes, 0,
+                     m_nextType);
+
+    m_table = new HashEntry[m_capacity];
+    for (int i = 0; i < m_capacity; i++)
+    {
+      for (HashEntry e = table.m_table[i]; e != null; e = e.next)
+        m_table[i] = new HashEntry(e.key, e.value, e.hash, m_table[i]);
+    }
+  }
+
 
   /**
    *  Initialize the vector of extended types with the
@@ -20,6 +20,7 @@
  */
 package org.apache.xml.dtm.ref.dom2dtm;
 
+import java.util.Hashtable;
 import java.util.Vector;
 
 import javax.xml.transform.SourceLocator;
@@ -35,6 +36,7 @@ import org.apache.xml.dtm.ref.IncrementalSAXSource;
 import org.apache.xml.res.XMLErrorResources;
 import org.apache.xml.res.XMLMessages;
 import org.apache.xml.utils.FastStringBuffer;
+import org.apache.xml.utils.IdentityKey;
 import org.apache.xml.utils.QName;
 import org.apache.xml.utils.StringBufferPool;
 import org.apache.xml.utils.TreeWalker;
@@ -63,7 +65,7 @@ import org.xml.sax.ContentHandler;
  * mutation. If you alter the DOM after wrapping DOM2DTM around it,
  * all bets are off.
  * */
-public class DOM2DTM extends DTMDefaultBaseIterators
+public class DOM2DTM extends DTMDefaultBaseIterators implements Cloneable
 {
   static final boolean JJK_DEBUG=false;
   static final boolean JJK_NEWCODE=true;
@@ -103,6 +105,21 @@ public class DOM2DTM extends DTMDefaultBaseIterators
    * that sequence. */
   protected Vector m_nodes = new Vector();
 
+  /** The identities of the nodes in m_nodes, as Integers keyed by the
+   * node objects themselves, so that getHandleOfNode need not search
+   * m_nodes. Created once LINEAR_LOOKUPS nodes have been looked up, and
+   * kept up to date by addNode() from then on. */
+  private Hashtable m_nodeIdentities;
+
+  /** The number of nodes looked up by searching m_nodes. */
+  private int m_linearLookups = 0;
+
+  /** The number of nodes looked up by searching m_nodes before
+   * m_nodeIdentities is created. Searching costs less than creating
+   * the map, so a DTM that is only asked for a node or two, as most
+   * XPathAPI calls do, is never given one. */
+  private static final int LINEAR_LOOKUPS = 8;
+
   /**
    * Construct a DOM2DTM object from a DOM node.
    *
@@ -194,8 +211,12 @@ public class DOM2DTM extends DTMDefaultBaseIterators
                                 
                                 // Handle as Extended Addressing
         DTMManagerDefault mgrD=(DTMManagerDefault)m_mgr;
-        int id=mgrD.getFirstFreeDTMID();
-        mgrD.addDTM(this,id,nodeIndex);
+        int id;
+        synchronized (mgrD)
+        {
+          id=mgrD.getFirstFreeDTMID();
+          mgrD.addDTM(this,id,nodeIndex);
+        }
         m_dtmIdent.addElement(id<<DTMManager.IDENT_DTM_NODE_BITS);
       }
       catch(ClassCastException e)
@@ -244,6 +265,12 @@ public class DOM2DTM extends DTMDefaultBaseIterators
     }
     
     m_nodes.addElement(node);
+    if (null != m_nodeIdentities)
+    {
+      IdentityKey key = new IdentityKey(node);
+      if (null == m_nodeIdentities.get(key))
+        m_nodeIdentities.put(key, new Integer(nodeIndex));
+    }
     
     m_firstch.setElementAt(NOTPROCESSED,nodeIndex);
     m_nextsib.setElementAt(NOTPROCESSED,nodeIndex);
@@ -643,14 +670,10 @@ public class DOM2DTM extends DTMDefaultBaseIterators
   }
 
   /**
-   * Get the handle from a Node.
-   * <p>%OPT% This will be pretty slow.</p>
-   *
-   * <p>%OPT% An XPath-like search (walk up DOM to root, tracking path;
-   * walk down DTM reconstructing path) might be considerably faster
-   * on later nodes in large documents. That might also imply improving
-   * this call to handle nodes which would be in this DTM but
-   * have not yet been built, which might or might not be a Good Thing.</p>
+   * Get the handle from a Node. The node is looked up in
+   * m_nodeIdentities, or by searchNodes() for the first few lookups, and
+   * the DTM is built further until it is found or the DOM tree is
+   * exhausted.
    * 
    * %REVIEW% This relies on being able to test node-identity via
    * object-identity. DTM2DOM proxying is a great example of a case where
@@ -665,28 +688,132 @@ public class DOM2DTM extends DTMDefaultBaseIterators
   {
     if (null != node)
     {
-      int len = m_nodes.size();        
-      boolean isMore;
-      int i = 0;
-      do
-      {          
-        for (; i < len; i++)
-        {
-          if (m_nodes.elementAt(i) == node)
-            return makeNodeHandle(i);
-        }
+      // The root is looked up far more often than any other node, and
+      // is all that some DTMs are ever asked for.
+      if (m_nodes.elementAt(0) == node)
+        return makeNodeHandle(0);
 
-        isMore = nextNode();
-  
-        len = m_nodes.size();
-            
-      } 
-      while(isMore || i < len);
+      if (null == m_nodeIdentities)
+      {
+        if (++m_linearLookups <= LINEAR_LOOKUPS)
+          return searchNodes(node);
+        indexNodes();
+      }
+
+      IdentityKey key = new IdentityKey(node);
+      Integer identity = (Integer) m_nodeIdentities.get(key);
+      while (null == identity && nextNode())
+        identity = (Integer) m_nodeIdentities.get(key);
+
+      if (null != identity)
+        return makeNodeHandle(identity.intValue());
     }
     
     return DTM.NULL;
   }
 
+  /**
+   * Get the handle from a Node by searching m_nodes, building the DTM
+   * further until the node is found or the DOM tree is exhausted.
+   *
+   * @param node A node.
+   *
+   * @return The node handle or <code>DTM.NULL</code>.
+   */
+  private int searchNodes(Node node)
+  {
+    int len = m_nodes.size();        
+    boolean isMore;
+    int i = 0;
+    do
+    {          
+      for (; i < len; i++)
+      {
+        if (m_nodes.elementAt(i) == node)
+          return makeNodeHandle(i);
+      }
+
+      isMore = nextNode();
+
+      len = m_nodes.size();
+          
+    } 
+    while(isMore || i < len);
+
+    return DTM.NULL;
+  }
+
+  /**
+   * Create m_nodeIdentities from the nodes added so far.
+   */
+  private void indexNodes()
+  {
+    int len = m_nodes.size();
+    Hashtable identities = new Hashtable(Math.max(len * 2, 32));
+    for (int i = len - 1; i >= 0; i--)
+    {
+      // Backwards, so that the first of any duplicates wins, as it did
+      // when m_nodes was searched
+      identities.put(new IdentityKey(m_nodes.elementAt(i)), new Integer(i));
+    }
+    m_nodeIdentities = identities;
+  }
+
+  /**
+   * Add all the remaining nodes of the DOM tree to this DTM, and index
+   * them for getHandleOfNode. After this the DTM is no longer changed by
+   * navigating it, so it can be shared through copyTo().
+   */
+  void buildAll()
+  {
+    while (nextNode())
+      ;
+    if (null == m_nodeIdentities)
+      indexNodes();
+  }
+
+  /**
+   * Make a copy of this DTM for another DTMManager, sharing all its node
+   * tables with this one. The copy must then be added to the manager
+   * under the same DTM IDs as this DTM has, since the namespace tables
+   * hold node handles; see DTMManagerDefault.
+   *
+   * This DTM must have been built completely by buildAll(), and must not
+   * be used by another thread while it is copied.
+   *
+   * @param mgr The DTMManager the copy is for, or null for a copy that
+   * is only kept to be copied again.
+   * @param xstringfactory The XMLString factory of the copy.
+   * @param systemId The system ID of the DOMSource the copy is for.
+   *
+   * @return the copy.
+   */
+  public DOM2DTM copyTo(DTMManager mgr, XMLStringFactory xstringfactory,
+                        String systemId)
+  {
+    DOM2DTM dtm;
+    try
+    {
+      dtm = (DOM2DTM) clone();
+    }
+    catch (CloneNotSupportedException e)
+    {
+      throw new org.apache.xml.utils.WrappedRuntimeException(e);
+    }
+
+    dtm.m_mgr = mgr;
+    dtm.m_mgrDefault =
+      (mgr instanceof DTMManagerDefault) ? (DTMManagerDefault) mgr : null;
+    dtm.m_xstrf = xstringfactory;
+    dtm.m_documentBaseURI = systemId;
+    // Looking an expanded name up changes the table, and the caches are
+    // built lazily, so these cannot be shared
+    dtm.m_expandedNameTable = new ExpandedNameTable(m_expandedNameTable);
+    dtm.m_traversers = null;
+    dtm.m_walker = new TreeWalker(null);
+    return dtm;
+  }
+
   /** Get the handle from a Node. This is a more robust version of
    * getHandleFromNode, intended to be usable by the public.
    *
@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.dtm.ref.dom2dtm;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.events.Event;
+import org.w3c.dom.events.EventListener;
+import org.w3c.dom.events.EventTarget;
+
+/**
+ * A cache of completely built DOM2DTMs, keyed by the identity of the DOM
+ * node they were built from. Every XPathContext has a DTMManager of its
+ * own, so without this each XPathAPI or JAXP XPath call on a DOM node
+ * wraps the tree in a new DOM2DTM and builds it again.
+ * <p>
+ * A DTMManager that needs a DTM for a DOM tree takes a copy of the
+ * cached one with {@link DOM2DTM#copyTo}. The copy shares the node tables
+ * of the cached DTM, which are not changed once it is built, so it costs
+ * little and can be used by one thread while other threads use other
+ * copies.
+ * <p>
+ * The cache does not keep a DOM alive: the cached DTM is only reachable
+ * through an EventListener registered on the DOM's Document, and the
+ * cache refers to that through a weak reference. The listener is told of
+ * every DOM mutation event, and drops the DTM at the first one. DTMs are
+ * only cached for Documents that support mutation events, and the cache
+ * is off unless the {@link #ENABLED_PROPERTY} system property is "true"
+ * or {@link #setEnabled} turns it on: the listener makes the DOM fire
+ * mutation events, which slows down changes to it.
+ */
+public final class DOM2DTMCache
+{
+  /** The system property that turns the cache on. */
+  public static final String ENABLED_PROPERTY =
+    "org.apache.xml.dtm.ref.dom2dtm.DOM2DTMCache.enabled";
+
+  /** The mutation events that make a cached DTM out of date. */
+  private static final String[] MUTATION_EVENTS = {
+    "DOMSubtreeModified", "DOMNodeInserted", "DOMNodeRemoved",
+    "DOMAttrModified", "DOMCharacterDataModified"
+  };
+
+  /** True if DTMs are cached. */
+  private static boolean s_enabled = getEnabledProperty();
+
+  /** Map from a RootKey to a WeakReference to the Entry of its DTM. */
+  private static final HashMap s_entries = new HashMap();
+
+  /** The queue the RootKeys of collected DOM nodes are put on. */
+  private static final ReferenceQueue s_queue = new ReferenceQueue();
+
+  private DOM2DTMCache() {}
+
+  /**
+   * @return true if DTMs are cached.
+   */
+  public static synchronized boolean isEnabled()
+  {
+    return s_enabled;
+  }
+
+  /**
+   * Turn the cache on or off. Turning it off drops the cached DTMs.
+   *
+   * @param enabled true to cache DTMs.
+   */
+  public static synchronized void setEnabled(boolean enabled)
+  {
+    s_enabled = enabled;
+    if (!enabled)
+      clear();
+  }
+
+  /**
+   * Drop all the cached DTMs, and stop listening to their DOMs.
+   */
+  public static synchronized void clear()
+  {
+    Iterator i = s_entries.values().iterator();
+    while (i.hasNext())
+    {
+      Entry entry = (Entry) ((Reference) i.next()).get();
+      if (entry != null)
+        entry.removeListeners();
+    }
+    s_entries.clear();
+  }
+
+  /**
+   * @return the number of DTMs that are cached.
+   */
+  public static synchronized int size()
+  {
+    expungeStaleEntries();
+    return s_entries.size();
+  }
+
+  /**
+   * Get the cached DTM built from a DOM node.
+   *
+   * @param root The root node of the DOMSource the DTM was built from.
+   *
+   * @return the DTM, which must only be copied, or null if none is cached.
+   */
+  public static synchronized DOM2DTM get(Node root)
+  {
+    if (!s_enabled || root == null)
+      return null;
+
+    expungeStaleEntries();
+    Reference ref = (Reference) s_entries.get(new RootKey(root, null));
+    Entry entry = (ref == null) ? null : (Entry) ref.get();
+    return (entry == null) ? null : entry.m_dtm;
+  }
+
+  /**
+   * Cache a DTM, unless one built from the same node is cached already or
+   * its Document does not report its mutations. The DTM is first built
+   * completely, and what is cached is a copy of it, so the caller can go
+   * on using it.
+   *
+   * @param dtm A DTM without a white space filter, built with indexing.
+   */
+  public static void put(DOM2DTM dtm)
+  {
+    Node root = dtm.getNode(dtm.getDocument());
+    Document doc = (root.getNodeType() == Node.DOCUMENT_NODE)
+                   ? (Document) root : root.getOwnerDocument();
+    if (!(doc instanceof EventTarget) || !supportsMutationEvents(doc))
+      return;
+
+    if (get(root) != null)
+      return;
+
+    // Built outside the lock, as this walks the whole DOM
+    dtm.buildAll();
+    DOM2DTM copy = dtm.copyTo(null, null, null);
+
+    synchronized (DOM2DTMCache.class)
+    {
+      if (!s_enabled)
+        return;
+
+      expungeStaleEntries();
+      RootKey key = new RootKey(root, s_queue);
+      Reference ref = (Reference) s_entries.get(key);
+      if (ref != null && ref.get() != null)
+        return;
+
+      Entry entry = new Entry(key, (EventTarget) doc, copy);
+      entry.addListeners();
+      s_entries.put(key, new WeakReference(entry));
+    }
+  }
+
+  /**
+   * Remove the entries whose DOM nodes have been garbage collected.
+   */
+  private static void expungeStaleEntries()
+  {
+    Reference key;
+    while ((key = s_queue.poll()) != null)
+      s_entries.remove(key);
+  }
+
+  private static boolean supportsMutationEvents(Document doc)
+  {
+    DOMImplementation impl = doc.getImplementation();
+    return impl != null && impl.hasFeature("MutationEvents", "2.0");
+  }
+
+  private static boolean getEnabledProperty()
+  {
+    try
+    {
+      return "true".equals(System.getProperty(ENABLED_PROPERTY));
+    }
+    catch (SecurityException e)
+    {
+      return false;
+    }
+  }
+
+  /**
+   * A weak reference to a DOM node that is equal to another for the same
+   * node.
+   */
+  private static final class RootKey extends WeakReference
+  {
+    private final int m_hash;
+
+    RootKey(Node root, ReferenceQueue queue)
+    {
+      super(root, queue);
+      m_hash = System.identityHashCode(root);
+    }
+
+    public int hashCode()
+    {
+      return m_hash;
+    }
+
+    public boolean equals(Object o)
+    {
+      if (o == this)
+        return true;
+      if (!(o instanceof RootKey))
+        return false;
+      Object root = get();
+      return root != null && root == ((RootKey) o).get();
+    }
+  }
+
+  /**
+   * A cached DTM, and the listener that drops it when its DOM changes.
+   * The Document holds the only strong reference to it.
+   */
+  private static final class Entry implements EventListener
+  {
+    private final RootKey m_key;
+    private final EventTarget m_target;
+    private final DOM2DTM m_dtm;
+
+    Entry(RootKey key, EventTarget target, DOM2DTM dtm)
+    {
+      m_key = key;
+      m_target = target;
+      m_dtm = dtm;
+    }
+
+    void addListeners()
+    {
+      for (int i = 0; i < MUTATION_EVENTS.length; i++)
+        m_target.addEventListener(MUTATION_EVENTS[i], this, true);
+    }
+
+    void removeListeners()
+    {
+      for (int i = 0; i < MUTATION_EVENTS.length; i++)
+        m_target.removeEventListener(MUTATION_EVENTS[i], this, true);
+    }
+
+    public void handleEvent(Event evt)
+    {
+      synchronized (DOM2DTMCache.class)
+      {
+        Reference ref = (Reference) s_entries.get(m_key);
+        if (ref != null && ref.get() == this)
+          s_entries.remove(m_key);
+      }
+      removeListeners();
+    }
+  }
+}
@@ -929,8 +929,14 @@ public class SAX2DTM extends DTMDefaultBaseIterators
                               
                               // Handle as Extended Addressing
       DTMManagerDefault mgrD=(DTMManagerDefault)m_mgr;
-      int id=mgrD.getFirstFreeDTMID();
-      mgrD.addDTM(this,id,nodeIndex);
+      int id;
+      // Claim and register the ID atomically; other threads may be
+      // building documents through the same manager.
+      synchronized (mgrD)
+      {
+        id=mgrD.getFirstFreeDTMID();
+        mgrD.addDTM(this,id,nodeIndex);
+      }
       m_dtmIdent.addElement(id<<DTMManager.IDENT_DTM_NODE_BITS);
     }
     catch(ClassCastException e)
@@ -142,6 +142,7 @@ public class XMLErrorResources extends ListResourceBundle
   public static final String ER_ARG_LOCALNAME_INVALID = "ER_ARG_LOCALNAME_INVALID";  
   public static final String ER_ARG_PREFIX_INVALID = "ER_ARG_PREFIX_INVALID";  
   public static final String ER_NAME_CANT_START_WITH_COLON = "ER_NAME_CANT_START_WITH_COLON";
+  public static final String ER_INVALID_DTM_NODE_BITS = "ER_INVALID_DTM_NODE_BITS";
 
   /*
    * Now fill in the message text.
@@ -354,6 +355,9 @@ public class XMLErrorResources extends ListResourceBundle
        
     { ER_NAME_CANT_START_WITH_COLON,
       "Name cannot start with a colon"},
+
+    { ER_INVALID_DTM_NODE_BITS,
+      "The {0} system property must be a number from {1} to {2}, not \"{3}\""},
        
     { "BAD_CODE", "Parameter to createMessage was out of bounds"},
     { "FORMAT_FAILED", "Exception thrown during messageFormat call"},
@@ -0,0 +1,324 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.serializer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Vector;
+
+/**
+ * The bounded ring of buffers between the serializer and the writer
+ * threads of {@link AsyncOutputStream} and {@link AsyncWriter}.
+ * <p>
+ * The serializer's thread fills one buffer at a time and queues it; a
+ * writer thread writes the queued buffers to the real output in order.
+ * When every buffer is queued the serializer's thread waits, so a slow
+ * output holds the transformation back instead of letting the buffered
+ * output grow. An exception thrown by the real output is kept and thrown
+ * to the serializer's thread by the next call it makes.
+ * <p>
+ * The writer threads are not the ring's own: up to
+ * {@link #WRITER_THREADS} daemon threads are shared by all the rings of
+ * the serializer and live on from one document to the next. A ring with
+ * buffers queued waits in line for one of them, which writes one buffer
+ * and puts the ring back at the end of the line if it has more, so a
+ * slow output does not keep the others waiting for long. A writer
+ * thread ends once it has had nothing to write for a minute.
+ * <p>
+ * The buffers themselves are kept by the subclass, the ring only deals
+ * in buffer indexes and lengths.
+ *
+ * This class is only for internal use within the serializer.
+ * @xsl.usage internal
+ */
+abstract class AsyncBufferRing
+{
+    /** The largest number of writer threads. */
+    static final int WRITER_THREADS = 4;
+
+    /**
+     * The milliseconds a writer thread waits for a ring to write before
+     * it ends.
+     */
+    private static final long IDLE_TIMEOUT = 60000;
+
+    /**
+     * The rings waiting for a writer thread, first come first served.
+     * Also the lock for s_threads and s_idleThreads.
+     */
+    private static final Vector s_scheduled = new Vector();
+
+    /** The number of writer threads running. */
+    private static int s_threads;
+
+    /** The number of writer threads waiting for a ring. */
+    private static int s_idleThreads;
+
+    /** The number of buffers in the ring. */
+    private final int m_bufferCount;
+
+    /** The length of each queued buffer, by buffer index. */
+    private final int[] m_lengths;
+
+    /** The index of the buffer the serializer's thread is filling. */
+    private int m_fill;
+
+    /** The index of the next buffer a writer thread will write. */
+    private int m_drain;
+
+    /** The number of buffers queued and not yet written. */
+    private int m_queued;
+
+    /**
+     * True while the ring is in s_scheduled or a writer thread is
+     * writing one of its buffers.
+     */
+    private boolean m_scheduled;
+
+    /** The exception thrown by the real output, if any. */
+    private IOException m_failure;
+
+    /**
+     * @param bufferCount the number of buffers, at least 2 so that one
+     * can be filled while another is written
+     */
+    AsyncBufferRing(int bufferCount)
+    {
+        m_bufferCount = Math.max(2, bufferCount);
+        m_lengths = new int[m_bufferCount];
+    }
+
+    /**
+     * @return the number of buffers the subclass must provide.
+     */
+    final int getBufferCount()
+    {
+        return m_bufferCount;
+    }
+
+    /**
+     * Write a queued buffer to the real output. This is called on a
+     * writer thread, one buffer at a time and in the order they were
+     * queued.
+     *
+     * @param index the index of the buffer
+     * @param length the number of items in the buffer
+     */
+    abstract void writeBuffer(int index, int length) throws IOException;
+
+    /**
+     * Queue the buffer being filled and get the next one to fill, waiting
+     * while every other buffer is still queued.
+     *
+     * @param length the number of items in the buffer being filled
+     * @return the index of the buffer to fill next
+     * @throws IOException if the real output failed, or if the thread was
+     * interrupted while waiting
+     */
+    final synchronized int queue(int length) throws IOException
+    {
+        checkFailure();
+        m_lengths[m_fill] = length;
+        m_fill = (m_fill + 1) % m_bufferCount;
+        m_queued++;
+
+        if (!m_scheduled)
+        {
+            m_scheduled = true;
+            schedule(this);
+        }
+
+        // The next buffer to fill is the oldest queued one when the
+        // ring is full
+        while (m_queued == m_bufferCount && m_failure == null)
+            waitForWriter();
+        checkFailure();
+        return m_fill;
+    }
+
+    /**
+     * Wait until every queued buffer has been written.
+     *
+     * @throws IOException if the real output failed, or if the thread was
+     * interrupted while waiting
+     */
+    final synchronized void drain() throws IOException
+    {
+        while (m_queued > 0 && m_failure == null)
+            waitForWriter();
+        checkFailure();
+    }
+
+    /**
+     * Write the next queued buffer, on a writer thread, and put the ring
+     * back in line if it has more.
+     */
+    private void writeNext()
+    {
+        final int index;
+        synchronized (this)
+        {
+            if (m_queued == 0 || m_failure != null)
+            {
+                m_scheduled = false;
+                return;
+            }
+            index = m_drain;
+        }
+
+        try
+        {
+            writeBuffer(index, m_lengths[index]);
+        }
+        catch (IOException e)
+        {
+            fail(e);
+            return;
+        }
+        catch (RuntimeException e)
+        {
+            fail(new IOException(e.toString()));
+            return;
+        }
+
+        synchronized (this)
+        {
+            m_drain = (m_drain + 1) % m_bufferCount;
+            m_queued--;
+            notifyAll();
+            if (m_queued == 0)
+                m_scheduled = false;
+            else
+                schedule(this);
+        }
+    }
+
+    /**
+     * Keep the exception of the real output for the serializer's thread,
+     * and drop the queued buffers.
+     */
+    private synchronized void fail(IOException e)
+    {
+        m_failure = e;
+        m_queued = 0;
+        m_scheduled = false;
+        notifyAll();
+    }
+
+    private void checkFailure() throws IOException
+    {
+        if (m_failure != null)
+            throw m_failure;
+    }
+
+    private void waitForWriter() throws IOException
+    {
+        try
+        {
+            wait();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Put a ring in line for a writer thread, starting another thread if
+     * none is waiting and there are fewer than WRITER_THREADS. A ring is
+     * locked before s_scheduled, never after it.
+     */
+    private static void schedule(AsyncBufferRing ring)
+    {
+        synchronized (s_scheduled)
+        {
+            s_scheduled.addElement(ring);
+            if (s_idleThreads > 0)
+            {
+                s_scheduled.notify();
+            }
+            else if (s_threads < WRITER_THREADS)
+            {
+                s_threads++;
+                final Thread thread =
+                    new Thread(new Writer(), "Xalan serializer output");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    /**
+     * A writer thread, which writes a buffer of each ring in s_scheduled
+     * in turn.
+     */
+    private static final class Writer implements Runnable
+    {
+        public void run()
+        {
+            while (true)
+            {
+                final AsyncBufferRing ring;
+                synchronized (s_scheduled)
+                {
+                    final long start = System.currentTimeMillis();
+                    while (s_scheduled.isEmpty())
+                    {
+                        final long idle = System.currentTimeMillis() - start;
+                        if (idle >= IDLE_TIMEOUT)
+                        {
+                            s_threads--;
+                            return;
+                        }
+                        s_idleThreads++;
+                        try
+                        {
+                            s_scheduled.wait(IDLE_TIMEOUT - idle);
+                        }
+                        catch (InterruptedException e)
+                        {
+                            // Nobody but the serializer knows this thread
+                        }
+                        s_idleThreads--;
+                    }
+                    ring = (AsyncBufferRing) s_scheduled.elementAt(0);
+                    s_scheduled.removeElementAt(0);
+                }
+
+                try
+                {
+                    ring.writeNext();
+                }
+                catch (Error e)
+                {
+                    // Don't leave the serializer waiting for this thread
+                    ring.fail(new IOException(e.toString()));
+                    synchronized (s_scheduled)
+                    {
+                        s_threads--;
+                    }
+                    throw e;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.serializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.xml.serializer.utils.MsgKey;
+import org.apache.xml.serializer.utils.Utils;
+
+/**
+ * An OutputStream that collects the bytes written to it in a ring of
+ * buffers and writes full buffers to another OutputStream on one of the
+ * serializer's writer threads, see {@link AsyncBufferRing}, so that the serializer goes on with the document
+ * while the output is being written. This is used for the
+ * {@link OutputPropertiesFactory#S_KEY_ASYNC_OUTPUT} output property.
+ * <p>
+ * flush() waits until everything written so far has reached the other
+ * stream. An IOException thrown by the other stream is thrown by the next
+ * write(), flush() or close().
+ *
+ * This class is only for internal use within the serializer.
+ * @xsl.usage internal
+ */
+final class AsyncOutputStream extends OutputStream
+{
+    /** The number of buffers in the ring. */
+    static final int BUFFER_COUNT = 4;
+
+    /** The size in bytes of each buffer. */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The stream the buffers are written to. */
+    private final OutputStream m_os;
+
+    private final Ring m_ring = new Ring();
+
+    /** The buffers, each one allocated when it is first filled. */
+    private final byte[][] m_buffers = new byte[m_ring.getBufferCount()][];
+
+    /** The buffer being filled. */
+    private byte[] m_buf;
+
+    /** The index of the buffer being filled. */
+    private int m_index;
+
+    /** The number of bytes in the buffer being filled. */
+    private int m_count;
+
+    private boolean m_closed;
+
+    /**
+     * @param os the stream to write the output to
+     */
+    AsyncOutputStream(OutputStream os)
+    {
+        m_os = os;
+        m_buf = m_buffers[0] = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * @return the stream the output is written to.
+     */
+    OutputStream getOutputStream()
+    {
+        return m_os;
+    }
+
+    public void write(int b) throws IOException
+    {
+        if (m_count == BUFFER_SIZE)
+            queueBuffer();
+        m_buf[m_count++] = (byte) b;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        while (len > 0)
+        {
+            if (m_count == BUFFER_SIZE)
+                queueBuffer();
+            final int n = Math.min(len, BUFFER_SIZE - m_count);
+            System.arraycopy(b, off, m_buf, m_count, n);
+            m_count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Write everything written so far to the other stream, wait for it
+     * to be written and flush the other stream.
+     */
+    public void flush() throws IOException
+    {
+        checkOpen();
+        if (m_count > 0)
+            queueBuffer();
+        m_ring.drain();
+        m_os.flush();
+    }
+
+    public void close() throws IOException
+    {
+        if (m_closed)
+            return;
+        flush();
+        m_closed = true;
+        m_os.close();
+    }
+
+    /**
+     * Queue the buffer being filled and switch to the next one.
+     */
+    private void queueBuffer() throws IOException
+    {
+        checkOpen();
+        m_index = m_ring.queue(m_count);
+        m_buf = m_buffers[m_index];
+        if (m_buf == null)
+            m_buf = m_buffers[m_index] = new byte[BUFFER_SIZE];
+        m_count = 0;
+    }
+
+    private void checkOpen() throws IOException
+    {
+        if (m_closed)
+        {
+            throw new IOException(
+                Utils.messages.createMessage(MsgKey.ER_OIERROR, null));
+        }
+    }
+
+    /** The ring, writing its buffers to the other stream. */
+    private final class Ring extends AsyncBufferRing
+    {
+        Ring()
+        {
+            super(BUFFER_COUNT);
+        }
+
+        void writeBuffer(int index, int length) throws IOException
+        {
+            m_os.write(m_buffers[index], 0, length);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.serializer;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.apache.xml.serializer.utils.MsgKey;
+import org.apache.xml.serializer.utils.Utils;
+
+/**
+ * A Writer that collects the characters written to it in a ring of
+ * buffers and writes full buffers to another Writer on one of the
+ * serializer's writer threads, see {@link AsyncBufferRing}. This is the character counterpart of {@link AsyncOutputStream},
+ * used for the {@link OutputPropertiesFactory#S_KEY_ASYNC_OUTPUT} output
+ * property when the serializer writes to a Writer.
+ * <p>
+ * flush() waits until everything written so far has reached the other
+ * writer. An IOException thrown by the other writer is thrown by the next
+ * write(), flush() or close().
+ *
+ * This class is only for internal use within the serializer.
+ * @xsl.usage internal
+ */
+final class AsyncWriter extends Writer
+{
+    /** The number of buffers in the ring. */
+    static final int BUFFER_COUNT = 4;
+
+    /** The size in characters of each buffer. */
+    static final int BUFFER_SIZE = 32 * 1024;
+
+    /** The writer the buffers are written to. */
+    private final Writer m_writer;
+
+    private final Ring m_ring = new Ring();
+
+    /** The buffers, each one allocated when it is first filled. */
+    private final char[][] m_buffers = new char[m_ring.getBufferCount()][];
+
+    /** The buffer being filled. */
+    private char[] m_buf;
+
+    /** The index of the buffer being filled. */
+    private int m_index;
+
+    /** The number of characters in the buffer being filled. */
+    private int m_count;
+
+    private boolean m_closed;
+
+    /**
+     * @param writer the writer to write the output to
+     */
+    AsyncWriter(Writer writer)
+    {
+        m_writer = writer;
+        m_buf = m_buffers[0] = new char[BUFFER_SIZE];
+    }
+
+    /**
+     * @return the writer the output is written to.
+     */
+    Writer getWriter()
+    {
+        return m_writer;
+    }
+
+    public void write(int c) throws IOException
+    {
+        if (m_count == BUFFER_SIZE)
+            queueBuffer();
+        m_buf[m_count++] = (char) c;
+    }
+
+    public void write(char[] chars, int off, int len) throws IOException
+    {
+        while (len > 0)
+        {
+            if (m_count == BUFFER_SIZE)
+                queueBuffer();
+            final int n = Math.min(len, BUFFER_SIZE - m_count);
+            System.arraycopy(chars, off, m_buf, m_count, n);
+            m_count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void write(String s, int off, int len) throws IOException
+    {
+        while (len > 0)
+        {
+            if (m_count == BUFFER_SIZE)
+                queueBuffer();
+            final int n = Math.min(len, BUFFER_SIZE - m_count);
+            s.getChars(off, off + n, m_buf, m_count);
+            m_count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Write everything written so far to the other writer, wait for it
+     * to be written and flush the other writer.
+     */
+    public void flush() throws IOException
+    {
+        checkOpen();
+        if (m_count > 0)
+            queueBuffer();
+        m_ring.drain();
+        m_writer.flush();
+    }
+
+    public void close() throws IOException
+    {
+        if (m_closed)
+            return;
+        flush();
+        m_closed = true;
+        m_writer.close();
+    }
+
+    /**
+     * Queue the buffer being filled and switch to the next one.
+     */
+    private void queueBuffer() throws IOException
+    {
+        checkOpen();
+        m_index = m_ring.queue(m_count);
+        m_buf = m_buffers[m_index];
+        if (m_buf == null)
+            m_buf = m_buffers[m_index] = new char[BUFFER_SIZE];
+        m_count = 0;
+    }
+
+    private void checkOpen() throws IOException
+    {
+        if (m_closed)
+        {
+            throw new IOException(
+                Utils.messages.createMessage(MsgKey.ER_OIERROR, null));
+        }
+    }
+
+    /** The ring, writing its buffers to the other writer. */
+    private final class Ring extends AsyncBufferRing
+    {
+        Ring()
+        {
+            super(BUFFER_COUNT);
+        }
+
+        void writeBuffer(int index, int length) throws IOException
+        {
+            m_writer.write(m_buffers[index], 0, length);
+        }
+    }
+}
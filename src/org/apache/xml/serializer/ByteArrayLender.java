@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.serializer;
+
+import java.io.IOException;
+
+/**
+ * This interface is implemented by an OutputStream that collects its
+ * bytes in buffers of its own and can lend the array of one of them to
+ * a writer, so that the writer encodes characters straight into the
+ * stream's buffer instead of into a buffer of its own that the stream
+ * then copies.
+ * <p>
+ * A writer borrows an array with {@link #lendBytes(int)}, fills it from
+ * index 0, and gives it back either with
+ * {@link #writeLent(byte[], int)}, which passes on the bytes it holds, or
+ * with {@link #returnLent(byte[])}, which drops them. At most one array
+ * is lent at a time, and the writer must not touch an array after giving
+ * it back.
+ * <p>
+ * The interface uses no java.nio types, so the writers can refer to it
+ * whether or not java.nio is available.
+ * 
+ * This interface is only for internal use within the serializer. 
+ * @xsl.usage internal
+ */
+interface ByteArrayLender
+{
+    /**
+     * Lend the array of an empty buffer.
+     *
+     * @param minLength the smallest array the caller can use
+     * @return the array, or null if the stream has no buffer of that
+     * size to lend, in which case the caller writes through
+     * write(byte[], int, int) as usual.
+     */
+    public byte[] lendBytes(int minLength);
+
+    /**
+     * Take back a lent array and pass on the bytes in it, after any
+     * bytes written to the stream since the array was lent.
+     *
+     * @param bytes the array returned by {@link #lendBytes(int)}
+     * @param length the number of bytes written to it, from index 0
+     * @throws IOException
+     */
+    public void writeLent(byte[] bytes, int length) throws IOException;
+
+    /**
+     * Take back a lent array without passing on any of its bytes.
+     *
+     * @param bytes the array returned by {@link #lendBytes(int)}
+     */
+    public void returnLent(byte[] bytes);
+}
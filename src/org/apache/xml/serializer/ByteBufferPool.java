@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.serializer;
+
+import java.nio.ByteBuffer;
+
+import org.apache.xml.serializer.utils.MsgKey;
+import org.apache.xml.serializer.utils.Utils;
+
+/**
+ * A pool of equally sized ByteBuffers for {@link ChannelOutputStream}.
+ * <p>
+ * Allocating a direct buffer is slow and its memory is only reclaimed
+ * when the buffer object is collected, so direct buffers should be reused
+ * rather than created for each output. A pool keeps up to a fixed number
+ * of released buffers and allocates new ones when it has none; it never
+ * blocks. Buffers that are not released are simply collected.
+ * <p>
+ * The serializer encodes UTF-8 output straight into heap buffers of at
+ * least {@link #DEFAULT_BUFFER_SIZE} bytes, and copies it into direct
+ * ones. For a channel it makes no difference, as the channel copies a
+ * heap buffer into a direct one of its own when writing it, but a
+ * {@link ByteBufferSink} given heap buffers gets the output without it
+ * being copied at all.
+ * <p>
+ * A pool may be shared by any number of threads.
+ * 
+ * @xsl.usage general
+ */
+public final class ByteBufferPool
+{
+    /** The default buffer size, the same as the serializer's own buffers. */
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    /** The default number of released buffers to keep. */
+    public static final int DEFAULT_MAX_POOLED = 64;
+
+    /** The pool used by ChannelOutputStream unless it is given one. */
+    private static ByteBufferPool s_defaultPool;
+
+    /** The capacity of every buffer in the pool. */
+    private final int m_bufferSize;
+
+    /** True for direct buffers, false for heap buffers. */
+    private final boolean m_direct;
+
+    /** Released buffers, m_pooled[0] to m_pooled[m_count-1] are valid. */
+    private final ByteBuffer[] m_pooled;
+
+    private int m_count;
+
+    /**
+     * Create a pool.
+     *
+     * @param bufferSize the capacity of the buffers, in bytes
+     * @param maxPooled the largest number of released buffers to keep
+     * @param direct true for direct buffers, false for heap buffers
+     */
+    public ByteBufferPool(int bufferSize, int maxPooled, boolean direct)
+    {
+        if (bufferSize <= 0)
+        {
+            throw new IllegalArgumentException(
+                Utils.messages.createMessage(
+                    MsgKey.ER_BUFFER_SIZE_LESSTHAN_ZERO, null));
+        }
+        m_bufferSize = bufferSize;
+        m_direct = direct;
+        m_pooled = new ByteBuffer[Math.max(0, maxPooled)];
+    }
+
+    /**
+     * Get the pool shared by all the streams that are not given one. It
+     * holds up to {@link #DEFAULT_MAX_POOLED} heap buffers of
+     * {@link #DEFAULT_BUFFER_SIZE} bytes.
+     */
+    public static synchronized ByteBufferPool getDefaultPool()
+    {
+        if (s_defaultPool == null)
+        {
+            s_defaultPool = new ByteBufferPool(DEFAULT_BUFFER_SIZE,
+                                               DEFAULT_MAX_POOLED, false);
+        }
+        return s_defaultPool;
+    }
+
+    /**
+     * @return the capacity of the buffers in this pool.
+     */
+    public int getBufferSize()
+    {
+        return m_bufferSize;
+    }
+
+    /**
+     * @return true if the pool holds direct buffers.
+     */
+    public boolean isDirect()
+    {
+        return m_direct;
+    }
+
+    /**
+     * Get an empty buffer, with its position at 0 and its limit at its
+     * capacity.
+     */
+    public ByteBuffer get()
+    {
+        synchronized (m_pooled)
+        {
+            if (m_count > 0)
+            {
+                final ByteBuffer buffer = m_pooled[--m_count];
+                m_pooled[m_count] = null;
+                return buffer;
+            }
+        }
+        return m_direct ? ByteBuffer.allocateDirect(m_bufferSize)
+                        : ByteBuffer.allocate(m_bufferSize);
+    }
+
+    /**
+     * Give a buffer back to the pool. The caller must not use the buffer
+     * afterwards. Buffers that were not made by this pool, and buffers
+     * released when the pool is full, are dropped.
+     */
+    public void release(ByteBuffer buffer)
+    {
+        if (buffer == null
+            || buffer.capacity() != m_bufferSize
+            || buffer.isDirect() != m_direct
+            || buffer.isReadOnly())
+            return;
+
+        buffer.clear();
+        synchronized (m_pooled)
+        {
+            if (m_count < m_pooled.length)
+                m_pooled[m_count++] = buffer;
+        }
+    }
+
+    /**
+     * @return the number of released buffers the pool holds.
+     */
+    public int getPooledCount()
+    {
+        synchronized (m_pooled)
+        {
+            return m_count;
+        }
+    }
+}
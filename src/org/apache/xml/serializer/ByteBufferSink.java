@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.serializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the bytes of serialized output in the buffers they were
+ * written into, for callers that want to own the output buffers, for
+ * example a network framework that queues buffers for a socket.
+ * <p>
+ * A {@link ChannelOutputStream} created on a sink fills buffers taken from
+ * a {@link ByteBufferPool} and hands them over, in output order, once they
+ * hold the stream's flush threshold of bytes or the stream is flushed.
+ * With a pool of heap buffers the serializer encodes UTF-8 output straight
+ * into them, and the bytes are not copied at all. Either way the
+ * buffers are not copied again: each buffer is passed with its position
+ * at the first byte and its limit after the last one. The sink owns the
+ * buffers it is given. It should give each one back with
+ * {@link ByteBufferPool#release(ByteBuffer)} when it is done with it, but
+ * it may also keep it or drop it.
+ * <p>
+ * Implementations are called only from the thread writing to the stream.
+ */
+public interface ByteBufferSink
+{
+    /**
+     * Take over a sequence of filled buffers, as a
+     * java.nio.channels.GatheringByteChannel would write them.
+     *
+     * @param buffers the buffers, in output order
+     * @param offset index of the first buffer in the array to take
+     * @param length number of buffers to take
+     * @throws IOException to report an error to the serializer, which
+     * will abandon the output.
+     */
+    public void write(ByteBuffer[] buffers, int offset, int length)
+        throws IOException;
+
+    /**
+     * Called when the serializer flushes its output, after all the bytes
+     * written before the flush have been passed to
+     * {@link #write(ByteBuffer[], int, int)}.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException;
+
+    /**
+     * Called when the stream is closed, after the remaining bytes have
+     * been passed to {@link #write(ByteBuffer[], int, int)}.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException;
+}
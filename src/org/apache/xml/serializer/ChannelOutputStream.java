@@ -0,0 +1,423 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.serializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.xml.serializer.utils.MsgKey;
+import org.apache.xml.serializer.utils.Utils;
+
+/**
+ * An OutputStream that collects serialized output in pooled ByteBuffers
+ * and writes them to a WritableByteChannel, or hands them to a
+ * {@link ByteBufferSink}, a batch at a time.
+ * <p>
+ * The serializer writes to an OutputStream, so this stream can be given
+ * to either processor through a StreamResult, or to a
+ * {@link Serializer} through setOutputStream():
+ * <pre>
+ *   FileChannel channel = new FileOutputStream(file).getChannel();
+ *   OutputStream out = new ChannelOutputStream(channel);
+ *   transformer.transform(source, new StreamResult(out));
+ *   out.close();
+ * </pre>
+ * A {@link ChannelResult} does the same in one step.
+ * <p>
+ * The serializer encodes UTF-8 output straight into the buffers, taken
+ * from a {@link ByteBufferPool} of heap buffers. Other bytes, and all
+ * the bytes when the pool holds direct buffers, are copied into them.
+ * When the full buffers hold at least the flush threshold of bytes they
+ * are written to the channel in one gathering write, if the channel
+ * supports it, and given back to the pool. With a ByteBufferSink the
+ * buffers are instead handed to the sink without being copied again, and
+ * the sink decides when to give them back. Flushing the stream passes on
+ * all the bytes written so far, so the serializer's flush at the end of
+ * the document completes the output.
+ * <p>
+ * A channel must be in blocking mode. The stream is not thread-safe, but
+ * any number of streams may share a pool.
+ * <p>
+ * This class, ChannelResult, ByteBufferPool and ByteBufferSink need
+ * java.nio, from JDK 1.4 on. Nothing else in the serializer refers to
+ * them, so the rest of it still runs without java.nio.
+ * 
+ * @xsl.usage general
+ */
+public final class ChannelOutputStream extends OutputStream
+    implements ByteArrayLender
+{
+    /** The default number of bytes to collect before writing them out. */
+    public static final int DEFAULT_FLUSH_THRESHOLD =
+        4 * ByteBufferPool.DEFAULT_BUFFER_SIZE;
+
+    /** Where the filled buffers go. */
+    private final ByteBufferSink m_sink;
+
+    /** Where the buffers come from. */
+    private final ByteBufferPool m_pool;
+
+    /** The number of bytes to collect before passing them on. */
+    private final int m_flushThreshold;
+
+    /**
+     * Buffers that are full, or were flushed, and have not been passed on
+     * yet. m_filled[0] to m_filled[m_filledCount-1] are valid and flipped
+     * for reading.
+     */
+    private final ByteBuffer[] m_filled;
+
+    private int m_filledCount;
+
+    /** The number of bytes in the buffers in m_filled. */
+    private int m_filledBytes;
+
+    /** The buffer being written to, or null. */
+    private ByteBuffer m_current;
+
+    /** The buffer whose array is lent to a writer, or null. */
+    private ByteBuffer m_lent;
+
+    private boolean m_closed;
+
+    /**
+     * Create a stream that writes to a channel, using the default pool
+     * and flush threshold.
+     *
+     * @param channel the channel, in blocking mode
+     */
+    public ChannelOutputStream(WritableByteChannel channel)
+    {
+        this(channel, ByteBufferPool.getDefaultPool(),
+             DEFAULT_FLUSH_THRESHOLD);
+    }
+
+    /**
+     * Create a stream that writes to a channel.
+     *
+     * @param channel the channel, in blocking mode
+     * @param pool the pool to take buffers from and give them back to
+     * @param flushThreshold the number of bytes to collect before writing
+     * them to the channel
+     */
+    public ChannelOutputStream(
+        WritableByteChannel channel,
+        ByteBufferPool pool,
+        int flushThreshold)
+    {
+        this(new ChannelSink(channel, pool), pool, flushThreshold);
+    }
+
+    /**
+     * Create a stream that hands its buffers to a sink.
+     *
+     * @param sink the sink that takes over the filled buffers
+     * @param pool the pool to take buffers from
+     * @param flushThreshold the number of bytes to collect before handing
+     * the buffers to the sink
+     */
+    public ChannelOutputStream(
+        ByteBufferSink sink,
+        ByteBufferPool pool,
+        int flushThreshold)
+    {
+        if (flushThreshold <= 0)
+        {
+            throw new IllegalArgumentException(
+                Utils.messages.createMessage(
+                    MsgKey.ER_BUFFER_SIZE_LESSTHAN_ZERO, null));
+        }
+        m_sink = sink;
+        m_pool = pool;
+        m_flushThreshold = flushThreshold;
+
+        // Room for enough full buffers to reach the threshold
+        final int bufferSize = pool.getBufferSize();
+        m_filled =
+            new ByteBuffer[(flushThreshold + bufferSize - 1) / bufferSize];
+    }
+
+    /**
+     * Write a single byte.
+     *
+     * @throws IOException
+     */
+    public void write(int b) throws IOException
+    {
+        ByteBuffer current = currentBuffer();
+        current.put((byte) b);
+        if (!current.hasRemaining())
+            queueCurrent();
+    }
+
+    /**
+     * Write a portion of an array of bytes.
+     *
+     * @throws IOException
+     */
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        while (len > 0)
+        {
+            final ByteBuffer current = currentBuffer();
+            final int n = Math.min(len, current.remaining());
+            current.put(b, off, n);
+            off += n;
+            len -= n;
+            if (!current.hasRemaining())
+                queueCurrent();
+        }
+    }
+
+    /**
+     * Pass all the bytes written so far to the channel or sink, and then
+     * flush the sink.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException
+    {
+        if (m_closed)
+            return;
+        if (m_current != null && m_current.position() > 0)
+            queueCurrent();
+        passFilled();
+        m_sink.flush();
+    }
+
+    /**
+     * Pass the remaining bytes to the channel or sink and close it. A
+     * channel is closed; closing an already closed stream has no effect.
+     * A buffer still lent to a writer goes back to the pool when the
+     * writer gives it back.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException
+    {
+        if (m_closed)
+            return;
+        try
+        {
+            if (m_current != null && m_current.position() > 0)
+                queueCurrent();
+            passFilled();
+        }
+        finally
+        {
+            m_closed = true;
+            if (m_current != null)
+            {
+                m_pool.release(m_current);
+                m_current = null;
+            }
+            m_sink.close();
+        }
+    }
+
+    /**
+     * Lend the array of a buffer from the pool, if the pool holds heap
+     * buffers of at least minLength bytes.
+     *
+     * @see ByteArrayLender#lendBytes(int)
+     */
+    public byte[] lendBytes(int minLength)
+    {
+        if (m_closed
+            || m_lent != null
+            || m_pool.isDirect()
+            || m_pool.getBufferSize() < minLength)
+            return null;
+
+        final ByteBuffer buffer = m_pool.get();
+        if (!buffer.hasArray() || buffer.arrayOffset() != 0)
+        {
+            m_pool.release(buffer);
+            return null;
+        }
+        m_lent = buffer;
+        return buffer.array();
+    }
+
+    /**
+     * @see ByteArrayLender#writeLent(byte[], int)
+     */
+    public void writeLent(byte[] bytes, int length) throws IOException
+    {
+        final ByteBuffer buffer = takeLent();
+        if (m_closed)
+        {
+            m_pool.release(buffer);
+            throw new IOException(
+                Utils.messages.createMessage(MsgKey.ER_OIERROR, null));
+        }
+
+        // The bytes written to the stream itself came first
+        if (m_current != null && m_current.position() > 0)
+            queueCurrent();
+        buffer.position(length);
+        queue(buffer);
+    }
+
+    /**
+     * @see ByteArrayLender#returnLent(byte[])
+     */
+    public void returnLent(byte[] bytes)
+    {
+        m_pool.release(takeLent());
+    }
+
+    /**
+     * Take back the lent buffer.
+     */
+    private ByteBuffer takeLent()
+    {
+        final ByteBuffer buffer = m_lent;
+        m_lent = null;
+        return buffer;
+    }
+
+    /**
+     * Get the buffer to write to, taking a new one from the pool if
+     * needed.
+     */
+    private ByteBuffer currentBuffer() throws IOException
+    {
+        if (m_closed)
+        {
+            throw new IOException(
+                Utils.messages.createMessage(MsgKey.ER_OIERROR, null));
+        }
+        if (m_current == null)
+            m_current = m_pool.get();
+        return m_current;
+    }
+
+    /**
+     * Move the current buffer to the filled buffers, and pass those on
+     * if they have reached the threshold.
+     */
+    private void queueCurrent() throws IOException
+    {
+        final ByteBuffer current = m_current;
+        m_current = null;
+        queue(current);
+    }
+
+    /**
+     * Move a buffer to the filled buffers, and pass those on if they have
+     * reached the threshold.
+     */
+    private void queue(ByteBuffer buffer) throws IOException
+    {
+        buffer.flip();
+        m_filled[m_filledCount++] = buffer;
+        m_filledBytes += buffer.remaining();
+        if (m_filledBytes >= m_flushThreshold || m_filledCount == m_filled.length)
+            passFilled();
+    }
+
+    /**
+     * Pass the filled buffers to the sink.
+     */
+    private void passFilled() throws IOException
+    {
+        final int count = m_filledCount;
+        if (count == 0)
+            return;
+        m_filledCount = 0;
+        m_filledBytes = 0;
+        try
+        {
+            m_sink.write(m_filled, 0, count);
+        }
+        finally
+        {
+            // The sink owns them now
+            for (int i = 0; i < count; i++)
+                m_filled[i] = null;
+        }
+    }
+
+    /**
+     * The sink that writes buffers to a channel and gives them back to the
+     * pool.
+     */
+    private static final class ChannelSink implements ByteBufferSink
+    {
+        private final WritableByteChannel m_channel;
+
+        private final ByteBufferPool m_pool;
+
+        ChannelSink(WritableByteChannel channel, ByteBufferPool pool)
+        {
+            m_channel = channel;
+            m_pool = pool;
+        }
+
+        public void write(ByteBuffer[] buffers, int offset, int length)
+            throws IOException
+        {
+            final int end = offset + length;
+            try
+            {
+                if (m_channel instanceof GatheringByteChannel)
+                {
+                    final GatheringByteChannel channel =
+                        (GatheringByteChannel) m_channel;
+                    // A gathering write may stop part way through
+                    int first = offset;
+                    while (buffers[end - 1].hasRemaining())
+                    {
+                        while (!buffers[first].hasRemaining())
+                            first++;
+                        channel.write(buffers, first, end - first);
+                    }
+                }
+                else
+                {
+                    for (int i = offset; i < end; i++)
+                    {
+                        while (buffers[i].hasRemaining())
+                            m_channel.write(buffers[i]);
+                    }
+                }
+            }
+            finally
+            {
+                for (int i = offset; i < end; i++)
+                    m_pool.release(buffers[i]);
+            }
+        }
+
+        public void flush()
+        {
+        }
+
+        public void close() throws IOException
+        {
+            m_channel.close();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.serializer;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+import javax.xml.transform.stream.StreamResult;
+
+/**
+ * A StreamResult that writes the output of a transformation to a
+ * WritableByteChannel, or hands it to a {@link ByteBufferSink}, through
+ * a {@link ChannelOutputStream}:
+ * <pre>
+ *   ChannelResult result = new ChannelResult(socketChannel);
+ *   transformer.transform(source, result);
+ *   result.close();
+ * </pre>
+ * The output is complete in the channel or sink when the transformation
+ * returns. Closing the result closes the channel, or the sink, and lets
+ * the stream give its buffers back to the pool.
+ * <p>
+ * The result can also be given to a {@link Serializer} by passing
+ * {@link #getOutputStream()} to its setOutputStream() method.
+ * 
+ * @see ChannelOutputStream
+ * @xsl.usage general
+ */
+public class ChannelResult extends StreamResult
+{
+    /**
+     * Create a result that writes to a channel, using the default pool
+     * and flush threshold.
+     *
+     * @param channel the channel, in blocking mode
+     */
+    public ChannelResult(WritableByteChannel channel)
+    {
+        super(new ChannelOutputStream(channel));
+    }
+
+    /**
+     * Create a result that writes to a channel.
+     *
+     * @param channel the channel, in blocking mode
+     * @param pool the pool to take buffers from and give them back to
+     * @param flushThreshold the number of bytes to collect before writing
+     * them to the channel
+     */
+    public ChannelResult(
+        WritableByteChannel channel,
+        ByteBufferPool pool,
+        int flushThreshold)
+    {
+        super(new ChannelOutputStream(channel, pool, flushThreshold));
+    }
+
+    /**
+     * Create a result that hands its buffers to a sink.
+     *
+     * @param sink the sink that takes over the filled buffers
+     * @param pool the pool to take buffers from
+     * @param flushThreshold the number of bytes to collect before handing
+     * the buffers to the sink
+     */
+    public ChannelResult(
+        ByteBufferSink sink,
+        ByteBufferPool pool,
+        int flushThreshold)
+    {
+        super(new ChannelOutputStream(sink, pool, flushThreshold));
+    }
+
+    /**
+     * Pass on any remaining output and close the stream, and with it the
+     * channel or sink. Closing a result a second time has no effect.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException
+    {
+        getOutputStream().close();
+    }
+}
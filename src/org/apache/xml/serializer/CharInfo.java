@@ -26,7 +26,6 @@ import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.PropertyResourceBundle;
 import java.util.ResourceBundle;
@@ -45,6 +44,12 @@ import org.apache.xml.serializer.utils.WrappedRuntimeException;
  * special treatement, such as entity reference substitution or normalization
  * of a newline character.  It also provides character to entity reference
  * lookup.
+ * <p>
+ * A CharInfo is not changed after it has been constructed, so the one
+ * that is cached for each entities file and output method is shared by
+ * all the serializers that use it. It also caches, for each output
+ * encoding, a table of the characters that can be written without
+ * escaping, see {@link #getEscapeFlags(EncodingInfo)}.
  *
  * DEVELOPERS: See Known Issue in the constructor.
  * 
@@ -52,8 +57,30 @@ import org.apache.xml.serializer.utils.WrappedRuntimeException;
  */
 final class CharInfo
 {
-    /** Given a character, lookup a String to output (e.g. a decorated entity reference). */
-    private HashMap m_charToString;
+    /**
+     * Given a character, lookup a String to output (e.g. a decorated entity
+     * reference). The array is only as long as needed for the highest
+     * character with a mapping.
+     */
+    private String[] m_charToString = new String[ASCII_MAX];
+
+    /**
+     * Bit for {@link #getEscapeFlags(EncodingInfo)}, set if the character
+     * can be written as is from a text node.
+     */
+    static final byte TEXT_CLEAN = 0x01;
+
+    /**
+     * Bit for {@link #getEscapeFlags(EncodingInfo)}, set if the character
+     * can be written as is from an attribute value.
+     */
+    static final byte ATTR_CLEAN = 0x02;
+
+    /**
+     * The tables returned by getEscapeFlags(), keyed by the Java name of
+     * the encoding, or by "" for no encoding.
+     */
+    private final Hashtable m_escapeFlags = new Hashtable();
 
     /**
      * The name of the HTML entities file.
@@ -144,14 +171,7 @@ final class CharInfo
 
 
     /**
-     * A base constructor just to explicitly create the fields,
-     * with the exception of m_charToString which is handled
-     * by the constructor that delegates base construction to this one.
-     * <p>
-     * m_charToString is not created here only for performance reasons,
-     * to avoid creating a Hashtable that will be replaced when
-     * making a mutable copy, {@link #mutableCopyOf(CharInfo)}. 
-     *
+     * A base constructor just to explicitly create the fields.
      */
     private CharInfo() 
     {
@@ -159,10 +179,6 @@ final class CharInfo
     	this.firstWordNotUsed = 0;
     	this.shouldMapAttrChar_ASCII = new boolean[ASCII_MAX];
     	this.shouldMapTextChar_ASCII = new boolean[ASCII_MAX];
-    	this.m_charKey = new CharKey();
-    	
-    	// Not set here, but in a constructor that uses this one
-    	// this.m_charToString =  new Hashtable();  
     	
     	this.onlyQuotAmpLtGt = true;
     	
@@ -174,7 +190,6 @@ final class CharInfo
     {
     	// call the default constructor to create the fields
     	this();
-    	m_charToString = new HashMap();
 
         ResourceBundle entities = null;
         boolean noExtraEntities = true;
@@ -372,29 +387,11 @@ final class CharInfo
         return extra;
     }
 
-    /**
-     * A utility object, just used to map characters to output Strings,
-     * needed because a HashMap needs to map an object as a key, not a 
-     * Java primitive type, like a char, so this object gets around that
-     * and it is reusable.
-     */
-    private final CharKey m_charKey;
-
     /**
      * Map a character to a String. For example given
      * the character '>' this method would return the fully decorated
      * entity name "&lt;".
-     * Strings for entity references are loaded from a properties file,
-     * but additional mappings defined through calls to defineChar2String()
-     * are possible. Such entity reference mappings could be over-ridden.
-     *
-     * This is reusing a stored key object, in an effort to avoid
-     * heap activity. Unfortunately, that introduces a threading risk.
-     * Simplest fix for now is to make it a synchronized method, or to give
-     * up the reuse; I see very little performance difference between them.
-     * Long-term solution would be to replace the hashtable with a sparse array
-     * keyed directly from the character's integer value; see DTM's
-     * string pool for a related solution.
+     * Strings for entity references are loaded from a properties file.
      *
      * @param value The character that should be resolved to
      * a String, e.g. resolve '>' to  "&lt;".
@@ -404,9 +401,56 @@ final class CharInfo
      */
     String getOutputStringForChar(char value)
     {
-        // CharKey m_charKey = new CharKey(); //Alternative to synchronized
-        m_charKey.setChar(value);
-        return (String) m_charToString.get(m_charKey);
+        final String[] charToString = m_charToString;
+        return (value < charToString.length) ? charToString[value] : null;
+    }
+
+    /**
+     * Get a table with an entry for every char, from '\u0000' to
+     * '\uFFFF', of {@link #TEXT_CLEAN} and {@link #ATTR_CLEAN} bits.
+     * A bit is set if the serializer can write the char as is, from a
+     * text node or an attribute value, in the given encoding. It is set
+     * only if the char has no mapping to a String, is not a control
+     * character, LINE SEPARATOR or part of a surrogate pair, and is in the
+     * encoding. Of the control characters only TAB is clean, and only in
+     * a text node. These are the characters that ToStream writes without
+     * looking at them any further.
+     * <p>
+     * The table is built once per encoding, and must not be modified.
+     *
+     * @param encodingInfo the output encoding
+     * @xsl.usage internal
+     */
+    byte[] getEscapeFlags(EncodingInfo encodingInfo)
+    {
+        final String key =
+            (encodingInfo.javaName == null) ? "" : encodingInfo.javaName;
+        byte[] flags = (byte[]) m_escapeFlags.get(key);
+        if (flags == null)
+        {
+            flags = new byte[0x10000];
+            for (int ch = 0; ch <= 0xFFFF; ch++)
+            {
+                final boolean clean;
+                if (ch < 0x7F)
+                    clean = (ch >= S_SPACE);
+                else
+                    clean = ch >= 0xA0
+                        && ch != S_LINE_SEPARATOR
+                        && (ch < 0xD800 || ch > 0xDFFF)
+                        && encodingInfo.isInEncoding((char) ch);
+
+                byte bits = 0;
+                if ((clean || ch == S_HORIZONAL_TAB) && !shouldMapTextChar(ch))
+                    bits |= TEXT_CLEAN;
+                if (clean && !shouldMapAttrChar(ch))
+                    bits |= ATTR_CLEAN;
+                flags[ch] = bits;
+            }
+            // Another thread may have done the same, either table will do
+            m_escapeFlags.put(key, flags);
+        }
+        return flags;
     }
     
     /**
@@ -488,19 +532,20 @@ final class CharInfo
      */
     static CharInfo getCharInfo(String entitiesFileName, String method)
     {
-        CharInfo charInfo = (CharInfo) m_getCharInfoCache.get(entitiesFileName);
+        // The method changes some of the mappings, so it is part of the key
+        final String key = entitiesFileName + ' ' + method;
+        CharInfo charInfo = (CharInfo) m_getCharInfoCache.get(key);
         if (charInfo != null) {
-        	return mutableCopyOf(charInfo);
+        	return charInfo;
         }
 
         // try to load it internally - cache
         try {
             charInfo = getCharInfoBasedOnPrivilege(entitiesFileName, 
                                         method, true);
-            // Put the common copy of charInfo in the cache, but return
-            // a copy of it.
-            m_getCharInfoCache.put(entitiesFileName, charInfo);
-            return mutableCopyOf(charInfo);
+            // Put charInfo in the cache, it is shared by all serializers
+            m_getCharInfoCache.put(key, charInfo);
+            return charInfo;
         } catch (Exception e) {}
 
         // try to load it externally - do not cache
@@ -527,40 +572,12 @@ final class CharInfo
                                 method, false);
     }
 
-    /**
-     * Create a mutable copy of the cached one.
-     * @param charInfo The cached one.
-     * @return
-     */
-    private static CharInfo mutableCopyOf(CharInfo charInfo) {
-    	CharInfo copy = new CharInfo();
-    	
-    	int max = charInfo.array_of_bits.length;
-    	System.arraycopy(charInfo.array_of_bits,0,copy.array_of_bits,0,max);
-    	
-    	copy.firstWordNotUsed = charInfo.firstWordNotUsed;
-    	
-    	max = charInfo.shouldMapAttrChar_ASCII.length;
-    	System.arraycopy(charInfo.shouldMapAttrChar_ASCII,0,copy.shouldMapAttrChar_ASCII,0,max);
-    	
-    	max = charInfo.shouldMapTextChar_ASCII.length;
-    	System.arraycopy(charInfo.shouldMapTextChar_ASCII,0,copy.shouldMapTextChar_ASCII,0,max);
-    	
-    	// utility field copy.m_charKey is already created in the default constructor 
-    	
-    	copy.m_charToString = (HashMap) charInfo.m_charToString.clone();
-    	
-    	copy.onlyQuotAmpLtGt = charInfo.onlyQuotAmpLtGt;
-    	    	
-		return copy;
-	}
-
 	/** 
 	 * Table of user-specified char infos.
 	 * The table maps entify file names (the name of the
 	 * property file without the .properties extension)
-	 * to CharInfo objects populated with entities defined in 
-	 * corresponding property file.  
+	 * and output methods to CharInfo objects populated with
+	 * entities defined in corresponding property file.  
 	 */
     private static Hashtable m_getCharInfoCache = new Hashtable();
 
@@ -728,80 +745,19 @@ final class CharInfo
      */
     boolean defineChar2StringMapping(String outputString, char inputChar) 
     {
-        CharKey character = new CharKey(inputChar);
-        m_charToString.put(character, outputString);
+        if (inputChar >= m_charToString.length)
+        {
+            final String[] charToString = new String[
+                Math.max(inputChar + 1, 2 * m_charToString.length)];
+            System.arraycopy(m_charToString, 0, charToString, 0,
+                             m_charToString.length);
+            m_charToString = charToString;
+        }
+        m_charToString[inputChar] = outputString;
         set(inputChar);  // mark the character has having a mapping to a String
         
         boolean extraMapping = extraEntity(outputString, inputChar);
         return extraMapping;
         	
     }
-
-    /**
-     * Simple class for fast lookup of char values, when used with
-     * hashtables.  You can set the char, then use it as a key.
-     *  
-     * @xsl.usage internal
-     */
-    private static class CharKey extends Object
-    {
-
-      /** String value          */
-      private char m_char;
-
-      /**
-       * Constructor CharKey
-       *
-       * @param key char value of this object.
-       */
-      public CharKey(char key)
-      {
-        m_char = key;
-      }
-  
-      /**
-       * Default constructor for a CharKey.
-       *
-       * @param key char value of this object.
-       */
-      public CharKey()
-      {
-      }
-  
-      /**
-       * Get the hash value of the character.  
-       *
-       * @return hash value of the character.
-       */
-      public final void setChar(char c)
-      {
-        m_char = c;
-      }
-
-
-
-      /**
-       * Get the hash value of the character.  
-       *
-       * @return hash value of the character.
-       */
-      public final int hashCode()
-      {
-        return (int)m_char;
-      }
-
-      /**
-       * Override of equals() for this object 
-       *
-       * @param obj to compare to
-       *
-       * @return True if this object equals this string value 
-       */
-      public final boolean equals(Object obj)
-      {
-        return ((CharKey)obj).m_char == m_char;
-      }
-    }
-   
-
 }
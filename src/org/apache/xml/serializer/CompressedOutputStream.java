@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.serializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An OutputStream that compresses the bytes written to it into gzip or
+ * zlib data and writes that to another OutputStream. This is used for the
+ * {@link OutputPropertiesFactory#S_KEY_COMPRESSION} output property.
+ * <p>
+ * Unlike java.util.zip.GZIPOutputStream this takes its Deflater from a
+ * {@link DeflaterPool} when the first byte of a document is written, and
+ * gives it back when {@link #finish()} ends the document. A document
+ * written after that starts another gzip member, or another zlib stream.
+ * flush() only flushes the other stream, the compressed data of a
+ * document is complete only once it is finished.
+ *
+ * This class is only for internal use within the serializer.
+ * @xsl.usage internal
+ */
+final class CompressedOutputStream extends OutputStream
+{
+    /** The value of the compression property for gzip output. */
+    static final String GZIP = "gzip";
+
+    /** The value of the compression property for zlib output. */
+    static final String DEFLATE = "deflate";
+
+    /** The size of the buffer for the compressed data. */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The gzip header: the magic number, the deflate method, no flags, no
+     * modification time, no extra flags and an unknown operating system.
+     */
+    private static final byte[] GZIP_HEADER =
+        { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    /** The stream the compressed data is written to. */
+    private final OutputStream m_os;
+
+    /** True for gzip data, false for zlib data. */
+    private final boolean m_gzip;
+
+    /** The compression level, 0 to 9, or -1 for the default. */
+    private final int m_level;
+
+    /** The buffer for the compressed data. */
+    private final byte[] m_buf = new byte[BUFFER_SIZE];
+
+    /** The checksum of the gzip member being written. */
+    private final CRC32 m_crc;
+
+    /** The Deflater of the document being written, null between documents. */
+    private Deflater m_deflater;
+
+    /**
+     * @param os the stream to write the compressed data to
+     * @param gzip true for gzip data, false for zlib data
+     * @param level the compression level, 0 to 9, or -1 for the default
+     */
+    CompressedOutputStream(OutputStream os, boolean gzip, int level)
+    {
+        m_os = os;
+        m_gzip = gzip;
+        m_level = level;
+        m_crc = gzip ? new CRC32() : null;
+    }
+
+    public void write(int b) throws IOException
+    {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    public synchronized void write(byte[] b, int off, int len)
+        throws IOException
+    {
+        if (m_deflater == null)
+            start();
+        if (len == 0)
+            return;
+        if (m_gzip)
+            m_crc.update(b, off, len);
+        m_deflater.setInput(b, off, len);
+        while (!m_deflater.needsInput())
+            deflate();
+    }
+
+    public void flush() throws IOException
+    {
+        m_os.flush();
+    }
+
+    /**
+     * Write the rest of the compressed data of the document, and the gzip
+     * trailer, to the other stream and flush it. The other stream is left
+     * open. If nothing was written since the last document an empty one
+     * is written, so the output is always valid compressed data.
+     */
+    synchronized void finish() throws IOException
+    {
+        if (m_deflater == null)
+            start();
+        m_deflater.finish();
+        while (!m_deflater.finished())
+            deflate();
+
+        if (m_gzip)
+        {
+            writeIntLE((int) m_crc.getValue());
+            writeIntLE(m_deflater.getTotalIn());
+        }
+        release();
+        m_os.flush();
+    }
+
+    /**
+     * Give the Deflater back to the pool without writing anything more,
+     * for a document that is abandoned.
+     */
+    synchronized void release()
+    {
+        if (m_deflater != null)
+        {
+            DeflaterPool.release(m_deflater, m_gzip);
+            m_deflater = null;
+        }
+    }
+
+    public void close() throws IOException
+    {
+        finish();
+        m_os.close();
+    }
+
+    /**
+     * Start the compressed data of a document.
+     */
+    private void start() throws IOException
+    {
+        // gzip holds raw deflate data, zlib has a header and trailer of
+        // its own that the Deflater writes
+        m_deflater = DeflaterPool.getDeflater(m_level, m_gzip);
+        if (m_gzip)
+        {
+            m_crc.reset();
+            m_os.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+        }
+    }
+
+    private void deflate() throws IOException
+    {
+        final int n = m_deflater.deflate(m_buf, 0, m_buf.length);
+        if (n > 0)
+            m_os.write(m_buf, 0, n);
+    }
+
+    /**
+     * Write an int as the 4 bytes of the gzip trailer, least significant
+     * byte first.
+     */
+    private void writeIntLE(int i) throws IOException
+    {
+        m_buf[0] = (byte) i;
+        m_buf[1] = (byte) (i >> 8);
+        m_buf[2] = (byte) (i >> 16);
+        m_buf[3] = (byte) (i >> 24);
+        m_os.write(m_buf, 0, 4);
+    }
+}
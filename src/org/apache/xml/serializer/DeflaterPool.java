@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.serializer;
+
+import java.util.Vector;
+import java.util.zip.Deflater;
+
+/**
+ * A pool of Deflaters for {@link CompressedOutputStream}. A Deflater
+ * allocates its compression state outside of the Java heap, which is
+ * costly to set up for every document and is only freed when the
+ * Deflater is ended or finalized, so the Deflaters are reset and re-used
+ * instead.
+ * <p>
+ * The pool keeps Deflaters for raw deflate data, as in gzip output, apart
+ * from those that write a zlib header and trailer, as a Deflater cannot
+ * switch between the two.
+ *
+ * This class is only for internal use within the serializer.
+ * @xsl.usage internal
+ */
+final class DeflaterPool
+{
+    /** The largest number of released Deflaters of each kind to keep. */
+    static final int MAX_POOLED = 16;
+
+    /** The released Deflaters that write raw deflate data. */
+    private static final Vector s_nowrap = new Vector();
+
+    /** The released Deflaters that write zlib data. */
+    private static final Vector s_zlib = new Vector();
+
+    private DeflaterPool()
+    {
+    }
+
+    /**
+     * Get a Deflater in the state of a newly created one.
+     *
+     * @param level the compression level, 0 to 9, or -1 for the default
+     * @param nowrap true for raw deflate data, false for zlib data
+     * @return a released or new Deflater
+     */
+    static Deflater getDeflater(int level, boolean nowrap)
+    {
+        final Vector pooled = nowrap ? s_nowrap : s_zlib;
+        Deflater deflater = null;
+        synchronized (pooled)
+        {
+            final int last = pooled.size() - 1;
+            if (last >= 0)
+            {
+                deflater = (Deflater) pooled.elementAt(last);
+                pooled.removeElementAt(last);
+            }
+        }
+
+        if (deflater == null)
+            return new Deflater(level, nowrap);
+        deflater.setLevel(level);
+        return deflater;
+    }
+
+    /**
+     * Give a Deflater back to the pool. It is reset here, or ended if the
+     * pool already holds enough of its kind. The caller must not use the
+     * Deflater afterwards.
+     *
+     * @param deflater the Deflater
+     * @param nowrap the kind it was got with from
+     * {@link #getDeflater(int, boolean)}
+     */
+    static void release(Deflater deflater, boolean nowrap)
+    {
+        deflater.reset();
+        final Vector pooled = nowrap ? s_nowrap : s_zlib;
+        synchronized (pooled)
+        {
+            if (pooled.size() < MAX_POOLED)
+            {
+                pooled.addElement(deflater);
+                return;
+            }
+        }
+        deflater.end();
+    }
+}
@@ -142,6 +142,31 @@ final class ElemContext
         m_currentElemDepth = previous.m_currentElemDepth + 1;
     }
 
+    /**
+     * Clear all of the "stack frames", this one, the ones above it and
+     * the dormant ones below it, so that the serializer can be re-used
+     * for another document without making new frames.
+     * @return Returns the root "stack frame".
+     */
+    final ElemContext clear()
+    {
+        ElemContext root = this;
+        while (root.m_prev != root)
+            root = root.m_prev;
+
+        for (ElemContext frame = root; frame != null; frame = frame.m_next)
+        {
+            frame.m_elementDesc = null;
+            frame.m_elementLocalName = null;
+            frame.m_elementName = null;
+            frame.m_elementURI = null;
+            frame.m_isCdataSection = false;
+            frame.m_isRaw = false;
+            frame.m_startTagOpen = false;
+        }
+        return root;
+    }
+
     /**
      * Pop the current "stack frame".
      * @return Returns the parent "stack frame" of the one popped.
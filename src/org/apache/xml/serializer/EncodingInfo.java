@@ -20,6 +20,7 @@
  */
 package org.apache.xml.serializer;
 
+import java.lang.reflect.Method;
 
 /**
  * Holds information about a given encoding, which is the Java name for the
@@ -36,20 +37,18 @@ package org.apache.xml.serializer;
  * </pre>
  * which can be called if the two characters from a high/low surrogate pair.
  * <p>
- * An EncodingInfo object is a node in a binary search tree. Such a node
- * will answer if a character is in the encoding, and do so for a given
- * range of unicode values (<code>m_first</code> to
- * <code>m_last</code>). It will handle a certain range of values
- * explicitly (<code>m_explFirst</code> to <code>m_explLast</code>).
- * If the unicode point is before that explicit range, that is it
- * is in the range <code>m_first <= value < m_explFirst</code>, then it will delegate to another EncodingInfo object for The root
- * of such a tree, m_before.  Likewise for values in the range 
- * <code>m_explLast < value <= m_last</code>, but delgating to <code>m_after</code>
- * <p>
- * Actually figuring out if a code point is in the encoding is expensive. So the
- * purpose of this tree is to cache such determinations, and not to build the
- * entire tree of information at the start, but only build up as much of the 
- * tree as is used during the transformation.
+ * Actually figuring out if a code point is in the encoding is expensive,
+ * so the answers are cached in bit sets. The first time a character of
+ * the Basic Multilingual Plane is looked up the answer is worked out for
+ * all 65536 of them at once, and characters outside of it are worked out
+ * 256 code points at a time. Each character is probed with the
+ * java.nio.charset.CharsetEncoder of the encoding, found by reflection
+ * so that the serializer still runs on JREs older than 1.4, where it
+ * falls back to encoding the character with String.getBytes(String).
+ * The answers never change afterwards, so
+ * the one EncodingInfo object that {@link Encodings} keeps for each
+ * encoding can be shared by all serializers in all threads, and a lookup
+ * in the Basic Multilingual Plane is a single bit test.
  * <p>
  * This Class is not a public API, and should only be used internally within
  * the serializer.
@@ -84,15 +83,60 @@ public final class EncodingInfo extends Object
      * The name used by the Java convertor.
      */
     final String javaName;
-    
+
     /**
-     * A helper object that we can ask if a
-     * single char, or a surrogate UTF-16 pair
-     * of chars that form a single character,
-     * is in this encoding.
+     * One bit for each char from '\u0000' to '\uFFFF', set if the char
+     * is in the encoding, or null until the first lookup. Once set the
+     * array is never changed.
      */
-    private InEncoding m_encoding;
-    
+    private volatile int[] m_bmpBits;
+
+    /**
+     * Bit sets for the code points above the Basic Multilingual Plane,
+     * 256 code points to a page, indexed by code point / 256, or null
+     * until the first lookup. Only accessed while synchronized on this
+     * object.
+     */
+    private int[][] m_supplementaryPages;
+
+    /** The number of code points in a page of m_supplementaryPages. */
+    private static final int PAGE_SIZE = 256;
+
+    /**
+     * The java.nio.charset.CharsetEncoder for the encoding, or null if
+     * there is none. Only accessed while synchronized on this object.
+     */
+    private Object m_encoder;
+
+    /** True once m_encoder has been looked up. */
+    private boolean m_encoderFound;
+
+    /**
+     * False if the JRE has a java.nio.charset package but cannot encode
+     * to this encoding, so that no character is in it.
+     */
+    private boolean m_canEncode = true;
+
+    /** java.nio.charset.Charset.forName(String), or null before 1.4. */
+    private static final Method s_forName =
+        getMethod("java.nio.charset.Charset", "forName", String.class);
+
+    /** java.nio.charset.Charset.newEncoder(), or null before 1.4. */
+    private static final Method s_newEncoder =
+        getMethod("java.nio.charset.Charset", "newEncoder", null);
+
+    /** java.nio.charset.CharsetEncoder.canEncode(char), or null before 1.4. */
+    private static final Method s_canEncodeChar =
+        getMethod("java.nio.charset.CharsetEncoder", "canEncode", Character.TYPE);
+
+    /**
+     * java.nio.charset.CharsetEncoder.canEncode(CharSequence), or null
+     * before 1.4.
+     */
+    private static final Method s_canEncodeChars =
+        getMethod("java.nio.charset.CharsetEncoder", "canEncode",
+                  findClass("java.lang.CharSequence"));
+
     /**
      * This is not a public API. It returns true if the
      * char in question is in the encoding.
@@ -102,15 +146,10 @@ public final class EncodingInfo extends Object
      * @xsl.usage internal
      */
     public boolean isInEncoding(char ch) {
-        if (m_encoding == null) {
-            m_encoding = new EncodingImpl();
-            
-            // One could put alternate logic in here to
-            // instantiate another object that implements the
-            // InEncoding interface. For example if the JRE is 1.4 or up
-            // we could have an object that uses JRE 1.4 methods
-        }
-        return m_encoding.isInEncoding(ch); 
+        int[] bits = m_bmpBits;
+        if (bits == null)
+            bits = getBMPBits();
+        return (bits[ch >> 5] & (1 << (ch & 0x1F))) != 0;
     }
     
     /**
@@ -123,15 +162,14 @@ public final class EncodingInfo extends Object
      * @xsl.usage internal
      */
     public boolean isInEncoding(char high, char low) {
-        if (m_encoding == null) {
-            m_encoding = new EncodingImpl();
-            
-            // One could put alternate logic in here to
-            // instantiate another object that implements the
-            // InEncoding interface. For example if the JRE is 1.4 or up
-            // we could have an object that uses JRE 1.4 methods
+        final int codePoint = Encodings.toCodePoint(high, low);
+        if (codePoint < 0x10000 || codePoint > 0x10FFFF) {
+            // Not a valid pair, don't cache the answer
+            return inEncoding(high, low, javaName);
         }
-        return m_encoding.isInEncoding(high, low); 
+        final int[] page = getSupplementaryPage(codePoint / PAGE_SIZE);
+        final int idx = codePoint % PAGE_SIZE;
+        return (page[idx >> 5] & (1 << (idx & 0x1F))) != 0;
     }
 
     /**
@@ -153,259 +191,187 @@ public final class EncodingInfo extends Object
         this.javaName = javaName;
         this.m_highCharInContiguousGroup = highChar;
     }
-    
-    
-    
+
     /**
-     * A simple interface to isolate the implementation.
-     * We could also use some new JRE 1.4 methods in another implementation
-     * provided we use reflection with them.
-     * <p>
-     * This interface is not a public API,
-     * and should only be used internally within the serializer. 
-     * @xsl.usage internal
+     * Work out which chars of the Basic Multilingual Plane are in the
+     * encoding, the first time this is needed.
      */
-    private interface InEncoding {
-        /**
-         * Returns true if the char is in the encoding
-         */
-        public boolean isInEncoding(char ch);
-        /**
-         * Returns true if the high/low surrogate pair forms
-         * a character that is in the encoding.
-         */
-        public boolean isInEncoding(char high, char low);
+    private synchronized int[] getBMPBits() {
+        if (m_bmpBits != null)
+            return m_bmpBits;
+
+        final int[] bits = new int[0x10000 >> 5];
+        if (javaName == null) {
+            // We will say that any character is in the encoding if
+            // we don't have an encoding.
+            // This is meaningful when the serializer is being used
+            // in temporary output state, where we are not writing to
+            // the final output tree.  It is when writing to the
+            // final output tree that we need to worry about the output
+            // encoding
+            setRange(bits, 0, 0xFFFF);
+        }
+        else if ("UTF8".equals(javaName)) {
+            // Every char but '\u0000' and the unpaired surrogates,
+            // which is what inEncoding(char, String) says, only faster
+            setRange(bits, 0x0001, 0xD7FF);
+            setRange(bits, 0xE000, 0xFFFF);
+        }
+        else if ("ISO8859_1".equals(javaName)) {
+            setRange(bits, 0x0001, 0x00FF);
+        }
+        else if ("ASCII".equals(javaName)) {
+            setRange(bits, 0x0001, 0x007F);
+        }
+        else if (getEncoder() != null || m_canEncode) {
+            // '\u0000' is never in the encoding
+            for (int ch = 1; ch <= 0xFFFF; ch++) {
+                if (canEncode((char) ch))
+                    bits[ch >> 5] |= (1 << (ch & 0x1F));
+            }
+        }
+        m_bmpBits = bits;
+        return bits;
     }
 
     /**
-     * This class implements the 
+     * Get the bit set of a page of supplementary code points, working it
+     * out the first time it is needed.
+     * @param pageNumber the code point divided by the page size.
      */
-    private class EncodingImpl implements InEncoding {
-        
+    private synchronized int[] getSupplementaryPage(int pageNumber) {
+        if (m_supplementaryPages == null)
+            m_supplementaryPages = new int[0x110000 / PAGE_SIZE][];
 
-
-        public boolean isInEncoding(char ch1) {
-            final boolean ret;
-            int codePoint = Encodings.toCodePoint(ch1);
-            if (codePoint < m_explFirst) {
-                // The unicode value is before the range
-                // that we explictly manage, so we delegate the answer.
-                
-                // If we don't have an m_before object to delegate to, make one.
-                if (m_before == null)
-                    m_before =
-                        new EncodingImpl(
-                            m_encoding,
-                            m_first,
-                            m_explFirst - 1,
-                            codePoint);
-                ret = m_before.isInEncoding(ch1);
-            } else if (m_explLast < codePoint) {
-                // The unicode value is after the range
-                // that we explictly manage, so we delegate the answer.
-                
-                // If we don't have an m_after object to delegate to, make one.
-                if (m_after == null)
-                    m_after =
-                        new EncodingImpl(
-                            m_encoding,
-                            m_explLast + 1,
-                            m_last,
-                            codePoint);
-                ret = m_after.isInEncoding(ch1);
-            } else {
-                // The unicode value is in the range we explitly handle
-                final int idx = codePoint - m_explFirst;
-                
-                // If we already know the answer, just return it.
-                if (m_alreadyKnown[idx])
-                    ret = m_isInEncoding[idx];
-                else {
-                    // We don't know the answer, so find out,
-                    // which may be expensive, then cache the answer 
-                    ret = inEncoding(ch1, m_encoding);
-                    m_alreadyKnown[idx] = true;
-                    m_isInEncoding[idx] = ret;
-                }
+        int[] page = m_supplementaryPages[pageNumber];
+        if (page == null) {
+            page = new int[PAGE_SIZE >> 5];
+            final int first = pageNumber * PAGE_SIZE;
+            for (int idx = 0; idx < PAGE_SIZE; idx++) {
+                final int offset = first + idx - 0x10000;
+                final char high = (char) (0xD800 + (offset >> 10));
+                final char low = (char) (0xDC00 + (offset & 0x3FF));
+                if (canEncode(high, low))
+                    page[idx >> 5] |= (1 << (idx & 0x1F));
             }
-            return ret;
+            m_supplementaryPages[pageNumber] = page;
         }
+        return page;
+    }
 
-        public boolean isInEncoding(char high, char low) {
-            final boolean ret;
-            int codePoint = Encodings.toCodePoint(high,low);
-            if (codePoint < m_explFirst) {
-                // The unicode value is before the range
-                // that we explictly manage, so we delegate the answer.
-                
-                // If we don't have an m_before object to delegate to, make one.
-                if (m_before == null)
-                    m_before =
-                        new EncodingImpl(
-                            m_encoding,
-                            m_first,
-                            m_explFirst - 1,
-                            codePoint);
-                ret = m_before.isInEncoding(high,low);
-            } else if (m_explLast < codePoint) {
-                // The unicode value is after the range
-                // that we explictly manage, so we delegate the answer.
-                
-                // If we don't have an m_after object to delegate to, make one.
-                if (m_after == null)
-                    m_after =
-                        new EncodingImpl(
-                            m_encoding,
-                            m_explLast + 1,
-                            m_last,
-                            codePoint);
-                ret = m_after.isInEncoding(high,low);
-            } else {
-                // The unicode value is in the range we explitly handle
-                final int idx = codePoint - m_explFirst;
-                
-                // If we already know the answer, just return it.
-                if (m_alreadyKnown[idx])
-                    ret = m_isInEncoding[idx];
-                else {
-                    // We don't know the answer, so find out,
-                    // which may be expensive, then cache the answer 
-                    ret = inEncoding(high, low, m_encoding);
-                    m_alreadyKnown[idx] = true;
-                    m_isInEncoding[idx] = ret;
+    /**
+     * Get the CharsetEncoder of the encoding, looking it up the first
+     * time. Must be called while synchronized on this object.
+     *
+     * @return the encoder, or null if the JRE has none for the encoding,
+     * in which case m_canEncode tells whether String.getBytes(String)
+     * should be tried instead.
+     */
+    private Object getEncoder() {
+        if (!m_encoderFound) {
+            m_encoderFound = true;
+            if (s_forName != null && s_newEncoder != null
+                && s_canEncodeChar != null && s_canEncodeChars != null) {
+                try {
+                    Object charset =
+                        s_forName.invoke(null, new Object[] { javaName });
+                    m_encoder = s_newEncoder.invoke(charset, new Object[0]);
+                }
+                catch (Exception e) {
+                    // An unknown encoding, or one that can only be decoded
+                    m_canEncode = false;
+                }
+            }
+            else {
+                try {
+                    "".getBytes(javaName);
+                }
+                catch (Exception e) {
+                    m_canEncode = false;
                 }
             }
-            return ret;
         }
+        return m_encoder;
+    }
 
-        /**
-         * The encoding.
-         */
-        final private String m_encoding;
-        /**
-         * m_first through m_last is the range of unicode
-         * values that this object will return an answer on.
-         * It may delegate to a similar object with a different
-         * range
-         */
-        final private int m_first;
-        
-        /**
-         * m_explFirst through m_explLast is the range of unicode
-         * value that this object handles explicitly and does not
-         * delegate to a similar object.
-         */
-        final private int m_explFirst;
-        final private int m_explLast;
-        final private int m_last;
-
-        /**
-         * The object, of the same type as this one,
-         * that handles unicode values in a range before
-         * the range explictly handled by this object, and
-         * to which this object may delegate.
-         */
-        private InEncoding m_before;
-        /**
-         * The object, of the same type as this one,
-         * that handles unicode values in a range after
-         * the range explictly handled by this object, and
-         * to which this object may delegate.
-         */
-        private InEncoding m_after;
-        
-        /**
-         * The number of unicode values explicitly handled
-         * by a single EncodingInfo object. This value is 
-         * tuneable, but is set to 128 because that covers the
-         * entire low range of ASCII type chars within a single
-         * object.
-         */
-        private static final int RANGE = 128;
+    /**
+     * Work out if a char that is not part of a surrogate pair is in the
+     * encoding. Must be called while synchronized on this object.
+     */
+    private boolean canEncode(char ch) {
+        final Object encoder = getEncoder();
+        if (encoder == null)
+            return m_canEncode && inEncoding(ch, javaName);
+        try {
+            return ((Boolean) s_canEncodeChar.invoke(
+                encoder, new Object[] { new Character(ch) })).booleanValue();
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
 
-        /**
-         * A flag to record if we already know the answer
-         * for the given unicode value.
-         */
-        final private boolean m_alreadyKnown[] = new boolean[RANGE];
-        /**
-         * A table holding the answer on whether the given unicode
-         * value is in the encoding.
-         */
-        final private boolean m_isInEncoding[] = new boolean[RANGE];
-        
-        private EncodingImpl() {
-            // This object will answer whether any unicode value
-            // is in the encoding, it handles values 0 through Integer.MAX_VALUE
-            this(javaName, 0, Integer.MAX_VALUE, (char) 0);
+    /**
+     * Work out if a high/low surrogate pair is in the encoding. Must be
+     * called while synchronized on this object.
+     */
+    private boolean canEncode(char high, char low) {
+        final Object encoder = getEncoder();
+        if (encoder == null)
+            return m_canEncode && inEncoding(high, low, javaName);
+        try {
+            final String pair = new String(new char[] { high, low });
+            return ((Boolean) s_canEncodeChars.invoke(
+                encoder, new Object[] { pair })).booleanValue();
         }
+        catch (Exception e) {
+            return false;
+        }
+    }
 
-        private EncodingImpl(String encoding, int first, int last, int codePoint) {
-            // Set the range of unicode values that this object manages
-            // either explicitly or implicitly.
-            m_first = first;
-            m_last = last;  
-                      
-            // Set the range of unicode values that this object 
-            // explicitly manages
-            m_explFirst = codePoint;
-            m_explLast = codePoint + (RANGE-1);  
-            
-            m_encoding = encoding;
-            
-            if (javaName != null)
-            {
-                // Some optimization.
-                if (0 <= m_explFirst && m_explFirst <= 127) {
-                    // This particular EncodingImpl explicitly handles
-                    // characters in the low range.
-                    if ("UTF8".equals(javaName)
-                        || "UTF-16".equals(javaName)
-                        || "ASCII".equals(javaName)
-                        || "US-ASCII".equals(javaName)
-                        || "Unicode".equals(javaName)
-                        || "UNICODE".equals(javaName)
-                        || javaName.startsWith("ISO8859")) {
-                        
-                        // Not only does this EncodingImpl object explicitly
-                        // handle chracters in the low range, it is
-                        // also one that we know something about, without
-                        // needing to call inEncoding(char ch, String encoding)
-                        // for this low range
-                        //
-                        // By initializing the table ahead of time
-                        // for these low values, we prevent the expensive
-                        // inEncoding(char ch, String encoding)
-                        // from being called, at least for these common
-                        // encodings.
-                        for (int unicode = 1; unicode < 127; unicode++) {
-                            final int idx = unicode - m_explFirst;
-                            if (0 <= idx && idx < RANGE) {
-                                m_alreadyKnown[idx] = true;
-                                m_isInEncoding[idx] = true;
-                            }
-                        }
-                    }
-                }
+    /**
+     * Look up a public method by reflection.
+     *
+     * @param className the name of the class declaring the method.
+     * @param methodName the name of the method.
+     * @param paramType the type of its one parameter, or null if it has
+     * none.
+     * @return the method, or null if the class, the parameter type or the
+     * method does not exist in this JRE.
+     */
+    private static Method getMethod(String className, String methodName,
+                                    Class paramType) {
+        try {
+            final Class[] paramTypes = (paramType == null)
+                ? new Class[0] : new Class[] { paramType };
+            return Class.forName(className).getMethod(methodName, paramTypes);
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
 
-                /* A little bit more than optimization.
-                 * 
-                 * We will say that any character is in the encoding if
-                 * we don't have an encoding.
-                 * This is meaningful when the serializer is being used
-                 * in temporary output state, where we are not writing to
-                 * the final output tree.  It is when writing to the
-                 * final output tree that we need to worry about the output
-                 * encoding
-                 */
-                if (javaName == null) {
-                    for (int idx = 0; idx < m_alreadyKnown.length; idx++) {
-                        m_alreadyKnown[idx] = true;
-                        m_isInEncoding[idx] = true;
-                    }
-                }
-            }
+    /**
+     * Load a class that may not exist in this JRE.
+     *
+     * @return the class, or null.
+     */
+    private static Class findClass(String className) {
+        try {
+            return Class.forName(className);
         }
+        catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Set the bits for the chars <code>first</code> to <code>last</code>
+     * inclusive.
+     */
+    private static void setRange(int[] bits, int first, int last) {
+        for (int ch = first; ch <= last; ch++)
+            bits[ch >> 5] |= (1 << (ch & 0x1F));
     }
 
     /**
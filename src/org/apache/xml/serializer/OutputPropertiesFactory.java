@@ -75,6 +75,19 @@ import org.apache.xml.serializer.utils.WrappedRuntimeException;
  * <li> <b>S_OMIT_META_TAG </b> -
  * This non-standard property key is used to set a value of "yes" if the META tag should be omitted where it would
  *  otherwise be supplied.
+ * 
+ * <li> <b>S_KEY_ASYNC_OUTPUT </b> -
+ * This non-standard property key is used to set a value of "yes" if the
+ * serialized output should be written to the output stream or writer on a
+ * separate thread, while the serializer goes on with the document.
+ * 
+ * <li> <b>S_KEY_COMPRESSION </b> -
+ * This non-standard property key is used to set a value of "gzip" or "deflate"
+ * if the serialized output should be compressed on its way to the output stream.
+ * 
+ * <li> <b>S_KEY_COMPRESSION_LEVEL </b> -
+ * This non-standard property key is used to set the compression level, from
+ * 0 to 9, if the output is compressed.
  * </ul>
  * 
  * @see SerializerFactory
@@ -159,6 +172,34 @@ public final class OutputPropertiesFactory
     public static final String S_OMIT_META_TAG =
         S_BUILTIN_EXTENSIONS_UNIVERSAL + "omit-meta-tag";
 
+    /**
+     * This non-standard property key is used to set a value of "yes" if the
+     * serialized output should be handed to a separate thread in a bounded
+     * ring of buffers and written to the output stream or writer there,
+     * while the serializer goes on with the document. This pays off for
+     * large results written to slow outputs such as files or sockets.
+     */
+    public static final String S_KEY_ASYNC_OUTPUT =
+        S_BUILTIN_EXTENSIONS_UNIVERSAL + "async-output";
+
+    /**
+     * This non-standard property key is used to set a value of "gzip" or
+     * "deflate" if the serialized output should be compressed, in the same
+     * pass, into gzip data or into zlib data, on its way to the output
+     * stream. The compressed data of a document is complete at its end.
+     * The property has no effect when the output is written to a Writer.
+     */
+    public static final String S_KEY_COMPRESSION =
+        S_BUILTIN_EXTENSIONS_UNIVERSAL + "compression";
+
+    /**
+     * This non-standard property key is used to set the compression level
+     * of compressed output, from 0 for no compression to 9 for the best
+     * compression. The default is the zlib default level.
+     */
+    public static final String S_KEY_COMPRESSION_LEVEL =
+        S_BUILTIN_EXTENSIONS_UNIVERSAL + "compression-level";
+
     /**
      * The old built-in extension namespace, this is not a public API.
      */
@@ -1255,13 +1255,13 @@ public abstract class SerializerBase
     	this.m_doctypePublic = null;
     	this.m_doctypeSystem = null;
     	this.m_doIndent = false;
-        this.m_elemContext = new ElemContext();
+        this.m_elemContext = m_elemContext.clear();
     	this.m_indentAmount = 0;
     	this.m_inEntityRef = false;
     	this.m_inExternalDTD = false;
     	this.m_mediatype = null;
     	this.m_needToCallStartDocument = true;
-    	this.m_needToOutputDocTypeDecl = false;
+    	this.m_needToOutputDocTypeDecl = true;
         if (m_OutputProps != null)
             this.m_OutputProps.clear();
         if (m_OutputPropsDefault != null)
@@ -0,0 +1,261 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.serializer;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Properties;
+import java.util.Vector;
+
+import javax.xml.transform.OutputKeys;
+
+/**
+ * A pool of stream serializers that lets the serializer objects, and the
+ * state and buffers they allocate, be re-used from one document to the
+ * next instead of being created for every transformation.
+ * <p>
+ * The pool is keyed by the output properties: a serializer is handed out
+ * for the serializer class that the properties select, the same class that
+ * {@link SerializerFactory#getSerializer(Properties)} would create. A
+ * released serializer is reset to the state of a newly created one,
+ * including its output format and output stream or writer, before it is
+ * pooled. Only the serializers of the xml, html and text output methods
+ * are pooled; anything else that is released is simply dropped.
+ * <p>
+ * A serializer must not be used after it has been released. A pool may be
+ * shared by any number of threads.
+ *
+ * @xsl.usage general
+ */
+public final class SerializerPool
+{
+    /** The default number of released serializers of each class to keep. */
+    public static final int DEFAULT_MAX_POOLED = 32;
+
+    /** The pool used by the transformers of both processors. */
+    private static SerializerPool s_defaultPool;
+
+    /**
+     * The released serializers, a Vector of serializers for each
+     * serializer class name.
+     */
+    private final Hashtable m_pooled = new Hashtable();
+
+    /** The largest number of released serializers of one class to keep. */
+    private int m_maxPooled;
+
+    /**
+     * Create a pool.
+     *
+     * @param maxPooled the largest number of released serializers of each
+     * class to keep, 0 to keep none
+     */
+    public SerializerPool(int maxPooled)
+    {
+        m_maxPooled = Math.max(0, maxPooled);
+    }
+
+    /**
+     * Get the pool shared by the transformers. It keeps up to
+     * {@link #DEFAULT_MAX_POOLED} serializers of each class.
+     */
+    public static synchronized SerializerPool getDefaultPool()
+    {
+        if (s_defaultPool == null)
+            s_defaultPool = new SerializerPool(DEFAULT_MAX_POOLED);
+        return s_defaultPool;
+    }
+
+    /**
+     * Get a serializer for the given output format, a released one if
+     * there is one, otherwise a new one from
+     * {@link SerializerFactory#getSerializer(Properties)}. The output
+     * format is set on the serializer either way.
+     *
+     * @param format The output format, minimally the "method" property
+     * must be set.
+     * @return A suitable serializer.
+     * @see SerializerFactory#getSerializer(Properties)
+     */
+    public Serializer getSerializer(Properties format)
+    {
+        String className =
+            format.getProperty(OutputPropertiesFactory.S_KEY_CONTENT_HANDLER);
+        if (className == null)
+        {
+            String method = format.getProperty(OutputKeys.METHOD);
+            if (method != null)
+            {
+                className =
+                    OutputPropertiesFactory.getDefaultMethodProperties(method)
+                        .getProperty(OutputPropertiesFactory.S_KEY_CONTENT_HANDLER);
+            }
+        }
+
+        final Serializer serializer =
+            (className != null) ? take(className) : null;
+        if (serializer == null)
+            return SerializerFactory.getSerializer(format);
+
+        serializer.setOutputFormat(format);
+        return serializer;
+    }
+
+    /**
+     * Get a serializer for the xml, html or text output method in the
+     * state of a newly created one, without any output format set. This
+     * is for callers that set the output properties one at a time.
+     *
+     * @param method the output method, compared ignoring case
+     * @return A released or new serializer, or null if the method is not
+     * xml, html or text.
+     */
+    public SerializationHandler getSerializationHandler(String method)
+    {
+        final Class cls;
+        if (Method.XML.equalsIgnoreCase(method))
+            cls = ToXMLStream.class;
+        else if (Method.HTML.equalsIgnoreCase(method))
+            cls = ToHTMLStream.class;
+        else if (Method.TEXT.equalsIgnoreCase(method))
+            cls = ToTextStream.class;
+        else
+            return null;
+
+        SerializationHandler handler =
+            (SerializationHandler) take(cls.getName());
+        if (handler == null)
+        {
+            if (cls == ToXMLStream.class)
+                handler = new ToXMLStream();
+            else if (cls == ToHTMLStream.class)
+                handler = new ToHTMLStream();
+            else
+                handler = new ToTextStream();
+        }
+        return handler;
+    }
+
+    /**
+     * Give a serializer back to the pool once its document has been
+     * written. The caller must not use the serializer afterwards.
+     * Serializers that the pool does not keep, and serializers released
+     * when the pool already holds enough of their class, are dropped.
+     *
+     * @param serializer the serializer, may be null
+     */
+    public void release(Serializer serializer)
+    {
+        if (serializer == null)
+            return;
+
+        // Subclasses may have state that resetForPool() knows nothing of
+        final Class cls = serializer.getClass();
+        if (cls != ToXMLStream.class
+            && cls != ToHTMLStream.class
+            && cls != ToTextStream.class)
+            return;
+
+        if (!((ToStream) serializer).resetForPool())
+            return;
+
+        synchronized (m_pooled)
+        {
+            Vector pooled = (Vector) m_pooled.get(cls.getName());
+            if (pooled == null)
+            {
+                pooled = new Vector();
+                m_pooled.put(cls.getName(), pooled);
+            }
+            // Releasing the same serializer twice must not let two
+            // callers share it
+            if (pooled.size() < m_maxPooled && !pooled.contains(serializer))
+                pooled.addElement(serializer);
+        }
+    }
+
+    /**
+     * Set the largest number of released serializers of each class to
+     * keep, dropping any that are over the new limit.
+     *
+     * @param maxPooled the new limit, 0 to keep none
+     */
+    public void setMaxPooled(int maxPooled)
+    {
+        synchronized (m_pooled)
+        {
+            m_maxPooled = Math.max(0, maxPooled);
+            Enumeration e = m_pooled.elements();
+            while (e.hasMoreElements())
+            {
+                Vector pooled = (Vector) e.nextElement();
+                if (pooled.size() > m_maxPooled)
+                    pooled.setSize(m_maxPooled);
+            }
+        }
+    }
+
+    /**
+     * @return the largest number of released serializers of each class
+     * that the pool keeps.
+     */
+    public int getMaxPooled()
+    {
+        synchronized (m_pooled)
+        {
+            return m_maxPooled;
+        }
+    }
+
+    /**
+     * @return the number of released serializers the pool holds.
+     */
+    public int getPooledCount()
+    {
+        synchronized (m_pooled)
+        {
+            int count = 0;
+            Enumeration e = m_pooled.elements();
+            while (e.hasMoreElements())
+                count += ((Vector) e.nextElement()).size();
+            return count;
+        }
+    }
+
+    /**
+     * Take a released serializer of the given class out of the pool.
+     *
+     * @return the serializer, or null if there is none.
+     */
+    private Serializer take(String className)
+    {
+        synchronized (m_pooled)
+        {
+            Vector pooled = (Vector) m_pooled.get(className);
+            if (pooled == null || pooled.isEmpty())
+                return null;
+            int last = pooled.size() - 1;
+            Serializer serializer = (Serializer) pooled.elementAt(last);
+            pooled.removeElementAt(last);
+            return serializer;
+        }
+    }
+}
@@ -2020,8 +2020,12 @@ public class ToHTMLStream extends ToStream
     
     private void resetToHTMLStream()
     {
-        // m_htmlcharInfo remains unchanged
+        // m_htmlcharInfo remains unchanged, but an entities output
+        // property may have replaced it as the current mappings
+        m_charInfo = m_htmlcharInfo;
         // m_htmlInfo = null;  // Don't reset
+        // HTML is indented unless the output format says otherwise
+        m_doIndent = true;
         m_inBlockElem = false;
         m_inDTD = false;
         m_omitMetaTag = false;
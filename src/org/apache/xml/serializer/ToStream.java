@@ -73,7 +73,14 @@ abstract public class ToStream extends SerializerBase
      * single chars or surrogate pairs of high/low chars form
      * characters in the output encoding. 
      */
-    EncodingInfo m_encodingInfo = new EncodingInfo(null,null, '\u0000');
+    EncodingInfo m_encodingInfo = s_noEncodingInfo;
+
+    /**
+     * The dummy EncodingInfo of a serializer without an encoding, it
+     * is immutable and shared by all serializers.
+     */
+    private static final EncodingInfo s_noEncodingInfo =
+        new EncodingInfo(null, null, '\u0000');
     
     /**
      * Stack to keep track of whether or not we need to
@@ -131,6 +138,37 @@ abstract public class ToStream extends SerializerBase
      */
     protected int m_lineSepLen = m_lineSep.length;
 
+    /**
+     * The output writer when it is one of the serializer's own byte
+     * writers, which can encode runs of clean characters while they are
+     * being scanned for escaping, otherwise null.
+     */
+    private WriterToBytes m_bytesWriter;
+
+    /**
+     * The byte writer of the previous output, kept by resetForPool() so
+     * that its buffers can be re-used for the next output stream, or null.
+     */
+    private WriterToBytes m_spareBytesWriter;
+
+    /**
+     * The stream that compresses the output when the compression output
+     * property is set, finished at the end of each document, or null.
+     */
+    CompressedOutputStream m_compressedOutput;
+
+    /**
+     * The escape flags of m_escapeFlagsCharInfo for m_escapeFlagsEncoding,
+     * see {@link CharInfo#getEscapeFlags(EncodingInfo)}.
+     */
+    private byte[] m_escapeFlags;
+
+    /** The CharInfo that m_escapeFlags was taken from. */
+    private CharInfo m_escapeFlagsCharInfo;
+
+    /** The encoding that m_escapeFlags is for. */
+    private EncodingInfo m_escapeFlagsEncoding;
+
     /**
      * Map that tells which characters should have special treatment, and it
      *  provides character to entity name lookup.
@@ -261,6 +299,11 @@ abstract public class ToStream extends SerializerBase
                     // by this class, but don't have a choice.
                     writer.flush();
                 }
+
+                // This is the end of the document, so also the end of
+                // its compressed data
+                if (m_compressedOutput != null)
+                    m_compressedOutput.finish();
             }
             catch (IOException ioe)
             {
@@ -387,10 +430,18 @@ abstract public class ToStream extends SerializerBase
 
             char first = getFirstCharLocName(name);
             switch (first) {
+            case 'a':
+                if (OutputPropertiesFactory.S_KEY_ASYNC_OUTPUT.equals(name)) {
+                    setOutputStreamProp(name, val, defaultVal);
+                }
+                break;
             case 'c':
                 if (OutputKeys.CDATA_SECTION_ELEMENTS.equals(name)) {
                     String cdataSectionNames = val;
                     addCdataSectionElements(cdataSectionNames);
+                } else if (OutputPropertiesFactory.S_KEY_COMPRESSION.equals(name)
+                        || OutputPropertiesFactory.S_KEY_COMPRESSION_LEVEL.equals(name)) {
+                    setOutputStreamProp(name, val, defaultVal);
                 }
                 break;
             case 'd':
@@ -548,6 +599,21 @@ abstract public class ToStream extends SerializerBase
             super.setProp(name, val, defaultVal);
         }
     }
+    /**
+     * Set an output property that changes what the OutputStream is
+     * wrapped in, re-wrapping an OutputStream that is already set if the
+     * value changes. A Writer set by the user is left as it is.
+     */
+    private void setOutputStreamProp(String name, String val, boolean defaultVal)
+    {
+        String oldVal = getOutputProperty(name);
+        super.setProp(name, val, defaultVal);
+        String newVal = getOutputProperty(name);
+        boolean changed = (oldVal == null) ? newVal != null : !oldVal.equals(newVal);
+        if (changed && m_outputStream != null && !m_writer_set_by_user)
+            setOutputStreamInternal(m_outputStream, false);
+    }
+
     /**
      * Specifies an output format for this serializer. It the
      * serializer has already been associated with an output format,
@@ -643,13 +709,53 @@ abstract public class ToStream extends SerializerBase
      * Specifies a writer to which the document should be serialized.
      * This method should not be called while the serializer is in
      * the process of serializing a document.
+     * <p>
+     * If the {@link OutputPropertiesFactory#S_KEY_ASYNC_OUTPUT} output
+     * property is "yes" when the writer is set, the writer is written to
+     * on a separate thread.
      *
      * @param writer The output writer stream
      */
     public void setWriter(Writer writer)
     {        
+        if (writer != null && isAsyncOutput()
+                && !(writer instanceof AsyncWriter))
+            writer = new AsyncWriter(writer);
         setWriterInternal(writer, true);
     }
+
+    /**
+     * @return the compression level of the compression level output
+     * property, or -1 for the default level if it is not a number from
+     * 0 to 9.
+     */
+    private int getCompressionLevel()
+    {
+        String level =
+            getOutputProperty(OutputPropertiesFactory.S_KEY_COMPRESSION_LEVEL);
+        if (level != null)
+        {
+            try
+            {
+                int i = Integer.parseInt(level.trim());
+                if (i >= 0 && i <= 9)
+                    return i;
+            }
+            catch (NumberFormatException e)
+            {
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the output is to be written on a separate thread.
+     */
+    private boolean isAsyncOutput()
+    {
+        return "yes".equals(
+            getOutputProperty(OutputPropertiesFactory.S_KEY_ASYNC_OUTPUT));
+    }
     
     private boolean m_writer_set_by_user;
     private void setWriterInternal(Writer writer, boolean setByUser) {
@@ -671,6 +777,26 @@ abstract public class ToStream extends SerializerBase
             if (noTracerYet)
                 m_writer = new SerializerTraceWriter(m_writer, m_tracer);
         }
+        m_bytesWriter =
+            (m_writer instanceof WriterToBytes) ? (WriterToBytes) m_writer : null;
+    }
+
+    /**
+     * Get the table of the characters that characters() and
+     * writeAttrString() can write as is for the current output method
+     * and encoding. The table is shared, it is looked up again only
+     * when the method or encoding changes.
+     */
+    private byte[] getEscapeFlags()
+    {
+        if (m_escapeFlagsCharInfo != m_charInfo
+            || m_escapeFlagsEncoding != m_encodingInfo)
+        {
+            m_escapeFlags = m_charInfo.getEscapeFlags(m_encodingInfo);
+            m_escapeFlagsCharInfo = m_charInfo;
+            m_escapeFlagsEncoding = m_encodingInfo;
+        }
+        return m_escapeFlags;
     }
     
     /**
@@ -711,16 +837,41 @@ abstract public class ToStream extends SerializerBase
     private void setOutputStreamInternal(OutputStream output, boolean setByUser)
     {
         m_outputStream = output;
+        if (m_compressedOutput != null)
+        {
+            m_compressedOutput.release();
+            m_compressedOutput = null;
+        }
+        String compression =
+            getOutputProperty(OutputPropertiesFactory.S_KEY_COMPRESSION);
+        if (output != null
+                && (CompressedOutputStream.GZIP.equalsIgnoreCase(compression)
+                    || CompressedOutputStream.DEFLATE.equalsIgnoreCase(compression)))
+        {
+            m_compressedOutput = new CompressedOutputStream(output,
+                CompressedOutputStream.GZIP.equalsIgnoreCase(compression),
+                getCompressionLevel());
+            output = m_compressedOutput;
+        }
+        // The bytes are encoded on this thread and written, compressed
+        // first if they are to be, on another
+        if (output != null && isAsyncOutput())
+            output = new AsyncOutputStream(output);
         String encoding = getOutputProperty(OutputKeys.ENCODING);        
         if (Encodings.DEFAULT_MIME_ENCODING.equalsIgnoreCase(encoding))
         {
             // We wrap the OutputStream with a writer, but
             // not one set by the user
-            setWriterInternal(new WriterToUTF8Buffered(output), false);
+            setWriterInternal(getBytesWriter(output, '\uFFFF'), false);
+        } else if ("ISO-8859-1".equalsIgnoreCase(encoding))
+        {
+            setWriterInternal(getBytesWriter(output, '\u00FF'), false);
         } else if (
-                "WINDOWS-1250".equals(encoding)
-                || "US-ASCII".equals(encoding)
+                "US-ASCII".equals(encoding)
                 || "ASCII".equals(encoding))
+        {
+            setWriterInternal(getBytesWriter(output, '\u007F'), false);
+        } else if ("WINDOWS-1250".equals(encoding))
         {
             setWriterInternal(new WriterToASCI(output), false);
         } else if (encoding != null) {
@@ -762,6 +913,29 @@ abstract public class ToStream extends SerializerBase
         }
     }
 
+    /**
+     * Get one of the serializer's own byte writers for an OutputStream,
+     * re-using the spare one if it encodes the same way.
+     *
+     * @param output the stream to write to
+     * @param maxChar the highest character that the encoding can write
+     * as is, '\uFFFF' for UTF-8
+     */
+    private Writer getBytesWriter(OutputStream output, char maxChar)
+    {
+        final WriterToBytes spare = m_spareBytesWriter;
+        m_spareBytesWriter = null;
+        if (spare != null && spare.getMaxChar() == maxChar)
+        {
+            spare.setOutputStream(output);
+            return (Writer) spare;
+        }
+
+        if (maxChar == '\uFFFF')
+            return new WriterToUTF8Buffered(output);
+        return new WriterToLatin1Buffered(output, maxChar);
+    }
+
     /**
      * @see SerializationHandler#setEscaping(boolean)
      */
@@ -1457,6 +1631,8 @@ abstract public class ToStream extends SerializerBase
             int lastDirtyCharProcessed = start - 1; // last non-clean character that was processed
 													// that was processed
             final Writer writer = m_writer;
+            final WriterToBytes bytesWriter = m_bytesWriter;
+            final byte[] flags = getEscapeFlags();
             boolean isAllWhitespace = true;
 
             // process any leading whitspace
@@ -1521,7 +1697,24 @@ abstract public class ToStream extends SerializerBase
             
             for (; i < end; i++)
             {
+                if (bytesWriter != null)
+                {
+                    // Let the writer encode the clean characters as it
+                    // scans them, up to the next one that needs a look.
+                    writeOutCleanChars(chars, i, lastDirtyCharProcessed);
+                    i = bytesWriter.writeClean(
+                        chars, i, end, flags, CharInfo.TEXT_CLEAN);
+                    lastDirtyCharProcessed = i - 1;
+                    if (i == end)
+                        break;
+                }
+
                 char ch = chars[i];
+
+                if ((flags[ch] & CharInfo.TEXT_CLEAN) != 0) {
+                    // Nothing to do, it is added to the clean characters
+                    continue;
+                }
                 
                 if (m_charInfo.shouldMapTextChar(ch)) {
                     // The character is supposed to be replaced by a String
@@ -2102,10 +2295,33 @@ abstract public class ToStream extends SerializerBase
         }
         string.getChars(0,len, m_attrBuff, 0);   
         final char[] stringChars = m_attrBuff;
+        final WriterToBytes bytesWriter =
+            (writer == m_writer) ? m_bytesWriter : null;
+        final byte[] flags = getEscapeFlags();
 
         for (int i = 0; i < len; i++)
         {
+            if (bytesWriter != null)
+            {
+                i = bytesWriter.writeClean(
+                    stringChars, i, len, flags, CharInfo.ATTR_CLEAN);
+                if (i == len)
+                    break;
+            }
+
             char ch = stringChars[i];
+
+            if ((flags[ch] & CharInfo.ATTR_CLEAN) != 0)
+            {
+                // Write out this character and the clean ones after it
+                int cleanEnd = i + 1;
+                while (cleanEnd < len
+                       && (flags[stringChars[cleanEnd]] & CharInfo.ATTR_CLEAN) != 0)
+                    cleanEnd++;
+                writer.write(stringChars, i, cleanEnd - i);
+                i = cleanEnd - 1;
+                continue;
+            }
             
             if (m_charInfo.shouldMapAttrChar(ch)) {
                 // The character is supposed to be replaced by a String
@@ -3289,6 +3505,50 @@ abstract public class ToStream extends SerializerBase
          this.m_startNewLine = false;
          this.m_writer_set_by_user = false;
     }        
+
+    /**
+     * Reset this serializer so that it is in the same state as a newly
+     * created one, as {@link SerializerPool} needs. Unlike reset() this
+     * also forgets the output stream or writer and the encoding, so a
+     * pooled serializer does not hold on to the output of the document
+     * it last wrote. The buffers of the serializer's own byte writer
+     * are kept for the next output stream.
+     *
+     * @return true if the serializer was reset
+     */
+    boolean resetForPool()
+    {
+        // A transformation that failed leaves output in the byte
+        // writer's buffer; write it out before the writer is detached.
+        if (m_bytesWriter != null)
+        {
+            try
+            {
+                ((Writer) m_bytesWriter).flush();
+            }
+            catch (IOException e)
+            {
+                // the stream is broken or closed, nothing more to write
+            }
+        }
+
+        if (!reset())
+            return false;
+
+        m_spareBytesWriter = m_bytesWriter;
+        if (m_spareBytesWriter != null)
+            m_spareBytesWriter.setOutputStream(null);
+        m_bytesWriter = null;
+        if (m_compressedOutput != null)
+        {
+            m_compressedOutput.release();
+            m_compressedOutput = null;
+        }
+        m_writer = null;
+        m_outputStream = null;
+        m_encodingInfo = s_noEncodingInfo;
+        return true;
+    }
     
     /**
       * Sets the character encoding coming from the xsl:output encoding stylesheet attribute.
@@ -233,6 +233,16 @@ public final class ToUnknownStream extends SerializerBase
         m_handler.setOutputFormat(format);
     }
 
+    /**
+     * Set an output property, and pass it on to the underlying handler
+     * @see SerializerBase#setOutputProperty(String, String)
+     */
+    public void setOutputProperty(String name, String val)
+    {
+        super.setOutputProperty(name, val);
+        m_handler.setOutputProperty(name, val);
+    }
+
     /**
      * Sets the output stream to write to
      * @param output the OutputStream to write to
@@ -1005,6 +1015,14 @@ public final class ToUnknownStream extends SerializerBase
                     m_handler.setOutputStream(os);
             }
 
+            // The writer may be compressing, the new handler has to finish
+            // the compressed data at the end of the document
+            if (oldHandler instanceof ToStream && m_handler instanceof ToStream)
+            {
+                ((ToStream) m_handler).m_compressedOutput =
+                    ((ToStream) oldHandler).m_compressedOutput;
+            }
+
             // need to copy things from the old handler to the new one here
 
             //            if (_setVersion_called)
@@ -583,9 +583,7 @@ public class ToXMLStream extends ToStream
         boolean wasReset = false;
         if (super.reset())
         {
-            // Make this call when resetToXMLStream does
-            // something.
-            // resetToXMLStream();
+            resetToXMLStream();
             wasReset = true;
         }
         return wasReset;
@@ -597,10 +595,9 @@ public class ToXMLStream extends ToStream
      */
     private void resetToXMLStream()
     {
-        // This is an empty method, but is kept for future use
-        // as a place holder for a location to reset fields
-        // defined within this class
-        return;
+        // An entities output property may have replaced the default
+        // character mappings
+        m_charInfo = m_xmlcharInfo;
     }  
 
     /**
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.serializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This interface is implemented by the writers that the serializer wraps
+ * around an OutputStream and that encode into a byte buffer of their own.
+ * <p>
+ * When the serializer escapes text or an attribute value it scans the
+ * characters once to find the ones that need escaping, and then hands the
+ * clean runs to write(char[], int, int), which scans them a second time to
+ * encode them. Through this interface the serializer lets the writer do
+ * both at once: the writer encodes characters straight into its buffer
+ * until it reaches one that the serializer has to look at.
+ * 
+ * This interface is only for internal use within the serializer. 
+ * @xsl.usage internal
+ */
+interface WriterToBytes
+{
+    /**
+     * Encode characters into the output buffer, starting at
+     * <code>chars[start]</code>, up to but not including the first
+     * character that may need escaping.
+     * <p>
+     * A character is written only if its entry in <code>flags</code>
+     * has a bit of <code>mask</code> set. Everything else is left to the
+     * caller.
+     *
+     * @param chars the characters to write
+     * @param start index of the first character to write
+     * @param end one beyond the last character that may be written
+     * @param flags the escape flags of the output method and encoding,
+     * from {@link CharInfo#getEscapeFlags(EncodingInfo)}
+     * @param mask {@link CharInfo#TEXT_CLEAN} for characters from a text
+     * node, {@link CharInfo#ATTR_CLEAN} for an attribute value
+     * @return the index of the first character that was not written,
+     * <code>end</code> if all of them were
+     * @throws IOException
+     */
+    public int writeClean(
+        char[] chars,
+        int start,
+        int end,
+        byte[] flags,
+        int mask)
+        throws IOException;
+
+    /**
+     * @return the highest character that this writer encodes as is,
+     * '\uFFFF' if it encodes every character.
+     */
+    public char getMaxChar();
+
+    /**
+     * Write to another stream from now on, re-using this writer's
+     * buffers. Anything still in the buffer is dropped, so the writer
+     * should be flushed first if that output is wanted.
+     *
+     * @param os the stream to write to, null to drop the current one
+     */
+    public void setOutputStream(OutputStream os);
+}
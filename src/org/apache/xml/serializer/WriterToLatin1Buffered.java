@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.serializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+
+/**
+ * This class writes unicode characters to a byte stream (java.io.OutputStream)
+ * in ISO-8859-1 or US-ASCII, one byte per character. It buffers the output
+ * in an internal buffer which must be flushed to the OutputStream when done.
+ * This flushing is done via the close() flush() or flushBuffer() method.
+ * <p>
+ * A character that is not in the encoding is written as '?' for
+ * ISO-8859-1, as the JDK encoder did, and as its low byte for US-ASCII,
+ * as WriterToASCI did, so the output is the same as it was before this
+ * writer was used for them. The serializer writes such characters in
+ * text and attribute values as character references, so this only
+ * happens in names, comments, text written with disable-output-escaping
+ * and the like, which can't be escaped.
+ * 
+ * This class is only used internally within Xalan.
+ * 
+ * @xsl.usage internal
+ */
+final class WriterToLatin1Buffered extends Writer
+    implements WriterChain, WriterToBytes
+{
+  /** number of bytes that the byte buffer can hold. */
+  private static final int BYTES_MAX=16*1024;
+
+  /** The byte stream to write to. */
+  private OutputStream m_os;
+
+  /** The highest character value that is in the encoding. */
+  private final char m_maxChar;
+
+  /**
+   * True to write a character that is not in the encoding as its low
+   * byte rather than as '?'.
+   */
+  private final boolean m_writeLowByte;
+
+  /** The internal buffer where data is stored. */
+  private final byte m_outputBytes[];
+
+  /**
+   * The number of valid bytes in the buffer, elements
+   * <tt>m_outputBytes[0]</tt> through <tt>m_outputBytes[count-1]</tt>
+   * contain valid byte data.
+   */
+  private int count;
+
+  /**
+   * True if the last character written was the high char of a
+   * surrogate pair, which has already been written as a '?' for both.
+   */
+  private boolean m_afterHighSurrogate;
+
+  /**
+   * Create a buffered ISO-8859-1 or US-ASCII writer.
+   *
+   * @param   out    the underlying output stream.
+   * @param   maxChar 0xFF for ISO-8859-1, 0x7F for US-ASCII.
+   */
+  public WriterToLatin1Buffered(OutputStream out, char maxChar)
+  {
+      m_os = out;
+      m_maxChar = maxChar;
+      m_writeLowByte = (maxChar < 0xFF);
+      m_outputBytes = new byte[BYTES_MAX];
+      count = 0;
+  }
+
+  /**
+   * Write a single character.
+   *
+   * @param c  int specifying a character to be written.
+   * @exception  IOException  If an I/O error occurs
+   */
+  public void write(final int c) throws IOException
+  {
+    if (count >= BYTES_MAX)
+        flushBuffer();
+    put((char) c);
+  }
+
+  /**
+   * Write a portion of an array of characters.
+   *
+   * @param  chars  Array of characters
+   * @param  start   Offset from which to start writing characters
+   * @param  length   Number of characters to write
+   *
+   * @exception  IOException  If an I/O error occurs
+   */
+  public void write(final char chars[], final int start, final int length)
+          throws java.io.IOException
+  {
+    final int n = start + length;
+    final byte[] buf_loc = m_outputBytes; // local reference for faster access
+    final char max = m_maxChar;
+    int i = start;
+
+    while (i < n)
+    {
+      if (count >= BYTES_MAX)
+        flushBuffer();
+
+      // Copy as much as fits in the buffer without checking each time
+      final int chunkEnd = Math.min(n, i + (BYTES_MAX - count));
+      int count_loc = count;
+      char c;
+      for (; i < chunkEnd && (c = chars[i]) <= max; i++)
+        buf_loc[count_loc++] = (byte) c;
+      count = count_loc;
+
+      if (i < chunkEnd)
+        put(chars[i++]);
+    }
+  }
+
+  /**
+   * Write a string.
+   *
+   * @param  s  String to be written
+   *
+   * @exception  IOException  If an I/O error occurs
+   */
+  public void write(final String s) throws IOException
+  {
+    final int n = s.length();
+    for (int i = 0; i < n; i++)
+    {
+      if (count >= BYTES_MAX)
+        flushBuffer();
+      put(s.charAt(i));
+    }
+  }
+
+  /**
+   * Put one character in the buffer, which must have room for it.
+   */
+  private void put(final char c)
+  {
+    if (c <= m_maxChar || m_writeLowByte)
+    {
+      m_outputBytes[count++] = (byte) c;
+      m_afterHighSurrogate = false;
+    }
+    else if (c >= 0xDC00 && c <= 0xDFFF && m_afterHighSurrogate)
+    {
+      // the '?' for the whole pair was written with the high char
+      m_afterHighSurrogate = false;
+    }
+    else
+    {
+      m_outputBytes[count++] = (byte) '?';
+      m_afterHighSurrogate = (c >= 0xD800 && c <= 0xDBFF);
+    }
+  }
+
+  /**
+   * Encode characters from the serializer's escaping loop directly into
+   * the byte buffer, stopping at the first one that may need escaping or
+   * that is not in the encoding.
+   *
+   * @see WriterToBytes#writeClean(char[], int, int, byte[], int)
+   */
+  public int writeClean(
+      final char[] chars,
+      final int start,
+      final int end,
+      final byte[] flags,
+      final int mask)
+      throws IOException
+  {
+    final byte[] buf_loc = m_outputBytes; // local reference for faster access
+    final char max = m_maxChar;
+    int count_loc = count;      // local integer for faster access
+    int i = start;
+
+    while (i < end)
+    {
+      if (count_loc >= BYTES_MAX)
+      {
+        count = count_loc;
+        flushBuffer();
+        count_loc = 0;
+      }
+
+      final char c = chars[i];
+      if ((flags[c] & mask) == 0 || c > max)
+        break;
+      buf_loc[count_loc++] = (byte) c;
+      i++;
+    }
+    // Store the local integer back into the instance variable
+    count = count_loc;
+    if (i > start)
+      m_afterHighSurrogate = false;
+    return i;
+  }
+
+  /**
+   * Flush the internal buffer
+   *
+   * @throws IOException
+   */
+  public void flushBuffer() throws IOException
+  {
+    if (count > 0)
+    {
+      m_os.write(m_outputBytes, 0, count);
+      count = 0;
+    }
+  }
+
+  /**
+   * Flush the internal buffer and the underlying stream.
+   *
+   * @throws java.io.IOException
+   */
+  public void flush() throws java.io.IOException
+  {
+    flushBuffer();
+    m_os.flush();
+  }
+
+  /**
+   * Close the stream, flushing it first.
+   *
+   * @throws java.io.IOException
+   */
+  public void close() throws java.io.IOException
+  {
+    flushBuffer();
+    m_os.close();
+  }
+
+  /**
+   * Get the output stream where the events will be serialized to.
+   *
+   * @return reference to the result stream.
+   */
+  public OutputStream getOutputStream()
+  {
+    return m_os;
+  }
+
+  public Writer getWriter()
+  {
+    // This type of writer wraps an OutputStream, not a Writer.
+    return null;
+  }
+
+  /**
+   * @see WriterToBytes#getMaxChar()
+   */
+  public char getMaxChar()
+  {
+    return m_maxChar;
+  }
+
+  /**
+   * @see WriterToBytes#setOutputStream(OutputStream)
+   */
+  public void setOutputStream(OutputStream os)
+  {
+    m_os = os;
+    count = 0;
+    m_afterHighSurrogate = false;
+  }
+}
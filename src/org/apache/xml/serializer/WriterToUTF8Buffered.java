@@ -32,17 +32,24 @@ import java.io.Writer;
  * buffer which must be flushed to the OutputStream when done. This flushing
  * is done via the close() flush() or flushBuffer() method. 
  * 
+ * If the OutputStream is a {@link ByteArrayLender}, such as a
+ * {@link ChannelOutputStream} on heap buffers, the characters are encoded
+ * straight into the stream's buffers instead.
+ * 
  * This class is only used internally within Xalan.
  * 
  * @xsl.usage internal
  */
-final class WriterToUTF8Buffered extends Writer implements WriterChain
+final class WriterToUTF8Buffered extends Writer
+    implements WriterChain, WriterToBytes
 {
     
   /** number of bytes that the byte buffer can hold.
    * This is a fixed constant is used rather than m_outputBytes.lenght for performance.
+   * With the 3 extra bytes the buffer is 16K, the size of the buffers
+   * in the default ByteBufferPool, so that it can be one of those.
    */
-  private static final int BYTES_MAX=16*1024;
+  private static final int BYTES_MAX=16*1024 - 3;
   /** number of characters that the character buffer can hold.
    * This is 1/3 of the number of bytes because UTF-8 encoding
    * can expand one unicode character by up to 3 bytes.
@@ -51,14 +58,20 @@ final class WriterToUTF8Buffered extends Writer implements WriterChain
   
  // private static final int 
   
-  /** The byte stream to write to. (sc & sb remove final to compile in JDK 1.1.8) */
-  private final OutputStream m_os;
+  /** The byte stream to write to. */
+  private OutputStream m_os;
+
+  /** m_os if it can lend its buffers to this writer, otherwise null. */
+  private ByteArrayLender m_lender;
 
   /**
-   * The internal buffer where data is stored.
-   * (sc & sb remove final to compile in JDK 1.1.8)
+   * The internal buffer where data is stored. This is either
+   * m_ownBytes or an array lent by m_lender.
    */
-  private final byte m_outputBytes[];
+  private byte m_outputBytes[];
+
+  /** The buffer of this writer, used when m_os does not lend one. */
+  private final byte m_ownBytes[];
   
   private final char m_inputChars[];
 
@@ -80,10 +93,11 @@ final class WriterToUTF8Buffered extends Writer implements WriterChain
    */
   public WriterToUTF8Buffered(OutputStream out)
   {
-      m_os = out;
       // get 3 extra bytes to make buffer overflow checking simpler and faster
       // we won't have to keep checking for a few extra characters
-      m_outputBytes = new byte[BYTES_MAX + 3];
+      m_ownBytes = new byte[BYTES_MAX + 3];
+      m_outputBytes = m_ownBytes;
+      setLender(out);
       
       // Big enough to hold the input chars that will be transformed
       // into output bytes in m_ouputBytes.
@@ -434,6 +448,63 @@ final class WriterToUTF8Buffered extends Writer implements WriterChain
 
   }
 
+  /**
+   * Encode characters from the serializer's escaping loop directly into
+   * the byte buffer, stopping at the first one that may need escaping.
+   * The flags never mark a surrogate as clean.
+   *
+   * @see WriterToBytes#writeClean(char[], int, int, byte[], int)
+   */
+  public int writeClean(
+      final char[] chars,
+      final int start,
+      final int end,
+      final byte[] flags,
+      final int mask)
+      throws IOException
+  {
+    final byte[] buf_loc = m_outputBytes; // local reference for faster access
+    int count_loc = count;      // local integer for faster access
+    int i = start;
+
+    while (i < end)
+    {
+      /* The buffer has 3 spare bytes beyond BYTES_MAX, enough for
+       * the one character written in each pass of this loop.
+       */
+      if (count_loc >= BYTES_MAX)
+      {
+        count = count_loc;
+        flushBuffer();
+        count_loc = 0;
+      }
+
+      final char c = chars[i];
+      if ((flags[c] & mask) == 0)
+        break;
+
+      if (c < 0x80)
+      {
+        buf_loc[count_loc++] = (byte) (c);
+      }
+      else if (c < 0x800)
+      {
+        buf_loc[count_loc++] = (byte) (0xc0 + (c >> 6));
+        buf_loc[count_loc++] = (byte) (0x80 + (c & 0x3f));
+      }
+      else
+      {
+        buf_loc[count_loc++] = (byte) (0xe0 + (c >> 12));
+        buf_loc[count_loc++] = (byte) (0x80 + ((c >> 6) & 0x3f));
+        buf_loc[count_loc++] = (byte) (0x80 + (c & 0x3f));
+      }
+      i++;
+    }
+    // Store the local integer back into the instance variable
+    count = count_loc;
+    return i;
+  }
+
   /**
    * Flush the internal buffer
    *
@@ -444,12 +515,62 @@ final class WriterToUTF8Buffered extends Writer implements WriterChain
 
     if (count > 0)
     {
-      m_os.write(m_outputBytes, 0, count);
-
+      final byte[] bytes = m_outputBytes;
+      final int length = count;
       count = 0;
+      if (bytes == m_ownBytes)
+        m_os.write(bytes, 0, length);
+      else
+      {
+        m_outputBytes = m_ownBytes;
+        m_lender.writeLent(bytes, length);
+      }
+
+      // Encode the next bytes straight into the stream's buffer
+      if (m_lender != null)
+        borrowBytes();
+    }
+  }
+
+  /**
+   * Start encoding into an array lent by m_lender, if it has one.
+   */
+  private void borrowBytes()
+  {
+    final byte[] bytes = m_lender.lendBytes(m_ownBytes.length);
+    if (bytes != null)
+      m_outputBytes = bytes;
+  }
+
+  /**
+   * Give an empty lent array back to m_lender and go back to this
+   * writer's own buffer, when the writer is done with the stream.
+   */
+  private void returnBytes()
+  {
+    if (m_outputBytes != m_ownBytes)
+    {
+      final byte[] bytes = m_outputBytes;
+      m_outputBytes = m_ownBytes;
+      m_lender.returnLent(bytes);
     }
   }
 
+  /**
+   * Write to a stream, borrowing its buffers if it lends them.
+   */
+  private void setLender(OutputStream os)
+  {
+    m_os = os;
+    if (os instanceof ByteArrayLender)
+    {
+      m_lender = (ByteArrayLender) os;
+      borrowBytes();
+    }
+    else
+      m_lender = null;
+  }
+
   /**
    * Flush the stream.  If the stream has saved any characters from the
    * various write() methods in a buffer, write them immediately to their
@@ -479,6 +600,7 @@ final class WriterToUTF8Buffered extends Writer implements WriterChain
   public void close() throws java.io.IOException
   {
     flushBuffer();
+    returnBytes();
     m_os.close();
   }
 
@@ -499,4 +621,22 @@ final class WriterToUTF8Buffered extends Writer implements WriterChain
     // This type of writer wraps an OutputStream, not a Writer.
     return null;
   }
+
+  /**
+   * @see WriterToBytes#getMaxChar()
+   */
+  public char getMaxChar()
+  {
+    return '\uFFFF';
+  }
+
+  /**
+   * @see WriterToBytes#setOutputStream(OutputStream)
+   */
+  public void setOutputStream(OutputStream os)
+  {
+    returnBytes();
+    count = 0;
+    setLender(os);
+  }
 }
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.utils;
+
+/**
+ * A Hashtable key that compares the object it wraps by identity rather
+ * than by equals(), for tables of objects such as DOM nodes whose
+ * equals() and hashCode() may be overridden or expensive.
+ * @xsl.usage internal
+ */
+public final class IdentityKey
+{
+  /** The object this key stands for. */
+  private final Object m_object;
+
+  /** The identity hash code of m_object. */
+  private final int m_hash;
+
+  /**
+   * Construct a key for an object.
+   *
+   * @param object The object, which may not be null.
+   */
+  public IdentityKey(Object object)
+  {
+    m_object = object;
+    m_hash = System.identityHashCode(object);
+  }
+
+  /**
+   * Get the object this key stands for.
+   *
+   * @return The wrapped object.
+   */
+  public Object getObject()
+  {
+    return m_object;
+  }
+
+  /**
+   * @see java.lang.Object#hashCode()
+   */
+  public int hashCode()
+  {
+    return m_hash;
+  }
+
+  /**
+   * Two keys are equal if they wrap the same object.
+   *
+   * @see java.lang.Object#equals(Object)
+   */
+  public boolean equals(Object obj)
+  {
+    return (obj instanceof IdentityKey)
+           && ((IdentityKey) obj).m_object == m_object;
+  }
+}
@@ -20,19 +20,44 @@
  */
 package org.apache.xml.utils;
 
+import java.util.Arrays;
+import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
 
 import javax.xml.parsers.FactoryConfigurationError;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParserFactory;
 
+import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 import org.xml.sax.helpers.XMLReaderFactory;
-import org.xml.sax.SAXException;
 
 /**
- * Creates XMLReader objects and caches them for re-use.
- * This class follows the singleton pattern.
+ * Creates XMLReader objects and pools them for re-use.
+ *
+ * <p>Each manager keeps a bounded pool of idle readers that is shared by
+ * all threads.  {@link #getXMLReader} hands out an idle reader if there
+ * is one and creates a new reader otherwise, so nested or reentrant
+ * parses on one thread simply take a second reader from the pool.
+ * {@link #releaseXMLReader} resets the reader's handlers and features
+ * and returns it to the pool; once the pool holds
+ * {@link #getMaxIdle()} readers, further released readers are dropped.
+ * A released reader whose user changed one of the well-known SAX, Xerces
+ * or JAXP features or properties, such as validation, the loading of
+ * external entities or the security manager, is dropped as well.
+ * The manager never blocks waiting for a reader.</p>
+ *
+ * <p>{@link #getInstance()} returns the manager for the default feature
+ * set (namespaces on, namespace prefixes off).  Callers that need other
+ * features, such as parser security limits, obtain a separate manager
+ * with {@link #getInstance(Map)}; readers are pooled per feature set and
+ * never handed out with a different configuration.</p>
+ *
+ * <p>The default pool size can be set with the system property
+ * <code>org.apache.xml.utils.XMLReaderManager.maxIdle</code>.</p>
  */
 public class XMLReaderManager {
 
@@ -40,8 +65,92 @@ public class XMLReaderManager {
                              "http://xml.org/sax/features/namespaces";
     private static final String NAMESPACE_PREFIXES_FEATURE =
                              "http://xml.org/sax/features/namespace-prefixes";
+    private static final String LEXICAL_HANDLER_PROPERTY =
+                             "http://xml.org/sax/properties/lexical-handler";
+    private static final String DECL_HANDLER_PROPERTY =
+                             "http://xml.org/sax/properties/declaration-handler";
+
+    /**
+     * Features a user of a reader may change.  Their values when the
+     * reader was created are compared with those it is released with.
+     */
+    private static final String[] CHECKED_FEATURES = {
+        "http://xml.org/sax/features/validation",
+        "http://xml.org/sax/features/external-general-entities",
+        "http://xml.org/sax/features/external-parameter-entities",
+        "http://xml.org/sax/features/lexical-handler/parameter-entities",
+        "http://xml.org/sax/features/resolve-dtd-uris",
+        "http://xml.org/sax/features/use-entity-resolver2",
+        "http://xml.org/sax/features/xmlns-uris",
+        "http://apache.org/xml/features/validation/schema",
+        "http://apache.org/xml/features/validation/schema-full-checking",
+        "http://apache.org/xml/features/validation/dynamic",
+        "http://apache.org/xml/features/nonvalidating/load-external-dtd",
+        "http://apache.org/xml/features/nonvalidating/load-dtd-grammar",
+        "http://apache.org/xml/features/disallow-doctype-decl",
+        "http://apache.org/xml/features/continue-after-fatal-error",
+        "http://apache.org/xml/features/allow-java-encodings",
+        "http://apache.org/xml/features/xinclude",
+        "http://javax.xml.XMLConstants/feature/secure-processing"
+    };
+
+    /**
+     * Properties a user of a reader may change, other than the handlers
+     * that reset() clears.
+     */
+    private static final String[] CHECKED_PROPERTIES = {
+        "http://apache.org/xml/properties/security-manager",
+        "http://apache.org/xml/properties/schema/external-schemaLocation",
+        "http://apache.org/xml/properties/schema/external-noNamespaceSchemaLocation",
+        "http://java.sun.com/xml/jaxp/properties/schemaLanguage",
+        "http://java.sun.com/xml/jaxp/properties/schemaSource",
+        "http://javax.xml.XMLConstants/property/accessExternalDTD",
+        "http://javax.xml.XMLConstants/property/accessExternalSchema"
+    };
+
+    /**
+     * Stands in a reader's configuration for a feature or property that
+     * the reader does not recognize or support.
+     */
+    private static final Object UNSUPPORTED = new Object();
+
+    /**
+     * The indexes of the checked features and properties that readers of
+     * a class support, as an int[] keyed by the reader's Class, with
+     * CHECKED_PROPERTIES numbered after CHECKED_FEATURES.  Only these are
+     * read by {@link #getConfiguration}, so that a reader released to the
+     * pool does not throw an exception for every name it does not know.
+     */
+    private static final Hashtable m_supportedNames = new Hashtable();
+
+    /**
+     * The name of the system property that sets the default number of
+     * idle readers kept by each manager.
+     */
+    public static final String MAX_IDLE_PROPERTY =
+                     "org.apache.xml.utils.XMLReaderManager.maxIdle";
+
+    /**
+     * The default number of idle readers kept by each manager.
+     */
+    public static final int DEFAULT_MAX_IDLE = 16;
+
+    private static final int m_defaultMaxIdle = getDefaultMaxIdle();
+
     private static final XMLReaderManager m_singletonManager =
-                                                     new XMLReaderManager();
+                                             new XMLReaderManager(null, "");
+
+    /**
+     * Managers for non-default feature sets, keyed by
+     * {@link #getFeatureKey}.
+     */
+    private static final Hashtable m_managers = new Hashtable();
+
+    /**
+     * Handler installed on released readers whose parser does not accept
+     * null handlers.
+     */
+    private static final DefaultHandler m_nullHandler = new DefaultHandler();
 
     /**
      * Parser factory to be used to construct XMLReader objects
@@ -49,19 +158,45 @@ public class XMLReaderManager {
     private static SAXParserFactory m_parserFactory;
 
     /**
-     * Cache of XMLReader objects
+     * Features applied to every reader of this manager on top of the
+     * namespace defaults, as feature URI to Boolean; null for none.
+     */
+    private final Hashtable m_features;
+
+    /**
+     * The feature set key this manager was registered under.
+     */
+    private final String m_key;
+
+    /**
+     * Idle readers, used as a stack so that the most recently used (and
+     * most likely warm) reader is handed out first.
      */
-    private ThreadLocal m_readers;
+    private XMLReader[] m_idle;
+    private Object[][] m_idleConfigs;
+    private int m_idleCount;
+    private int m_maxIdle = m_defaultMaxIdle;
 
     /**
-     * Keeps track of whether an XMLReader object is in use.
+     * Readers created by this manager that are currently handed out,
+     * mapped to their configuration as created (see
+     * {@link #getConfiguration}).  Readers that were not created here are
+     * never pooled.
      */
-    private Hashtable m_inUse;
+    private final Hashtable m_inUse = new Hashtable();
+
+    private long m_createdCount;
+    private long m_reusedCount;
+    private long m_discardedCount;
 
     /**
      * Hidden constructor
      */
-    private XMLReaderManager() {
+    private XMLReaderManager(Hashtable features, String key) {
+        m_features = features;
+        m_key = key;
+        m_idle = new XMLReader[Math.min(m_maxIdle, 16)];
+        m_idleConfigs = new Object[m_idle.length][];
     }
 
     /**
@@ -72,90 +207,405 @@ public class XMLReaderManager {
     }
 
     /**
-     * Retrieves a cached XMLReader for this thread, or creates a new
-     * XMLReader, if the existing reader is in use.  When the caller no
-     * longer needs the reader, it must release it with a call to
-     * {@link #releaseXMLReader}.
+     * Retrieves the reader manager for a feature set.  Every reader handed
+     * out by the returned manager has the given features set, in addition
+     * to namespaces on and namespace prefixes off unless the map says
+     * otherwise.  Calls with equal maps return the same manager.
+     *
+     * @param features a map from SAX feature URI to Boolean; null or an
+     * empty map selects the default manager.
+     */
+    public static XMLReaderManager getInstance(Map features) {
+        if (features == null || features.isEmpty()) {
+            return m_singletonManager;
+        }
+
+        String key = getFeatureKey(features);
+        synchronized (m_managers) {
+            XMLReaderManager manager = (XMLReaderManager) m_managers.get(key);
+            if (manager == null) {
+                manager = new XMLReaderManager(new Hashtable(features), key);
+                m_managers.put(key, manager);
+            }
+            return manager;
+        }
+    }
+
+    /**
+     * Retrieves an idle XMLReader from the pool, or creates a new
+     * XMLReader if none is idle.  When the caller no longer needs the
+     * reader, it must release it with a call to {@link #releaseXMLReader}.
+     */
+    public XMLReader getXMLReader() throws SAXException {
+        synchronized (this) {
+            if (m_idleCount > 0) {
+                XMLReader reader = m_idle[--m_idleCount];
+                m_idle[m_idleCount] = null;
+                m_inUse.put(reader, m_idleConfigs[m_idleCount]);
+                m_idleConfigs[m_idleCount] = null;
+                m_reusedCount++;
+                return reader;
+            }
+        }
+
+        // Parser construction is comparatively expensive, so it is done
+        // outside the pool lock.
+        XMLReader reader = createXMLReader();
+        if (reader != null) {
+            Object[] config = getConfiguration(reader);
+            synchronized (this) {
+                m_inUse.put(reader, config);
+                m_createdCount++;
+            }
+        }
+        return reader;
+    }
+
+    /**
+     * Return an XMLReader to the pool.  If the reader was not handed out
+     * by this manager, do nothing.
+     *
+     * @param reader The XMLReader that's being released.
      */
-    public synchronized XMLReader getXMLReader() throws SAXException {
-        XMLReader reader;
-        boolean readerInUse;
+    public void releaseXMLReader(XMLReader reader) {
+        if (reader == null) {
+            return;
+        }
 
-        if (m_readers == null) {
-            // When the m_readers.get() method is called for the first time
-            // on a thread, a new XMLReader will automatically be created.
-            m_readers = new ThreadLocal();
+        Object[] config;
+        synchronized (this) {
+            config = (Object[]) m_inUse.remove(reader);
+            if (config == null) {
+                return;
+            }
+            if (m_idleCount >= m_maxIdle) {
+                m_discardedCount++;
+                return;
+            }
+        }
+
+        // Reset outside the lock; the reader belongs to no one else until
+        // it is back in the pool.
+        boolean reusable = reset(reader)
+                           && Arrays.equals(config, getConfiguration(reader));
+
+        synchronized (this) {
+            if (!reusable || m_idleCount >= m_maxIdle) {
+                m_discardedCount++;
+                return;
+            }
+            if (m_idleCount == m_idle.length) {
+                XMLReader[] idle = new XMLReader[
+                    Math.min(Math.max(m_idle.length * 2, 4), m_maxIdle)];
+                System.arraycopy(m_idle, 0, idle, 0, m_idleCount);
+                m_idle = idle;
+                Object[][] configs = new Object[idle.length][];
+                System.arraycopy(m_idleConfigs, 0, configs, 0, m_idleCount);
+                m_idleConfigs = configs;
+            }
+            m_idleConfigs[m_idleCount] = config;
+            m_idle[m_idleCount++] = reader;
         }
+    }
 
-        if (m_inUse == null) {
-            m_inUse = new Hashtable();
+    /**
+     * Set the maximum number of idle readers kept by this manager.
+     * Readers beyond the new limit are dropped.
+     *
+     * @param maxIdle the limit; zero disables pooling.
+     */
+    public synchronized void setMaxIdle(int maxIdle) {
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException(String.valueOf(maxIdle));
+        }
+        m_maxIdle = maxIdle;
+        while (m_idleCount > maxIdle) {
+            m_idle[--m_idleCount] = null;
+            m_idleConfigs[m_idleCount] = null;
+            m_discardedCount++;
+        }
+        if (m_idle.length > Math.max(maxIdle, 1)) {
+            XMLReader[] idle = new XMLReader[Math.max(maxIdle, 1)];
+            System.arraycopy(m_idle, 0, idle, 0, m_idleCount);
+            m_idle = idle;
+            Object[][] configs = new Object[idle.length][];
+            System.arraycopy(m_idleConfigs, 0, configs, 0, m_idleCount);
+            m_idleConfigs = configs;
         }
+    }
+
+    /**
+     * @return the maximum number of idle readers kept by this manager.
+     */
+    public synchronized int getMaxIdle() {
+        return m_maxIdle;
+    }
 
-        // If the cached reader for this thread is in use, construct a new
-        // one; otherwise, return the cached reader.
-        reader = (XMLReader) m_readers.get();
-        boolean threadHasReader = (reader != null);
-        if (!threadHasReader || m_inUse.get(reader) == Boolean.TRUE) {
+    /**
+     * @return the number of readers this manager has created.
+     */
+    public synchronized long getCreatedCount() {
+        return m_createdCount;
+    }
+
+    /**
+     * @return the number of requests served with a pooled reader.
+     */
+    public synchronized long getReusedCount() {
+        return m_reusedCount;
+    }
+
+    /**
+     * @return the number of released readers that were dropped, because
+     * the pool was full, the reader could not be reset or its
+     * configuration had been changed.
+     */
+    public synchronized long getDiscardedCount() {
+        return m_discardedCount;
+    }
+
+    /**
+     * @return the number of readers currently idle in the pool.
+     */
+    public synchronized int getIdleCount() {
+        return m_idleCount;
+    }
+
+    /**
+     * @return the number of readers currently handed out.
+     */
+    public synchronized int getInUseCount() {
+        return m_inUse.size();
+    }
+
+    /**
+     * @return a one-line summary of the pool counters, for diagnostics.
+     */
+    public synchronized String getStatistics() {
+        return "XMLReaderManager[" + (m_key.length() == 0 ? "default" : m_key)
+             + "] created=" + m_createdCount
+             + " reused=" + m_reusedCount
+             + " discarded=" + m_discardedCount
+             + " idle=" + m_idleCount
+             + " inUse=" + m_inUse.size()
+             + " maxIdle=" + m_maxIdle;
+    }
+
+    /**
+     * Create and configure a new reader for this manager's feature set.
+     */
+    private XMLReader createXMLReader() throws SAXException {
+        XMLReader reader = null;
+        try {
             try {
-                try {
-                    // According to JAXP 1.2 specification, if a SAXSource
-                    // is created using a SAX InputSource the Transformer or
-                    // TransformerFactory creates a reader via the
-                    // XMLReaderFactory if setXMLReader is not used
-                    reader = XMLReaderFactory.createXMLReader();
-                } catch (Exception e) {
-                   try {
-                        // If unable to create an instance, let's try to use
-                        // the XMLReader from JAXP
-                        if (m_parserFactory == null) {
-                            m_parserFactory = SAXParserFactory.newInstance();
-                            m_parserFactory.setNamespaceAware(true);
-                        }
-
-                        reader = m_parserFactory.newSAXParser().getXMLReader();
-                   } catch (ParserConfigurationException pce) {
-                       throw pce;   // pass along pce
-                   }
+                // According to JAXP 1.2 specification, if a SAXSource
+                // is created using a SAX InputSource the Transformer or
+                // TransformerFactory creates a reader via the
+                // XMLReaderFactory if setXMLReader is not used
+                reader = XMLReaderFactory.createXMLReader();
+            } catch (Exception e) {
+                // If unable to create an instance, let's try to use
+                // the XMLReader from JAXP
+                synchronized (XMLReaderManager.class) {
+                    if (m_parserFactory == null) {
+                        m_parserFactory = SAXParserFactory.newInstance();
+                        m_parserFactory.setNamespaceAware(true);
+                    }
+
+                    reader = m_parserFactory.newSAXParser().getXMLReader();
                 }
-                try {
-                    reader.setFeature(NAMESPACES_FEATURE, true);
-                    reader.setFeature(NAMESPACE_PREFIXES_FEATURE, false);
-                } catch (SAXException se) {
-                    // Try to carry on if we've got a parser that
-                    // doesn't know about namespace prefixes.
+            }
+            setNamespaceFeatures(reader);
+        } catch (ParserConfigurationException ex) {
+            throw new SAXException(ex);
+        } catch (FactoryConfigurationError ex1) {
+            throw new SAXException(ex1.toString());
+        } catch (NoSuchMethodError ex2) {
+        } catch (AbstractMethodError ame) {
+        }
+
+        if (reader != null && m_features != null) {
+            // Unlike the namespace defaults, features that were asked for
+            // explicitly must be honoured.
+            Enumeration names = m_features.keys();
+            while (names.hasMoreElements()) {
+                String name = (String) names.nextElement();
+                reader.setFeature(name,
+                          ((Boolean) m_features.get(name)).booleanValue());
+            }
+        }
+        return reader;
+    }
+
+    private void setNamespaceFeatures(XMLReader reader) {
+        try {
+            reader.setFeature(NAMESPACES_FEATURE, true);
+            reader.setFeature(NAMESPACE_PREFIXES_FEATURE, false);
+        } catch (SAXException se) {
+            // Try to carry on if we've got a parser that
+            // doesn't know about namespace prefixes.
+        }
+    }
+
+    /**
+     * Clear everything a previous user may have installed on the reader
+     * and restore this manager's features, so that the next user sees the
+     * reader as if it had just been created.
+     *
+     * @return false if the reader could not be reset and must not be
+     * pooled.
+     */
+    private boolean reset(XMLReader reader) {
+        try {
+            // SAX 2.0 parsers may reject null handlers; fall back to a
+            // handler that ignores everything.
+            try {
+                reader.setContentHandler(null);
+            } catch (RuntimeException e) {
+                reader.setContentHandler(m_nullHandler);
+            }
+            try {
+                reader.setDTDHandler(null);
+            } catch (RuntimeException e) {
+                reader.setDTDHandler(m_nullHandler);
+            }
+            try {
+                reader.setEntityResolver(null);
+            } catch (RuntimeException e) {
+                reader.setEntityResolver(m_nullHandler);
+            }
+            try {
+                reader.setErrorHandler(null);
+            } catch (RuntimeException e) {
+                // Callers only install their own error handler when none
+                // is set, so a reader that keeps one cannot be reused.
+                return false;
+            }
+            try {
+                reader.setProperty(LEXICAL_HANDLER_PROPERTY, null);
+            } catch (SAXException se) {
+                // Not supported by this parser; nothing to clear.
+            }
+            try {
+                reader.setProperty(DECL_HANDLER_PROPERTY, null);
+            } catch (SAXException se) {
+                // Not supported by this parser; nothing to clear.
+            }
+
+            setNamespaceFeatures(reader);
+            if (m_features != null) {
+                Enumeration names = m_features.keys();
+                while (names.hasMoreElements()) {
+                    String name = (String) names.nextElement();
+                    reader.setFeature(name,
+                          ((Boolean) m_features.get(name)).booleanValue());
                 }
-            } catch (ParserConfigurationException ex) {
-                throw new SAXException(ex);
-            } catch (FactoryConfigurationError ex1) {
-                throw new SAXException(ex1.toString());
-            } catch (NoSuchMethodError ex2) {
-            } catch (AbstractMethodError ame) {
             }
+            return true;
+        } catch (SAXException se) {
+            return false;
+        } catch (RuntimeException re) {
+            return false;
+        }
+    }
+
+    /**
+     * Read the values of the {@link #CHECKED_FEATURES} and
+     * {@link #CHECKED_PROPERTIES} that the reader's class supports, so
+     * that a change made by one of its users can be found when it is
+     * released.
+     */
+    private static Object[] getConfiguration(XMLReader reader) {
+        int[] names = (int[]) m_supportedNames.get(reader.getClass());
+        if (names == null) {
+            names = getSupportedNames(reader);
+            m_supportedNames.put(reader.getClass(), names);
+        }
 
-            // Cache the XMLReader if this is the first time we've created
-            // a reader for this thread.
-            if (!threadHasReader) {
-                m_readers.set(reader);
-                m_inUse.put(reader, Boolean.TRUE);
+        Object[] config = new Object[names.length];
+        for (int i = 0; i < names.length; i++) {
+            config[i] = getValue(reader, names[i]);
+        }
+        return config;
+    }
+
+    /**
+     * Find the checked features and properties a reader supports.
+     */
+    private static int[] getSupportedNames(XMLReader reader) {
+        int[] names =
+            new int[CHECKED_FEATURES.length + CHECKED_PROPERTIES.length];
+        int n = 0;
+        for (int i = 0; i < names.length; i++) {
+            if (getValue(reader, i) != UNSUPPORTED) {
+                names[n++] = i;
             }
-        } else {
-            m_inUse.put(reader, Boolean.TRUE);
         }
 
-        return reader;
+        int[] supported = new int[n];
+        System.arraycopy(names, 0, supported, 0, n);
+        return supported;
     }
 
     /**
-     * Mark the cached XMLReader as available.  If the reader was not
-     * actually in the cache, do nothing.
+     * Read one checked feature, as a Boolean, or property of a reader.
      *
-     * @param reader The XMLReader that's being released.
+     * @param index the index of the feature in CHECKED_FEATURES, or of the
+     * property in CHECKED_PROPERTIES plus the number of features.
+     * @return the value, or {@link #UNSUPPORTED} if the reader does not
+     * recognize or support the name.
      */
-    public synchronized void releaseXMLReader(XMLReader reader) {
-        // If the reader that's being released is the cached reader
-        // for this thread, remove it from the m_isUse list.
-        if (m_readers.get() == reader && reader != null) {
-            m_inUse.remove(reader);
+    private static Object getValue(XMLReader reader, int index) {
+        try {
+            if (index < CHECKED_FEATURES.length) {
+                return reader.getFeature(CHECKED_FEATURES[index])
+                       ? Boolean.TRUE : Boolean.FALSE;
+            }
+            return reader.getProperty(
+                       CHECKED_PROPERTIES[index - CHECKED_FEATURES.length]);
+        } catch (SAXException se) {
+            return UNSUPPORTED;
+        } catch (RuntimeException re) {
+            return UNSUPPORTED;
+        }
+    }
+
+    /**
+     * Build a key that is equal for equal feature maps, independent of
+     * iteration order.
+     */
+    private static String getFeatureKey(Map features) {
+        String[] names = new String[features.size()];
+        int n = 0;
+        for (Iterator i = features.keySet().iterator(); i.hasNext(); ) {
+            names[n++] = (String) i.next();
+        }
+        Arrays.sort(names);
+
+        StringBuffer key = new StringBuffer();
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                key.append(' ');
+            }
+            key.append(names[i]).append('=').append(features.get(names[i]));
+        }
+        return key.toString();
+    }
+
+    private static int getDefaultMaxIdle() {
+        try {
+            String value = System.getProperty(MAX_IDLE_PROPERTY);
+            if (value != null) {
+                int maxIdle = Integer.parseInt(value.trim());
+                if (maxIdle >= 0) {
+                    return maxIdle;
+                }
+            }
+        } catch (NumberFormatException e) {
+            // Ignore and use the default
+        } catch (SecurityException e) {
+            // Ignore and use the default
         }
+        return DEFAULT_MAX_IDLE;
     }
 }
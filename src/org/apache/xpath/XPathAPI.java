@@ -45,7 +45,9 @@ import org.w3c.dom.traversal.NodeIterator;
  * fully up-to-date view of your document. But it's also portentially
  * very expensive, since you're rebuilding the DTM every time. You should
  * consider using an instance of CachedXPathAPI rather than these static
- * methods.
+ * methods, or turning on the
+ * {@link org.apache.xml.dtm.ref.dom2dtm.DOM2DTMCache}, which keeps the
+ * DTM of a DOM Document until the Document is changed.
  *
  * @see <a href="http://www.w3.org/TR/xpath">XPath Specification</a> 
  * */
@@ -39,6 +39,7 @@ import org.apache.xml.dtm.DTMFilter;
 import org.apache.xml.dtm.DTMIterator;
 import org.apache.xml.dtm.DTMManager;
 import org.apache.xml.dtm.DTMWSFilter;
+import org.apache.xml.dtm.ref.DTMManagerDefault;
 import org.apache.xml.dtm.ref.sax2dtm.SAX2RTFDTM;
 import org.apache.xml.utils.IntStack;
 import org.apache.xml.utils.NodeVector;
@@ -358,6 +359,21 @@ public class XPathContext extends DTMManager // implements ExpressionContext
    * Reset for new run.
    */
   public void reset()
+  {
+    reset(false);
+  }
+
+  /**
+   * Reset for new run, optionally keeping the DTMManager.  Creating a
+   * DTMManager costs more than evaluating a simple expression, so a
+   * context that is reused for many short evaluations keeps its manager
+   * and only releases the DTMs it holds.
+   *
+   * @param keepDTMManager true to release the DTMs of the current
+   * DTMManager and keep it, if it supports that; false to replace it with
+   * a new one.
+   */
+  public void reset(boolean keepDTMManager)
   {
     releaseDTMXRTreeFrags();
   	// These couldn't be disposed of earlier (see comments in release()); zap them now.
@@ -373,7 +389,10 @@ public class XPathContext extends DTMManager // implements ExpressionContext
     m_global_rtfdtm=null;
     
   	
-    m_dtmManager = DTMManager.newInstance(
+    if (keepDTMManager && m_dtmManager instanceof DTMManagerDefault)
+      ((DTMManagerDefault) m_dtmManager).releaseAll();
+    else
+      m_dtmManager = DTMManager.newInstance(
                    org.apache.xpath.objects.XMLStringFactoryImpl.getFactory());
                    
     m_saxLocations.removeAllElements();   
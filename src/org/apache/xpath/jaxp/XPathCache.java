@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// $Id$
+
+package org.apache.xpath.jaxp;
+
+import java.util.Hashtable;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.xpath.XPathFunctionResolver;
+
+import org.apache.xpath.XPath;
+
+/**
+ * A least recently used cache of compiled XPath expressions, shared by
+ * the XPath objects of one {@link XPathFactoryImpl}, so that an
+ * expression evaluated over and over through
+ * {@link XPathImpl#evaluate(String, Object, javax.xml.namespace.QName)}
+ * is only parsed and compiled once.
+ * <p>
+ * An expression is keyed by its text and by the NamespaceContext and
+ * XPathFunctionResolver it was compiled with, compared by identity: the
+ * prefixes of an expression are bound when it is compiled, so the same
+ * text with another NamespaceContext is another expression.  The
+ * XPathVariableResolver is not part of the key, as variables are only
+ * looked up when the expression is evaluated.  A compiled XPath holds no
+ * state of an evaluation, so one can be evaluated by several threads at
+ * a time.
+ *
+ * @version $Revision$
+ */
+final class XPathCache {
+
+    /**
+     * The default largest number of expressions kept.
+     */
+    static final int DEFAULT_SIZE = 256;
+
+    /**
+     * The largest number of expressions kept, 0 if none are.
+     */
+    private int maxSize;
+
+    /**
+     * The expressions, as Keys mapped to themselves.
+     */
+    private final Hashtable expressions = new Hashtable(64);
+
+    /**
+     * The Keys of the expressions, the most recently used first.
+     */
+    private Key head;
+    private Key tail;
+
+    /**
+     * The number of expressions found in the cache.
+     */
+    private long hits;
+
+    /**
+     * The number of expressions not found in the cache.
+     */
+    private long misses;
+
+    /**
+     * @param maxSize The largest number of expressions to keep.
+     */
+    XPathCache( int maxSize ) {
+        this.maxSize = Math.max( 0, maxSize );
+    }
+
+    /**
+     * Look up a compiled expression.
+     *
+     * @param expression The text of the expression.
+     * @param nsContext The NamespaceContext it is compiled with, or null.
+     * @param functionResolver The XPathFunctionResolver it is compiled
+     * with, or null.
+     * @return The compiled expression, or null if it is not in the cache.
+     */
+    synchronized XPath get( String expression, NamespaceContext nsContext,
+            XPathFunctionResolver functionResolver ) {
+        Key key = (Key) expressions.get(
+                new Key( expression, nsContext, functionResolver ) );
+        if ( key == null ) {
+            misses++;
+            return null;
+        }
+        hits++;
+        if ( key != head ) {
+            unlink( key );
+            linkFirst( key );
+        }
+        return key.xpath;
+    }
+
+    /**
+     * Add a compiled expression, evicting the least recently used ones if
+     * the cache is full.
+     */
+    synchronized void put( String expression, NamespaceContext nsContext,
+            XPathFunctionResolver functionResolver, XPath xpath ) {
+        if ( maxSize == 0 ) {
+            return;
+        }
+        Key key = new Key( expression, nsContext, functionResolver );
+        key.xpath = xpath;
+        Key old = (Key) expressions.put( key, key );
+        if ( old != null ) {
+            unlink( old );
+        }
+        linkFirst( key );
+        trim();
+    }
+
+    /**
+     * Remove all the expressions.
+     */
+    synchronized void clear() {
+        expressions.clear();
+        head = tail = null;
+    }
+
+    /**
+     * Change the largest number of expressions kept, evicting the least
+     * recently used ones if there are more.
+     *
+     * @param maxSize The largest number of expressions, 0 to keep none.
+     */
+    synchronized void setMaxSize( int maxSize ) {
+        this.maxSize = Math.max( 0, maxSize );
+        trim();
+    }
+
+    synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    synchronized int size() {
+        return expressions.size();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    private void trim() {
+        while ( expressions.size() > maxSize ) {
+            Key key = tail;
+            expressions.remove( key );
+            unlink( key );
+        }
+    }
+
+    private void linkFirst( Key key ) {
+        key.prev = null;
+        key.next = head;
+        if ( head != null ) {
+            head.prev = key;
+        }
+        head = key;
+        if ( tail == null ) {
+            tail = key;
+        }
+    }
+
+    private void unlink( Key key ) {
+        if ( key.prev != null ) {
+            key.prev.next = key.next;
+        } else {
+            head = key.next;
+        }
+        if ( key.next != null ) {
+            key.next.prev = key.prev;
+        } else {
+            tail = key.prev;
+        }
+        key.prev = key.next = null;
+    }
+
+    /**
+     * The key of an expression.  The Key in the cache also holds the
+     * compiled expression and its place on the list from head to tail.
+     */
+    private static final class Key {
+        private final String expression;
+        private final NamespaceContext nsContext;
+        private final XPathFunctionResolver functionResolver;
+        private final int hash;
+        XPath xpath;
+        Key prev;
+        Key next;
+
+        Key( String expression, NamespaceContext nsContext,
+                XPathFunctionResolver functionResolver ) {
+            this.expression = expression;
+            this.nsContext = nsContext;
+            this.functionResolver = functionResolver;
+            this.hash = expression.hashCode()
+                    + 31 * System.identityHashCode( nsContext )
+                    + 961 * System.identityHashCode( functionResolver );
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals( Object o ) {
+            if ( !( o instanceof Key ) ) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash
+                    && nsContext == other.nsContext
+                    && functionResolver == other.functionResolver
+                    && expression.equals( other.expression );
+        }
+    }
+}
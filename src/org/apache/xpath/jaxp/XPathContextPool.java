@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// $Id$
+
+package org.apache.xpath.jaxp;
+
+import javax.xml.xpath.XPathFunctionResolver;
+import javax.xml.xpath.XPathVariableResolver;
+
+import org.apache.xpath.XPathContext;
+
+/**
+ * A pool of the XPathContexts that JAXP expressions are evaluated with.
+ * An XPathContext, with its DTMManager, stacks and JAXPVariableStack, costs
+ * far more to create than most expressions cost to evaluate, so each
+ * evaluation borrows one set up for the resolvers of the expression and
+ * gives it back when the result has been converted.  A context given back
+ * is reset: the DTMs made of the evaluation's DOM nodes are released, but
+ * its DTMManager is kept.
+ * <p>
+ * Each thread that evaluates at the same time gets a context of its own,
+ * so one XPathExpression can be evaluated by several threads at a time.
+ *
+ * @version $Revision$
+ */
+final class XPathContextPool {
+
+    /**
+     * The largest number of idle contexts kept.
+     */
+    static final int MAX_IDLE = 16;
+
+    private final XPathFunctionResolver functionResolver;
+    private final XPathVariableResolver variableResolver;
+    private final boolean featureSecureProcessing;
+
+    /**
+     * The idle contexts, the most recently used last.
+     */
+    private final XPathContext[] idle = new XPathContext[MAX_IDLE];
+    private int idleCount = 0;
+
+    XPathContextPool( XPathFunctionResolver functionResolver,
+            XPathVariableResolver variableResolver,
+            boolean featureSecureProcessing ) {
+        this.functionResolver = functionResolver;
+        this.variableResolver = variableResolver;
+        this.featureSecureProcessing = featureSecureProcessing;
+    }
+
+    /**
+     * @return true if the contexts of this pool are set up for the given
+     * resolvers.
+     */
+    boolean isFor( XPathFunctionResolver functionResolver,
+            XPathVariableResolver variableResolver,
+            boolean featureSecureProcessing ) {
+        return this.functionResolver == functionResolver
+                && this.variableResolver == variableResolver
+                && this.featureSecureProcessing == featureSecureProcessing;
+    }
+
+    /**
+     * Borrow a context, to be given back with {@link #release}.
+     */
+    XPathContext getContext() {
+        synchronized ( this ) {
+            if ( idleCount > 0 ) {
+                XPathContext xctxt = idle[--idleCount];
+                idle[idleCount] = null;
+                return xctxt;
+            }
+        }
+
+        // Create an XPathContext that doesn't support pushing and popping of
+        // variable resolution scopes.  Sufficient for simple XPath 1.0
+        // expressions.
+        XPathContext xctxt;
+        if ( functionResolver != null ) {
+            JAXPExtensionsProvider jep = new JAXPExtensionsProvider(
+                    functionResolver, featureSecureProcessing );
+            xctxt = new XPathContext( jep, false );
+        } else {
+            xctxt = new XPathContext( false );
+        }
+        xctxt.setVarStack( new JAXPVariableStack( variableResolver ) );
+        return xctxt;
+    }
+
+    /**
+     * Give back a context.  The caller must not use it, or anything it
+     * returned, afterwards.
+     */
+    void release( XPathContext xctxt ) {
+        try {
+            xctxt.reset( true );
+        } catch ( RuntimeException e ) {
+            // Not reusable
+            return;
+        }
+
+        synchronized ( this ) {
+            if ( idleCount < idle.length ) {
+                idle[idleCount++] = xctxt;
+            }
+        }
+    }
+}
@@ -28,6 +28,7 @@ import javax.xml.xpath.XPathFunctionResolver;
 import javax.xml.xpath.XPathVariableResolver;
 
 import org.apache.xalan.res.XSLMessages;
+import org.apache.xpath.NodeSet;
 import org.apache.xpath.objects.XObject;
 import org.apache.xpath.res.XPATHErrorResources;
 import org.w3c.dom.DOMImplementation;
@@ -44,30 +45,33 @@ import org.xml.sax.InputSource;
  */
 public class XPathExpressionImpl  implements javax.xml.xpath.XPathExpression{
 
-    private XPathFunctionResolver functionResolver;
-    private XPathVariableResolver variableResolver;
-    private JAXPPrefixResolver prefixResolver;
-    private org.apache.xpath.XPath xpath;
+    private final XPathFunctionResolver functionResolver;
+    private final XPathVariableResolver variableResolver;
+    private final JAXPPrefixResolver prefixResolver;
+    private volatile org.apache.xpath.XPath xpath;
 
     // By default Extension Functions are allowed in XPath Expressions. If
     // Secure Processing Feature is set on XPathFactory then the invocation of
     // extensions function need to throw XPathFunctionException
-    private boolean featureSecureProcessing = false;
+    private final boolean featureSecureProcessing;
+
+    // The contexts the expression is evaluated with, one for each thread
+    // evaluating it at a time
+    private final XPathContextPool contexts;
 
     /** Protected constructor to prevent direct instantiation; use compile()
      * from the context.
      */
-    protected XPathExpressionImpl() { };
+    protected XPathExpressionImpl() {
+        this( null, null, null, null, false );
+    };
 
     protected XPathExpressionImpl(org.apache.xpath.XPath xpath, 
             JAXPPrefixResolver prefixResolver, 
             XPathFunctionResolver functionResolver,
             XPathVariableResolver variableResolver ) { 
-        this.xpath = xpath;
-        this.prefixResolver = prefixResolver;
-        this.functionResolver = functionResolver;
-        this.variableResolver = variableResolver;
-        this.featureSecureProcessing = false;
+        this( xpath, prefixResolver, functionResolver, variableResolver,
+                false );
     };
 
     protected XPathExpressionImpl(org.apache.xpath.XPath xpath,
@@ -75,11 +79,23 @@ public class XPathExpressionImpl  implements javax.xml.xpath.XPathExpression{
             XPathFunctionResolver functionResolver,
             XPathVariableResolver variableResolver,
             boolean featureSecureProcessing ) { 
+        this( xpath, prefixResolver, functionResolver, variableResolver,
+                featureSecureProcessing,
+                new XPathContextPool( functionResolver, variableResolver,
+                        featureSecureProcessing ) );
+    };
+
+    XPathExpressionImpl(org.apache.xpath.XPath xpath,
+            JAXPPrefixResolver prefixResolver,
+            XPathFunctionResolver functionResolver,
+            XPathVariableResolver variableResolver,
+            boolean featureSecureProcessing, XPathContextPool contexts ) { 
         this.xpath = xpath;
         this.prefixResolver = prefixResolver;
         this.functionResolver = functionResolver;
         this.variableResolver = variableResolver;
         this.featureSecureProcessing = featureSecureProcessing;
+        this.contexts = contexts;
     };
 
     public void setXPath (org.apache.xpath.XPath xpath ) {
@@ -88,28 +104,19 @@ public class XPathExpressionImpl  implements javax.xml.xpath.XPathExpression{
 
     public Object eval(Object item, QName returnType)
             throws javax.xml.transform.TransformerException {
-        XObject resultObject = eval ( item );
-        return getResultAsType( resultObject, returnType );
+        org.apache.xpath.XPathContext xpathSupport = contexts.getContext();
+        try {
+            XObject resultObject = eval( xpathSupport, item );
+            return getResultAsType( resultObject, returnType );
+        } finally {
+            // The result no longer refers to the context or its DTMs
+            contexts.release( xpathSupport );
+        }
     }
     
-    private XObject eval ( Object contextItem )
+    private XObject eval ( org.apache.xpath.XPathContext xpathSupport,
+            Object contextItem )
             throws javax.xml.transform.TransformerException {
-        org.apache.xpath.XPathContext xpathSupport = null;
-
-        // Create an XPathContext that doesn't support pushing and popping of
-        // variable resolution scopes.  Sufficient for simple XPath 1.0
-        // expressions.
-        if ( functionResolver != null ) {
-            JAXPExtensionsProvider jep = new JAXPExtensionsProvider(
-                    functionResolver, featureSecureProcessing );
-            xpathSupport = new org.apache.xpath.XPathContext(jep, false);
-        } else {
-            xpathSupport = new org.apache.xpath.XPathContext(false);
-        }
-
-        xpathSupport.setVarStack(new JAXPVariableStack(variableResolver));
-        XObject xobj = null;
-          
         Node contextNode = (Node)contextItem;
         // We always need to have a ContextNode with Xalan XPath implementation
         // To allow simple expression evaluation like 1+1 we are setting 
@@ -118,8 +125,7 @@ public class XPathExpressionImpl  implements javax.xml.xpath.XPathExpression{
               contextNode = getDummyDocument();
         } 
 
-        xobj = xpath.execute(xpathSupport, contextNode, prefixResolver );
-        return xobj;
+        return xpath.execute(xpathSupport, contextNode, prefixResolver );
     }
 
 
@@ -223,9 +229,23 @@ public class XPathExpressionImpl  implements javax.xml.xpath.XPathExpression{
 
 
 
-    static DocumentBuilderFactory dbf = null;
-    static DocumentBuilder db = null;
-    static Document d = null;
+    private static DocumentBuilderFactory dbf = null;
+    private static Document d = null;
+
+    /**
+     * Get the factory for the DocumentBuilders that parse InputSources.
+     * A DocumentBuilder is not thread-safe, so each parse has its own.
+     */
+    private static synchronized DocumentBuilderFactory getFactory() {
+        if ( dbf == null ) {
+            DocumentBuilderFactory factory =
+                DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware( true );
+            factory.setValidating( false );
+            dbf = factory;
+        }
+        return dbf;
+    }
 
     /**
      * <p>Evaluate the compiled XPath expression in the context of the 
@@ -278,12 +298,10 @@ public class XPathExpressionImpl  implements javax.xml.xpath.XPathExpression{
             throw new IllegalArgumentException ( fmsg );
         }
         try {
-            if ( dbf == null ) {
-                dbf = DocumentBuilderFactory.newInstance();
-                dbf.setNamespaceAware( true );
-                dbf.setValidating( false );
+            DocumentBuilder db;
+            synchronized ( XPathExpressionImpl.class ) {
+                db = getFactory().newDocumentBuilder();
             }
-            db = dbf.newDocumentBuilder();
             Document document = db.parse( source );
             return eval(  document, returnType );
         } catch ( Exception e ) {
@@ -346,7 +364,9 @@ public class XPathExpressionImpl  implements javax.xml.xpath.XPathExpression{
         }
         // XPathConstants.NODESET ---ORdered, UNOrdered???
         if ( returnType.equals( XPathConstants.NODESET ) ) {
-            return resultObject.nodelist();
+            // Copied out, as the context the nodes were found with is
+            // reused
+            return new NodeSet( resultObject.nodeset() );
         }
         // XPathConstants.NODE
         if ( returnType.equals( XPathConstants.NODE ) ) {
@@ -363,26 +383,22 @@ public class XPathExpressionImpl  implements javax.xml.xpath.XPathExpression{
     }
 
 
-    private static Document getDummyDocument( ) {
-        try {
-            if ( dbf == null ) {
-                dbf = DocumentBuilderFactory.newInstance();
-                dbf.setNamespaceAware( true );
-                dbf.setValidating( false );
+    /**
+     * Get the empty document that an expression is evaluated on when it is
+     * given no context item.  It is created once and only ever read.
+     */
+    private static synchronized Document getDummyDocument( ) {
+        if ( d == null ) {
+            try {
+                DOMImplementation dim =
+                    getFactory().newDocumentBuilder().getDOMImplementation();
+                d = dim.createDocument("http://java.sun.com/jaxp/xpath",
+                    "dummyroot", null);
+            } catch ( Exception e ) {
+                e.printStackTrace();
             }
-            db = dbf.newDocumentBuilder();
-
-            DOMImplementation dim = db.getDOMImplementation();
-            d = dim.createDocument("http://java.sun.com/jaxp/xpath",
-                "dummyroot", null);
-            return d;
-        } catch ( Exception e ) {
-            e.printStackTrace();
         }
-        return null;
+        return d;
     }
 
-
-
-
 }
@@ -55,6 +55,12 @@ public class XPathFactoryImpl extends XPathFactory {
 	 * <p>State of secure processing feature.</p>
 	 */
 	private boolean featureSecureProcessing = false;
+
+	/**
+	 * <p>The compiled expressions shared by the XPaths of this factory.</p>
+	 */
+	private final XPathCache xpathCache =
+	        new XPathCache(XPathCache.DEFAULT_SIZE);
 		
 	/**
 	 * <p>Is specified object model supported by this 
@@ -104,7 +110,62 @@ public class XPathFactoryImpl extends XPathFactory {
 	public javax.xml.xpath.XPath newXPath() {
 	    return new org.apache.xpath.jaxp.XPathImpl(
                     xPathVariableResolver, xPathFunctionResolver,
-                    featureSecureProcessing );
+                    featureSecureProcessing, xpathCache );
+	}
+
+	/**
+	 * <p>Set the largest number of compiled expressions kept for the
+	 * <code>XPath</code>s of this factory.  An expression evaluated with
+	 * {@link javax.xml.xpath.XPath#evaluate(String, Object,
+	 * javax.xml.namespace.QName)} or compiled with
+	 * {@link javax.xml.xpath.XPath#compile(String)} is taken from the
+	 * cache if one of the <code>XPath</code>s compiled the same text with
+	 * the same <code>NamespaceContext</code> and
+	 * <code>XPathFunctionResolver</code> objects before.  The least
+	 * recently used expressions are dropped when the cache is full.</p>
+	 *
+	 * @param size The largest number of expressions, 0 to compile every
+	 * expression anew.  The default is 256.
+	 */
+	public void setExpressionCacheSize(int size) {
+	    xpathCache.setMaxSize(size);
+	}
+
+	/**
+	 * @return The largest number of compiled expressions kept.
+	 */
+	public int getExpressionCacheSize() {
+	    return xpathCache.getMaxSize();
+	}
+
+	/**
+	 * @return The number of compiled expressions in the cache.
+	 */
+	public int getCachedExpressionCount() {
+	    return xpathCache.size();
+	}
+
+	/**
+	 * @return The number of expressions that were found in the cache.
+	 */
+	public long getExpressionCacheHits() {
+	    return xpathCache.getHits();
+	}
+
+	/**
+	 * @return The number of expressions that were not found in the cache
+	 * and were compiled.
+	 */
+	public long getExpressionCacheMisses() {
+	    return xpathCache.getMisses();
+	}
+
+	/**
+	 * <p>Drop all the compiled expressions, for example after changing
+	 * the bindings of a <code>NamespaceContext</code> in use.</p>
+	 */
+	public void clearExpressionCache() {
+	    xpathCache.clear();
 	}
 	    
 	/**
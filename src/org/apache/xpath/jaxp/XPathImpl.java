@@ -67,17 +67,29 @@ public class XPathImpl implements javax.xml.xpath.XPath {
     // Secure Processing Feature is set on XPathFactory then the invocation of
     // extensions function need to throw XPathFunctionException
     private boolean featureSecureProcessing = false; 
+    // The compiled expressions shared with the other XPaths of the factory,
+    // or null if expressions are compiled for every evaluation
+    private final XPathCache xpathCache;
+    // The contexts expressions are evaluated with, for the current resolvers
+    private XPathContextPool contexts;
 
     XPathImpl( XPathVariableResolver vr, XPathFunctionResolver fr ) {
         this.origVariableResolver = this.variableResolver = vr;
         this.origFunctionResolver = this.functionResolver = fr;
+        this.xpathCache = null;
     }
 
     XPathImpl( XPathVariableResolver vr, XPathFunctionResolver fr, 
             boolean featureSecureProcessing ) {
+        this( vr, fr, featureSecureProcessing, null );
+    }
+
+    XPathImpl( XPathVariableResolver vr, XPathFunctionResolver fr, 
+            boolean featureSecureProcessing, XPathCache xpathCache ) {
         this.origVariableResolver = this.variableResolver = vr;
         this.origFunctionResolver = this.functionResolver = fr;
         this.featureSecureProcessing = featureSecureProcessing;
+        this.xpathCache = xpathCache;
     }
 
     /**
@@ -189,37 +201,66 @@ public class XPathImpl implements javax.xml.xpath.XPath {
         return d;
     }
 
-    
-    private XObject eval(String expression, Object contextItem)
+    /**
+     * Get the compiled form of an expression, from the factory's cache if
+     * it was compiled before with the same namespace context and function
+     * resolver.
+     */
+    private org.apache.xpath.XPath getXPath(String expression)
         throws javax.xml.transform.TransformerException {
-        org.apache.xpath.XPath xpath = new org.apache.xpath.XPath( expression,
-            null, prefixResolver, org.apache.xpath.XPath.SELECT ); 
-        org.apache.xpath.XPathContext xpathSupport = null;
-
-        // Create an XPathContext that doesn't support pushing and popping of
-        // variable resolution scopes.  Sufficient for simple XPath 1.0
-        // expressions.
-        if ( functionResolver != null ) {
-            JAXPExtensionsProvider jep = new JAXPExtensionsProvider(
-                    functionResolver, featureSecureProcessing );
-            xpathSupport = new org.apache.xpath.XPathContext(jep, false);
-        } else { 
-            xpathSupport = new org.apache.xpath.XPathContext(false);
+        if ( xpathCache == null ) {
+            return new org.apache.xpath.XPath( expression, null,
+                prefixResolver, org.apache.xpath.XPath.SELECT );
         }
 
-        XObject xobj = null;
-        
-        xpathSupport.setVarStack(new JAXPVariableStack(variableResolver));
-        
-        // If item is null, then we will create a a Dummy contextNode
-        if ( contextItem instanceof Node ) {
-            xobj = xpath.execute (xpathSupport, (Node)contextItem,
-                    prefixResolver );
-        } else {
-            xobj = xpath.execute ( xpathSupport, DTM.NULL, prefixResolver );
+        org.apache.xpath.XPath xpath = xpathCache.get( expression,
+            namespaceContext, functionResolver );
+        if ( xpath == null ) {
+            xpath = new org.apache.xpath.XPath( expression, null,
+                prefixResolver, org.apache.xpath.XPath.SELECT );
+            xpathCache.put( expression, namespaceContext, functionResolver,
+                xpath );
+        }
+        return xpath;
+    }
+    
+    /**
+     * Get the pool of contexts for the current resolvers, shared with the
+     * expressions compiled with them.
+     */
+    private XPathContextPool getContextPool() {
+        XPathContextPool pool = contexts;
+        if ( pool == null || !pool.isFor( functionResolver, variableResolver,
+                featureSecureProcessing ) ) {
+            pool = new XPathContextPool( functionResolver, variableResolver,
+                    featureSecureProcessing );
+            contexts = pool;
+        }
+        return pool;
+    }
+
+    private Object eval(String expression, Object contextItem,
+            QName returnType)
+        throws javax.xml.transform.TransformerException {
+        org.apache.xpath.XPath xpath = getXPath( expression );
+        XPathContextPool pool = getContextPool();
+        org.apache.xpath.XPathContext xpathSupport = pool.getContext();
+        try {
+            XObject xobj = null;
+
+            // If item is null, then we will create a a Dummy contextNode
+            if ( contextItem instanceof Node ) {
+                xobj = xpath.execute (xpathSupport, (Node)contextItem,
+                        prefixResolver );
+            } else {
+                xobj = xpath.execute ( xpathSupport, DTM.NULL, prefixResolver );
+            }
+
+            return getResultAsType( xobj, returnType );
+        } finally {
+            // The result no longer refers to the context or its DTMs
+            pool.release( xpathSupport );
         }
- 
-        return xobj;
     }
         
     /**
@@ -278,8 +319,7 @@ public class XPathImpl implements javax.xml.xpath.XPath {
 
         try {
  
-            XObject resultObject = eval( expression, item );
-            return getResultAsType( resultObject, returnType );
+            return eval( expression, item, returnType );
         } catch ( java.lang.NullPointerException npe ) {
             // If VariableResolver returns null Or if we get 
             // NullPointerException at this stage for some other reason
@@ -326,7 +366,9 @@ public class XPathImpl implements javax.xml.xpath.XPath {
         }
         // XPathConstants.NODESET ---ORdered, UNOrdered???
         if ( returnType.equals( XPathConstants.NODESET ) ) { 
-            return resultObject.nodelist();
+            // Copied out, as the context the nodes were found with is
+            // reused
+            return new org.apache.xpath.NodeSet( resultObject.nodeset() );
         }
         // XPathConstants.NODE
         if ( returnType.equals( XPathConstants.NODE ) ) { 
@@ -397,12 +439,11 @@ public class XPathImpl implements javax.xml.xpath.XPath {
             throw new NullPointerException ( fmsg );
         }
         try {
-            org.apache.xpath.XPath xpath = new XPath (expression, null,
-                    prefixResolver, org.apache.xpath.XPath.SELECT );
+            org.apache.xpath.XPath xpath = getXPath( expression );
             // Can have errorListener
             XPathExpressionImpl ximpl = new XPathExpressionImpl (xpath,
                     prefixResolver, functionResolver, variableResolver,
-                    featureSecureProcessing );
+                    featureSecureProcessing, getContextPool() );
             return ximpl;
         } catch ( javax.xml.transform.TransformerException te ) {
             throw new XPathExpressionException ( te ) ;
@@ -473,8 +514,7 @@ public class XPathImpl implements javax.xml.xpath.XPath {
 
             Document document = getParser().parse( source );
 
-            XObject resultObject = eval( expression, document );
-            return getResultAsType( resultObject, returnType );
+            return eval( expression, document, returnType );
         } catch ( SAXException e ) {
             throw new XPathExpressionException ( e );
         } catch( IOException e ) {
@@ -540,6 +580,7 @@ public class XPathImpl implements javax.xml.xpath.XPath {
         this.variableResolver = this.origVariableResolver;
         this.functionResolver = this.origFunctionResolver;
         this.namespaceContext = null;
+        this.prefixResolver = null;
     }
  
 }